@@ -16,24 +16,118 @@
 package io.kaitai.struct;
 
 import io.kaitai.struct.KaitaiStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.Arrays;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import org.exbin.auxiliary.binary_data.EditableBinaryData;
 
 /**
  * Binary data kaitai stream.
+ * <p>
+ * Data are read using local window buffer which is filled from aligned chunks
+ * of source data, window size of zero switches to per-byte access.
  */
 @NullMarked
-public class BinaryDataKaitaiStream extends KaitaiStream {
+public class BinaryDataKaitaiStream extends KaitaiStream implements KaitaiSourceStream {
+
+    public static final int DEFAULT_WINDOW_SIZE = 65536;
+    /**
+     * Extra space in window to make primitive values crossing chunk boundary
+     * available without reloading.
+     */
+    protected static final int WINDOW_OVERLAP = 8;
 
     protected final EditableBinaryData binaryData;
+    protected final long offset;
+    protected final long dataSize;
+    protected final int windowSize;
+    protected final byte[] window;
+    protected long windowStart = 0;
+    protected int windowLength = 0;
     protected long position;
+    protected StreamStatistics statistics = null;
+    protected StreamCancellation cancellation = null;
+    protected StreamLimits limits = null;
 
     public BinaryDataKaitaiStream(EditableBinaryData binaryData) {
+        this(binaryData, DEFAULT_WINDOW_SIZE);
+    }
+
+    public BinaryDataKaitaiStream(EditableBinaryData binaryData, int windowSize) {
+        this(binaryData, 0, binaryData.getDataSize(), windowSize);
+    }
+
+    protected BinaryDataKaitaiStream(EditableBinaryData binaryData, long offset, long dataSize, int windowSize) {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Window size cannot be negative: " + windowSize);
+        }
         this.binaryData = binaryData;
+        this.offset = offset;
+        this.dataSize = dataSize;
+        this.windowSize = windowSize;
+        window = new byte[windowSize + WINDOW_OVERLAP];
+    }
+
+    /**
+     * Creates stream reading directly from data array used as window covering
+     * all data.
+     *
+     * @param binaryData binary data
+     * @param offset offset of the stream in binary data
+     * @param dataSize size of the stream
+     * @param data data array of binary data
+     */
+    protected BinaryDataKaitaiStream(EditableBinaryData binaryData, long offset, long dataSize, byte[] data) {
+        this.binaryData = binaryData;
+        this.offset = offset;
+        this.dataSize = dataSize;
+        windowSize = data.length;
+        window = data;
+        windowStart = -offset;
+        windowLength = data.length;
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Nullable
+    @Override
+    public StreamStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void setStatistics(@Nullable StreamStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Nullable
+    @Override
+    public StreamCancellation getCancellation() {
+        return cancellation;
+    }
+
+    @Override
+    public void setCancellation(@Nullable StreamCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    @Nullable
+    @Override
+    public StreamLimits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public void setLimits(@Nullable StreamLimits limits) {
+        this.limits = limits;
     }
 
     @Override
@@ -42,7 +136,7 @@ public class BinaryDataKaitaiStream extends KaitaiStream {
 
     @Override
     public boolean isEof() {
-        return position >= binaryData.getDataSize();
+        return position >= dataSize && (bitsWriteMode || bitsLeft == 0);
     }
 
     @Override
@@ -58,169 +152,279 @@ public class BinaryDataKaitaiStream extends KaitaiStream {
             alignToByte();
         }
 
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.checkTime(offset + this.position);
+        }
+        if (statistics != null) {
+            statistics.recordSeek(offset + this.position, offset + position);
+        }
+        if (position < windowStart || position >= windowStart + windowLength) {
+            windowLength = 0;
+        }
         this.position = position;
     }
 
+    /**
+     * Returns current position.
+     *
+     * @return position
+     * @throws IllegalStateException if position doesn't fit into int, use
+     * {@link #getPosition()} instead
+     */
     @Override
     public int pos() {
+        if (position > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Position " + position + " exceeds integer range");
+        }
         return (int) position;
     }
 
     @Override
-    public long size() {
-        return binaryData.getDataSize();
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns current position of the given stream without limitation to int
+     * range if supported by the stream.
+     *
+     * @param stream stream
+     * @return position
+     */
+    public static long position(KaitaiStream stream) {
+        if (stream instanceof KaitaiSourceStream) {
+            return ((KaitaiSourceStream) stream).getPosition();
+        }
+        return stream.pos();
+    }
+
+    /**
+     * Returns current position of the given stream in source data, which
+     * includes offset of the substream if supported by the stream.
+     *
+     * @param stream stream
+     * @return absolute position
+     */
+    public static long absolutePosition(KaitaiStream stream) {
+        if (stream instanceof KaitaiSourceStream) {
+            KaitaiSourceStream sourceStream = (KaitaiSourceStream) stream;
+            return sourceStream.getOffset() + sourceStream.getPosition();
+        }
+        return stream.pos();
+    }
+
+    /**
+     * Returns current absolute position of the given stream and reports start
+     * of the field to limits of the stream.
+     *
+     * @param stream stream
+     * @param field field name
+     * @return absolute position
+     */
+    public static long fieldStart(KaitaiStream stream, String field) {
+        long position = absolutePosition(stream);
+        StreamLimits limits = getLimits(stream);
+        if (limits != null) {
+            limits.fieldStarted(field, position);
+        }
+        return position;
+    }
+
+    /**
+     * Returns current absolute position of the given stream and reports start
+     * of the element of the repeated field to limits of the stream.
+     *
+     * @param stream stream
+     * @param field field name
+     * @param index index of the element
+     * @return absolute position
+     */
+    public static long elementStart(KaitaiStream stream, String field, int index) {
+        long position = absolutePosition(stream);
+        StreamLimits limits = getLimits(stream);
+        if (limits != null) {
+            limits.elementStarted(field, position, index);
+        }
+        return position;
+    }
+
+    /**
+     * Reads nested structure and tracks nesting depth in limits of the stream
+     * of the parent structure.
+     *
+     * @param parentStream stream of the parent structure
+     * @param struct nested structure
+     */
+    public static void readNested(KaitaiStream parentStream, KaitaiStruct.ReadOnly struct) {
+        StreamLimits limits = getLimits(parentStream);
+        if (limits == null) {
+            struct._read();
+            return;
+        }
+
+        limits.enterStruct(absolutePosition(parentStream));
+        try {
+            struct._read();
+        } finally {
+            limits.exitStruct();
+        }
+    }
+
+    @Nullable
+    private static StreamLimits getLimits(KaitaiStream stream) {
+        return stream instanceof KaitaiSourceStream ? ((KaitaiSourceStream) stream).getLimits() : null;
     }
 
     @Override
-    public byte readS1() {
-        alignToByte();
-        if (position + 1 >= size()) {
+    public long size() {
+        return dataSize;
+    }
+
+    /**
+     * Makes given count of bytes starting at current position available in
+     * window buffer.
+     *
+     * @param count count of bytes, at most {@link #WINDOW_OVERLAP}
+     * @return offset of the current position in window buffer
+     */
+    protected int fetch(int count) {
+        if (position < 0 || position + count > dataSize) {
             throw new RuntimeException(new EOFException());
         }
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordRead(offset + position, count);
+        }
+        if (statistics != null) {
+            statistics.recordPrimitiveRead(offset + position, count);
+        }
+
+        if (windowSize == 0) {
+            for (int i = 0; i < count; i++) {
+                window[i] = binaryData.getByte(offset + position + i);
+            }
+            return 0;
+        }
 
-        byte result = binaryData.getByte(position);
+        if (position < windowStart || position + count > windowStart + windowLength) {
+            loadWindow(position);
+        }
+        return (int) (position - windowStart);
+    }
+
+    /**
+     * Loads window with aligned chunk of data containing given position.
+     *
+     * @param targetPosition position
+     */
+    protected void loadWindow(long targetPosition) {
+        windowStart = targetPosition - ((offset + targetPosition) % windowSize);
+        if (windowStart < 0) {
+            windowStart = 0;
+        }
+        windowLength = (int) Math.min(window.length, dataSize - windowStart);
+        binaryData.copyToArray(offset + windowStart, window, 0, windowLength);
+    }
+
+    @Override
+    public byte readS1() {
+        alignToByte();
+        int offset = fetch(1);
         position++;
-        return result;
+        return window[offset];
     }
 
     @Override
     public short readS2be() {
         alignToByte();
-        if (position + 2 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
+        int offset = fetch(2);
         position += 2;
-        return (short) ((b1 << 8) | (b2 & 0xff));
+        return (short) ((window[offset] << 8) | (window[offset + 1] & 0xff));
     }
 
     @Override
     public int readS4be() {
         alignToByte();
-        if (position + 4 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
-        byte b3 = binaryData.getByte(position + 2);
-        byte b4 = binaryData.getByte(position + 3);
+        int offset = fetch(4);
         position += 4;
-        return (b1 << 24) | ((b2 & 0xff) << 16) | ((b3 & 0xff) << 8) | (b4 & 0xff);
+        return decodeS4be(window, offset);
     }
 
     @Override
     public long readS8be() {
         alignToByte();
-        long b1 = readU4be();
-        long b2 = readU4be();
-        return (b1 << 32) + b2;
+        int offset = fetch(8);
+        position += 8;
+        return ((long) decodeS4be(window, offset) << 32) | (decodeS4be(window, offset + 4) & 0xffffffffL);
     }
 
     @Override
     public short readS2le() {
         alignToByte();
-        if (position + 2 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
+        int offset = fetch(2);
         position += 2;
-        return (short) ((b2 << 8) + (b1 & 0xff));
+        return (short) ((window[offset + 1] << 8) | (window[offset] & 0xff));
     }
 
     @Override
     public int readS4le() {
         alignToByte();
-        if (position + 4 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
-        byte b3 = binaryData.getByte(position + 2);
-        byte b4 = binaryData.getByte(position + 3);
+        int offset = fetch(4);
         position += 4;
-        return (b4 << 24) | ((b3 & 0xff) << 16) | ((b2 & 0xff) << 8) | (b1 & 0xff);
+        return decodeS4le(window, offset);
     }
 
     @Override
     public long readS8le() {
         alignToByte();
-        long b1 = readU4le();
-        long b2 = readU4le();
-        return (b2 << 32) + b1;
+        int offset = fetch(8);
+        position += 8;
+        return ((long) decodeS4le(window, offset + 4) << 32) | (decodeS4le(window, offset) & 0xffffffffL);
     }
 
     @Override
     public int readU1() {
         alignToByte();
-        if (position + 1 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte result = binaryData.getByte(position);
+        int offset = fetch(1);
         position++;
-        return result & 0xff;
+        return window[offset] & 0xff;
     }
 
     @Override
     public int readU2be() {
         alignToByte();
-        if (position + 2 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
+        int offset = fetch(2);
         position += 2;
-        return (short) ((b1 << 8) | (b2 | 0xff));
+        return ((window[offset] & 0xff) << 8) | (window[offset + 1] & 0xff);
     }
 
     @Override
     public long readU4be() {
         alignToByte();
-        if (position + 4 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
-        byte b3 = binaryData.getByte(position + 2);
-        byte b4 = binaryData.getByte(position + 3);
+        int offset = fetch(4);
         position += 4;
-        return ((b1 & 0xff) << 24) | ((b2 & 0xff) << 16) | ((b3 & 0xff) << 8) | (b4 & 0xff);
+        return decodeS4be(window, offset) & 0xffffffffL;
     }
 
     @Override
     public int readU2le() {
         alignToByte();
-        if (position + 2 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
+        int offset = fetch(2);
         position += 2;
-        return (short) (((b2 & 0xff) << 8) | (b1 & 0xff));
+        return ((window[offset + 1] & 0xff) << 8) | (window[offset] & 0xff);
     }
 
     @Override
     public long readU4le() {
         alignToByte();
-        if (position + 4 >= size()) {
-            throw new RuntimeException(new EOFException());
-        }
-
-        byte b1 = binaryData.getByte(position);
-        byte b2 = binaryData.getByte(position + 1);
-        byte b3 = binaryData.getByte(position + 2);
-        byte b4 = binaryData.getByte(position + 3);
+        int offset = fetch(4);
         position += 4;
-        return ((b4 & 0xff) << 24) | ((b3 & 0xff) << 16) | ((b2 & 0xff) << 8) | (b1 & 0xff);
+        return decodeS4le(window, offset) & 0xffffffffL;
     }
 
     @Override
@@ -243,77 +447,276 @@ public class BinaryDataKaitaiStream extends KaitaiStream {
         return Double.longBitsToDouble(readS8le());
     }
 
+    /**
+     * Reads big-endian bit-sized integer.
+     * <p>
+     * Unlike inherited implementation, bytes are taken directly from the
+     * window without allocating temporary array.
+     *
+     * @param n count of bits, at most 64
+     * @return value
+     */
+    @Override
+    public long readBitsIntBe(int n) {
+        bitsWriteMode = false;
+
+        long res = 0;
+        int bitsNeeded = n - bitsLeft;
+        bitsLeft = -bitsNeeded & 7;
+
+        if (bitsNeeded > 0) {
+            int bytesNeeded = ((bitsNeeded - 1) / 8) + 1;
+            int windowOffset = fetch(bytesNeeded);
+            position += bytesNeeded;
+            for (int i = 0; i < bytesNeeded; i++) {
+                res = res << 8 | (window[windowOffset + i] & 0xff);
+            }
+
+            long newBits = res;
+            res = res >>> bitsLeft | (bitsNeeded < 64 ? bits << bitsNeeded : 0);
+            bits = newBits;
+        } else {
+            res = bits >>> -bitsNeeded;
+        }
+
+        bits &= (1L << bitsLeft) - 1;
+        return res;
+    }
+
+    /**
+     * Reads little-endian bit-sized integer.
+     * <p>
+     * Unlike inherited implementation, bytes are taken directly from the
+     * window without allocating temporary array.
+     *
+     * @param n count of bits, at most 64
+     * @return value
+     */
+    @Override
+    public long readBitsIntLe(int n) {
+        bitsWriteMode = false;
+
+        long res = 0;
+        int bitsNeeded = n - bitsLeft;
+
+        if (bitsNeeded > 0) {
+            int bytesNeeded = ((bitsNeeded - 1) / 8) + 1;
+            int windowOffset = fetch(bytesNeeded);
+            position += bytesNeeded;
+            for (int i = 0; i < bytesNeeded; i++) {
+                res |= ((long) (window[windowOffset + i] & 0xff)) << (i * 8);
+            }
+
+            long newBits = bitsNeeded < 64 ? res >>> bitsNeeded : 0;
+            res = res << bitsLeft | bits;
+            bits = newBits;
+        } else {
+            res = bits;
+            bits >>>= n;
+        }
+
+        bitsLeft = -bitsNeeded & 7;
+        if (n < 64) {
+            res &= (1L << n) - 1;
+        }
+        return res;
+    }
+
     @Override
     protected byte[] readBytesNotAligned(long length) {
         int arrayLength = toByteArrayLength(length);
-        byte[] buf = new byte[arrayLength];
-        binaryData.copyToArray(position, buf, 0, arrayLength);
+        if (position < 0 || position + arrayLength > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        byte[] buf = copyRange(position, arrayLength);
+        if (limits != null) {
+            limits.recordRead(offset + position, arrayLength);
+        }
         position += arrayLength;
         return buf;
     }
 
+    /**
+     * Copies range of data into new array.
+     * <p>
+     * Only allocation is recorded to limits, callers record read of the
+     * range.
+     *
+     * @param startPosition start position
+     * @param length length
+     * @return data
+     */
+    protected byte[] copyRange(long startPosition, int length) {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordAllocation(offset + startPosition, length);
+        }
+        if (statistics != null) {
+            statistics.recordBytesCopied(offset + startPosition, length);
+        }
+        byte[] buf = new byte[length];
+        if (startPosition >= windowStart && startPosition + length <= windowStart + windowLength) {
+            System.arraycopy(window, (int) (startPosition - windowStart), buf, 0, length);
+        } else {
+            binaryData.copyToArray(offset + startPosition, buf, 0, length);
+        }
+        return buf;
+    }
+
+    private byte[] readRemaining() {
+        byte[] buf = copyRange(position, toByteArrayLength(dataSize - position));
+        position = dataSize;
+        return buf;
+    }
+
     @Override
     public byte[] readBytesFull() {
         alignToByte();
-        return readBytesNotAligned(size() - position);
+        return readBytesNotAligned(dataSize - position);
     }
 
     @Override
     public byte[] readBytesTerm(byte term, boolean includeTerm, boolean consumeTerm, boolean eosError) {
         alignToByte();
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        while (true) {
-            if (isEof()) {
-                if (eosError) {
-                    throw new RuntimeException("End of stream reached, but no terminator " + term + " found");
-                }
-                return buf.toByteArray();
-            }
-            byte c = binaryData.getByte(position);
-            position++;
-            if (c == term) {
-                if (includeTerm) {
-                    buf.write(c);
-                }
-                if (!consumeTerm) {
-                    position--;
-                }
-                return buf.toByteArray();
+        long termPosition = findTerm(term);
+        if (termPosition < 0) {
+            if (eosError) {
+                throw new RuntimeException("End of stream reached, but no terminator " + term + " found");
             }
-            buf.write(c);
+            // Remaining data was already recorded as scanned
+            return readRemaining();
         }
+
+        byte[] result = copyRange(position, toByteArrayLength(termPosition - position + (includeTerm ? 1 : 0)));
+        position = consumeTerm ? termPosition + 1 : termPosition;
+        return result;
     }
 
     @Override
     public byte[] readBytesTermMulti(byte[] term, boolean includeTerm, boolean consumeTerm, boolean eosError) {
         alignToByte();
         int unitSize = term.length;
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        byte[] c = new byte[unitSize];
-        while (true) {
-            int restSize = (int) (size() - position);
-            if (restSize < unitSize) {
-                if (eosError) {
-                    throw new RuntimeException("End of stream reached, but no terminator " + byteArrayToHex(term) + " found");
+        long termPosition = findTermMulti(term);
+        if (termPosition < 0) {
+            if (eosError) {
+                throw new RuntimeException("End of stream reached, but no terminator " + byteArrayToHex(term) + " found");
+            }
+            // Remaining data was already recorded as scanned
+            return readRemaining();
+        }
+
+        byte[] result = copyRange(position, toByteArrayLength(termPosition - position + (includeTerm ? unitSize : 0)));
+        position = consumeTerm ? termPosition + unitSize : termPosition;
+        return result;
+    }
+
+    /**
+     * Searches for terminator byte starting from current position.
+     *
+     * @param term terminator
+     * @return position of terminator or -1 if not found
+     */
+    protected long findTerm(byte term) {
+        long scanPosition = position;
+        if (windowSize == 0) {
+            while (scanPosition < dataSize) {
+                recordScan(scanPosition, 1);
+                if (binaryData.getByte(offset + scanPosition) == term) {
+                    return scanPosition;
+                }
+                scanPosition++;
+            }
+            return -1;
+        }
+
+        while (scanPosition < dataSize) {
+            if (scanPosition < windowStart || scanPosition >= windowStart + windowLength) {
+                loadWindow(scanPosition);
+            }
+            int scanStart = (int) (scanPosition - windowStart);
+            for (int i = scanStart; i < windowLength; i++) {
+                if (window[i] == term) {
+                    recordScan(scanPosition, i - scanStart + 1);
+                    return windowStart + i;
+                }
+            }
+            recordScan(scanPosition, windowLength - scanStart);
+            scanPosition = windowStart + windowLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Searches for multi-byte terminator starting from current position.
+     * <p>
+     * Terminator is matched only on multiples of its length from current
+     * position.
+     *
+     * @param term terminator
+     * @return position of terminator or -1 if not found
+     */
+    protected long findTermMulti(byte[] term) {
+        int unitSize = term.length;
+        boolean useWindow = windowSize > 0 && unitSize <= WINDOW_OVERLAP;
+        byte[] unit = useWindow ? window : new byte[unitSize];
+        long scanPosition = position;
+        // Start of the scanned range not recorded yet when using window
+        long scanStart = position;
+        while (dataSize - scanPosition >= unitSize) {
+            int unitOffset;
+            if (useWindow) {
+                if (scanPosition < windowStart || scanPosition + unitSize > windowStart + windowLength) {
+                    recordScan(scanStart, (int) (scanPosition - scanStart));
+                    scanStart = scanPosition;
+                    loadWindow(scanPosition);
+                }
+                unitOffset = (int) (scanPosition - windowStart);
+            } else {
+                recordScan(scanPosition, unitSize);
+                binaryData.copyToArray(offset + scanPosition, unit, 0, unitSize);
+                unitOffset = 0;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < unitSize; i++) {
+                if (unit[unitOffset + i] != term[i]) {
+                    matches = false;
+                    break;
                 }
-                binaryData.copyToArray(position, c, 0, restSize);
-                position += restSize;
-                buf.write(c, 0, restSize);
-                return buf.toByteArray();
             }
-            binaryData.copyToArray(0, c, 0, c.length);
-            position += c.length;
-            if (Arrays.equals(c, term)) {
-                if (includeTerm)
-                    buf.write(c, 0, c.length); // see the comment about `buf.write(c)` below
-                if (!consumeTerm)
-                    position -= c.length;
-                return buf.toByteArray();
+            if (matches) {
+                if (useWindow) {
+                    recordScan(scanStart, (int) (scanPosition + unitSize - scanStart));
+                }
+                return scanPosition;
             }
-            // we could also just use `buf.write(c)`, but then Java thinks that it could throw
-            // `IOException` when it really can't (Java 11 adds `ByteArrayOutputStream.writeBytes`
-            // for this reason, but we still want to support Java 7+)
-            buf.write(c, 0, c.length);
+            scanPosition += unitSize;
+        }
+        if (useWindow) {
+            recordScan(scanStart, (int) (scanPosition - scanStart));
+        }
+        return -1;
+    }
+
+    /**
+     * Checks cancellation and records range of data scanned for terminator to
+     * limits and statistics.
+     *
+     * @param scanPosition start position of the range
+     * @param length length of the range
+     */
+    protected void recordScan(long scanPosition, int length) {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordRead(offset + scanPosition, length);
+        }
+        if (statistics != null) {
+            statistics.recordBytesScanned(offset + scanPosition, length);
         }
     }
 
@@ -377,9 +780,26 @@ public class BinaryDataKaitaiStream extends KaitaiStream {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * Returns bounded view of the next bytes of this stream without copying
+     * the data and advances this stream behind it.
+     *
+     * @param length length of the substream
+     * @return substream
+     */
     @Override
     public KaitaiStream substream(long length) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        alignToByte();
+        if (length < 0 || position + length > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        BinaryDataSubKaitaiStream substream = new BinaryDataSubKaitaiStream(binaryData, offset + position, length, windowSize);
+        substream.setStatistics(statistics);
+        substream.setCancellation(cancellation);
+        substream.setLimits(limits);
+        position += length;
+        return substream;
     }
 
     static String byteArrayToHex(byte[] arr) {
@@ -392,4 +812,12 @@ public class BinaryDataKaitaiStream extends KaitaiStream {
         sb.append(']');
         return sb.toString();
     }
+
+    private static int decodeS4be(byte[] buf, int offset) {
+        return (buf[offset] << 24) | ((buf[offset + 1] & 0xff) << 16) | ((buf[offset + 2] & 0xff) << 8) | (buf[offset + 3] & 0xff);
+    }
+
+    private static int decodeS4le(byte[] buf, int offset) {
+        return (buf[offset + 3] << 24) | ((buf[offset + 2] & 0xff) << 16) | ((buf[offset + 1] & 0xff) << 8) | (buf[offset] & 0xff);
+    }
 }
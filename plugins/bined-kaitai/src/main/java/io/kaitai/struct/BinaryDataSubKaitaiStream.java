@@ -19,17 +19,26 @@ import org.jspecify.annotations.NullMarked;
 import org.exbin.auxiliary.binary_data.EditableBinaryData;
 
 /**
- * TODO: Binary data kaitai sub stream.
+ * Binary data kaitai sub stream.
+ * <p>
+ * Bounded window over parent binary data, positions are relative to the start
+ * of the window.
  */
 @NullMarked
 public class BinaryDataSubKaitaiStream extends BinaryDataKaitaiStream {
 
-    protected long lengthLimit = -1;
-    protected long offset = 0;
+    public BinaryDataSubKaitaiStream(EditableBinaryData binaryData, long offset, long lengthLimit) {
+        this(binaryData, offset, lengthLimit, DEFAULT_WINDOW_SIZE);
+    }
+
+    public BinaryDataSubKaitaiStream(EditableBinaryData binaryData, long offset, long lengthLimit, int windowSize) {
+        super(binaryData, offset, lengthLimit, windowSize);
+        if (offset < 0 || lengthLimit < 0 || offset + lengthLimit > binaryData.getDataSize()) {
+            throw new IllegalArgumentException("Substream range " + offset + "+" + lengthLimit + " is outside of data");
+        }
+    }
 
-    public BinaryDataSubKaitaiStream(EditableBinaryData binaryData, long position, long lengthLimit) {
-        super(binaryData);
-        this.position = position;
-        this.lengthLimit = lengthLimit;
+    public long getLengthLimit() {
+        return dataSize;
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.io.EOFException;
+import org.jspecify.annotations.NullMarked;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+
+/**
+ * Byte array kaitai stream.
+ * <p>
+ * Reads directly from the data array of byte array binary data, which is used
+ * as read window covering all data.
+ */
+@NullMarked
+public class ByteArrayKaitaiStream extends BinaryDataKaitaiStream {
+
+    public ByteArrayKaitaiStream(ByteArrayEditableData binaryData) {
+        this(binaryData, 0, binaryData.getDataSize());
+    }
+
+    protected ByteArrayKaitaiStream(ByteArrayEditableData binaryData, long offset, long dataSize) {
+        super(binaryData, offset, dataSize, binaryData.getData());
+    }
+
+    /**
+     * Restores window covering all data, window is the data array itself and
+     * must never be loaded from binary data.
+     *
+     * @param targetPosition position
+     */
+    @Override
+    protected void loadWindow(long targetPosition) {
+        windowStart = -offset;
+        windowLength = window.length;
+    }
+
+    @Override
+    public KaitaiStream substream(long length) {
+        alignToByte();
+        if (length < 0 || position + length > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        ByteArrayKaitaiStream substream = new ByteArrayKaitaiStream((ByteArrayEditableData) binaryData, offset + position, length);
+        substream.setStatistics(statistics);
+        substream.setCancellation(cancellation);
+        substream.setLimits(limits);
+        position += length;
+        return substream;
+    }
+}
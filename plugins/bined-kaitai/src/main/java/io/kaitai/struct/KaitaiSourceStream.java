@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Kaitai stream reading range of the source data.
+ */
+@NullMarked
+public interface KaitaiSourceStream {
+
+    /**
+     * Returns position of the start of this stream in source data.
+     *
+     * @return offset in bytes
+     */
+    long getOffset();
+
+    /**
+     * Returns current position without limitation to int range.
+     *
+     * @return position
+     */
+    long getPosition();
+
+    /**
+     * Returns read statistics collector shared with substreams.
+     *
+     * @return statistics or null if not collected
+     */
+    @Nullable
+    StreamStatistics getStatistics();
+
+    /**
+     * Sets read statistics collector.
+     * <p>
+     * Substreams created afterwards share the same collector.
+     *
+     * @param statistics statistics or null to stop collecting
+     */
+    void setStatistics(@Nullable StreamStatistics statistics);
+
+    /**
+     * Returns cancellation of reading shared with substreams.
+     *
+     * @return cancellation or null if reading cannot be cancelled
+     */
+    @Nullable
+    StreamCancellation getCancellation();
+
+    /**
+     * Sets cancellation of reading.
+     * <p>
+     * Substreams created afterwards share the same cancellation.
+     *
+     * @param cancellation cancellation or null
+     */
+    void setCancellation(@Nullable StreamCancellation cancellation);
+
+    /**
+     * Returns resource limits of reading shared with substreams.
+     *
+     * @return limits or null if reading is not limited
+     */
+    @Nullable
+    StreamLimits getLimits();
+
+    /**
+     * Sets resource limits of reading.
+     * <p>
+     * Substreams created afterwards share the same limits.
+     *
+     * @param limits limits or null
+     */
+    void setLimits(@Nullable StreamLimits limits);
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Memory mapped file kaitai stream.
+ * <p>
+ * File is mapped in segments, each segment overlaps following segment to
+ * make primitive values crossing segment boundary readable from single
+ * segment.
+ * <p>
+ * Segments stay referenced until the stream is closed, then the mapping is
+ * released by garbage collection, which is required before the file can be
+ * modified or replaced on some platforms.
+ */
+@NullMarked
+public class MappedFileKaitaiStream extends KaitaiStream implements KaitaiSourceStream {
+
+    public static final int SEGMENT_SIZE = 1 << 30;
+    protected static final int SEGMENT_OVERLAP = 8;
+    /**
+     * Size of the chunk scanned for terminator between checks of the limits.
+     */
+    protected static final int SCAN_CHUNK_SIZE = 65536;
+
+    protected final ByteBuffer[] segments;
+    protected final ByteBuffer[] segmentsLe;
+    protected final long offset;
+    protected final long dataSize;
+    protected final boolean mappingOwner;
+    protected long position;
+    protected StreamStatistics statistics = null;
+    protected StreamCancellation cancellation = null;
+    protected StreamLimits limits = null;
+
+    public MappedFileKaitaiStream(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            dataSize = channel.size();
+            int segmentsCount = (int) ((dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new ByteBuffer[segmentsCount];
+            segmentsLe = new ByteBuffer[segmentsCount];
+            for (int i = 0; i < segmentsCount; i++) {
+                long segmentStart = (long) i * SEGMENT_SIZE;
+                long segmentLength = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, dataSize - segmentStart);
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+                segments[i] = segment;
+                segmentsLe[i] = segment.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        offset = 0;
+        mappingOwner = true;
+    }
+
+    protected MappedFileKaitaiStream(ByteBuffer[] segments, ByteBuffer[] segmentsLe, long offset, long dataSize) {
+        this.segments = segments;
+        this.segmentsLe = segmentsLe;
+        this.offset = offset;
+        this.dataSize = dataSize;
+        mappingOwner = false;
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Nullable
+    @Override
+    public StreamStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void setStatistics(@Nullable StreamStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Nullable
+    @Override
+    public StreamCancellation getCancellation() {
+        return cancellation;
+    }
+
+    @Override
+    public void setCancellation(@Nullable StreamCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    @Nullable
+    @Override
+    public StreamLimits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public void setLimits(@Nullable StreamLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Releases segments of the file.
+     * <p>
+     * Only closing of the stream created for the file releases segments,
+     * which makes any further reading of the stream and of all its substreams
+     * fail. Segments are not unmapped explicitly, as unmapping while another
+     * thread still reads the segment would crash the virtual machine, mapping
+     * is released when the segments are garbage collected.
+     *
+     * @throws IOException never
+     */
+    @Override
+    public void close() throws IOException {
+        if (!mappingOwner) {
+            return;
+        }
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+            segmentsLe[i] = null;
+        }
+    }
+
+    @Override
+    public boolean isEof() {
+        return position >= dataSize && (bitsWriteMode || bitsLeft == 0);
+    }
+
+    @Override
+    public void seek(int position) {
+        seek((long) position);
+    }
+
+    @Override
+    public void seek(long position) {
+        if (bitsWriteMode) {
+            writeAlignToByte();
+        } else {
+            alignToByte();
+        }
+
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.checkTime(offset + this.position);
+        }
+        if (statistics != null) {
+            statistics.recordSeek(offset + this.position, offset + position);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public int pos() {
+        if (position > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Position " + position + " exceeds integer range");
+        }
+        return (int) position;
+    }
+
+    @Override
+    public long size() {
+        return dataSize;
+    }
+
+    /**
+     * Checks that given count of bytes is available and advances position.
+     *
+     * @param count count of bytes, at most {@link #SEGMENT_OVERLAP}
+     * @return absolute position in file of the read value
+     */
+    protected long advance(int count) {
+        if (position < 0 || position + count > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        long sourcePosition = offset + position;
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordRead(sourcePosition, count);
+        }
+        if (statistics != null) {
+            statistics.recordPrimitiveRead(sourcePosition, count);
+        }
+        position += count;
+        return sourcePosition;
+    }
+
+    /**
+     * Returns segment containing given position.
+     *
+     * @param buffers segments in required byte order
+     * @param sourcePosition absolute position in file
+     * @return segment
+     */
+    private static ByteBuffer segment(ByteBuffer[] buffers, long sourcePosition) {
+        ByteBuffer segment = buffers[segmentIndex(sourcePosition)];
+        if (segment == null) {
+            throw new IllegalStateException("Stream was closed");
+        }
+        return segment;
+    }
+
+    private static int segmentIndex(long sourcePosition) {
+        return (int) (sourcePosition / SEGMENT_SIZE);
+    }
+
+    private static int segmentOffset(long sourcePosition) {
+        return (int) (sourcePosition % SEGMENT_SIZE);
+    }
+
+    @Override
+    public byte readS1() {
+        alignToByte();
+        long sourcePosition = advance(1);
+        return segment(segments, sourcePosition).get(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public short readS2be() {
+        alignToByte();
+        long sourcePosition = advance(2);
+        return segment(segments, sourcePosition).getShort(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public int readS4be() {
+        alignToByte();
+        long sourcePosition = advance(4);
+        return segment(segments, sourcePosition).getInt(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public long readS8be() {
+        alignToByte();
+        long sourcePosition = advance(8);
+        return segment(segments, sourcePosition).getLong(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public short readS2le() {
+        alignToByte();
+        long sourcePosition = advance(2);
+        return segment(segmentsLe, sourcePosition).getShort(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public int readS4le() {
+        alignToByte();
+        long sourcePosition = advance(4);
+        return segment(segmentsLe, sourcePosition).getInt(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public long readS8le() {
+        alignToByte();
+        long sourcePosition = advance(8);
+        return segment(segmentsLe, sourcePosition).getLong(segmentOffset(sourcePosition));
+    }
+
+    @Override
+    public int readU1() {
+        return readS1() & 0xff;
+    }
+
+    @Override
+    public int readU2be() {
+        return readS2be() & 0xffff;
+    }
+
+    @Override
+    public long readU4be() {
+        return readS4be() & 0xffffffffL;
+    }
+
+    @Override
+    public int readU2le() {
+        return readS2le() & 0xffff;
+    }
+
+    @Override
+    public long readU4le() {
+        return readS4le() & 0xffffffffL;
+    }
+
+    @Override
+    public float readF4be() {
+        return Float.intBitsToFloat(readS4be());
+    }
+
+    @Override
+    public double readF8be() {
+        return Double.longBitsToDouble(readS8be());
+    }
+
+    @Override
+    public float readF4le() {
+        return Float.intBitsToFloat(readS4le());
+    }
+
+    @Override
+    public double readF8le() {
+        return Double.longBitsToDouble(readS8le());
+    }
+
+    @Override
+    protected byte[] readBytesNotAligned(long length) {
+        int arrayLength = toByteArrayLength(length);
+        if (position < 0 || position + arrayLength > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        byte[] buf = copyRange(position, arrayLength);
+        if (limits != null) {
+            limits.recordRead(offset + position, arrayLength);
+        }
+        position += arrayLength;
+        return buf;
+    }
+
+    /**
+     * Copies range of data into new array.
+     * <p>
+     * Only allocation is recorded to limits, callers record read of the
+     * range.
+     *
+     * @param startPosition start position
+     * @param length length
+     * @return data
+     */
+    protected byte[] copyRange(long startPosition, int length) {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordAllocation(offset + startPosition, length);
+        }
+        if (statistics != null) {
+            statistics.recordBytesCopied(offset + startPosition, length);
+        }
+        byte[] buf = new byte[length];
+        int copied = 0;
+        long sourcePosition = offset + startPosition;
+        while (copied < length) {
+            int segmentOffset = segmentOffset(sourcePosition);
+            int chunkLength = Math.min(length - copied, SEGMENT_SIZE - segmentOffset);
+            ByteBuffer segment = segment(segments, sourcePosition).duplicate();
+            segment.position(segmentOffset);
+            segment.get(buf, copied, chunkLength);
+            copied += chunkLength;
+            sourcePosition += chunkLength;
+        }
+        return buf;
+    }
+
+    private byte[] readRemaining() {
+        byte[] buf = copyRange(position, toByteArrayLength(dataSize - position));
+        position = dataSize;
+        return buf;
+    }
+
+    @Override
+    public byte[] readBytesFull() {
+        alignToByte();
+        return readBytesNotAligned(dataSize - position);
+    }
+
+    @Override
+    public byte[] readBytesTerm(byte term, boolean includeTerm, boolean consumeTerm, boolean eosError) {
+        alignToByte();
+        long termPosition = findTerm(term);
+        if (termPosition < 0) {
+            if (eosError) {
+                throw new RuntimeException("End of stream reached, but no terminator " + term + " found");
+            }
+            // Remaining data was already recorded as scanned
+            return readRemaining();
+        }
+
+        byte[] result = copyRange(position, toByteArrayLength(termPosition - position + (includeTerm ? 1 : 0)));
+        position = consumeTerm ? termPosition + 1 : termPosition;
+        return result;
+    }
+
+    @Override
+    public byte[] readBytesTermMulti(byte[] term, boolean includeTerm, boolean consumeTerm, boolean eosError) {
+        alignToByte();
+        int unitSize = term.length;
+        long termPosition = findTermMulti(term);
+        if (termPosition < 0) {
+            if (eosError) {
+                throw new RuntimeException("End of stream reached, but no terminator " + BinaryDataKaitaiStream.byteArrayToHex(term) + " found");
+            }
+            // Remaining data was already recorded as scanned
+            return readRemaining();
+        }
+
+        byte[] result = copyRange(position, toByteArrayLength(termPosition - position + (includeTerm ? unitSize : 0)));
+        position = consumeTerm ? termPosition + unitSize : termPosition;
+        return result;
+    }
+
+    /**
+     * Searches for terminator byte starting from current position.
+     *
+     * @param term terminator
+     * @return position of terminator or -1 if not found
+     */
+    protected long findTerm(byte term) {
+        long scanPosition = position;
+        while (scanPosition < dataSize) {
+            int chunkLength = (int) Math.min(SCAN_CHUNK_SIZE, dataSize - scanPosition);
+            for (int i = 0; i < chunkLength; i++) {
+                long sourcePosition = offset + scanPosition + i;
+                if (segment(segments, sourcePosition).get(segmentOffset(sourcePosition)) == term) {
+                    recordScan(scanPosition, i + 1);
+                    return scanPosition + i;
+                }
+            }
+            recordScan(scanPosition, chunkLength);
+            scanPosition += chunkLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Searches for multi-byte terminator starting from current position.
+     * <p>
+     * Terminator is matched only on multiples of its length from current
+     * position.
+     *
+     * @param term terminator
+     * @return position of terminator or -1 if not found
+     */
+    protected long findTermMulti(byte[] term) {
+        int unitSize = term.length;
+        int chunkUnits = Math.max(1, SCAN_CHUNK_SIZE / unitSize);
+        long scanPosition = position;
+        while (dataSize - scanPosition >= unitSize) {
+            long chunkStart = scanPosition;
+            for (int unit = 0; unit < chunkUnits && dataSize - scanPosition >= unitSize; unit++) {
+                boolean matches = true;
+                for (int i = 0; i < unitSize; i++) {
+                    long sourcePosition = offset + scanPosition + i;
+                    if (segment(segments, sourcePosition).get(segmentOffset(sourcePosition)) != term[i]) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    recordScan(chunkStart, (int) (scanPosition + unitSize - chunkStart));
+                    return scanPosition;
+                }
+                scanPosition += unitSize;
+            }
+            recordScan(chunkStart, (int) (scanPosition - chunkStart));
+        }
+        return -1;
+    }
+
+    /**
+     * Checks cancellation and records range of data scanned for terminator to
+     * limits and statistics.
+     *
+     * @param scanPosition start position of the range
+     * @param length length of the range
+     */
+    protected void recordScan(long scanPosition, int length) {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (limits != null) {
+            limits.recordRead(offset + scanPosition, length);
+        }
+        if (statistics != null) {
+            statistics.recordBytesScanned(offset + scanPosition, length);
+        }
+    }
+
+    @Override
+    public void writeS1(byte b) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS2be(short s) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS4be(int i) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS8be(long l) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS2le(short s) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS4le(int i) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeS8le(long l) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeF4be(float f) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeF8be(double d) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeF4le(float f) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void writeF8le(double d) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    protected void writeBytesNotAligned(byte[] bytes) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public KaitaiStream substream(long length) {
+        alignToByte();
+        if (length < 0 || position + length > dataSize) {
+            throw new RuntimeException(new EOFException());
+        }
+
+        MappedFileKaitaiStream substream = new MappedFileKaitaiStream(segments, segmentsLe, offset + position, length);
+        substream.setStatistics(statistics);
+        substream.setCancellation(cancellation);
+        substream.setLimits(limits);
+        position += length;
+        return substream;
+    }
+}
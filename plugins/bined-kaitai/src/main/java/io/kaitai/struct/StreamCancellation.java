@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Cancellation of reading of the stream and all its substreams.
+ * <p>
+ * Streams check the cancellation on each read and seek, so that reading
+ * running on another thread stops at the next access to the data.
+ */
+@ThreadSafe
+@NullMarked
+public class StreamCancellation {
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Requests cancellation of reading.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws exception if cancellation was requested.
+     *
+     * @throws CancelledException if cancelled
+     */
+    public void check() {
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * Exception thrown by stream which reading was cancelled.
+     */
+    public static class CancelledException extends RuntimeException {
+
+        public CancelledException() {
+            super("Reading was cancelled");
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Limits of resources consumed by reading of the stream and all its
+ * substreams.
+ * <p>
+ * Streams record read and allocated bytes, parsers report started fields,
+ * repeat elements and nesting of structures. Exceeded limit aborts reading
+ * with diagnostic naming the last started field and the offset in source
+ * data. Zero value of a limit means no limit.
+ */
+@NotThreadSafe
+@NullMarked
+public class StreamLimits {
+
+    public static final long NO_LIMIT = 0;
+    /**
+     * Count of recorded operations between checks of the elapsed time.
+     */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private final long maxAllocatedBytes;
+    private final long maxBytesRead;
+    private final long maxRepeatElements;
+    private final long maxDepth;
+    private final long timeout;
+
+    private long allocatedBytes = 0;
+    private long bytesRead = 0;
+    private int depth = 0;
+    private long deadline = 0;
+    private int operationsCount = 0;
+    private String field = null;
+    private long fieldPosition = -1;
+
+    /**
+     * Creates limits.
+     *
+     * @param maxAllocatedBytes maximum size of single read byte array
+     * @param maxBytesRead maximum total count of read bytes
+     * @param maxRepeatElements maximum count of elements of single repeated
+     * field
+     * @param maxDepth maximum nesting depth of structures
+     * @param timeout maximum wall-clock time of reading in milliseconds
+     */
+    public StreamLimits(long maxAllocatedBytes, long maxBytesRead, long maxRepeatElements, long maxDepth, long timeout) {
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.maxBytesRead = maxBytesRead;
+        this.maxRepeatElements = maxRepeatElements;
+        this.maxDepth = maxDepth;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates limits with the same maximums and no consumed resources.
+     * <p>
+     * Used for reading started after parsing finished, such as evaluation of
+     * the lazy instance, which is limited separately from the parsing.
+     *
+     * @return new limits
+     */
+    public StreamLimits createScope() {
+        return new StreamLimits(maxAllocatedBytes, maxBytesRead, maxRepeatElements, maxDepth, timeout);
+    }
+
+    /**
+     * Starts measuring of the wall-clock time.
+     */
+    public void startTimer() {
+        deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000 : 0;
+    }
+
+    /**
+     * Stops measuring of the wall-clock time.
+     * <p>
+     * Lazily evaluated values read after parsing finished are not limited by
+     * timeout.
+     */
+    public void stopTimer() {
+        deadline = 0;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns name of the last started field.
+     *
+     * @return field name or null
+     */
+    @Nullable
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Returns absolute position of the start of the last started field.
+     *
+     * @return position or -1 if no field was started
+     */
+    public long getFieldPosition() {
+        return fieldPosition;
+    }
+
+    /**
+     * Records read of the primitive value.
+     *
+     * @param position absolute position in source data
+     * @param count count of bytes
+     */
+    public void recordRead(long position, int count) {
+        bytesRead += count;
+        if (maxBytesRead > 0 && bytesRead > maxBytesRead) {
+            throw exceeded("bytes read", maxBytesRead, position);
+        }
+        checkTime(position);
+    }
+
+    /**
+     * Records allocation of the byte array, called before array is allocated.
+     * <p>
+     * Limit applies to the size of each array, total size of allocated arrays
+     * is only tracked. Bytes copied into the array are recorded as read
+     * separately.
+     *
+     * @param position absolute position in source data
+     * @param length length of the array
+     */
+    public void recordAllocation(long position, long length) {
+        if (maxAllocatedBytes > 0 && length > maxAllocatedBytes) {
+            throw exceeded("allocated bytes", maxAllocatedBytes, position);
+        }
+        allocatedBytes += length;
+        checkTime(position);
+    }
+
+    /**
+     * Records start of reading of the field.
+     *
+     * @param field field name
+     * @param position absolute position in source data
+     */
+    public void fieldStarted(String field, long position) {
+        this.field = field;
+        fieldPosition = position;
+        checkTime(position);
+    }
+
+    /**
+     * Records start of reading of the element of the repeated field.
+     *
+     * @param field field name
+     * @param position absolute position in source data
+     * @param index index of the element
+     */
+    public void elementStarted(String field, long position, long index) {
+        this.field = field;
+        fieldPosition = position;
+        if (maxRepeatElements > 0 && index >= maxRepeatElements) {
+            throw exceeded("repeat elements", maxRepeatElements, position);
+        }
+        checkTime(position);
+    }
+
+    /**
+     * Records start of reading of the nested structure.
+     *
+     * @param position absolute position in source data
+     */
+    public void enterStruct(long position) {
+        depth++;
+        if (maxDepth > 0 && depth > maxDepth) {
+            depth--;
+            throw exceeded("nesting depth", maxDepth, position);
+        }
+    }
+
+    /**
+     * Records end of reading of the nested structure.
+     */
+    public void exitStruct() {
+        depth--;
+    }
+
+    /**
+     * Checks elapsed time periodically.
+     *
+     * @param position absolute position in source data
+     */
+    public void checkTime(long position) {
+        if (deadline == 0 || ++operationsCount < TIME_CHECK_INTERVAL) {
+            return;
+        }
+
+        operationsCount = 0;
+        if (System.nanoTime() - deadline > 0) {
+            throw exceeded("time in milliseconds", timeout, position);
+        }
+    }
+
+    private LimitExceededException exceeded(String limitName, long limit, long position) {
+        return new LimitExceededException(limitName, limit, field, position);
+    }
+
+    /**
+     * Exception thrown when limit is exceeded.
+     */
+    public static class LimitExceededException extends RuntimeException {
+
+        private final String limitName;
+        private final String field;
+        private final long position;
+
+        public LimitExceededException(String limitName, long limit, @Nullable String field, long position) {
+            super("Limit of " + limitName + " " + limit + " exceeded" + (field == null ? "" : " in field " + field) + " at offset 0x" + Long.toHexString(position));
+            this.limitName = limitName;
+            this.field = field;
+            this.position = position;
+        }
+
+        public String getLimitName() {
+            return limitName;
+        }
+
+        /**
+         * Returns name of the field being read when limit was exceeded.
+         *
+         * @return field name or null
+         */
+        @Nullable
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * Returns absolute position in source data where limit was exceeded.
+         *
+         * @return position
+         */
+        public long getPosition() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Read statistics of the stream and all its substreams.
+ * <p>
+ * Positions are recorded as absolute positions in source data, so reads
+ * through substreams are comparable with reads of their parent stream.
+ */
+@NotThreadSafe
+@NullMarked
+public class StreamStatistics {
+
+    private long bytesRead = 0;
+    private long primitiveReads = 0;
+    private long seeks = 0;
+    private long backwardSeeks = 0;
+    private long bytesCopied = 0;
+    private long bytesScanned = 0;
+    private long distinctBytesRead = 0;
+    private long largestRereadSpan = 0;
+
+    private long rereadSpan = 0;
+    private long rereadEnd = -1;
+
+    /**
+     * Already read ranges except for the open range, start to end.
+     */
+    private final TreeMap<Long, Long> readRanges = new TreeMap<>();
+    private long openRangeStart = -1;
+    private long openRangeEnd = -1;
+    private long nextRangeStart = Long.MAX_VALUE;
+
+    /**
+     * Records read of primitive value.
+     *
+     * @param sourcePosition absolute position
+     * @param length length in bytes
+     */
+    public void recordPrimitiveRead(long sourcePosition, int length) {
+        primitiveReads++;
+        recordRead(sourcePosition, length);
+    }
+
+    /**
+     * Records bytes copied into new array.
+     *
+     * @param sourcePosition absolute position
+     * @param length length in bytes
+     */
+    public void recordBytesCopied(long sourcePosition, long length) {
+        bytesCopied += length;
+        recordRead(sourcePosition, length);
+    }
+
+    /**
+     * Records bytes scanned when searching for terminator.
+     *
+     * @param sourcePosition absolute position
+     * @param length length in bytes
+     */
+    public void recordBytesScanned(long sourcePosition, long length) {
+        bytesScanned += length;
+        recordRead(sourcePosition, length);
+    }
+
+    /**
+     * Records seek.
+     *
+     * @param sourcePosition absolute position before seek
+     * @param targetPosition absolute position after seek
+     */
+    public void recordSeek(long sourcePosition, long targetPosition) {
+        seeks++;
+        if (targetPosition < sourcePosition) {
+            backwardSeeks++;
+        }
+    }
+
+    private void recordRead(long start, long length) {
+        if (length <= 0) {
+            return;
+        }
+
+        bytesRead += length;
+        long end = start + length;
+        if (start == openRangeEnd && end <= nextRangeStart) {
+            // Sequential read of new data
+            openRangeEnd = end;
+            distinctBytesRead += length;
+            rereadEnd = -1;
+            return;
+        }
+
+        long overlap = mergeRange(start, end);
+        distinctBytesRead += length - overlap;
+        if (overlap > 0) {
+            rereadSpan = start == rereadEnd ? rereadSpan + overlap : overlap;
+            rereadEnd = end;
+            if (rereadSpan > largestRereadSpan) {
+                largestRereadSpan = rereadSpan;
+            }
+        } else {
+            rereadEnd = -1;
+        }
+    }
+
+    /**
+     * Merges range into already read ranges and makes merged range open.
+     *
+     * @param start start position
+     * @param end end position
+     * @return count of bytes already read before
+     */
+    private long mergeRange(long start, long end) {
+        if (openRangeStart >= 0) {
+            readRanges.put(openRangeStart, openRangeEnd);
+        }
+
+        long mergedStart = start;
+        long mergedEnd = end;
+        Map.Entry<Long, Long> floorRange = readRanges.floorEntry(start);
+        if (floorRange != null && floorRange.getValue() >= start) {
+            mergedStart = floorRange.getKey();
+        }
+
+        long overlap = 0;
+        Iterator<Map.Entry<Long, Long>> iterator = readRanges.subMap(mergedStart, true, end, true).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> range = iterator.next();
+            overlap += Math.max(0, Math.min(range.getValue(), end) - Math.max(range.getKey(), start));
+            mergedEnd = Math.max(mergedEnd, range.getValue());
+            iterator.remove();
+        }
+
+        openRangeStart = mergedStart;
+        openRangeEnd = mergedEnd;
+        Long nextStart = readRanges.higherKey(mergedStart);
+        nextRangeStart = nextStart == null ? Long.MAX_VALUE : nextStart;
+        return overlap;
+    }
+
+    /**
+     * Returns total count of bytes read including repeated reads.
+     *
+     * @return count of bytes
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns count of distinct bytes read.
+     *
+     * @return count of bytes
+     */
+    public long getDistinctBytesRead() {
+        return distinctBytesRead;
+    }
+
+    public long getPrimitiveReads() {
+        return primitiveReads;
+    }
+
+    public long getSeeks() {
+        return seeks;
+    }
+
+    public long getBackwardSeeks() {
+        return backwardSeeks;
+    }
+
+    /**
+     * Returns count of bytes copied into arrays by readBytes* methods.
+     *
+     * @return count of bytes
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * Returns count of bytes scanned when searching for terminators of
+     * readBytesTerm* methods.
+     *
+     * @return count of bytes
+     */
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * Returns length of the largest continuous span of data read repeatedly.
+     *
+     * @return length in bytes
+     */
+    public long getLargestRereadSpan() {
+        return largestRereadSpan;
+    }
+
+    /**
+     * Returns ratio of all bytes read to distinct bytes read.
+     *
+     * @return read amplification, 1.0 if no data was read repeatedly
+     */
+    public double getReadAmplification() {
+        return distinctBytesRead == 0 ? 1.0 : (double) bytesRead / distinctBytesRead;
+    }
+}
@@ -28,6 +28,10 @@ import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
 import org.exbin.jaguif.App;
@@ -41,6 +45,10 @@ import org.exbin.bined.jaguif.inspector.BinEdInspectorManager;
 import org.exbin.bined.jaguif.inspector.BinedInspectorModule;
 import org.exbin.bined.jaguif.kaitai.gui.KaitaiSidePanel;
 import org.exbin.bined.jaguif.kaitai.inspector.KaitaiInspectorProvider;
+import org.exbin.bined.jaguif.kaitai.service.KaitaiCompiler;
+import org.exbin.bined.jaguif.kaitai.service.DefinitionBatchCompiler;
+import org.exbin.bined.jaguif.kaitai.service.DefinitionProcessor;
+import org.exbin.bined.jaguif.kaitai.service.KaitaiParserRegistry;
 import org.exbin.bined.jaguif.kaitai.settings.KaitaiOptions;
 import org.exbin.bined.jaguif.kaitai.settings.KaitaiSettingsApplier;
 import org.exbin.jaguif.context.api.ContextChange;
@@ -67,12 +75,18 @@ public class BinedKaitaiModule implements PluginModule {
 
     public static final String MODULE_ID = ModuleUtils.getModuleIdByApi(BinedKaitaiModule.class);
     public static final String SIDEBAR_COMPONENT_ID = "kaitai";
-    public static final String RESOURCE_FORMATS_PATH = "/org/exbin/framework/bined/kaitai/resources/formats/";
+    public static final String RESOURCE_FORMATS_PATH = "/org/exbin/bined/jaguif/kaitai/resources/formats/";
 
     private java.util.ResourceBundle resourceBundle = null;
 
     private KaitaiColorModifier kaitaiColorModifier;
     private KaitaiSideBarComponent sideBarComponent;
+    private final KaitaiParserRegistry parserRegistry = new KaitaiParserRegistry();
+    private final DefinitionBatchCompiler batchCompiler = new DefinitionBatchCompiler(parserRegistry.getCompiler());
+    private final DefinitionProcessor definitionProcessor = new DefinitionProcessor(parserRegistry);
+    private volatile WarmUpState warmUpState = WarmUpState.DISABLED;
+    private final AtomicBoolean firstParseReported = new AtomicBoolean();
+    private volatile long firstParseTime = -1;
 
     public BinedKaitaiModule() {
     }
@@ -95,6 +109,13 @@ public class BinedKaitaiModule implements PluginModule {
 
             SideBarModuleApi sideBarModule = App.getModule(SideBarModuleApi.class);
             sideBarModule.setAutoShow(true);
+
+            KaitaiOptions options = new KaitaiOptions(App.getModule(OptionsModuleApi.class).getAppOptions());
+            parserRegistry.setMaxParsers(options.getMaxLoadedParsers());
+            parserRegistry.setParsingLimits(options.getParsingLimits());
+            if (options.isCompilerWarmUp()) {
+                startCompilerWarmUp();
+            }
         });
 
         FrameModuleApi frameModule = App.getModule(FrameModuleApi.class);
@@ -104,6 +125,55 @@ public class BinedKaitaiModule implements PluginModule {
         });
     }
 
+    /**
+     * Starts warm-up of the compilers on low priority background thread.
+     */
+    public void startCompilerWarmUp() {
+        if (warmUpState != WarmUpState.DISABLED) {
+            return;
+        }
+
+        warmUpState = WarmUpState.RUNNING;
+        Thread warmUpThread = new Thread(() -> {
+            long startTime = System.nanoTime();
+            boolean success = KaitaiCompiler.warmUp();
+            warmUpState = success ? WarmUpState.FINISHED : WarmUpState.FAILED;
+            Logger.getLogger(BinedKaitaiModule.class.getName()).log(Level.INFO, "Kaitai compiler warm-up {0} in {1} ms", new Object[]{warmUpState, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)});
+        }, "kaitai-warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.setPriority(Thread.MIN_PRIORITY);
+        warmUpThread.start();
+    }
+
+    public WarmUpState getWarmUpState() {
+        return warmUpState;
+    }
+
+    /**
+     * Reports duration of the first definition processing in the session.
+     * <p>
+     * Only first report is recorded and logged together with state of the
+     * compiler warm-up.
+     *
+     * @param processingTime time from compilation request to parsed data in
+     * nanoseconds
+     */
+    public void reportFirstParse(long processingTime) {
+        if (firstParseReported.compareAndSet(false, true)) {
+            firstParseTime = processingTime;
+            Logger.getLogger(BinedKaitaiModule.class.getName()).log(Level.INFO, "Kaitai time to first parse {0} ms, compiler warm-up {1}", new Object[]{TimeUnit.NANOSECONDS.toMillis(processingTime), warmUpState});
+        }
+    }
+
+    /**
+     * Returns duration of the first definition processing in the session.
+     *
+     * @return time in nanoseconds or -1 if nothing was parsed yet
+     */
+    public long getFirstParseTime() {
+        return firstParseTime;
+    }
+
     public ResourceBundle getResourceBundle() {
         if (resourceBundle == null) {
             resourceBundle = App.getModule(LanguageModuleApi.class).getBundle(BinedKaitaiModule.class);
@@ -197,11 +267,42 @@ public class BinedKaitaiModule implements PluginModule {
         return sideBarComponent.getSideManager();
     }
 
+    /**
+     * Returns registry of compiled parsers shared by all documents.
+     *
+     * @return parser registry
+     */
+    public KaitaiParserRegistry getParserRegistry() {
+        return parserRegistry;
+    }
+
+    public DefinitionBatchCompiler getBatchCompiler() {
+        return batchCompiler;
+    }
+
+    /**
+     * Returns processor of definitions running off the event dispatch thread.
+     *
+     * @return definition processor
+     */
+    public DefinitionProcessor getDefinitionProcessor() {
+        return definitionProcessor;
+    }
+
     public DefinitionRecord getDefinitionByPath(URI fileUri) {
         File file = new File(fileUri);
         return new DefinitionRecord(file.getName(), file.getName(), fileUri);
     }
 
+    /**
+     * Returns record of the definition bundled with the plugin.
+     * <p>
+     * Bundled definitions compiled at build time are resolved by the parser
+     * registry to ready-made parsers without runtime compilation.
+     *
+     * @param buildIn path relative to formats resource directory
+     * @return definition record
+     */
     public DefinitionRecord getBuildInDefinition(String buildIn) {
         FileSystem fileSystem = null;
         try {
@@ -264,4 +365,14 @@ public class BinedKaitaiModule implements PluginModule {
             }
         }
     }
+
+    /**
+     * State of the compiler warm-up.
+     */
+    public enum WarmUpState {
+        DISABLED,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
 }
@@ -17,17 +17,23 @@ package org.exbin.bined.jaguif.kaitai;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.dnd.DnDConstants;
 import java.awt.dnd.DropTarget;
 import java.awt.dnd.DropTargetDropEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -36,14 +42,21 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import org.exbin.auxiliary.binary_data.BinaryData;
 import org.exbin.auxiliary.binary_data.EditableBinaryData;
@@ -55,6 +68,10 @@ import org.exbin.bined.jaguif.kaitai.gui.KaitaiDefinitionPreviewPanel;
 import org.exbin.bined.jaguif.kaitai.gui.KaitaiDefinitionsPanel;
 import org.exbin.bined.jaguif.kaitai.gui.KaitaiSidePanel;
 import org.exbin.bined.jaguif.kaitai.gui.KaitaiProcessingMessagePanel;
+import org.exbin.bined.jaguif.kaitai.service.BinaryDataSnapshot;
+import org.exbin.bined.jaguif.kaitai.service.DefinitionBatchCompiler;
+import org.exbin.bined.jaguif.kaitai.service.DefinitionLiveCompiler;
+import org.exbin.bined.jaguif.kaitai.service.KaitaiParser;
 import org.exbin.jaguif.file.api.DefaultFileTypes;
 import org.exbin.jaguif.file.api.FileDialogsProvider;
 import org.exbin.jaguif.file.api.FileModuleApi;
@@ -305,6 +322,8 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
                         textArea.setEditable(false);
                         textArea.setSyntaxEditingStyle(RSyntaxTextArea.SYNTAX_STYLE_YAML);
                         DefinitionRecord definitionRecord = definitionsPanel.getSelectedDefinition().get();
+                        DefinitionLiveCompiler liveCompiler = new DefinitionLiveCompiler(definitionRecord);
+                        liveCompiler.setParsingLimits(App.getModule(BinedKaitaiModule.class).getParserRegistry().getParsingLimits());
                         InputStream input = null;
                         BufferedReader reader = null;
                         try {
@@ -344,6 +363,7 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
 
                         scrollPane.setViewportView(textArea);
                         definitionPanel.add(scrollPane, BorderLayout.CENTER);
+                        definitionPanel.add(createLiveEditPanel(definitionRecord, textArea, liveCompiler), BorderLayout.NORTH);
                         scrollPane.setPreferredSize(new Dimension(700, 500));
                         scrollPane.setSize(700, 500);
                         CloseControlPanel controlPanel = new CloseControlPanel();
@@ -351,9 +371,16 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
                         controlPanel.setController(new CloseControlController() {
                             @Override
                             public void controlActionPerformed() {
+                                liveCompiler.dispose();
                                 dialog.close();
                             }
                         });
+                        dialog.getWindow().addWindowListener(new WindowAdapter() {
+                            @Override
+                            public void windowClosed(WindowEvent event) {
+                                liveCompiler.dispose();
+                            }
+                        });
                         dialog.showCentered(sidePanel);
                     }
 
@@ -361,8 +388,32 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
                     public void updatePreview(JPanel previewPanel, DefinitionRecord definition) {
                         // TODO
                     }
+
+                    @Override
+                    public void precompileAll() {
+                        List<DefinitionRecord> definitions = definitionsPanel.getDefinitions();
+                        definitionsPanel.setPrecompileProgress(0, definitions.size());
+                        definitionsPanel.setPrecompiling(true);
+                        BinedKaitaiModule kaitaiModule = App.getModule(BinedKaitaiModule.class);
+                        kaitaiModule.getBatchCompiler().compileAll(definitions, new DefinitionBatchCompiler.ProgressListener() {
+                            @Override
+                            public void definitionCompiled(DefinitionRecord definition, @Nullable String errorMessage, int completedCount, int totalCount) {
+                                SwingUtilities.invokeLater(() -> {
+                                    definitionsPanel.setCompileError(definition, errorMessage);
+                                    definitionsPanel.setPrecompileProgress(completedCount, totalCount);
+                                    sidePanel.setCompileError(definition, errorMessage);
+                                });
+                            }
+
+                            @Override
+                            public void batchFinished(int failedCount, boolean cancelled) {
+                                SwingUtilities.invokeLater(() -> definitionsPanel.setPrecompiling(false));
+                            }
+                        });
+                    }
                 });
                 definitionsPanel.setDefinitions(sidePanel.getDefinitions());
+                definitionsPanel.setCompileErrors(sidePanel.getCompileErrors());
                 DefaultControlPanel controlPanel = new DefaultControlPanel(definitionsPanel.getResourceBundle());
 //                        HelpModuleApi helpModule = App.getModule(HelpModuleApi.class);
 //                        helpModule.addLinkToControlPanel(controlPanel, new HelpLink(HELP_ID));
@@ -385,6 +436,8 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
                 final KaitaiProcessingMessagePanel statusPanel = new KaitaiProcessingMessagePanel();
                 KaitaiSideRecord record = sideManager.getRecord(activeDocument);
                 statusPanel.setProcessingMessage(record.getProcessingMessage());
+                statusPanel.setParseStatistics(record.getParseTime(), record.getParseStatistics());
+                statusPanel.setPhaseTimings(record.getCompileTimings(), record.getParseTimings());
                 CloseControlPanel controlPanel = new CloseControlPanel(statusPanel.getResourceBundle());
                 final WindowHandler dialog = windowModule.createDialog(statusPanel, controlPanel);
                 windowModule.setWindowTitle(dialog, statusPanel.getResourceBundle());
@@ -399,6 +452,112 @@ public class KaitaiSideBarComponent extends AbstractSideBarComponent {
         return sidePanel;
     }
 
+    /**
+     * Creates panel switching definition editor to live editing mode.
+     * <p>
+     * In live editing mode, changes are compiled after short idle time and
+     * active document is parsed again if it uses edited definition.
+     *
+     * @param definitionRecord edited definition
+     * @param textArea editor text area
+     * @param liveCompiler live compiler
+     * @return panel
+     */
+    private JPanel createLiveEditPanel(DefinitionRecord definitionRecord, RSyntaxTextArea textArea, DefinitionLiveCompiler liveCompiler) {
+        ResourceBundle resourceBundle = App.getModule(BinedKaitaiModule.class).getResourceBundle();
+        JPanel liveEditPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+        JCheckBox liveEditCheckBox = new JCheckBox(resourceBundle.getString("definitionEditor.liveEdit"));
+        JButton saveButton = new JButton(resourceBundle.getString("definitionEditor.save"));
+        JLabel compileStatusLabel = new JLabel();
+        boolean writable = "file".equals(definitionRecord.getUri().getScheme());
+        saveButton.setEnabled(false);
+        liveEditPanel.add(liveEditCheckBox);
+        liveEditPanel.add(saveButton);
+        liveEditPanel.add(compileStatusLabel);
+
+        liveCompiler.setSnapshotSupplier(() -> {
+            if (activeDocument == null) {
+                return null;
+            }
+            KaitaiSideRecord record = sideManager.getRecord(activeDocument);
+            BinaryData sourceData = activeDocument.getCodeArea().getContentData();
+            if (!definitionRecord.equals(record.getDefinitionRecord()) || !(sourceData instanceof EditableBinaryData)) {
+                return null;
+            }
+            return record.createSnapshot((EditableBinaryData) sourceData);
+        });
+        liveCompiler.setListener(new DefinitionLiveCompiler.Listener() {
+            @Override
+            public void processingStarted() {
+                compileStatusLabel.setText(resourceBundle.getString("definitionEditor.compiling"));
+            }
+
+            @Override
+            public void compiled(KaitaiParser parser, KaitaiParser.@Nullable ParsingResult parsingResult, @Nullable BinaryDataSnapshot snapshot) {
+                compileStatusLabel.setText(resourceBundle.getString("definitionEditor.compiled"));
+                if (parsingResult == null || snapshot == null) {
+                    if (snapshot != null) {
+                        snapshot.dispose();
+                    }
+                    return;
+                }
+
+                KaitaiSideRecord record = activeDocument == null ? null : sideManager.getRecord(activeDocument);
+                if (record == null || !definitionRecord.equals(record.getDefinitionRecord())) {
+                    snapshot.dispose();
+                    return;
+                }
+                record.applyParsingResult(parser, parsingResult, snapshot, sideManager.getSidePanel());
+            }
+
+            @Override
+            public void compilationFailed(String errorMessage) {
+                compileStatusLabel.setText(resourceBundle.getString("definitionEditor.compileFailed"));
+                compileStatusLabel.setToolTipText(errorMessage);
+            }
+        });
+
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent event) {
+                sourceChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent event) {
+                sourceChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent event) {
+            }
+
+            private void sourceChanged() {
+                saveButton.setEnabled(writable);
+                if (liveEditCheckBox.isSelected()) {
+                    liveCompiler.sourceChanged(textArea.getText());
+                }
+            }
+        });
+        liveEditCheckBox.addActionListener((event) -> {
+            boolean liveEdit = liveEditCheckBox.isSelected();
+            textArea.setEditable(liveEdit);
+            if (!liveEdit) {
+                liveCompiler.cancel();
+                compileStatusLabel.setText("");
+            }
+        });
+        saveButton.addActionListener((event) -> {
+            try {
+                Files.write(Paths.get(definitionRecord.getUri()), textArea.getText().getBytes(StandardCharsets.UTF_8));
+                saveButton.setEnabled(false);
+            } catch (IOException ex) {
+                Logger.getLogger(KaitaiSideBarComponent.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+        return liveEditPanel;
+    }
+
     public void update() {
         if (definitionRecord == null) {
             return;
@@ -46,6 +46,7 @@ public class KaitaiSideManager {
 
     protected final Map<BinaryFileDocument, KaitaiSideRecord> records = new HashMap<>();
     protected KaitaiSidePanel sidePanel = new KaitaiSidePanel();
+    protected BinaryFileDocument currentDocument = null;
 
     public KaitaiSideManager() {
         sidePanel.setDropTarget(new DropTarget() {
@@ -119,17 +120,35 @@ public class KaitaiSideManager {
         KaitaiSideRecord record = records.get(document);
         if (record == null) {
             record = new KaitaiSideRecord();
+            record.setCodeArea(document.getCodeArea());
             records.put(document, record);
         }
         
         return record;
     }
 
+    /**
+     * Switches shown parse tree to given document.
+     * <p>
+     * Processing of the previous document is cancelled and restarted when
+     * the document is shown again.
+     *
+     * @param document document or null
+     */
     public void switchToDocument(@Nullable BinaryFileDocument document) {
+        if (currentDocument != null && currentDocument != document) {
+            KaitaiSideRecord previousRecord = records.get(currentDocument);
+            if (previousRecord != null) {
+                previousRecord.cancelProcessing();
+            }
+        }
+        currentDocument = document;
+
         if (document != null) {
             KaitaiSideRecord record = records.get(document);
             if (record == null) {
                 record = new KaitaiSideRecord();
+                record.setCodeArea(document.getCodeArea());
                 sidePanel.setParserComponent(record.getParserComponent());
                 DefinitionRecord definition = sidePanel.getSelectedDefinition();
                 record.setDefinitionRecord(definition);
@@ -159,6 +178,12 @@ public class KaitaiSideManager {
     }
 
     public void dropRecord(BinaryFileDocument document) {
-        records.remove(document);
+        if (currentDocument == document) {
+            currentDocument = null;
+        }
+        KaitaiSideRecord record = records.remove(document);
+        if (record != null) {
+            record.dispose();
+        }
     }
 }
@@ -15,14 +15,20 @@
  */
 package org.exbin.bined.jaguif.kaitai;
 
+import io.kaitai.struct.StreamStatistics;
+import org.exbin.bined.jaguif.kaitai.service.BinaryDataSnapshot;
+import org.exbin.bined.jaguif.kaitai.service.DefinitionProcessor;
 import org.exbin.bined.jaguif.kaitai.service.KaitaiCompiler;
 import org.exbin.bined.jaguif.kaitai.service.KaitaiParser;
+import org.exbin.bined.jaguif.kaitai.service.PhaseTimings;
 import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
 import javax.swing.JTree;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import org.exbin.auxiliary.binary_data.EditableBinaryData;
+import org.exbin.bined.DataChangedListener;
+import org.exbin.bined.swing.CodeAreaCore;
 import org.exbin.jaguif.App;
 import org.exbin.bined.jaguif.kaitai.gui.KaitaiSidePanel;
 import org.exbin.bined.jaguif.kaitai.gui.ParserTreeComponent;
@@ -37,13 +43,20 @@ public class KaitaiSideRecord {
 
     protected ParserTreeComponent parserComponent = new ParserTreeComponent();
     protected KaitaiProcessingService visualizer = new KaitaiProcessingService();
-    protected KaitaiCompiler compiler = new KaitaiCompiler();
     protected KaitaiParser parser = null;
     protected KaitaiTreeListener treeListener;
+    protected CodeAreaCore codeArea = null;
+    protected DataChangedListener dataChangedListener = this::notifyDataChanged;
+    protected long dataRevision = 0;
+    protected DefinitionProcessor.Job processingJob = null;
 
     protected DefinitionRecord definitionRecord;
     protected KaitaiStatusType status = KaitaiStatusType.NO_FILE;
     protected String processingMessage = "";
+    protected long parseTime = -1;
+    protected StreamStatistics parseStatistics = null;
+    protected PhaseTimings compileTimings = null;
+    protected PhaseTimings parseTimings = null;
 
     public KaitaiSideRecord() {
         JTree parserTree = parserComponent.getParserTree();
@@ -55,22 +68,171 @@ public class KaitaiSideRecord {
         parserTree.addTreeSelectionListener(treeListener);
     }
 
+    /**
+     * Sets code area which modifications are tracked as data revisions.
+     *
+     * @param codeArea code area or null to stop tracking
+     */
+    public void setCodeArea(@Nullable CodeAreaCore codeArea) {
+        if (this.codeArea != null) {
+            this.codeArea.removeDataChangedListener(dataChangedListener);
+        }
+        this.codeArea = codeArea;
+        if (codeArea != null) {
+            codeArea.addDataChangedListener(dataChangedListener);
+        }
+    }
+
+    public void notifyDataChanged() {
+        dataRevision++;
+    }
+
+    /**
+     * Returns current revision of the live data.
+     *
+     * @return revision
+     */
+    public long getDataRevision() {
+        return dataRevision;
+    }
+
+    /**
+     * Returns revision of the data displayed parse tree was built from.
+     *
+     * @return revision or {@link BinaryDataSnapshot#NO_REVISION}
+     */
+    public long getParsedRevision() {
+        return visualizer.getParsedRevision();
+    }
+
+    /**
+     * Processes data using selected definition.
+     * <p>
+     * Definition is compiled and data are parsed off the event dispatch
+     * thread. If compiled parser is not loaded yet, definition is interpreted
+     * first and the parse tree is replaced by the result of the compiled
+     * parser when compilation finishes. Processing in progress is cancelled.
+     *
+     * @param sourceData source data
+     * @param sidePanel side panel
+     */
     public void processDefinition(EditableBinaryData sourceData, KaitaiSidePanel sidePanel) {
+        long startTime = System.nanoTime();
+        cancelProcessing();
+        processingMessage = "";
         clearParseTree();
+        setParser(null);
+        compileTimings = null;
         updateStatus(sidePanel, KaitaiStatusType.COMPILING);
-        KaitaiCompiler.CompileResult compileResult = visualizer.compileDefinition(compiler, definitionRecord);
-        if (compileResult.getErrorMessage() != null) {
-            processingMessage += compileResult.getErrorMessage();
-            updateStatus(sidePanel, KaitaiStatusType.COMPILE_FAILED);
-            this.parser = null;
+
+        BinedKaitaiModule kaitaiModule = App.getModule(BinedKaitaiModule.class);
+        DefinitionRecord processedDefinition = definitionRecord;
+        processingJob = kaitaiModule.getDefinitionProcessor().process(processedDefinition, createSnapshot(sourceData), new DefinitionProcessor.Listener() {
+            @Override
+            public void interpreted(KaitaiParser.ParsingResult parsingResult, BinaryDataSnapshot snapshot, PhaseTimings timings) {
+                compileTimings = timings;
+                visualizer.showParsingResult(parsingResult, snapshot);
+                parseTime = parsingResult.getParseTime();
+                parseStatistics = parsingResult.getStatistics();
+                parseTimings = parsingResult.getTimings();
+                updateStatus(sidePanel, KaitaiStatusType.INTERPRETED);
+                kaitaiModule.reportFirstParse(System.nanoTime() - startTime);
+            }
+
+            @Override
+            public void parsingStarted() {
+                if (status != KaitaiStatusType.INTERPRETED) {
+                    updateStatus(sidePanel, KaitaiStatusType.PARSING);
+                }
+            }
+
+            @Override
+            public void compilationFailed(KaitaiCompiler.CompileResult compileResult) {
+                processingJob = null;
+                // Interpreted tree is kept if available
+                compileTimings = compileResult.getTimings();
+                sidePanel.setCompileError(processedDefinition, compileResult.getErrorMessage());
+                processingMessage += compileResult.getErrorMessage();
+                updateStatus(sidePanel, KaitaiStatusType.COMPILE_FAILED);
+            }
+
+            @Override
+            public void parsed(KaitaiParser parser, KaitaiCompiler.CompileResult compileResult, KaitaiParser.ParsingResult parsingResult, BinaryDataSnapshot snapshot) {
+                processingJob = null;
+                sidePanel.setCompileError(processedDefinition, null);
+                setParser(parser);
+                applyParsingResult(parser, parsingResult, snapshot, sidePanel);
+                compileTimings = compileResult.getTimings();
+                if (parsingResult.getErrorMessage() == null) {
+                    kaitaiModule.reportFirstParse(System.nanoTime() - startTime);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels processing of the definition in progress if any.
+     * <p>
+     * Record which was not processed completely is marked for processing
+     * when shown again.
+     */
+    public void cancelProcessing() {
+        if (processingJob == null) {
             return;
         }
-        this.parser = compileResult.getParser();
 
-        updateStatus(sidePanel, KaitaiStatusType.PARSING);
-        KaitaiParser.ParsingResult parsingResult = visualizer.parseData(parser, sourceData);
+        processingJob.cancel();
+        processingJob = null;
+        if (status == KaitaiStatusType.COMPILING || status == KaitaiStatusType.PARSING || status == KaitaiStatusType.INTERPRETED) {
+            status = KaitaiStatusType.NO_FILE;
+        }
+    }
+
+    /**
+     * Returns whether processing of the definition is in progress.
+     *
+     * @return true if processing
+     */
+    public boolean isProcessing() {
+        return processingJob != null;
+    }
+
+    /**
+     * Creates snapshot of the current data for parsing.
+     * <p>
+     * Data are copied when the pending snapshot is resolved off the event
+     * dispatch thread.
+     *
+     * @param sourceData live data
+     * @return pending snapshot tagged with current revision
+     */
+    public BinaryDataSnapshot.Pending createSnapshot(EditableBinaryData sourceData) {
+        return BinaryDataSnapshot.pending(sourceData, dataRevision, this::getDataRevision);
+    }
+
+    /**
+     * Applies result of parsing performed by given parser.
+     *
+     * @param parser parser used for parsing
+     * @param parsingResult parsing result
+     * @param snapshot parsed snapshot, record takes ownership
+     * @param sidePanel side panel
+     */
+    public void applyParsingResult(KaitaiParser parser, KaitaiParser.ParsingResult parsingResult, BinaryDataSnapshot snapshot, KaitaiSidePanel sidePanel) {
+        cancelProcessing();
+        if (parser != this.parser) {
+            // Parser compiled elsewhere
+            compileTimings = null;
+        }
+        setParser(parser);
+        processingMessage = "";
+        clearParseTree();
+        visualizer.showParsingResult(parsingResult, snapshot);
+        parseTime = parsingResult.getParseTime();
+        parseStatistics = parsingResult.getStatistics();
+        parseTimings = parsingResult.getTimings();
         if (parsingResult.getErrorMessage() != null) {
-            clearParseTree();
+            // Partially read structure is kept in the tree
             processingMessage += parsingResult.getErrorMessage();
             updateStatus(sidePanel, KaitaiStatusType.PARSE_FAILED);
             return;
@@ -96,6 +258,38 @@ public class KaitaiSideRecord {
     private void clearParseTree() {
         DefaultTreeModel model = visualizer.getModel();
         model.setRoot(null);
+        visualizer.releaseSnapshot();
+        parseTime = -1;
+        parseStatistics = null;
+        parseTimings = null;
+    }
+
+    /**
+     * Replaces used parser, parser acquired from the parser registry is
+     * returned to it.
+     *
+     * @param parser parser or null
+     */
+    private void setParser(@Nullable KaitaiParser parser) {
+        KaitaiParser previousParser = this.parser;
+        if (previousParser == parser) {
+            return;
+        }
+
+        this.parser = parser;
+        if (previousParser != null) {
+            App.getModule(BinedKaitaiModule.class).getParserRegistry().release(previousParser);
+        }
+    }
+
+    /**
+     * Releases resources held by the record.
+     */
+    public void dispose() {
+        cancelProcessing();
+        setCodeArea(null);
+        clearParseTree();
+        setParser(null);
     }
 
     @Nullable
@@ -111,9 +305,18 @@ public class KaitaiSideRecord {
         return parserComponent;
     }
     
+    /**
+     * Sets status of the record, status is shown if parse tree of the record
+     * is shown in the side panel.
+     *
+     * @param sidePanel side panel
+     * @param status status
+     */
     public void updateStatus(KaitaiSidePanel sidePanel, KaitaiStatusType status) {
         this.status = status;
-        sidePanel.setStatus(status);
+        if (sidePanel.getParserComponent() == parserComponent) {
+            sidePanel.setStatus(status);
+        }
     }
 
     public KaitaiStatusType getStatus() {
@@ -123,4 +326,43 @@ public class KaitaiSideRecord {
     public String getProcessingMessage() {
         return processingMessage;
     }
+
+    /**
+     * Returns wall time of the last parsing.
+     *
+     * @return time in nanoseconds or -1 if not parsed
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * Returns timings of the phases of the last compilation.
+     *
+     * @return timings or null if not compiled
+     */
+    @Nullable
+    public PhaseTimings getCompileTimings() {
+        return compileTimings;
+    }
+
+    /**
+     * Returns timings of the phases of the last parsing.
+     *
+     * @return timings or null if not parsed
+     */
+    @Nullable
+    public PhaseTimings getParseTimings() {
+        return parseTimings;
+    }
+
+    /**
+     * Returns read statistics of the last parsing.
+     *
+     * @return statistics or null if not available
+     */
+    @Nullable
+    public StreamStatistics getParseStatistics() {
+        return parseStatistics;
+    }
 }
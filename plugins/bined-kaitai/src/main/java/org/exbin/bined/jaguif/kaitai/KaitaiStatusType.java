@@ -24,6 +24,7 @@ public enum KaitaiStatusType {
     NO_DEFINITION,
     OK,
     COMPILING,
+    INTERPRETED,
     COMPILE_FAILED,
     PARSING,
     PARSE_FAILED
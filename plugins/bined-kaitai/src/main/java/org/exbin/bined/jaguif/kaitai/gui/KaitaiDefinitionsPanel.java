@@ -16,14 +16,19 @@
 package org.exbin.bined.jaguif.kaitai.gui;
 
 import java.awt.Component;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
+import javax.swing.ImageIcon;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.event.ListSelectionEvent;
@@ -40,6 +45,8 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
     protected final java.util.ResourceBundle resourceBundle = App.getModule(LanguageModuleApi.class).getBundle(KaitaiDefinitionsPanel.class);
     protected Controller controller;
     protected DefaultListModel<DefinitionRecord> definitionsListModel;
+    protected final Map<DefinitionRecord, String> compileErrors = new HashMap<>();
+    protected boolean precompiling = false;
 
     public KaitaiDefinitionsPanel() {
         initComponents();
@@ -49,6 +56,7 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
     private void init() {
         definitionsListModel = new DefaultListModel<>();
         definitionsList.setModel(definitionsListModel);
+        ImageIcon compileFailedIcon = new ImageIcon(getClass().getResource(resourceBundle.getString("compileFailed.icon")));
         definitionsList.setCellRenderer(new DefaultListCellRenderer() {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
@@ -56,6 +64,9 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
                 if (value instanceof DefinitionRecord) {
                     DefinitionRecord definition = (DefinitionRecord) value;
                     component.setText(definition.getTitle());
+                    String compileError = compileErrors.get(definition);
+                    component.setIcon(compileError == null ? null : compileFailedIcon);
+                    component.setToolTipText(compileError == null ? null : getFirstLine(compileError));
                 }
                 return component;
             }
@@ -86,6 +97,56 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
         }
     }
     
+    /**
+     * Replaces errors of definitions which failed to compile.
+     *
+     * @param compileErrors map of definition to error message
+     */
+    public void setCompileErrors(Map<DefinitionRecord, String> compileErrors) {
+        this.compileErrors.clear();
+        this.compileErrors.putAll(compileErrors);
+        definitionsList.repaint();
+    }
+
+    /**
+     * Flags definition as failed to compile or clears the flag.
+     *
+     * @param definition definition record
+     * @param errorMessage error message or null if compiled successfully
+     */
+    public void setCompileError(DefinitionRecord definition, @Nullable String errorMessage) {
+        if (errorMessage == null) {
+            compileErrors.remove(definition);
+        } else {
+            compileErrors.put(definition, errorMessage);
+        }
+        definitionsList.repaint();
+    }
+
+    /**
+     * Shows progress of precompilation of definitions.
+     *
+     * @param completedCount count of compiled definitions
+     * @param totalCount count of definitions to compile
+     */
+    public void setPrecompileProgress(int completedCount, int totalCount) {
+        precompileProgressBar.setMaximum(totalCount);
+        precompileProgressBar.setValue(completedCount);
+        precompileProgressBar.setString(MessageFormat.format(resourceBundle.getString("precompileProgressBar.format"), completedCount, totalCount));
+    }
+
+    public void setPrecompiling(boolean precompiling) {
+        this.precompiling = precompiling;
+        precompileProgressBar.setVisible(precompiling);
+        controlPanel.revalidate();
+        updateState();
+    }
+
+    private static String getFirstLine(String text) {
+        int lineEnd = text.indexOf('\n');
+        return lineEnd < 0 ? text : text.substring(0, lineEnd);
+    }
+
     public Optional<DefinitionRecord> getSelectedDefinition() {
         return Optional.ofNullable(definitionsList.getSelectedValue());
     }
@@ -98,6 +159,7 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
         editButton.setEnabled(singleSelection);
         selectAllButton.setEnabled(hasAnyItems);
         removeButton.setEnabled(hasSelection);
+        precompileButton.setEnabled(hasAnyItems && !precompiling);
 
         if (hasSelection) {
             upButton.setEnabled(definitionsList.getMaxSelectionIndex() >= selectedIndices.length);
@@ -132,6 +194,8 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
         downButton = new javax.swing.JButton();
         selectAllButton = new javax.swing.JButton();
         removeButton = new javax.swing.JButton();
+        precompileButton = new javax.swing.JButton();
+        precompileProgressBar = new javax.swing.JProgressBar();
         definitionsListScrollPane = new javax.swing.JScrollPane();
         definitionsList = new javax.swing.JList<>();
         previewPanel = new javax.swing.JPanel();
@@ -190,6 +254,17 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
             }
         });
 
+        precompileButton.setText(resourceBundle.getString("precompileButton.text")); // NOI18N
+        precompileButton.setEnabled(false);
+        precompileButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                precompileButtonActionPerformed(evt);
+            }
+        });
+
+        precompileProgressBar.setStringPainted(true);
+        precompileProgressBar.setVisible(false);
+
         javax.swing.GroupLayout controlPanelLayout = new javax.swing.GroupLayout(controlPanel);
         controlPanel.setLayout(controlPanelLayout);
         controlPanelLayout.setHorizontalGroup(
@@ -203,7 +278,9 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
                     .addComponent(removeButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(selectAllButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(downButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(upButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                    .addComponent(upButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(precompileButton, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(precompileProgressBar, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap())
         );
         controlPanelLayout.setVerticalGroup(
@@ -223,6 +300,10 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
                 .addComponent(selectAllButton)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(removeButton)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(precompileButton)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(precompileProgressBar, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -330,6 +411,10 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
         notifyModified();
     }//GEN-LAST:event_editButtonActionPerformed
 
+    private void precompileButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_precompileButtonActionPerformed
+        controller.precompileAll();
+    }//GEN-LAST:event_precompileButtonActionPerformed
+
     private void addButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_addButtonActionPerformed
         controller.addDefinition();
     }//GEN-LAST:event_addButtonActionPerformed
@@ -342,6 +427,8 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
     private javax.swing.JScrollPane definitionsListScrollPane;
     private javax.swing.JButton downButton;
     private javax.swing.JButton editButton;
+    private javax.swing.JButton precompileButton;
+    private javax.swing.JProgressBar precompileProgressBar;
     private javax.swing.JPanel previewPanel;
     private javax.swing.JButton removeButton;
     private javax.swing.JButton selectAllButton;
@@ -358,5 +445,7 @@ public class KaitaiDefinitionsPanel extends javax.swing.JPanel {
         void editDefinition();
 
         void updatePreview(JPanel previewPanel, DefinitionRecord definition);
+
+        void precompileAll();
     }
 }
@@ -15,10 +15,14 @@
  */
 package org.exbin.bined.jaguif.kaitai.gui;
 
+import io.kaitai.struct.StreamStatistics;
+import java.util.Locale;
 import java.util.ResourceBundle;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import org.exbin.jaguif.language.api.LanguageModuleApi;
 import org.exbin.jaguif.App;
+import org.exbin.bined.jaguif.kaitai.service.PhaseTimings;
 
 /**
  * Kaitai processing message panel.
@@ -27,6 +31,9 @@ import org.exbin.jaguif.App;
 public class KaitaiProcessingMessagePanel extends javax.swing.JPanel {
 
     protected final java.util.ResourceBundle resourceBundle = App.getModule(LanguageModuleApi.class).getBundle(KaitaiProcessingMessagePanel.class);
+    protected String processingMessage = "";
+    protected String statisticsText = "";
+    protected String timingsText = "";
 
     public KaitaiProcessingMessagePanel() {
         initComponents();
@@ -41,7 +48,100 @@ public class KaitaiProcessingMessagePanel extends javax.swing.JPanel {
     }
 
     public void setProcessingMessage(String message) {
-        textPane.setText(message);
+        processingMessage = message;
+        updateText();
+    }
+
+    /**
+     * Sets parsing time and read statistics shown before processing message.
+     *
+     * @param parseTime parse time in nanoseconds or -1 if not parsed
+     * @param statistics read statistics or null if not collected
+     */
+    public void setParseStatistics(long parseTime, @Nullable StreamStatistics statistics) {
+        StringBuilder builder = new StringBuilder();
+        if (parseTime >= 0) {
+            appendValue(builder, "statistics.parseTime", String.format("%.3f ms", parseTime / 1000000.0));
+        }
+        if (statistics != null) {
+            appendValue(builder, "statistics.bytesRead", String.valueOf(statistics.getBytesRead()));
+            appendValue(builder, "statistics.distinctBytesRead", String.valueOf(statistics.getDistinctBytesRead()));
+            appendValue(builder, "statistics.readAmplification", String.format("%.2fx", statistics.getReadAmplification()));
+            appendValue(builder, "statistics.largestRereadSpan", String.valueOf(statistics.getLargestRereadSpan()));
+            appendValue(builder, "statistics.primitiveReads", String.valueOf(statistics.getPrimitiveReads()));
+            appendValue(builder, "statistics.bytesCopied", String.valueOf(statistics.getBytesCopied()));
+            appendValue(builder, "statistics.bytesScanned", String.valueOf(statistics.getBytesScanned()));
+            appendValue(builder, "statistics.seeks", String.valueOf(statistics.getSeeks()));
+            appendValue(builder, "statistics.backwardSeeks", String.valueOf(statistics.getBackwardSeeks()));
+        }
+        statisticsText = builder.toString();
+        updateText();
+    }
+
+    /**
+     * Sets timings of the compilation and parsing phases shown before
+     * processing message.
+     *
+     * @param compileTimings compilation timings or null if not available
+     * @param parseTimings parsing timings or null if not available
+     */
+    public void setPhaseTimings(@Nullable PhaseTimings compileTimings, @Nullable PhaseTimings parseTimings) {
+        StringBuilder builder = new StringBuilder();
+        if (compileTimings != null) {
+            appendTimings(builder, "timings.compile", compileTimings);
+        }
+        if (parseTimings != null) {
+            appendTimings(builder, "timings.parse", parseTimings);
+        }
+        timingsText = builder.toString();
+        updateText();
+    }
+
+    private void appendTimings(StringBuilder builder, String titleKey, PhaseTimings timings) {
+        builder.append(resourceBundle.getString(titleKey));
+        PhaseTimings.DefinitionSource source = timings.getSource();
+        if (source != null) {
+            builder.append(" (").append(resourceBundle.getString("source." + toKeyName(source.name()))).append(")");
+        }
+        builder.append("\n");
+        for (PhaseTimings.Phase phase : timings.getPhases()) {
+            String value = String.format("%.3f ms", timings.getWallTime(phase) / 1000000.0);
+            long allocatedBytes = timings.getAllocatedBytes(phase);
+            if (allocatedBytes >= 0) {
+                value += String.format(", %.1f KiB", allocatedBytes / 1024.0);
+            }
+            builder.append("  ");
+            appendValue(builder, "phase." + toKeyName(phase.name()), value);
+        }
+    }
+
+    /**
+     * Converts constant name to resource key name in camel case.
+     *
+     * @param name constant name
+     * @return key name
+     */
+    private static String toKeyName(String name) {
+        StringBuilder builder = new StringBuilder();
+        boolean upperCase = false;
+        for (char character : name.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (character == '_') {
+                upperCase = true;
+            } else {
+                builder.append(upperCase ? Character.toUpperCase(character) : character);
+                upperCase = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    private void appendValue(StringBuilder builder, String key, String value) {
+        builder.append(resourceBundle.getString(key)).append(": ").append(value).append("\n");
+    }
+
+    private void updateText() {
+        String headerText = statisticsText.isEmpty() || timingsText.isEmpty() ? statisticsText + timingsText : statisticsText + "\n" + timingsText;
+        textPane.setText(headerText.isEmpty() ? processingMessage : headerText + "\n" + processingMessage);
         textPane.setCaretPosition(0);
     }
 
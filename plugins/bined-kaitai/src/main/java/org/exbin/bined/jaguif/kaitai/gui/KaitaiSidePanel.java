@@ -18,10 +18,13 @@ package org.exbin.bined.jaguif.kaitai.gui;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
 import javax.swing.DefaultListCellRenderer;
+import javax.swing.ImageIcon;
 import javax.swing.JList;
 import org.exbin.jaguif.language.api.LanguageModuleApi;
 import org.exbin.jaguif.App;
@@ -38,6 +41,7 @@ public class KaitaiSidePanel extends javax.swing.JPanel {
     protected final java.util.ResourceBundle resourceBundle = App.getModule(LanguageModuleApi.class).getBundle(KaitaiSidePanel.class);
     protected Controller controller;
     protected Component currentParserComponent;
+    protected final Map<DefinitionRecord, String> compileErrors = new HashMap<>();
 
     public KaitaiSidePanel() {
         initComponents();
@@ -45,13 +49,18 @@ public class KaitaiSidePanel extends javax.swing.JPanel {
     }
 
     private void init() {
+        ImageIcon compileFailedIcon = new ImageIcon(getClass().getResource(resourceBundle.getString("compileFailed.icon")));
         comboBox.setRenderer(new DefaultListCellRenderer() {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                String compileError = null;
                 if (value instanceof DefinitionRecord) {
+                    compileError = compileErrors.get((DefinitionRecord) value);
                     value = ((DefinitionRecord) value).getTitle();
                 }
-                return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                DefaultListCellRenderer component = (DefaultListCellRenderer) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                component.setIcon(compileError == null ? null : compileFailedIcon);
+                return component;
             }
         });
     }
@@ -93,6 +102,30 @@ public class KaitaiSidePanel extends javax.swing.JPanel {
         comboBox.setSelectedIndex(comboBox.getItemCount() - 1);
     }
 
+    /**
+     * Returns errors of definitions which failed to compile.
+     *
+     * @return map of definition to error message
+     */
+    public Map<DefinitionRecord, String> getCompileErrors() {
+        return new HashMap<>(compileErrors);
+    }
+
+    /**
+     * Flags definition as failed to compile or clears the flag.
+     *
+     * @param definitionRecord definition record
+     * @param errorMessage error message or null if compiled successfully
+     */
+    public void setCompileError(DefinitionRecord definitionRecord, @Nullable String errorMessage) {
+        if (errorMessage == null) {
+            compileErrors.remove(definitionRecord);
+        } else {
+            compileErrors.put(definitionRecord, errorMessage);
+        }
+        comboBox.repaint();
+    }
+
     public void setStatus(KaitaiStatusType statusType) {
         String iconResource;
         String statusText;
@@ -114,6 +147,10 @@ public class KaitaiSidePanel extends javax.swing.JPanel {
                 iconResource = resourceBundle.getString("statusType.compiling.icon");
                 statusText = resourceBundle.getString("statusType.compiling.text");
                 break;
+            case INTERPRETED:
+                iconResource = resourceBundle.getString("statusType.interpreted.icon");
+                statusText = resourceBundle.getString("statusType.interpreted.text");
+                break;
             case COMPILE_FAILED:
                 iconResource = resourceBundle.getString("statusType.compileFailed.icon");
                 statusText = resourceBundle.getString("statusType.compileFailed.text");
@@ -136,6 +173,16 @@ public class KaitaiSidePanel extends javax.swing.JPanel {
         statusDetailButton.setEnabled(detailAvailable);
     }
 
+    /**
+     * Returns currently shown parser component.
+     *
+     * @return component or null
+     */
+    @Nullable
+    public Component getParserComponent() {
+        return currentParserComponent;
+    }
+
     public void setParserComponent(@Nullable Component component) {
         if (currentParserComponent != null) {
             parsePanel.remove(currentParserComponent);
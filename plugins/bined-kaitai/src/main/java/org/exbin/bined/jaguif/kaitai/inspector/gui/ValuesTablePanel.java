@@ -195,7 +195,7 @@ public class ValuesTablePanel extends javax.swing.JPanel {
                     Object userObject = childNode.getUserObject();
                     tableModel.addRow(new NullValueRowType((String) userObject, 0).createRowItem());
                 } else {
-                    tableModel.addRow(new NullValueRowType(((DataNode) node).getName(), ((DataNode) node).posStart()).createRowItem());
+                    tableModel.addRow(new NullValueRowType(((DataNode) node).getName(), getPosStart((DataNode) node)).createRowItem());
                 }
             }
 
@@ -215,22 +215,23 @@ public class ValuesTablePanel extends javax.swing.JPanel {
         for (PropertyTableItem item : items) {
             long dataPosition = ((ValueRowItem) item).getPosition();
             long available = dataSize - dataPosition;
-            int valuesAvailable = Math.min((int) available, DATA_LIMIT);
+            int valuesAvailable = (int) Math.min(available, DATA_LIMIT);
             contentData.copyToArray(dataPosition, values, 0, valuesAvailable);
             ((ValueRowItem) item).updateRow(values, valuesAvailable);
         }
         tableModel.fireTableRowsUpdated(0, tableModel.getRowCount() - 1);
     }
     
-    private static int getPosStart(DataNode childNode) {
-        Integer posStart = childNode.posStart();
-        return posStart == null ? 0 : (int) posStart;
+    private static long getPosStart(DataNode childNode) {
+        Long posStart = childNode.posStart();
+        return posStart == null ? 0 : posStart;
     }
 
     private static int getLength(DataNode childNode) {
-        Integer posStart = childNode.posStart();
-        Integer posEnd = childNode.posEnd();
-        return (posEnd == null ? 0 : (int) posEnd) - (posStart == null ? 0 : (int) posStart);
+        Long posStart = childNode.posStart();
+        Long posEnd = childNode.posEnd();
+        long length = (posEnd == null ? 0 : posEnd) - (posStart == null ? 0 : posStart);
+        return (int) Math.min(length, Integer.MAX_VALUE);
     }
     
     /**
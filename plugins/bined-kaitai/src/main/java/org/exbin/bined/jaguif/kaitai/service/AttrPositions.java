@@ -1,26 +1,29 @@
 package org.exbin.bined.jaguif.kaitai.service;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
 
 /**
  * Kaitai processing attribute position.
+ * <p>
+ * Positions are recorded as absolute positions in source data when read,
+ * regardless of the stream used to read the attribute.
  */
 @NullMarked
 public class AttrPositions {
 
-    private Map<String, Integer> attrStart;
-    private Map<String, Integer> attrEnd;
-    private Map<String, ArrayList<Integer>> arrStart;
-    private Map<String, ArrayList<Integer>> arrEnd;
+    private Map<String, ? extends Number> attrStart;
+    private Map<String, ? extends Number> attrEnd;
+    private Map<String, ? extends List<? extends Number>> arrStart;
+    private Map<String, ? extends List<? extends Number>> arrEnd;
 
     private AttrPositions(
-            Map<String, Integer> attrStart,
-            Map<String, Integer> attrEnd,
-            Map<String, ArrayList<Integer>> arrStart,
-            Map<String, ArrayList<Integer>> arrEnd
+            Map<String, ? extends Number> attrStart,
+            Map<String, ? extends Number> attrEnd,
+            Map<String, ? extends List<? extends Number>> arrStart,
+            Map<String, ? extends List<? extends Number>> arrEnd
     ) {
         this.attrStart = attrStart;
         this.attrEnd = attrEnd;
@@ -28,37 +31,80 @@ public class AttrPositions {
         this.arrEnd = arrEnd;
     }
 
-    public Integer getStart(String attrName) {
-        return attrStart.get(attrName);
+    @Nullable
+    public Long getStart(String attrName) {
+        return toLong(attrStart.get(attrName));
     }
 
-    public Integer getEnd(String attrName) {
-        return attrEnd.get(attrName);
+    @Nullable
+    public Long getEnd(String attrName) {
+        return toLong(attrEnd.get(attrName));
     }
 
-    public Integer getStart(String attrName, int idx) {
-        ArrayList<Integer> positions = arrStart.get(attrName);
-        return (positions != null) ? positions.get(idx) : null;
+    @Nullable
+    public Long getStart(String attrName, int idx) {
+        List<? extends Number> positions = arrStart.get(attrName);
+        return (positions != null) ? toLong(positions.get(idx)) : null;
     }
 
-    public Integer getEnd(String attrName, int idx) {
-        ArrayList<Integer> positions = arrEnd.get(attrName);
-        return (positions != null) ? positions.get(idx) : null;
+    @Nullable
+    public Long getEnd(String attrName, int idx) {
+        List<? extends Number> positions = arrEnd.get(attrName);
+        return (positions != null) ? toLong(positions.get(idx)) : null;
     }
 
-    public static AttrPositions fromStruct(Object struct) throws NoSuchFieldException, IllegalAccessException {
-        Class<?> ksyClass = struct.getClass();
+    /**
+     * Returns whether reading of the attribute started, but didn't finish.
+     *
+     * @param attrName attribute name
+     * @return true if incomplete
+     */
+    public boolean isIncomplete(String attrName) {
+        return attrStart.containsKey(attrName) && !attrEnd.containsKey(attrName);
+    }
+
+    /**
+     * Returns index of the element of the repeated attribute which reading
+     * started, but didn't finish.
+     *
+     * @param attrName attribute name
+     * @return index or -1 if all started elements were finished
+     */
+    public int getIncompleteIndex(String attrName) {
+        List<? extends Number> starts = arrStart.get(attrName);
+        if (starts == null) {
+            return -1;
+        }
+
+        List<? extends Number> ends = arrEnd.get(attrName);
+        int finishedCount = ends == null ? 0 : ends.size();
+        return starts.size() > finishedCount ? finishedCount : -1;
+    }
+
+    @Nullable
+    private static Long toLong(@Nullable Number position) {
+        return position == null ? null : position.longValue();
+    }
 
-        Field fAttrStart = ksyClass.getDeclaredField("_attrStart");
-        Field fAttrEnd = ksyClass.getDeclaredField("_attrEnd");
-        Field fArrStart = ksyClass.getDeclaredField("_arrStart");
-        Field fArrEnd = ksyClass.getDeclaredField("_arrEnd");
+    /**
+     * Reads positions recorded by the structure.
+     *
+     * @param struct structure
+     * @return attribute positions
+     * @throws NoSuchFieldException if structure doesn't record positions
+     */
+    @SuppressWarnings("unchecked")
+    public static AttrPositions fromStruct(Object struct) throws NoSuchFieldException {
+        StructAccessor accessor = StructAccessor.forClass(struct.getClass());
+        if (!accessor.hasPositions()) {
+            throw new NoSuchFieldException(struct.getClass().getName() + "._attrStart");
+        }
 
         return new AttrPositions(
-                (Map<String, Integer>) fAttrStart.get(struct),
-                (Map<String, Integer>) fAttrEnd.get(struct),
-                (Map<String, ArrayList<Integer>>) fArrStart.get(struct),
-                (Map<String, ArrayList<Integer>>) fArrEnd.get(struct)
+                (Map<String, ? extends Number>) accessor.getAttrStart(struct),
+                (Map<String, ? extends Number>) accessor.getAttrEnd(struct),
+                (Map<String, ? extends List<? extends Number>>) accessor.getArrStart(struct),
+                (Map<String, ? extends List<? extends Number>>) accessor.getArrEnd(struct)
         );
     }
 }
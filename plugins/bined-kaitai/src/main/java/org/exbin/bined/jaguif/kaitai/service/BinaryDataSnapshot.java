@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.swing.SwingUtilities;
+import org.exbin.auxiliary.binary_data.BinaryData;
+import org.exbin.auxiliary.binary_data.EditableBinaryData;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.auxiliary.binary_data.delta.DeltaDocument;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Frozen revision of document binary data used for parsing.
+ * <p>
+ * Snapshot is created using copy of the live data, which for delta documents
+ * shares unmodified file segments and duplicates only edited segments. Live
+ * data can be modified while parsing reads from the snapshot. Data which are
+ * copied whole are copied off the event dispatch thread using
+ * {@link Pending}.
+ * <p>
+ * Frozen data can be shared by multiple snapshots, data are released when
+ * the last of them is disposed.
+ */
+@ThreadSafe
+@NullMarked
+public class BinaryDataSnapshot {
+
+    public static final long NO_REVISION = -1;
+
+    private final EditableBinaryData data;
+    private final long revision;
+    private final AtomicInteger references;
+    private final AtomicBoolean disposed = new AtomicBoolean();
+
+    private BinaryDataSnapshot(EditableBinaryData data, long revision) {
+        this.data = data;
+        this.revision = revision;
+        references = new AtomicInteger(1);
+    }
+
+    private BinaryDataSnapshot(BinaryDataSnapshot source) {
+        data = source.data;
+        revision = source.revision;
+        references = source.references;
+    }
+
+    /**
+     * Creates snapshot of the current content of the live data.
+     * <p>
+     * Must be called while live data are not being modified, typically on
+     * event dispatch thread.
+     *
+     * @param liveData live data
+     * @param revision revision of the live data
+     * @return snapshot
+     */
+    public static BinaryDataSnapshot create(EditableBinaryData liveData, long revision) {
+        BinaryData copy = liveData.copy();
+        if (copy instanceof EditableBinaryData) {
+            return new BinaryDataSnapshot((EditableBinaryData) copy, revision);
+        }
+
+        ByteArrayEditableData data = new ByteArrayEditableData();
+        data.insert(0, copy);
+        copy.dispose();
+        return new BinaryDataSnapshot(data, revision);
+    }
+
+    /**
+     * Creates pending snapshot of the current content of the live data.
+     * <p>
+     * Must be called on the event dispatch thread, data are copied later by
+     * {@link Pending#resolve()}.
+     *
+     * @param liveData live data
+     * @param revision revision of the live data
+     * @param revisionSupplier supplier of the current revision of the live
+     * data, called on the event dispatch thread
+     * @return pending snapshot
+     */
+    public static Pending pending(EditableBinaryData liveData, long revision, LongSupplier revisionSupplier) {
+        return new Pending(liveData, revision, revisionSupplier);
+    }
+
+    /**
+     * Returns frozen data.
+     * <p>
+     * Data must not be modified.
+     *
+     * @return data
+     */
+    public EditableBinaryData getData() {
+        return data;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Creates another snapshot sharing the same data with independent
+     * lifecycle.
+     * <p>
+     * Can be called from any thread as frozen data are never modified. Must
+     * not be called after this snapshot is disposed.
+     *
+     * @return snapshot
+     */
+    public BinaryDataSnapshot share() {
+        references.incrementAndGet();
+        return new BinaryDataSnapshot(this);
+    }
+
+    /**
+     * Releases this snapshot, copied data are released when no other
+     * snapshot shares them.
+     * <p>
+     * Snapshot must not be used after disposal.
+     */
+    public void dispose() {
+        if (disposed.compareAndSet(false, true) && references.decrementAndGet() == 0) {
+            data.dispose();
+        }
+    }
+
+    /**
+     * Snapshot of the live data waiting to be copied.
+     * <p>
+     * Live data are modified on the event dispatch thread only, so copy made
+     * on background thread is used only if revision of the live data didn't
+     * change until the copy was finished. Otherwise data are copied again on
+     * the event dispatch thread.
+     */
+    @Immutable
+    @NullMarked
+    public static final class Pending {
+
+        private final EditableBinaryData liveData;
+        private final long revision;
+        private final LongSupplier revisionSupplier;
+
+        private Pending(EditableBinaryData liveData, long revision, LongSupplier revisionSupplier) {
+            this.liveData = liveData;
+            this.revision = revision;
+            this.revisionSupplier = revisionSupplier;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        /**
+         * Copies live data.
+         * <p>
+         * Must be called off the event dispatch thread. Delta documents are
+         * copied on the event dispatch thread as their copy only shares
+         * segments.
+         *
+         * @return snapshot tagged with revision of the copied data
+         * @throws InterruptedException if interrupted while waiting for event
+         * dispatch thread
+         */
+        public BinaryDataSnapshot resolve() throws InterruptedException {
+            if (!(liveData instanceof DeltaDocument)) {
+                BinaryDataSnapshot snapshot = copyUnmodified();
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            }
+
+            return invokeOnEventDispatchThread(() -> create(liveData, revisionSupplier.getAsLong()));
+        }
+
+        /**
+         * Copies live data on calling thread.
+         *
+         * @return snapshot or null if live data were modified while copying
+         * @throws InterruptedException if interrupted while waiting for event
+         * dispatch thread
+         */
+        @Nullable
+        private BinaryDataSnapshot copyUnmodified() throws InterruptedException {
+            BinaryDataSnapshot snapshot;
+            try {
+                snapshot = create(liveData, revision);
+            } catch (RuntimeException ex) {
+                // Live data were modified while copying
+                return null;
+            }
+
+            boolean unmodified = false;
+            try {
+                unmodified = invokeOnEventDispatchThread(() -> revisionSupplier.getAsLong() == revision);
+            } finally {
+                if (!unmodified) {
+                    snapshot.dispose();
+                }
+            }
+            return unmodified ? snapshot : null;
+        }
+
+        private static <T> T invokeOnEventDispatchThread(Supplier<T> supplier) throws InterruptedException {
+            AtomicReference<T> result = new AtomicReference<>();
+            try {
+                SwingUtilities.invokeAndWait(() -> result.set(supplier.get()));
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+            return result.get();
+        }
+    }
+}
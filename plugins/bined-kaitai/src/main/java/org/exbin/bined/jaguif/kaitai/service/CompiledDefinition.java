@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.Immutable;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Compiled bytecode of the Kaitai definition.
+ */
+@Immutable
+@NullMarked
+public class CompiledDefinition {
+
+    private static final int FORMAT_MAGIC = 0x4b535943;
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, byte[]> classes;
+    private final List<String> paramNames;
+
+    /**
+     * Creates compiled definition.
+     *
+     * @param classes map of fully qualified class names to bytecode including
+     * data wrapper class
+     * @param paramNames parameter names of the top-level class
+     */
+    public CompiledDefinition(Map<String, byte[]> classes, List<String> paramNames) {
+        this.classes = Collections.unmodifiableMap(new LinkedHashMap<>(classes));
+        this.paramNames = Collections.unmodifiableList(paramNames);
+    }
+
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    public List<String> getParamNames() {
+        return paramNames;
+    }
+
+    /**
+     * Writes compiled definition.
+     *
+     * @param stream output stream
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(FORMAT_MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(paramNames.size());
+        for (String paramName : paramNames) {
+            output.writeUTF(paramName);
+        }
+
+        output.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeInt(entry.getValue().length);
+            output.write(entry.getValue());
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads compiled definition.
+     *
+     * @param stream input stream
+     * @return compiled definition
+     * @throws IOException if reading fails or data are not valid
+     */
+    public static CompiledDefinition read(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        if (input.readInt() != FORMAT_MAGIC || input.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported compiled definition format");
+        }
+
+        int paramsCount = input.readInt();
+        List<String> paramNames = new ArrayList<>(paramsCount);
+        for (int i = 0; i < paramsCount; i++) {
+            paramNames.add(input.readUTF());
+        }
+
+        int classesCount = input.readInt();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < classesCount; i++) {
+            String className = input.readUTF();
+            byte[] bytecode = new byte[input.readInt()];
+            input.readFully(bytecode);
+            classes.put(className, bytecode);
+        }
+        return new CompiledDefinition(classes, paramNames);
+    }
+
+    /**
+     * Returns total size of the bytecode.
+     *
+     * @return size in bytes
+     */
+    public long getBytecodeSize() {
+        long size = 0;
+        for (byte[] bytecode : classes.values()) {
+            size += bytecode.length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Persistent cache of compiled Kaitai definitions.
+ * <p>
+ * Each entry is stored as single file named by the cache key. Entries older
+ * than maximum age are removed and the least recently used entries are
+ * removed when total size exceeds maximum size.
+ */
+@ThreadSafe
+@NullMarked
+public class CompiledParserCache {
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static final String ENTRY_SUFFIX = ".ksyc";
+
+    private static CompiledParserCache defaultCache = null;
+
+    private final File directory;
+    private volatile long maxSize = DEFAULT_MAX_SIZE;
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+
+    public CompiledParserCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns cache stored in default user cache directory.
+     *
+     * @return cache
+     */
+    public static synchronized CompiledParserCache getDefaultCache() {
+        if (defaultCache == null) {
+            defaultCache = new CompiledParserCache(getDefaultDirectory());
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns platform specific user cache directory for compiled parsers.
+     *
+     * @return directory
+     */
+    public static File getDefaultDirectory() {
+        String osName = System.getProperty("os.name", "").toLowerCase();
+        String userHome = System.getProperty("user.home");
+        File cacheRoot;
+        if (osName.startsWith("windows") && System.getenv("LOCALAPPDATA") != null) {
+            cacheRoot = new File(System.getenv("LOCALAPPDATA"));
+        } else if (osName.startsWith("mac")) {
+            cacheRoot = new File(userHome, "Library/Caches");
+        } else if (System.getenv("XDG_CACHE_HOME") != null) {
+            cacheRoot = new File(System.getenv("XDG_CACHE_HOME"));
+        } else {
+            cacheRoot = new File(userHome, ".cache");
+        }
+        return new File(new File(cacheRoot, "exbin"), "bined-kaitai");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets maximum total size of the cache entries.
+     *
+     * @param maxSize size in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets maximum age of the cache entry since its last use.
+     *
+     * @param maxAge age in milliseconds
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Loads cached compiled definition.
+     *
+     * @param key cache key
+     * @return compiled definition or null if not cached or not readable
+     */
+    @Nullable
+    public synchronized CompiledDefinition load(String key) {
+        File entryFile = getEntryFile(key);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+
+        try (InputStream input = new BufferedInputStream(new FileInputStream(entryFile))) {
+            CompiledDefinition definition = CompiledDefinition.read(input);
+            entryFile.setLastModified(System.currentTimeMillis());
+            return definition;
+        } catch (IOException | RuntimeException ex) {
+            entryFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores compiled definition and evicts expired entries.
+     *
+     * @param key cache key
+     * @param definition compiled definition
+     * @throws IOException if writing fails
+     */
+    public synchronized void store(String key, CompiledDefinition definition) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        File tempFile = File.createTempFile(key, ".tmp", directory);
+        try {
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                definition.write(output);
+            }
+            Files.move(tempFile.toPath(), getEntryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tempFile.delete();
+        }
+
+        evict();
+    }
+
+    /**
+     * Removes entries older than maximum age and least recently used entries
+     * exceeding maximum size.
+     */
+    public synchronized void evict() {
+        File[] entryFiles = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (entryFiles == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Arrays.sort(entryFiles, Comparator.comparingLong(File::lastModified).reversed());
+        long totalSize = 0;
+        for (File entryFile : entryFiles) {
+            long entrySize = entryFile.length();
+            if (now - entryFile.lastModified() > maxAge || totalSize + entrySize > maxSize) {
+                entryFile.delete();
+            } else {
+                totalSize += entrySize;
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        File[] entryFiles = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (entryFiles != null) {
+            for (File entryFile : entryFiles) {
+                entryFile.delete();
+            }
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+}
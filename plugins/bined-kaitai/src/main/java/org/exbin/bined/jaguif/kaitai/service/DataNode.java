@@ -4,10 +4,8 @@ import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.MutableTreeNode;
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 import org.jspecify.annotations.Nullable;
@@ -22,30 +20,54 @@ public class DataNode extends DefaultMutableTreeNode {
     private boolean explored = false;
     private final int depth;
     private Object value;
-    private final Method method;
+    private final StructAccessor.Attribute attribute;
     private final String name;
-    private final Integer posStart;
-    private final Integer posEnd;
+    private final Long posStart;
+    private final Long posEnd;
+    @Nullable
+    private final String failure;
+    private boolean failing;
+    @Nullable
+    private InstanceEvaluator instanceEvaluator = null;
+    @Nullable
+    private LazyInstance instance = null;
+    private long instanceBytesRead = 0;
 
     public DataNode(int depth, Object value, String name) {
-        this(depth, value, null, name, null, null);
+        this(depth, value, null, name, null, null, null);
     }
 
-    private DataNode(int depth, Object value, Method method, Integer posStart, Integer posEnd) {
-        this(depth, value, method, null, posStart, posEnd);
+    /**
+     * Creates node of the structure which may be only partially read.
+     *
+     * @param depth depth in tree
+     * @param value value
+     * @param name name
+     * @param failure description of the failure of parsing or null if value
+     * was read completely
+     */
+    public DataNode(int depth, Object value, String name, @Nullable String failure) {
+        this(depth, value, null, name, null, null, failure);
     }
 
-    private DataNode(int depth, Object value, Method method, String name, Integer posStart, Integer posEnd) {
+    private DataNode(int depth, Object value, StructAccessor.Attribute attribute, Long posStart, Long posEnd, @Nullable String failure) {
+        this(depth, value, attribute, attribute.getName(), posStart, posEnd, failure);
+    }
+
+    private DataNode(int depth, Object value, StructAccessor.Attribute attribute, String name, Long posStart, Long posEnd, @Nullable String failure) {
         this.depth = depth;
         this.value = value;
-        this.method = method;
+        this.attribute = attribute;
         if (name != null) {
             this.name = name;
         } else {
-            this.name = method != null ? method.getName() : "?";
+            this.name = attribute != null ? attribute.getName() : "?";
         }
         this.posStart = posStart;
         this.posEnd = posEnd;
+        this.failure = failure;
+        // Reading of the value itself failed unless it has partial children
+        failing = failure != null && (value == null || isImmediate(value, value.getClass()));
 
         add(new DefaultMutableTreeNode("Loading...", false));
         setAllowsChildren(true);
@@ -63,20 +85,75 @@ public class DataNode extends DefaultMutableTreeNode {
     }
 
     @Nullable
-    public Integer posStart() {
+    public Long posStart() {
         return posStart;
     }
 
     @Nullable
-    public Integer posEnd() {
+    public Long posEnd() {
         return posEnd;
     }
 
+    /**
+     * Returns whether value was read only partially because parsing failed.
+     *
+     * @return true if partial
+     */
+    public boolean isPartial() {
+        return failure != null;
+    }
+
+    /**
+     * Returns whether parsing failed while reading this node.
+     *
+     * @return true if failing node
+     */
+    public boolean isFailing() {
+        return failing;
+    }
+
+    /**
+     * Sets evaluator of the instances, children of the node use the same
+     * evaluator.
+     * <p>
+     * If not set, instances are evaluated while exploring the node.
+     *
+     * @param instanceEvaluator instance evaluator or null
+     */
+    public void setInstanceEvaluator(@Nullable InstanceEvaluator instanceEvaluator) {
+        this.instanceEvaluator = instanceEvaluator;
+    }
+
+    /**
+     * Returns lazily evaluated instance value of the node.
+     *
+     * @return instance or null if value of the node was not evaluated by
+     * instance evaluator
+     */
+    @Nullable
+    public LazyInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * Cancels evaluation of the value of the node if in progress, value is
+     * evaluated again when node is explored.
+     */
+    public void cancelEvaluation() {
+        if (instance != null) {
+            instance.cancel();
+        }
+    }
+
     private void updateVisual() {
         StringBuilder sb = new StringBuilder();
         sb.append("<html>");
         sb.append(name);
-        if (value != null) {
+        if (failing) {
+            sb.append(" <strong style=\"color: #c00000\">[");
+            sb.append(escapeHtml(failure));
+            sb.append("]</strong>");
+        } else if (value != null) {
             if (value instanceof byte[]) {
                 sb.append(" = <strong style=\"color: red\">");
                 byte[] bytes = (byte[]) value;
@@ -95,6 +172,30 @@ public class DataNode extends DefaultMutableTreeNode {
                 sb.append("</strong>");
             }
         }
+        if (failure != null && !failing) {
+            sb.append(" <span style=\"color: gray\">(partial)</span>");
+        }
+        if (instance != null) {
+            switch (instance.getState()) {
+                case QUEUED:
+                case EVALUATING: {
+                    sb.append(" <span style=\"color: gray\">(evaluating");
+                    if (instanceBytesRead > 0) {
+                        sb.append(", ").append(instanceBytesRead).append(" bytes read");
+                    }
+                    sb.append(")</span>");
+                    break;
+                }
+                case FAILED: {
+                    sb.append(" <strong style=\"color: #c00000\">[");
+                    sb.append(escapeHtml(String.valueOf(instance.getErrorMessage())));
+                    sb.append("]</strong>");
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
         sb.append("</html>");
         setUserObject(sb.toString());
     }
@@ -122,7 +223,16 @@ public class DataNode extends DefaultMutableTreeNode {
             return;
         }
 
+        if (value == null && isUnevaluatedInstance()) {
+            evaluateInstance(finishListener, progressListener);
+            return;
+        }
+
         SwingWorker<List<DataNode>, Void> worker = new SwingWorker<List<DataNode>, Void>() {
+
+            // Failure of the node is shown on the event dispatch thread
+            private boolean failed = false;
+
             @Override
             protected List<DataNode> doInBackground() throws Exception {
                 // Here access database if needed
@@ -131,17 +241,25 @@ public class DataNode extends DefaultMutableTreeNode {
 
                 // System.out.println("exploring field " + name + ", value = " + value);
 
+                if (failing || (instance != null && instance.getState() == LazyInstance.State.FAILED)) {
+                    return children;
+                }
+
                 // Wasn't loaded yet?
-                if (value == null) {
+                if (value == null && instance == null) {
                     DataNode parentNode = (DataNode) parent;
                     // System.out.println("parentNode: name = " + parentNode.name + "; value = " + parentNode.value);
-                    value = method.invoke(parentNode.value);
+                    if (attribute != null) {
+                        value = attribute.getValue(parentNode.value);
+                    } else if (parentNode.value instanceof InterpretedStruct) {
+                        // Evaluates instance of interpreted structure
+                        value = ((InterpretedStruct) parentNode.value).getAttribute(name);
+                    }
                 }
 
                 // Still null?
                 if (value == null) {
                     value = "[null]";
-                    updateVisual();
                     return children;
                 }
 
@@ -149,60 +267,77 @@ public class DataNode extends DefaultMutableTreeNode {
                 // System.out.println("cl = " + cl);
 
                 if (isImmediate(value, cl)) {
-                    updateVisual();
                     return children;
                 }
 
                 if (value instanceof ArrayList) {
                     ArrayList list = (ArrayList) value;
+                    int incompleteIndex = -1;
+                    if (failure != null && parent instanceof DataNode) {
+                        Object parentValue = ((DataNode) parent).value;
+                        if (parentValue != null && StructAccessor.forClass(parentValue.getClass()).hasPositions()) {
+                            incompleteIndex = AttrPositions.fromStruct(parentValue).getIncompleteIndex(name);
+                        }
+                    }
 
                     for (int i = 0; i < list.size(); i++) {
                         Object el = list.get(i);
                         String arrayIdxStr = String.format("%04d", i);
 
-                        insertChild(children, new DataNode(depth + 1, el, arrayIdxStr));
+                        insertChild(children, new DataNode(depth + 1, el, arrayIdxStr, i == incompleteIndex ? failure : null));
+                    }
+                } else if (value instanceof InterpretedStruct) {
+                    InterpretedStruct struct = (InterpretedStruct) value;
+                    // Positions are updated when instances are evaluated
+                    synchronized (struct._root()) {
+                        AttrPositions debug = AttrPositions.fromStruct(struct);
+                        for (String attributeName : struct.getAttributeNames()) {
+                            insertChild(children, new DataNode(depth + 1, struct.peekAttribute(attributeName), null, attributeName, debug.getStart(attributeName), debug.getEnd(attributeName), getChildFailure(debug, attributeName)));
+                        }
                     }
                 } else if (isStructType(value)) {
                     AttrPositions debug = AttrPositions.fromStruct(value);
 
-                    for (Method m : cl.getDeclaredMethods()) {
-                        // Ignore static methods, i.e. "fromFile"
-                        if (Modifier.isStatic(m.getModifiers())) {
-                            continue;
-                        }
-
-                        String methodName = m.getName();
+                    for (StructAccessor.Attribute structAttribute : StructAccessor.forClass(cl).getAttributes()) {
+                        String attributeName = structAttribute.getName();
+                        Object curValue = structAttribute.getStoredValue(value);
 
-                        // Ignore all internal methods, i.e. "_io", "_parent", "_root"
-                        if (methodName.charAt(0) == '_') {
-                            continue;
-                        }
-
-                        try {
-                            Field field = cl.getDeclaredField(methodName);
-                            field.setAccessible(true);
-                            Object curValue = field.get(value);
-
-                            Integer posStart = debug.getStart(methodName);
-                            Integer posEnd = debug.getEnd(methodName);
+                        Long posStart = debug.getStart(attributeName);
+                        Long posEnd = debug.getEnd(attributeName);
 
-                            insertChild(children, new DataNode(depth + 1, curValue, m, posStart, posEnd));
-                        } catch (NoSuchFieldException e) {
-                            // System.out.println("no field, ignoring method " + methodName);
-                        }
+                        insertChild(children, new DataNode(depth + 1, curValue, structAttribute, posStart, posEnd, getChildFailure(debug, attributeName)));
                     }
                 }
 
+                if (failure != null && !hasPartialChild(children)) {
+                    failed = true;
+                }
+
                 setProgress(0);
                 return children;
             }
             
+            @Nullable
+            private String getChildFailure(AttrPositions positions, String attributeName) {
+                return failure != null && positions.isIncomplete(attributeName) ? failure : null;
+            }
+
+            private boolean hasPartialChild(List<DataNode> children) {
+                for (DataNode child : children) {
+                    if (child.isPartial()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
             private void insertChild(List<DataNode> children, DataNode insertedChild) {
-                Integer position = insertedChild.posStart();
+                insertedChild.instanceEvaluator = instanceEvaluator;
+                Long position = insertedChild.posStart();
                 if (position != null) {
                     for (int i = 0; i < children.size(); i++) {
-                        DataNode child = children.get(i);
-                        if (child.posStart() > position) {
+                        Long childPosition = children.get(i).posStart();
+                        if (childPosition != null && childPosition > position) {
                             children.add(i, insertedChild);
                             return;
                         }
@@ -214,6 +349,10 @@ public class DataNode extends DefaultMutableTreeNode {
 
             @Override
             protected void done() {
+                if (failed) {
+                    failing = true;
+                }
+                updateVisual();
                 try {
                     setChildren(get());
                     if (finishListener != null) {
@@ -232,6 +371,77 @@ public class DataNode extends DefaultMutableTreeNode {
         worker.execute();
     }
 
+    private boolean isUnevaluatedInstance() {
+        if (instanceEvaluator == null || failing || !(parent instanceof DataNode)) {
+            return false;
+        }
+
+        if (instance != null) {
+            LazyInstance.State state = instance.getState();
+            return state != LazyInstance.State.EVALUATED && state != LazyInstance.State.FAILED;
+        }
+
+        if (attribute != null) {
+            return attribute.isInstance();
+        }
+
+        // Sequence attribute skipped by its condition is not evaluated
+        Object parentValue = ((DataNode) parent).value;
+        return parentValue instanceof InterpretedStruct && ((InterpretedStruct) parentValue).isInstance(name);
+    }
+
+    /**
+     * Evaluates value of the node on the lane of the instance evaluator and
+     * explores the node afterwards.
+     */
+    private void evaluateInstance(final FinishListener finishListener, @Nullable final PropertyChangeListener progressListener) {
+        if (instance == null) {
+            instance = new LazyInstance(((DataNode) parent).value, name, attribute);
+        } else {
+            LazyInstance.State state = instance.getState();
+            if (state == LazyInstance.State.QUEUED || state == LazyInstance.State.EVALUATING) {
+                // Already requested by previous expansion
+                return;
+            }
+        }
+
+        instanceBytesRead = 0;
+        instance.request(instanceEvaluator, new LazyInstance.Listener() {
+            @Override
+            public void progressChanged(LazyInstance evaluatedInstance, long bytesRead) {
+                SwingUtilities.invokeLater(() -> {
+                    instanceBytesRead = bytesRead;
+                    updateVisual();
+                    if (progressListener != null) {
+                        progressListener.propertyChange(new PropertyChangeEvent(DataNode.this, "bytesRead", null, bytesRead));
+                    }
+                });
+            }
+
+            @Override
+            public void finished(LazyInstance evaluatedInstance, boolean cancelled) {
+                SwingUtilities.invokeLater(() -> {
+                    if (cancelled) {
+                        updateVisual();
+                        if (progressListener != null) {
+                            progressListener.propertyChange(new PropertyChangeEvent(DataNode.this, "state", null, evaluatedInstance.getState()));
+                        }
+                        return;
+                    }
+
+                    value = evaluatedInstance.getValue();
+                    updateVisual();
+                    explore(finishListener, progressListener);
+                });
+            }
+        });
+        updateVisual();
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
     private static boolean isStructType(Object value) {
         Class<?> superClass = value.getClass().getSuperclass();
         if (superClass.getName().startsWith("io.kaitai.struct.KaitaiStruct")) {
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.ThreadSafe;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Compiles list of definitions in parallel.
+ * <p>
+ * Definitions are compiled on a fork-join pool of bounded parallelism to the
+ * persistent cache of the compiler, so that switching to any of the
+ * definitions later loads the compiled definition instead of compiling it.
+ * Parsers are not created and the parser registry is not used, so that the
+ * batch doesn't evict parsers in use by its limit of the loaded parsers.
+ * <p>
+ * Kaitai compiler generates sources of one definition at a time, so only the
+ * java compilation stages of the definitions run concurrently.
+ */
+@ThreadSafe
+@NullMarked
+public class DefinitionBatchCompiler {
+
+    /**
+     * Default count of concurrent compilations, leaving one processor for the
+     * source generation and the user interface.
+     */
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final KaitaiCompiler compiler;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+
+    public DefinitionBatchCompiler(KaitaiCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets maximum count of definitions compiled at the same time.
+     * <p>
+     * Source generation is serialized, so the value bounds concurrent java
+     * compilations.
+     *
+     * @param parallelism count of compilation threads
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Starts compilation of all given definitions.
+     * <p>
+     * Listener is called from compilation threads.
+     *
+     * @param definitions definitions, duplicates are compiled once
+     * @param listener progress listener
+     * @return running batch
+     */
+    public Batch compileAll(List<DefinitionRecord> definitions, ProgressListener listener) {
+        List<DefinitionRecord> batchDefinitions = new ArrayList<>(new LinkedHashSet<>(definitions));
+        Batch batch = new Batch(batchDefinitions.size());
+        if (batchDefinitions.isEmpty()) {
+            listener.batchFinished(0, false);
+            batch.completion.complete(null);
+            return batch;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, batchDefinitions.size()), DefinitionBatchCompiler::createWorkerThread, null, false);
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[batchDefinitions.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            DefinitionRecord definition = batchDefinitions.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> batch.compile(definition, listener), pool);
+        }
+        CompletableFuture.allOf(tasks).whenComplete((result, ex) -> {
+            pool.shutdown();
+            try {
+                listener.batchFinished(batch.getFailedCount(), batch.isCancelled());
+            } finally {
+                batch.completion.complete(null);
+            }
+        });
+        return batch;
+    }
+
+    private static ForkJoinWorkerThread createWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("kaitai-precompile-" + thread.getPoolIndex());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
+    /**
+     * Running compilation of definitions.
+     */
+    @ThreadSafe
+    public class Batch {
+
+        private final int totalCount;
+        private final AtomicInteger completedCount = new AtomicInteger();
+        private final AtomicInteger failedCount = new AtomicInteger();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile boolean cancelled = false;
+
+        private Batch(int totalCount) {
+            this.totalCount = totalCount;
+        }
+
+        private void compile(DefinitionRecord definition, ProgressListener listener) {
+            if (cancelled) {
+                return;
+            }
+
+            String errorMessage;
+            try {
+                errorMessage = compiler.compileToCache(definition);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(DefinitionBatchCompiler.class.getName()).log(Level.WARNING, "Compilation of " + definition.getUri() + " failed", ex);
+                errorMessage = String.valueOf(ex.getMessage());
+            }
+
+            if (errorMessage != null) {
+                failedCount.incrementAndGet();
+            }
+            listener.definitionCompiled(definition, errorMessage, completedCount.incrementAndGet(), totalCount);
+        }
+
+        /**
+         * Stops compilation, definitions already being compiled are finished.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return completion.isDone();
+        }
+
+        /**
+         * Waits for the batch to finish.
+         */
+        public void await() {
+            completion.join();
+        }
+
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        public int getCompletedCount() {
+            return completedCount.get();
+        }
+
+        public int getFailedCount() {
+            return failedCount.get();
+        }
+    }
+
+    /**
+     * Listener for progress of the batch compilation.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Reports finished compilation of the definition.
+         *
+         * @param definition definition
+         * @param errorMessage error message or null if compiled successfully
+         * @param completedCount count of compiled definitions
+         * @param totalCount count of definitions in batch
+         */
+        void definitionCompiled(DefinitionRecord definition, @Nullable String errorMessage, int completedCount, int totalCount);
+
+        /**
+         * Reports finish of the batch.
+         *
+         * @param failedCount count of definitions failed to compile
+         * @param cancelled true if batch was cancelled
+         */
+        void batchFinished(int failedCount, boolean cancelled);
+    }
+}
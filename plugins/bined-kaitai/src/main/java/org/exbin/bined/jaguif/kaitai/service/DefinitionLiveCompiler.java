@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.StreamCancellation;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Compiler of edited definition source.
+ * <p>
+ * Source changes are debounced and compiled on background thread together
+ * with parsing of the target data. Each change supersedes and cancels
+ * previous processing, including reading of the data by the parser, so only
+ * the latest source is ever reported. Last
+ * successfully compiled parser stays available while a new one is built.
+ * <p>
+ * Methods are expected to be called from the event dispatch thread, listener
+ * is notified on the event dispatch thread.
+ */
+@NotThreadSafe
+@NullMarked
+public class DefinitionLiveCompiler {
+
+    public static final int DEFAULT_DELAY = 500;
+
+    private final DefinitionRecord definitionRecord;
+    private final KaitaiCompiler compiler;
+    private final Timer debounceTimer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "kaitai-live-compile");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong generation = new AtomicLong();
+
+    private String source = null;
+    private volatile Thread processingThread = null;
+    private volatile StreamCancellation processingCancellation = null;
+    private volatile ParsingLimits parsingLimits = ParsingLimits.DEFAULT;
+    private KaitaiParser lastParser = null;
+    private Supplier<BinaryDataSnapshot.Pending> snapshotSupplier = null;
+    private Listener listener = null;
+
+    public DefinitionLiveCompiler(DefinitionRecord definitionRecord) {
+        this(definitionRecord, createCompiler());
+    }
+
+    public DefinitionLiveCompiler(DefinitionRecord definitionRecord, KaitaiCompiler compiler) {
+        this.definitionRecord = definitionRecord;
+        this.compiler = compiler;
+        debounceTimer = new Timer(DEFAULT_DELAY, (event) -> startProcessing());
+        debounceTimer.setRepeats(false);
+    }
+
+    private static KaitaiCompiler createCompiler() {
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        // Intermediate versions of edited source are not worth caching
+        compiler.setCache(null);
+        return compiler;
+    }
+
+    public DefinitionRecord getDefinitionRecord() {
+        return definitionRecord;
+    }
+
+    /**
+     * Sets delay of idle time after last change before compilation starts.
+     *
+     * @param delay delay in milliseconds
+     */
+    public void setDelay(int delay) {
+        debounceTimer.setInitialDelay(delay);
+    }
+
+    public ParsingLimits getParsingLimits() {
+        return parsingLimits;
+    }
+
+    /**
+     * Sets resource limits applied to parsing of the data.
+     *
+     * @param parsingLimits limits
+     */
+    public void setParsingLimits(ParsingLimits parsingLimits) {
+        this.parsingLimits = parsingLimits;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets supplier of data snapshots to parse with compiled parser.
+     * <p>
+     * Supplier is called on the event dispatch thread, data are copied on
+     * background thread.
+     *
+     * @param snapshotSupplier supplier returning pending snapshot or null if
+     * there is nothing to parse
+     */
+    public void setSnapshotSupplier(@Nullable Supplier<BinaryDataSnapshot.Pending> snapshotSupplier) {
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    /**
+     * Returns last successfully compiled parser.
+     *
+     * @return parser or null
+     */
+    @Nullable
+    public KaitaiParser getLastParser() {
+        return lastParser;
+    }
+
+    /**
+     * Notifies change of the definition source, processing starts after idle
+     * delay.
+     *
+     * @param source definition source
+     */
+    public void sourceChanged(String source) {
+        this.source = source;
+        generation.incrementAndGet();
+        interruptProcessing();
+        debounceTimer.restart();
+    }
+
+    /**
+     * Stops debouncing and cancels processing in progress.
+     */
+    public void cancel() {
+        debounceTimer.stop();
+        generation.incrementAndGet();
+        interruptProcessing();
+    }
+
+    /**
+     * Cancels processing and releases background thread.
+     */
+    public void dispose() {
+        cancel();
+        executor.shutdown();
+    }
+
+    /**
+     * Interrupts superseded processing.
+     * <p>
+     * Compilation is interrupted and parsing is cancelled. Queued tasks are
+     * not cancelled, they find out they are superseded and release their
+     * snapshots.
+     */
+    private void interruptProcessing() {
+        StreamCancellation cancellation = processingCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        Thread thread = processingThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void startProcessing() {
+        if (source == null) {
+            return;
+        }
+
+        final long taskGeneration = generation.get();
+        final byte[] content = source.getBytes(StandardCharsets.UTF_8);
+        final BinaryDataSnapshot.Pending pendingSnapshot = snapshotSupplier == null ? null : snapshotSupplier.get();
+        if (listener != null) {
+            listener.processingStarted();
+        }
+        executor.execute(() -> process(taskGeneration, content, pendingSnapshot));
+    }
+
+    private void process(long taskGeneration, byte[] content, BinaryDataSnapshot.@Nullable Pending pendingSnapshot) {
+        StreamCancellation cancellation = new StreamCancellation();
+        processingCancellation = cancellation;
+        processingThread = Thread.currentThread();
+        // Clear interruption targeted to previous task
+        Thread.interrupted();
+        BinaryDataSnapshot snapshot = null;
+        KaitaiCompiler.CompileResult compileResult = null;
+        KaitaiParser.ParsingResult parsingResult = null;
+        try {
+            if (isCurrent(taskGeneration)) {
+                compileResult = compiler.compileDefinition(definitionRecord, content);
+                KaitaiParser parser = compileResult.getParser();
+                if (parser != null && pendingSnapshot != null && isCurrent(taskGeneration)) {
+                    snapshot = pendingSnapshot.resolve();
+                    if (isCurrent(taskGeneration)) {
+                        parsingResult = parser.parse(snapshot, cancellation, parsingLimits, true);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Superseded while copying data
+            Thread.currentThread().interrupt();
+        } finally {
+            processingThread = null;
+            processingCancellation = null;
+        }
+
+        final BinaryDataSnapshot finalSnapshot = snapshot;
+        if (compileResult == null || !isCurrent(taskGeneration)) {
+            disposeSnapshot(finalSnapshot);
+            return;
+        }
+
+        final KaitaiCompiler.CompileResult finalCompileResult = compileResult;
+        final KaitaiParser.ParsingResult finalParsingResult = parsingResult;
+        SwingUtilities.invokeLater(() -> {
+            if (!isCurrent(taskGeneration)) {
+                disposeSnapshot(finalSnapshot);
+                return;
+            }
+
+            KaitaiParser parser = finalCompileResult.getParser();
+            if (parser == null) {
+                disposeSnapshot(finalSnapshot);
+                if (listener != null) {
+                    String errorMessage = finalCompileResult.getErrorMessage();
+                    listener.compilationFailed(errorMessage == null ? "" : errorMessage);
+                }
+                return;
+            }
+
+            lastParser = parser;
+            if (listener != null) {
+                listener.compiled(parser, finalParsingResult, finalSnapshot);
+            } else {
+                disposeSnapshot(finalSnapshot);
+            }
+        });
+    }
+
+    private static void disposeSnapshot(@Nullable BinaryDataSnapshot snapshot) {
+        if (snapshot != null) {
+            snapshot.dispose();
+        }
+    }
+
+    private boolean isCurrent(long taskGeneration) {
+        return generation.get() == taskGeneration && !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Listener for results of processing of the latest source.
+     */
+    public interface Listener {
+
+        /**
+         * Processing of the latest source started.
+         */
+        void processingStarted();
+
+        /**
+         * Latest source was compiled.
+         * <p>
+         * Listener takes ownership of the snapshot.
+         *
+         * @param parser compiled parser
+         * @param parsingResult result of parsing of the snapshot or null if
+         * nothing was parsed
+         * @param snapshot parsed snapshot or null
+         */
+        void compiled(KaitaiParser parser, KaitaiParser.@Nullable ParsingResult parsingResult, @Nullable BinaryDataSnapshot snapshot);
+
+        /**
+         * Compilation of the latest source failed, last successfully compiled
+         * parser is kept.
+         *
+         * @param errorMessage error message
+         */
+        void compilationFailed(String errorMessage);
+    }
+}
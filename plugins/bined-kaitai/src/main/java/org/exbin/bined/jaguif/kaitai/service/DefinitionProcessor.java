@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.StreamCancellation;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.swing.SwingUtilities;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Processor of definitions off the event dispatch thread.
+ * <p>
+ * Definition is compiled through the parser registry and data snapshot is
+ * parsed on background thread. If compiled parser is not loaded yet and
+ * interpreter is enabled, definition is interpreted while it is compiled to
+ * provide parse tree before compilation finishes.
+ * <p>
+ * Each processing can be cancelled by its job. Reading of the data stops on
+ * the next read of the stream and results of cancelled job are never
+ * reported. Compilation itself cannot be interrupted, compiled parser is
+ * kept by the registry for later use.
+ */
+@ThreadSafe
+@NullMarked
+public class DefinitionProcessor {
+
+    private final KaitaiParserRegistry parserRegistry;
+    private final ExecutorService executor = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "kaitai-processing");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean interpreterEnabled = true;
+
+    public DefinitionProcessor(KaitaiParserRegistry parserRegistry) {
+        this.parserRegistry = parserRegistry;
+    }
+
+    public boolean isInterpreterEnabled() {
+        return interpreterEnabled;
+    }
+
+    /**
+     * Sets whether definitions are interpreted while compiled parser is not
+     * loaded.
+     *
+     * @param interpreterEnabled true to interpret definitions
+     */
+    public void setInterpreterEnabled(boolean interpreterEnabled) {
+        this.interpreterEnabled = interpreterEnabled;
+    }
+
+    /**
+     * Starts processing of the data snapshot by given definition.
+     * <p>
+     * Listener is notified on the event dispatch thread and only while job is
+     * not cancelled.
+     *
+     * @param definitionRecord definition
+     * @param pendingSnapshot data snapshot copied on background thread,
+     * processor takes ownership of the copy
+     * @param listener listener
+     * @return processing job
+     */
+    public Job process(DefinitionRecord definitionRecord, BinaryDataSnapshot.Pending pendingSnapshot, Listener listener) {
+        Job job = new Job();
+        executor.execute(() -> process(job, definitionRecord, pendingSnapshot, listener));
+        return job;
+    }
+
+    private void process(Job job, DefinitionRecord definitionRecord, BinaryDataSnapshot.Pending pendingSnapshot, Listener listener) {
+        if (job.isCancelled()) {
+            return;
+        }
+
+        BinaryDataSnapshot snapshot;
+        try {
+            snapshot = pendingSnapshot.resolve();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            // Listener waiting for the result is notified unless job was cancelled
+            KaitaiCompiler.CompileResult failedResult = new KaitaiCompiler.CompileResult("Copying of the data was interrupted");
+            post(job, null, null, () -> listener.compilationFailed(failedResult));
+            return;
+        }
+        if (job.isCancelled()) {
+            snapshot.dispose();
+            return;
+        }
+
+        KaitaiParser parser = null;
+        CompletableFuture<KaitaiCompiler.CompileResult> compileFuture = null;
+        try {
+            boolean interpreted = interpreterEnabled && !parserRegistry.isLoaded(definitionRecord);
+            // Compilation runs while definition is interpreted
+            compileFuture = parserRegistry.getParserAsync(definitionRecord);
+            if (interpreted) {
+                interpret(job, definitionRecord, snapshot, listener);
+            }
+
+            if (job.isCancelled()) {
+                releaseWhenCompiled(compileFuture);
+                snapshot.dispose();
+                return;
+            }
+
+            KaitaiCompiler.CompileResult compileResult = awaitCompilation(compileFuture);
+            parser = compileResult.getParser();
+            if (parser == null) {
+                snapshot.dispose();
+                post(job, null, null, () -> listener.compilationFailed(compileResult));
+                return;
+            }
+
+            if (job.isCancelled()) {
+                parserRegistry.release(parser);
+                snapshot.dispose();
+                return;
+            }
+
+            post(job, null, null, listener::parsingStarted);
+            KaitaiParser.ParsingResult parsingResult = parser.parse(snapshot, job.cancellation, parserRegistry.getParsingLimits(), true);
+            KaitaiParser finalParser = parser;
+            post(job, parser, snapshot, () -> listener.parsed(finalParser, compileResult, parsingResult, snapshot));
+        } catch (RuntimeException ex) {
+            Logger.getLogger(DefinitionProcessor.class.getName()).log(Level.SEVERE, "Processing of " + definitionRecord.getUri() + " failed", ex);
+            if (parser != null) {
+                parserRegistry.release(parser);
+            } else if (compileFuture != null) {
+                releaseWhenCompiled(compileFuture);
+            }
+            snapshot.dispose();
+            KaitaiCompiler.CompileResult failedResult = new KaitaiCompiler.CompileResult(String.valueOf(ex.getMessage()));
+            post(job, null, null, () -> listener.compilationFailed(failedResult));
+        }
+    }
+
+    private void interpret(Job job, DefinitionRecord definitionRecord, BinaryDataSnapshot snapshot, Listener listener) {
+        KsyInterpreter interpreter;
+        try {
+            interpreter = KsyInterpreter.create(definitionRecord);
+        } catch (IOException | RuntimeException ex) {
+            // Unsupported definitions are compiled directly
+            return;
+        }
+        interpreter.setStatisticsEnabled(true);
+        interpreter.setLimits(parserRegistry.getParsingLimits());
+
+        BinaryDataSnapshot interpretedSnapshot = snapshot.share();
+        KaitaiParser.ParsingResult parsingResult = interpreter.parse(interpretedSnapshot, job.cancellation);
+        if (parsingResult.getErrorMessage() != null) {
+            // Errors are reported by compiled parser
+            interpretedSnapshot.dispose();
+            return;
+        }
+
+        PhaseTimings timings = interpreter.getTimings();
+        post(job, null, interpretedSnapshot, () -> listener.interpreted(parsingResult, interpretedSnapshot, timings));
+    }
+
+    private static KaitaiCompiler.CompileResult awaitCompilation(CompletableFuture<KaitaiCompiler.CompileResult> compileFuture) {
+        try {
+            return compileFuture.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases parser compiled for processing which doesn't use it anymore.
+     */
+    private void releaseWhenCompiled(CompletableFuture<KaitaiCompiler.CompileResult> compileFuture) {
+        compileFuture.thenAccept(compileResult -> {
+            KaitaiParser parser = compileResult.getParser();
+            if (parser != null) {
+                parserRegistry.release(parser);
+            }
+        });
+    }
+
+    /**
+     * Posts notification to the event dispatch thread unless job was
+     * cancelled meanwhile, parser and snapshot are released otherwise.
+     */
+    private void post(Job job, @Nullable KaitaiParser parser, @Nullable BinaryDataSnapshot snapshot, Runnable notification) {
+        SwingUtilities.invokeLater(() -> {
+            if (job.isCancelled()) {
+                if (parser != null) {
+                    parserRegistry.release(parser);
+                }
+                if (snapshot != null) {
+                    snapshot.dispose();
+                }
+                return;
+            }
+
+            notification.run();
+        });
+    }
+
+    /**
+     * Processing job.
+     */
+    @ThreadSafe
+    public static class Job {
+
+        private final StreamCancellation cancellation = new StreamCancellation();
+
+        private Job() {
+        }
+
+        /**
+         * Cancels processing, results are not reported anymore.
+         * <p>
+         * Has to be called on the event dispatch thread to guarantee that no
+         * further notification is delivered.
+         */
+        public void cancel() {
+            cancellation.cancel();
+        }
+
+        public boolean isCancelled() {
+            return cancellation.isCancelled();
+        }
+    }
+
+    /**
+     * Listener for processing results.
+     */
+    public interface Listener {
+
+        /**
+         * Definition was interpreted before compilation finished.
+         * <p>
+         * Listener takes ownership of the snapshot.
+         *
+         * @param parsingResult parsing result
+         * @param snapshot parsed snapshot
+         * @param timings timings of the interpreter preparation
+         */
+        void interpreted(KaitaiParser.ParsingResult parsingResult, BinaryDataSnapshot snapshot, PhaseTimings timings);
+
+        /**
+         * Definition was compiled and parsing by compiled parser started.
+         */
+        void parsingStarted();
+
+        /**
+         * Compilation of the definition failed.
+         *
+         * @param compileResult compilation result with error message
+         */
+        void compilationFailed(KaitaiCompiler.CompileResult compileResult);
+
+        /**
+         * Data were parsed by compiled parser.
+         * <p>
+         * Listener takes ownership of the parser acquired from the registry
+         * and of the snapshot.
+         *
+         * @param parser compiled parser
+         * @param compileResult compilation result
+         * @param parsingResult parsing result
+         * @param snapshot parsed snapshot
+         */
+        void parsed(KaitaiParser parser, KaitaiCompiler.CompileResult compileResult, KaitaiParser.ParsingResult parsingResult, BinaryDataSnapshot snapshot);
+    }
+}
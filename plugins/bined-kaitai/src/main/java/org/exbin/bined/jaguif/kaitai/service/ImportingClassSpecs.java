@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.format.ClassSpec;
+import io.kaitai.struct.formats.JavaClassSpecs;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import scala.Option;
+import scala.Some;
+import scala.concurrent.Future;
+import scala.concurrent.Future$;
+
+/**
+ * Class specifications of single compilation loading imports using import
+ * resolver.
+ * <p>
+ * Each imported definition is provided at most once per compilation, parsed
+ * definitions are shared through the resolver. Relative imports resolve
+ * against the definition declaring them, absolute imports against the
+ * top-level definition. Imported class specifications are named by URI of
+ * their definition to identify the declaring definition of the nested
+ * imports.
+ */
+@ThreadSafe
+@NullMarked
+class ImportingClassSpecs extends JavaClassSpecs {
+
+    private final KsyImportResolver importResolver;
+    private final URI definitionUri;
+    private final Set<URI> importedUris = new HashSet<>();
+
+    ImportingClassSpecs(KsyImportResolver importResolver, URI definitionUri, ClassSpec firstSpec) {
+        super(null, null, firstSpec);
+        this.importResolver = importResolver;
+        this.definitionUri = definitionUri;
+    }
+
+    @Override
+    public Future<Option<ClassSpec>> importRelative(String name, scala.collection.immutable.List<String> path, Option<String> inFile) {
+        return importSpec(getSpecUri(inFile), name);
+    }
+
+    @Override
+    public Future<Option<ClassSpec>> importAbsolute(String name, scala.collection.immutable.List<String> path, Option<String> inFile) {
+        return importSpec(definitionUri, "/" + name);
+    }
+
+    /**
+     * Returns URI of the definition declaring import.
+     *
+     * @param inFile file name of the declaring class specification
+     * @return definition URI
+     */
+    private URI getSpecUri(Option<String> inFile) {
+        if (inFile.isDefined()) {
+            String fileName = inFile.get();
+            synchronized (importedUris) {
+                for (URI importedUri : importedUris) {
+                    if (importedUri.toString().equals(fileName)) {
+                        return importedUri;
+                    }
+                }
+            }
+        }
+
+        // Top-level definition is named by its file name
+        return definitionUri;
+    }
+
+    private Future<Option<ClassSpec>> importSpec(URI specUri, String importName) {
+        URI importUri = importResolver.resolveImport(specUri, importName);
+        if (importUri == null) {
+            return Future$.MODULE$.failed(new FileNotFoundException("Unable to resolve import " + importName + " of " + specUri));
+        }
+
+        synchronized (importedUris) {
+            if (!importedUris.add(importUri)) {
+                // Already provided to this compilation
+                return Future$.MODULE$.successful(Option.<ClassSpec>empty());
+            }
+        }
+
+        try {
+            KsyImportResolver.ParsedDefinition parsedDefinition = importResolver.getParsedDefinition(importUri);
+            ClassSpec classSpec = ClassSpec.fromYaml(parsedDefinition.getYamlSpec(), new Some<>(importUri.toString()));
+            return Future$.MODULE$.successful(new Some<>(classSpec));
+        } catch (IOException | RuntimeException ex) {
+            return Future$.MODULE$.failed(ex);
+        }
+    }
+}
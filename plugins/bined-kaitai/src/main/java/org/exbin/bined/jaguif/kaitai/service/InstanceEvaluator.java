@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Execution lane for evaluation of the instances of the parsed structures.
+ * <p>
+ * Instances are evaluated one at a time on a dedicated thread, separately
+ * from exploring of the sequence attributes, so that expensive instance
+ * doesn't delay showing of the other nodes. Evaluation of all instances of
+ * the parsed structure shares its source stream, which is not safe for
+ * concurrent access.
+ */
+@ThreadSafe
+@NullMarked
+public class InstanceEvaluator {
+
+    private static final long IDLE_TIMEOUT = 5;
+
+    private final ThreadPoolExecutor executor;
+    private final List<LazyInstance> pending = new ArrayList<>();
+
+    public InstanceEvaluator() {
+        executor = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+            Thread thread = new Thread(runnable, "kaitai-instances");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues evaluation of the instance.
+     *
+     * @param instance evaluated instance
+     * @param evaluation evaluation
+     */
+    void submit(LazyInstance instance, Runnable evaluation) {
+        synchronized (pending) {
+            pending.add(instance);
+        }
+        executor.execute(() -> {
+            try {
+                evaluation.run();
+            } finally {
+                synchronized (pending) {
+                    pending.remove(instance);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs task on the lane after evaluations queued before.
+     * <p>
+     * Task runs when no evaluation is reading the source stream, which allows
+     * to release the stream after cancellation of its evaluations.
+     *
+     * @param task task
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Cancels all queued and running evaluations.
+     */
+    public void cancelAll() {
+        List<LazyInstance> cancelled;
+        synchronized (pending) {
+            cancelled = new ArrayList<>(pending);
+        }
+        for (LazyInstance instance : cancelled) {
+            instance.cancel();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.util.Locale;
+import java.util.Objects;
+import javax.annotation.concurrent.Immutable;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Enum value produced by {@link KsyInterpreter}.
+ * <p>
+ * Shown the same way as constant of the enum generated by the compiler.
+ */
+@Immutable
+@NullMarked
+public final class InterpretedEnum {
+
+    private final String enumName;
+    private final long id;
+    private final String label;
+
+    public InterpretedEnum(String enumName, long id, String label) {
+        this.enumName = enumName;
+        this.id = id;
+        this.label = label;
+    }
+
+    public String getEnumName() {
+        return enumName;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof InterpretedEnum)) {
+            return false;
+        }
+        InterpretedEnum other = (InterpretedEnum) obj;
+        return id == other.id && enumName.equals(other.enumName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enumName, id);
+    }
+
+    @Override
+    public String toString() {
+        return label.toUpperCase(Locale.ROOT);
+    }
+}
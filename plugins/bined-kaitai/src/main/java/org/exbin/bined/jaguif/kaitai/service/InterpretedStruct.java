@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Structure read by {@link KsyInterpreter}.
+ * <p>
+ * Attributes are kept in order of the definition under the names used by
+ * generated classes. Positions are recorded in the same fields as in
+ * generated classes, so that {@link AttrPositions} can be used. Instances are
+ * evaluated lazily on first access, access is guarded by the lock of the root
+ * structure as instances share the stream.
+ */
+@ThreadSafe
+@NullMarked
+public class InterpretedStruct extends KaitaiStruct.ReadOnly {
+
+    private final String typeName;
+    @Nullable
+    private final InterpretedStruct parent;
+    private final InterpretedStruct root;
+    private final Reader reader;
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+    private final Map<String, Supplier<Object>> instances = new LinkedHashMap<>();
+    // Public as in generated classes, read by AttrPositions
+    public final Map<String, Long> _attrStart = new HashMap<>();
+    public final Map<String, Long> _attrEnd = new HashMap<>();
+    public final Map<String, ArrayList<Long>> _arrStart = new HashMap<>();
+    public final Map<String, ArrayList<Long>> _arrEnd = new HashMap<>();
+
+    InterpretedStruct(String typeName, KaitaiStream _io, @Nullable InterpretedStruct parent, Reader reader) {
+        super(_io);
+        this.typeName = typeName;
+        this.parent = parent;
+        this.root = parent == null ? this : parent.root;
+        this.reader = reader;
+    }
+
+    @Override
+    public void _read() {
+        synchronized (root) {
+            reader.read(this);
+        }
+    }
+
+    /**
+     * Returns name of the type in the definition.
+     *
+     * @return type name
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    @Nullable
+    public InterpretedStruct _parent() {
+        return parent;
+    }
+
+    public InterpretedStruct _root() {
+        return root;
+    }
+
+    /**
+     * Returns names of the attributes and instances in order of the
+     * definition.
+     *
+     * @return list of names
+     */
+    public List<String> getAttributeNames() {
+        synchronized (root) {
+            List<String> names = new ArrayList<>(attributes.keySet());
+            for (String name : instances.keySet()) {
+                if (!attributes.containsKey(name)) {
+                    names.add(name);
+                }
+            }
+            return Collections.unmodifiableList(names);
+        }
+    }
+
+    /**
+     * Returns value of the attribute, instance is evaluated if not evaluated
+     * yet.
+     *
+     * @param name attribute name
+     * @return value or null
+     */
+    @Nullable
+    public Object getAttribute(String name) {
+        synchronized (root) {
+            if (attributes.containsKey(name)) {
+                return attributes.get(name);
+            }
+            Supplier<Object> instance = instances.get(name);
+            if (instance == null) {
+                throw new IllegalArgumentException("Unknown attribute " + name + " of type " + typeName);
+            }
+            Object value = instance.get();
+            attributes.put(name, value);
+            return value;
+        }
+    }
+
+    /**
+     * Returns value of the attribute without evaluation of instances.
+     *
+     * @param name attribute name
+     * @return value or null if not available
+     */
+    @Nullable
+    public Object peekAttribute(String name) {
+        synchronized (root) {
+            return attributes.get(name);
+        }
+    }
+
+    /**
+     * Returns whether attribute is available.
+     *
+     * @param name attribute name
+     * @return true if attribute or instance exists
+     */
+    public boolean hasAttribute(String name) {
+        synchronized (root) {
+            return attributes.containsKey(name) || instances.containsKey(name);
+        }
+    }
+
+    /**
+     * Returns whether attribute is an instance.
+     *
+     * @param name attribute name
+     * @return true if instance of the given name exists
+     */
+    public boolean isInstance(String name) {
+        synchronized (root) {
+            return instances.containsKey(name);
+        }
+    }
+
+    @Nullable
+    Object getAttributeById(String id) {
+        return getAttribute(KsyExpression.toCamelCase(id));
+    }
+
+    void setAttribute(String name, @Nullable Object value) {
+        attributes.put(name, value);
+    }
+
+    void addInstance(String name, Supplier<Object> instance) {
+        instances.put(name, instance);
+    }
+
+    void setAttrStart(String name, long position) {
+        _attrStart.put(name, position);
+    }
+
+    void setAttrEnd(String name, long position) {
+        _attrEnd.put(name, position);
+    }
+
+    void addArrStart(String name, long position) {
+        _arrStart.computeIfAbsent(name, key -> new ArrayList<>()).add(position);
+    }
+
+    void addArrEnd(String name, long position) {
+        _arrEnd.computeIfAbsent(name, key -> new ArrayList<>()).add(position);
+    }
+
+    @Override
+    public String toString() {
+        return typeName;
+    }
+
+    /**
+     * Reader of the attributes of the structure.
+     */
+    interface Reader {
+
+        void read(InterpretedStruct struct);
+    }
+}
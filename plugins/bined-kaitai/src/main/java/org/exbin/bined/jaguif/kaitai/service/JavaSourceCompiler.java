@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Compiler of java sources into bytecode kept in memory.
+ */
+@NullMarked
+public class JavaSourceCompiler {
+
+    private final JavaCompiler javaCompiler;
+    private final String classPath;
+
+    /**
+     * Creates compiler.
+     *
+     * @param javaCompiler java compiler
+     * @param classPathClasses classes which locations are added to class path
+     */
+    public JavaSourceCompiler(JavaCompiler javaCompiler, Class<?>... classPathClasses) {
+        this.javaCompiler = javaCompiler;
+        this.classPath = buildClassPath(classPathClasses);
+    }
+
+    /**
+     * Compiles sources.
+     *
+     * @param sources map of fully qualified class names to sources
+     * @return map of fully qualified class names to bytecode including nested
+     * classes
+     * @throws IOException if file manager fails
+     * @throws RuntimeException if sources contain errors
+     */
+    public Map<String, byte[]> compile(Map<String, String> sources) throws IOException {
+        return compile(sources, Collections.<String>emptyList());
+    }
+
+    /**
+     * Compiles sources with additional compiler options.
+     *
+     * @param sources map of fully qualified class names to sources
+     * @param additionalOptions additional options passed to java compiler
+     * @return map of fully qualified class names to bytecode including nested
+     * classes
+     * @throws IOException if file manager fails
+     * @throws RuntimeException if sources contain errors
+     */
+    public Map<String, byte[]> compile(Map<String, String> sources, List<String> additionalOptions) throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+        StandardJavaFileManager standardFileManager = javaCompiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        try (JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardFileManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.put(className, output);
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return output;
+                    }
+                };
+            }
+        }) {
+            List<JavaFileObject> compilationUnits = new ArrayList<>();
+            for (final Map.Entry<String, String> source : sources.entrySet()) {
+                compilationUnits.add(new SimpleJavaFileObject(URI.create("string:///" + source.getKey().replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                        return source.getValue();
+                    }
+                });
+            }
+
+            List<String> options = new ArrayList<>(Arrays.asList("-classpath", classPath, "-nowarn"));
+            options.addAll(additionalOptions);
+            Boolean success = javaCompiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits).call();
+            if (success == null || !success) {
+                StringBuilder message = new StringBuilder("Compilation failed");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        message.append("\n").append(diagnostic.toString());
+                    }
+                }
+                throw new RuntimeException(message.toString());
+            }
+        }
+
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet()) {
+            classes.put(output.getKey(), output.getValue().toByteArray());
+        }
+        return classes;
+    }
+
+    private static String buildClassPath(Class<?>... classPathClasses) {
+        Set<String> entries = new LinkedHashSet<>();
+        String systemClassPath = System.getProperty("java.class.path");
+        if (systemClassPath != null && !systemClassPath.isEmpty()) {
+            entries.addAll(Arrays.asList(systemClassPath.split(File.pathSeparator)));
+        }
+
+        for (Class<?> classPathClass : classPathClasses) {
+            CodeSource codeSource = classPathClass.getProtectionDomain().getCodeSource();
+            URL location = codeSource == null ? null : codeSource.getLocation();
+            if (location != null) {
+                try {
+                    entries.add(Paths.get(location.toURI()).toString());
+                } catch (URISyntaxException | IllegalArgumentException ex) {
+                    // Not a file location, rely on system class path
+                }
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -15,23 +15,44 @@
  */
 package org.exbin.bined.jaguif.kaitai.service;
 
+import io.kaitai.struct.BinaryDataKaitaiStream;
 import io.kaitai.struct.CompileLog;
 import io.kaitai.struct.JavaRuntimeConfig;
+import io.kaitai.struct.KaitaiStream;
 import io.kaitai.struct.Main;
 import io.kaitai.struct.RuntimeConfig;
+import io.kaitai.struct.Version;
 import io.kaitai.struct.format.ClassSpec;
+import io.kaitai.struct.format.KSVersion;
 import io.kaitai.struct.formats.JavaClassSpecs;
 import io.kaitai.struct.formats.JavaKSYParser;
 import io.kaitai.struct.languages.JavaCompiler$;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
-import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
-import java.net.URL;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jspecify.annotations.Nullable;
@@ -39,9 +60,13 @@ import org.jspecify.annotations.NullMarked;
 import javax.annotation.concurrent.Immutable;
 import javax.tools.JavaCompiler;
 import javax.tools.ToolProvider;
-import org.dvare.dynamic.compiler.DynamicCompiler;
+import org.exbin.auxiliary.binary_data.EditableBinaryData;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
 import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
 import scala.Some;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.jdk.javaapi.CollectionConverters;
 
 /**
  * Kaitai compiler.
@@ -63,115 +88,628 @@ public class KaitaiCompiler {
      * Regexp, used to get parameter names from the generated source.
      */
     private static final Pattern PARAMETER_NAME = Pattern.compile(", \\S+ ([^,\\s]+)");
+    /**
+     * Regexp for lines of generated source which stores positions of the
+     * attributes or of the instances, group matches declaration of the
+     * position saved to seek back to.
+     */
+    private static final Pattern POSITION_LINE = Pattern.compile("^.*(?:_attrStart|_attrEnd|_arrStart|_arrEnd|_posList|(long _pos = )).*$", Pattern.MULTILINE);
+    /**
+     * Regexp, used to get stream position calls.
+     */
+    private static final Pattern POSITION_CALL = Pattern.compile("([\\w.]+)\\.pos\\(\\)");
+    /**
+     * Regexp with 2 groups: field name and stream of the stored start
+     * position of the field.
+     */
+    private static final Pattern FIELD_START = Pattern.compile("_attrStart\\.put\\(\"([^\"]+)\", io\\.kaitai\\.struct\\.BinaryDataKaitaiStream\\.absolutePosition\\(([\\w.]+)\\)\\)");
+    /**
+     * Regexp with 3 groups: prefix, field name and stream of the stored start
+     * position of the element of the repeated field. List of the positions is
+     * created by the block between getting and adding to the list when the
+     * first element is read.
+     */
+    private static final Pattern ELEMENT_START = Pattern.compile("(_posList = _arrStart\\.get\\(\"([^\"]+)\"\\);(?:\\s*if \\(_posList == null\\) \\{[^}]*\\})?\\s*_posList\\.add\\()io\\.kaitai\\.struct\\.BinaryDataKaitaiStream\\.absolutePosition\\(([\\w.]+)\\)\\)");
+    /**
+     * Regexp with 2 groups: indentation and nested structure which is read,
+     * structure of switch type is read cast to the type of the case.
+     */
+    private static final Pattern NESTED_READ = Pattern.compile("^(\\s*)(\\(\\([\\w.]+\\) \\([\\w.]+\\)\\)|[\\w.]+)\\._read\\(\\);$", Pattern.MULTILINE);
+    private static final String WRAPPER_CLASS_NAME = "DataWrapper";
+    private static final String WARM_UP_DEFINITION = "/org/exbin/bined/jaguif/kaitai/service/resources/warm_up.ksy";
+    private static final byte[] WARM_UP_DATA = {0x57, 0x55, 0x01, 0x02, 0x34, 0x12, 0x61, 0x00, 0x78, 0x56, 0x62, 0x00};
+
+    /**
+     * Revision of the source generation and its post-processing, change
+     * invalidates cached compiled definitions.
+     */
+    private static final int GENERATOR_REVISION = 5;
+    /**
+     * Lock serializing use of Kaitai compiler, which is not thread-safe.
+     */
+    private static final Object KAITAI_COMPILER_LOCK = new Object();
+    /**
+     * Bounded pool for javac stages, which are independent for each
+     * definition.
+     */
+    private static final ExecutorService JAVAC_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (runnable) -> {
+        Thread thread = new Thread(runnable, "kaitai-javac");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        KSVersion.current_$eq(Version.version());
+    }
+
+    protected CompiledParserCache cache = CompiledParserCache.getDefaultCache();
+    protected PrecompiledDefinitions precompiledDefinitions = PrecompiledDefinitions.getDefault();
+    protected KsyImportResolver importResolver = KsyImportResolver.getDefault();
+
+    @Nullable
+    public CompiledParserCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets persistent cache of compiled definitions.
+     *
+     * @param cache cache or null to always compile
+     */
+    public void setCache(@Nullable CompiledParserCache cache) {
+        this.cache = cache;
+    }
+
+    @Nullable
+    public PrecompiledDefinitions getPrecompiledDefinitions() {
+        return precompiledDefinitions;
+    }
+
+    /**
+     * Sets definitions compiled at build time.
+     *
+     * @param precompiledDefinitions precompiled definitions or null to ignore
+     * them
+     */
+    public void setPrecompiledDefinitions(@Nullable PrecompiledDefinitions precompiledDefinitions) {
+        this.precompiledDefinitions = precompiledDefinitions;
+    }
+
+    public KsyImportResolver getImportResolver() {
+        return importResolver;
+    }
+
+    /**
+     * Sets resolver of imports of compiled definitions.
+     *
+     * @param importResolver import resolver
+     */
+    public void setImportResolver(KsyImportResolver importResolver) {
+        this.importResolver = importResolver;
+    }
 
     public CompileResult compileDefinition(DefinitionRecord definitionRecord) {
-        InputStream input = null;
-        Reader inputReader = null;
         try {
-            URL fileSource = definitionRecord.getUri().toURL();
-            input = fileSource.openStream();
-            inputReader = new InputStreamReader(input, "UTF-8");
-            Object yamlSpec = JavaKSYParser.readerToYaml(inputReader);
-            ClassSpec classSpec = ClassSpec.fromYaml(yamlSpec, new Some<>(definitionRecord.getFileName()));
-            final JavaClassSpecs specs = new JavaClassSpecs(null, null, classSpec);
-
-            final RuntimeConfig config = new RuntimeConfig(
-                    false,// autoRead - do not call `_read` automatically in constructor
-                    true, // readStoresPos - enable generation of a position info which is accessed in DebugAids later
-                    true, // opaqueTypes
-                    false, // zeroCopySubstream
-                    false, // readWrite
-                    null, // cppConfig
-                    null, // goPackage
-                    new JavaRuntimeConfig(
-                            DEST_PACKAGE,
-                            // Class to be invoked in `fromFile` helper methods
-                            "io.kaitai.struct.ByteBufferKaitaiStream",
-                            // Exception class expected to be thrown on end-of-stream errors
-                            "java.nio.BufferUnderflowException"
-                    ),
-                    null, // dotNetNamespace
-                    null, // phpNamespace
-                    null, // pythonPackage
-                    null, // nimModule
-                    null // nimOpaque
-            );
-
-            Main.importAndPrecompile(specs, config).value();
-            // TODO: There is some king of racing condition in the current implementation of the KaiTai compiler, wait a bit
-            Thread.sleep(200);
-            final CompileLog.SpecSuccess result = Main.compile(specs, classSpec, JavaCompiler$.MODULE$, config);
-            String javaSrc = result.files().apply(0).contents();
-            final Matcher m = TOP_CLASS_NAME_AND_PARAMETERS.matcher(javaSrc);
-            if (!m.find()) {
-                throw new RuntimeException("Unable to find top-level class in generated .java");
+            return compileDefinition(definitionRecord, readContent(definitionRecord.getUri()));
+        } catch (IOException ex) {
+            StringWriter sw = new StringWriter();
+            ex.printStackTrace(new PrintWriter(sw));
+            return new CompileResult(sw.toString());
+        }
+    }
+
+    /**
+     * Compiles definition from provided content.
+     * <p>
+     * Definition URI is used to resolve imports only.
+     *
+     * @param definitionRecord definition record
+     * @param content definition content
+     * @return compilation result
+     */
+    public CompileResult compileDefinition(DefinitionRecord definitionRecord, byte[] content) {
+        PhaseTimings timings = new PhaseTimings();
+        try {
+            long startTime = System.nanoTime();
+            long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            Object yamlSpec = JavaKSYParser.readerToYaml(new StringReader(new String(content, StandardCharsets.UTF_8)));
+            timings.record(PhaseTimings.Phase.YAML_LOADING, startTime, startAllocatedBytes);
+            final RuntimeConfig config = createRuntimeConfig();
+            String definitionKey = computeDefinitionKey(definitionRecord.getUri(), content, yamlSpec, config);
+
+            if (precompiledDefinitions != null) {
+                startTime = System.nanoTime();
+                startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+                CompiledDefinition precompiledDefinition = precompiledDefinitions.load(definitionKey);
+                timings.record(PhaseTimings.Phase.CACHE_LOADING, startTime, startAllocatedBytes);
+                if (precompiledDefinition != null) {
+                    try {
+                        KaitaiParser parser = createParser(definitionRecord, precompiledDefinition, timings);
+                        timings.setSource(PhaseTimings.DefinitionSource.PRECOMPILED);
+                        return new CompileResult(parser, timings);
+                    } catch (ReflectiveOperationException | LinkageError ex) {
+                        // Unusable precompiled definition, compile again
+                    }
+                }
             }
-            // Parse parameter names
-            final ArrayList<String> paramNames = new ArrayList<>();
-            final Matcher p = PARAMETER_NAME.matcher(m.group(2));
-            while (p.find()) {
-                paramNames.add(p.group(1));
+
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = computeCacheKey(definitionKey);
+                startTime = System.nanoTime();
+                startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+                CompiledDefinition cachedDefinition = cache.load(cacheKey);
+                timings.record(PhaseTimings.Phase.CACHE_LOADING, startTime, startAllocatedBytes);
+                if (cachedDefinition != null) {
+                    try {
+                        KaitaiParser parser = createParser(definitionRecord, cachedDefinition, timings);
+                        timings.setSource(PhaseTimings.DefinitionSource.CACHED);
+                        return new CompileResult(parser, timings);
+                    } catch (ReflectiveOperationException | LinkageError ex) {
+                        // Unusable cache entry, compile again
+                    }
+                }
             }
 
-            String wrapperClassSrc = "package " + DEST_PACKAGE + ";\n"
-                    + "public class DataWrapper {\n"
-                    + "public static Class getKsyClass() { return " + m.group(1) + ".class; }\n"
-                    + "public static Class getStreamClass() { return io.kaitai.struct.BinaryDataKaitaiStream.class; }\n"
-                    + "}\n";
-
-            ClassLoader classLoader = getClass().getClassLoader();
-            JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
-            if (javaCompiler == null) {
-                Class compilerClass = classLoader.loadClass("com.sun.tools.javac.api.JavacTool");
-                javaCompiler = (JavaCompiler) compilerClass.getConstructor().newInstance();
+            CompiledDefinition compiledDefinition = compileBytecode(definitionRecord, yamlSpec, config, Collections.<String>emptyList(), timings);
+            if (cacheKey != null) {
+                try {
+                    cache.store(cacheKey, compiledDefinition);
+                } catch (IOException ex) {
+                    Logger.getLogger(KaitaiCompiler.class.getName()).log(Level.WARNING, "Unable to store compiled definition to cache", ex);
+                }
             }
-            DynamicCompiler compiler = new DynamicCompiler(classLoader, javaCompiler);
-            compiler.addSource(DEST_PACKAGE + "." + m.group(1), javaSrc);
-            compiler.addSource(DEST_PACKAGE + "." + "DataWrapper", wrapperClassSrc);
-            Map<String, Class<?>> compiledClasses = compiler.build();
-            final Class<?> wrapperClass = compiledClasses.get(DEST_PACKAGE + "." + "DataWrapper");
-            final Class<?> ksyClass = (Class<?>) wrapperClass.getMethod("getKsyClass").invoke(null);
-            final Class<?> streamClass = (Class<?>) wrapperClass.getMethod("getStreamClass").invoke(null);
-            KaitaiParser parser = new KaitaiParser(definitionRecord, ksyClass, streamClass, paramNames);
-            return new CompileResult(parser);
+
+            KaitaiParser parser = createParser(definitionRecord, compiledDefinition, timings);
+            timings.setSource(PhaseTimings.DefinitionSource.COMPILED);
+            return new CompileResult(parser, timings);
         } catch (Throwable ex) {
+            if (ex instanceof InterruptedException || ex instanceof InterruptedIOException || ex instanceof ClosedByInterruptException) {
+                // Interruption is reported to the caller
+                Thread.currentThread().interrupt();
+            }
             StringWriter sw = new StringWriter();
             ex.printStackTrace(new PrintWriter(sw));
             String message = sw.toString();
-            return new CompileResult(message == null ? "" : message);
-        } finally {
-            if (inputReader != null) {
-                try {
-                    inputReader.close();
-                } catch (IOException e) {
-                    // ignore
+            return new CompileResult(message == null ? "" : message, timings);
+        }
+    }
+
+    /**
+     * Compiles definition to the persistent cache without loading of its
+     * classes.
+     * <p>
+     * Definitions available as precompiled or already cached are not
+     * compiled again. Without cache definition is compiled to check it and
+     * the result is discarded.
+     *
+     * @param definitionRecord definition record
+     * @return error message or null if compiled successfully
+     */
+    @Nullable
+    public String compileToCache(DefinitionRecord definitionRecord) {
+        try {
+            byte[] content = readContent(definitionRecord.getUri());
+            Object yamlSpec = JavaKSYParser.readerToYaml(new StringReader(new String(content, StandardCharsets.UTF_8)));
+            final RuntimeConfig config = createRuntimeConfig();
+            String definitionKey = computeDefinitionKey(definitionRecord.getUri(), content, yamlSpec, config);
+            if (precompiledDefinitions != null && precompiledDefinitions.contains(definitionKey)) {
+                return null;
+            }
+
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = computeCacheKey(definitionKey);
+                if (cache.load(cacheKey) != null) {
+                    return null;
+                }
+            }
+
+            CompiledDefinition compiledDefinition = compileBytecode(definitionRecord, yamlSpec, config, Collections.<String>emptyList(), new PhaseTimings());
+            if (cacheKey != null) {
+                cache.store(cacheKey, compiledDefinition);
+            }
+            return null;
+        } catch (Throwable ex) {
+            if (ex instanceof InterruptedException || ex instanceof InterruptedIOException || ex instanceof ClosedByInterruptException) {
+                // Interruption is reported to the caller
+                Thread.currentThread().interrupt();
+            }
+            StringWriter sw = new StringWriter();
+            ex.printStackTrace(new PrintWriter(sw));
+            return sw.toString();
+        }
+    }
+
+    /**
+     * Compiles and parses tiny definition end to end bypassing caches, so
+     * that Kaitai compiler, java compiler and runtime classes are loaded and
+     * warmed up before first real use. Result is discarded.
+     *
+     * @return true if warm-up compilation and parsing succeeded
+     */
+    public static boolean warmUp() {
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setPrecompiledDefinitions(null);
+        try {
+            URI uri = KaitaiCompiler.class.getResource(WARM_UP_DEFINITION).toURI();
+            CompileResult compileResult = compiler.compileDefinition(new DefinitionRecord("warm_up", "warm_up.ksy", uri));
+            KaitaiParser parser = compileResult.getParser();
+            if (parser == null) {
+                Logger.getLogger(KaitaiCompiler.class.getName()).log(Level.WARNING, "Compiler warm-up failed: {0}", compileResult.getErrorMessage());
+                return false;
+            }
+
+            ByteArrayEditableData data = new ByteArrayEditableData(WARM_UP_DATA.clone());
+            return parser.parse(data).getErrorMessage() == null;
+        } catch (URISyntaxException | RuntimeException ex) {
+            Logger.getLogger(KaitaiCompiler.class.getName()).log(Level.WARNING, "Compiler warm-up failed", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Returns key identifying compiled form of the definition.
+     * <p>
+     * Key covers definition content, content of its imports, compiler version
+     * and compilation settings, but not the running java version.
+     *
+     * @param definitionRecord definition record
+     * @return hexadecimal key
+     * @throws IOException if definition cannot be read
+     */
+    public String getDefinitionKey(DefinitionRecord definitionRecord) throws IOException {
+        byte[] content = readContent(definitionRecord.getUri());
+        Object yamlSpec = JavaKSYParser.readerToYaml(new StringReader(new String(content, StandardCharsets.UTF_8)));
+        try {
+            return computeDefinitionKey(definitionRecord.getUri(), content, yamlSpec, createRuntimeConfig());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Compiles definition to bytecode without use of any cache.
+     *
+     * @param definitionRecord definition record
+     * @param javacOptions additional options for java compiler
+     * @return compiled definition
+     * @throws Exception if compilation fails
+     */
+    public CompiledDefinition compileBytecode(DefinitionRecord definitionRecord, List<String> javacOptions) throws Exception {
+        byte[] content = readContent(definitionRecord.getUri());
+        Object yamlSpec = JavaKSYParser.readerToYaml(new StringReader(new String(content, StandardCharsets.UTF_8)));
+        return compileBytecode(definitionRecord, yamlSpec, createRuntimeConfig(), javacOptions, new PhaseTimings());
+    }
+
+    private CompiledDefinition compileBytecode(DefinitionRecord definitionRecord, Object yamlSpec, RuntimeConfig config, final List<String> javacOptions, final PhaseTimings timings) throws Exception {
+        Map<String, String> generatedSources = generateSources(definitionRecord, yamlSpec, config, timings);
+        long startTime = System.nanoTime();
+        long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+        final Map<String, String> sources = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : generatedSources.entrySet()) {
+            sources.put(DEST_PACKAGE + "." + entry.getKey(), guardLimits(widenPositions(entry.getValue())));
+        }
+        // Source of the top-level definition is the first one
+        String javaSrc = sources.values().iterator().next();
+        timings.record(PhaseTimings.Phase.CODE_GENERATION, startTime, startAllocatedBytes);
+        final Matcher m = TOP_CLASS_NAME_AND_PARAMETERS.matcher(javaSrc);
+        if (!m.find()) {
+            throw new RuntimeException("Unable to find top-level class in generated .java");
+        }
+        // Parse parameter names
+        final ArrayList<String> paramNames = new ArrayList<>();
+        final Matcher p = PARAMETER_NAME.matcher(m.group(2));
+        while (p.find()) {
+            paramNames.add(p.group(1));
+        }
+
+        String wrapperClassSrc = "package " + DEST_PACKAGE + ";\n"
+                + "public class DataWrapper {\n"
+                + "public static Class getKsyClass() { return " + m.group(1) + ".class; }\n"
+                + "public static Class getStreamClass() { return io.kaitai.struct.BinaryDataKaitaiStream.class; }\n"
+                + "}\n";
+
+        ClassLoader classLoader = getClass().getClassLoader();
+        JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+        if (javaCompiler == null) {
+            Class compilerClass = classLoader.loadClass("com.sun.tools.javac.api.JavacTool");
+            javaCompiler = (JavaCompiler) compilerClass.getConstructor().newInstance();
+        }
+        final JavaSourceCompiler compiler = new JavaSourceCompiler(javaCompiler, KaitaiStream.class, BinaryDataKaitaiStream.class, EditableBinaryData.class);
+        sources.put(DEST_PACKAGE + "." + WRAPPER_CLASS_NAME, wrapperClassSrc);
+        Future<Map<String, byte[]>> javacTask = JAVAC_EXECUTOR.submit(() -> {
+            long javacStartTime = System.nanoTime();
+            long javacStartAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            try {
+                return compiler.compile(sources, javacOptions);
+            } finally {
+                timings.record(PhaseTimings.Phase.JAVAC, javacStartTime, javacStartAllocatedBytes);
+            }
+        });
+        Map<String, byte[]> classes;
+        try {
+            classes = javacTask.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } catch (InterruptedException ex) {
+            javacTask.cancel(true);
+            throw ex;
+        }
+        return new CompiledDefinition(classes, paramNames);
+    }
+
+    /**
+     * Generates java sources of the definition and of all its imports using
+     * Kaitai compiler.
+     * <p>
+     * Kaitai compiler keeps global state, so generation is serialized.
+     * Imports are loaded using import resolver.
+     *
+     * @param definitionRecord definition record
+     * @param yamlSpec parsed definition
+     * @param config runtime config
+     * @param timings timings of the phases
+     * @return java sources by class name, source of the top-level class first
+     * @throws Exception if generation fails
+     */
+    private Map<String, String> generateSources(DefinitionRecord definitionRecord, Object yamlSpec, RuntimeConfig config, PhaseTimings timings) throws Exception {
+        synchronized (KAITAI_COMPILER_LOCK) {
+            long startTime = System.nanoTime();
+            long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            ClassSpec classSpec = ClassSpec.fromYaml(yamlSpec, new Some<>(definitionRecord.getFileName()));
+            timings.record(PhaseTimings.Phase.CLASS_SPEC, startTime, startAllocatedBytes);
+
+            startTime = System.nanoTime();
+            startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            final JavaClassSpecs specs = new ImportingClassSpecs(importResolver, definitionRecord.getUri(), classSpec);
+            Await.result(Main.importAndPrecompile(specs, config), Duration.Inf());
+            timings.record(PhaseTimings.Phase.PRECOMPILE, startTime, startAllocatedBytes);
+
+            startTime = System.nanoTime();
+            startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            Map<String, String> javaSources = new LinkedHashMap<>();
+            addGeneratedSources(javaSources, Main.compile(specs, classSpec, JavaCompiler$.MODULE$, config));
+            // Each imported definition is generated as separate top-level class
+            for (ClassSpec spec : CollectionConverters.asJava(specs).values()) {
+                if (spec != classSpec) {
+                    addGeneratedSources(javaSources, Main.compile(specs, spec, JavaCompiler$.MODULE$, config));
                 }
             }
-            if (input != null) {
+            timings.record(PhaseTimings.Phase.CODE_GENERATION, startTime, startAllocatedBytes);
+            return javaSources;
+        }
+    }
+
+    private static void addGeneratedSources(Map<String, String> javaSources, CompileLog.SpecSuccess result) {
+        for (CompileLog.FileSuccess file : CollectionConverters.asJava(result.files())) {
+            String fileName = file.fileName();
+            String className = fileName.substring(fileName.lastIndexOf('/') + 1);
+            if (className.endsWith(".java")) {
+                className = className.substring(0, className.length() - ".java".length());
+            }
+            javaSources.put(className, file.contents());
+        }
+    }
+
+    /**
+     * Creates parser loading classes of the compiled definition.
+     *
+     * @param definitionRecord definition record
+     * @param compiledDefinition compiled definition
+     * @return parser
+     * @throws ReflectiveOperationException if classes cannot be loaded
+     */
+    public KaitaiParser createParser(DefinitionRecord definitionRecord, CompiledDefinition compiledDefinition) throws ReflectiveOperationException {
+        return createParser(definitionRecord, compiledDefinition, new PhaseTimings());
+    }
+
+    private KaitaiParser createParser(DefinitionRecord definitionRecord, CompiledDefinition compiledDefinition, PhaseTimings timings) throws ReflectiveOperationException {
+        long startTime = System.nanoTime();
+        long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+        try {
+            return loadParser(definitionRecord, compiledDefinition);
+        } finally {
+            timings.record(PhaseTimings.Phase.CLASS_LOADING, startTime, startAllocatedBytes);
+        }
+    }
+
+    private KaitaiParser loadParser(DefinitionRecord definitionRecord, CompiledDefinition compiledDefinition) throws ReflectiveOperationException {
+        ClassLoader classLoader = new BytecodeClassLoader(getClass().getClassLoader(), compiledDefinition.getClasses());
+        final Class<?> wrapperClass = classLoader.loadClass(DEST_PACKAGE + "." + WRAPPER_CLASS_NAME);
+        final Class<?> ksyClass = (Class<?>) wrapperClass.getMethod("getKsyClass").invoke(null);
+        final Class<?> streamClass = (Class<?>) wrapperClass.getMethod("getStreamClass").invoke(null);
+        return new KaitaiParser(definitionRecord, ksyClass, streamClass, compiledDefinition.getParamNames());
+    }
+
+    private static RuntimeConfig createRuntimeConfig() {
+        return new RuntimeConfig(
+                false,// autoRead - do not call `_read` automatically in constructor
+                true, // readStoresPos - enable generation of a position info which is accessed in DebugAids later
+                true, // opaqueTypes
+                true, // zeroCopySubstream - read sized substructures using substream views instead of copies
+                false, // readWrite
+                null, // cppConfig
+                null, // goPackage
+                new JavaRuntimeConfig(
+                        DEST_PACKAGE,
+                        // Class to be invoked in `fromFile` helper methods
+                        "io.kaitai.struct.ByteBufferKaitaiStream",
+                        // Exception class expected to be thrown on end-of-stream errors
+                        "java.nio.BufferUnderflowException"
+                ),
+                null, // dotNetNamespace
+                null, // phpNamespace
+                null, // pythonPackage
+                null, // nimModule
+                null // nimOpaque
+        );
+    }
+
+    /**
+     * Reads content of the definition.
+     *
+     * @param uri definition URI
+     * @return content
+     * @throws IOException if reading fails
+     */
+    static byte[] readContent(URI uri) throws IOException {
+        try (InputStream input = uri.toURL().openStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Computes definition key from definition content, content of its
+     * imports, compiler version and compilation settings.
+     *
+     * @param uri definition URI
+     * @param content definition content
+     * @param yamlSpec parsed definition
+     * @param config runtime config
+     * @return hexadecimal key
+     * @throws NoSuchAlgorithmException if hash is not available
+     */
+    private String computeDefinitionKey(URI uri, byte[] content, Object yamlSpec, RuntimeConfig config) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(content);
+        updateImportsDigest(digest, uri, uri, yamlSpec, new HashSet<URI>());
+        digest.update(Version.version().getBytes(StandardCharsets.UTF_8));
+        digest.update(config.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) GENERATOR_REVISION);
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Updates digest with content of all imports of the definition including
+     * transitive imports.
+     *
+     * @param digest message digest
+     * @param definitionUri URI of the top-level definition
+     * @param specUri URI of the definition declaring imports
+     * @param yamlSpec parsed definition declaring imports
+     * @param visitedUris URIs of already processed imports
+     */
+    private void updateImportsDigest(MessageDigest digest, URI definitionUri, URI specUri, Object yamlSpec, Set<URI> visitedUris) {
+        for (String importName : KsyImportResolver.getImports(yamlSpec)) {
+            digest.update(importName.getBytes(StandardCharsets.UTF_8));
+            URI importUri = importResolver.resolveImport(importName.startsWith("/") ? definitionUri : specUri, importName);
+            if (importUri != null && visitedUris.add(importUri)) {
                 try {
-                    input.close();
-                } catch (IOException ex) {
-                    // ignore
+                    KsyImportResolver.ParsedDefinition parsedDefinition = importResolver.getParsedDefinition(importUri);
+                    digest.update(parsedDefinition.getContentHash().getBytes(StandardCharsets.UTF_8));
+                    updateImportsDigest(digest, definitionUri, importUri, parsedDefinition.getYamlSpec(), visitedUris);
+                } catch (IOException | RuntimeException ex) {
+                    // Unresolvable import fails compilation anyway
                 }
             }
         }
     }
 
+    /**
+     * Computes cache key, which extends definition key with version of the
+     * running java used to compile bytecode.
+     *
+     * @param definitionKey definition key
+     * @return hexadecimal key
+     * @throws NoSuchAlgorithmException if hash is not available
+     */
+    private static String computeCacheKey(String definitionKey) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(definitionKey.getBytes(StandardCharsets.UTF_8));
+        digest.update(System.getProperty("java.specification.version", "").getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] data) {
+        StringBuilder builder = new StringBuilder();
+        for (byte value : data) {
+            builder.append(String.format("%02x", value));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Replaces int positions in generated source with long positions.
+     * <p>
+     * Kaitai runtime provides position only as int, so position maps are
+     * changed to store long values read directly from binary data stream.
+     * Recorded positions are absolute positions in source data, as the
+     * structure can read using stream of another structure, positions saved
+     * to seek back stay relative to the stream.
+     *
+     * @param javaSrc generated java source
+     * @return modified java source
+     */
+    static String widenPositions(String javaSrc) {
+        Matcher lineMatcher = POSITION_LINE.matcher(javaSrc);
+        StringBuffer result = new StringBuffer();
+        while (lineMatcher.find()) {
+            String line = lineMatcher.group().replace("Integer", "Long");
+            String positionMethod = lineMatcher.group(1) != null ? "position" : "absolutePosition";
+            line = POSITION_CALL.matcher(line).replaceAll("io.kaitai.struct.BinaryDataKaitaiStream." + positionMethod + "($1)");
+            lineMatcher.appendReplacement(result, Matcher.quoteReplacement(line));
+        }
+        lineMatcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Reports reading progress of the generated source to limits of the
+     * stream.
+     * <p>
+     * Starts of the fields and of the elements of repeated fields are reported
+     * with names of the fields and reading of nested structures tracks
+     * nesting depth. Expects source processed by
+     * {@link #widenPositions(String)}.
+     *
+     * @param javaSrc generated java source
+     * @return modified java source
+     */
+    static String guardLimits(String javaSrc) {
+        String result = FIELD_START.matcher(javaSrc).replaceAll("_attrStart.put(\"$1\", io.kaitai.struct.BinaryDataKaitaiStream.fieldStart($2, \"$1\"))");
+        result = ELEMENT_START.matcher(result).replaceAll("$1io.kaitai.struct.BinaryDataKaitaiStream.elementStart($3, \"$2\", _posList.size()))");
+        return NESTED_READ.matcher(result).replaceAll("$1io.kaitai.struct.BinaryDataKaitaiStream.readNested(this._io, $2);");
+    }
+
     @Immutable
     @NullMarked
     public static class CompileResult {
 
         private final KaitaiParser parser;
         private final String errorMessage;
+        private final PhaseTimings timings;
 
         public CompileResult(KaitaiParser parser) {
+            this(parser, new PhaseTimings());
+        }
+
+        public CompileResult(KaitaiParser parser, PhaseTimings timings) {
             this.parser = parser;
             this.errorMessage = null;
+            this.timings = timings;
         }
 
         public CompileResult(String errorMessage) {
+            this(errorMessage, new PhaseTimings());
+        }
+
+        public CompileResult(String errorMessage, PhaseTimings timings) {
             this.parser = null;
             this.errorMessage = errorMessage;
+            this.timings = timings;
         }
 
         @Nullable
@@ -183,5 +721,14 @@ public class KaitaiCompiler {
         public String getErrorMessage() {
             return errorMessage;
         }
+
+        /**
+         * Returns timings of the compilation phases.
+         *
+         * @return phase timings
+         */
+        public PhaseTimings getTimings() {
+            return timings;
+        }
     }
 }
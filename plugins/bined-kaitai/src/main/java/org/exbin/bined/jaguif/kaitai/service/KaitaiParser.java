@@ -15,17 +15,29 @@
  */
 package org.exbin.bined.jaguif.kaitai.service;
 
-import io.kaitai.struct.KaitaiStream;
-import io.kaitai.struct.KaitaiStruct;
+import io.kaitai.struct.BinaryDataKaitaiStream;
+import io.kaitai.struct.ByteArrayKaitaiStream;
+import io.kaitai.struct.KaitaiSourceStream;
+import io.kaitai.struct.MappedFileKaitaiStream;
+import io.kaitai.struct.StreamCancellation;
+import io.kaitai.struct.StreamLimits;
+import io.kaitai.struct.StreamStatistics;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.util.List;
 import org.jspecify.annotations.Nullable;
 import org.jspecify.annotations.NullMarked;
 import javax.annotation.concurrent.Immutable;
 import org.exbin.auxiliary.binary_data.EditableBinaryData;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.auxiliary.binary_data.delta.DeltaDocument;
+import org.exbin.auxiliary.binary_data.delta.FileDataSource;
+import org.exbin.auxiliary.binary_data.delta.segment.DataSegment;
+import org.exbin.auxiliary.binary_data.delta.segment.FileSegment;
 import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
 
 /**
@@ -38,6 +50,11 @@ public class KaitaiParser {
     protected final Class<?> ksyClass;
     protected final Class<?> streamClass;
     protected final List<String> paramNames;
+    protected int windowSize = BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE;
+    protected boolean mappedFileAllowed = true;
+    protected boolean statisticsEnabled = false;
+    protected ParsingLimits limits = ParsingLimits.DEFAULT;
+    private volatile Constructor<?> streamConstructor = null;
 
     public KaitaiParser(DefinitionRecord definitionRecord, Class<?> ksyClass, Class<?> streamClass, List<String> paramNames) {
         this.definitionRecord = definitionRecord;
@@ -61,95 +78,321 @@ public class KaitaiParser {
     public List<String> getParamNames() {
         return paramNames;
     }
-    
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets size of the read window of the stream.
+     *
+     * @param windowSize window size in bytes, zero for per-byte access
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public boolean isMappedFileAllowed() {
+        return mappedFileAllowed;
+    }
+
+    /**
+     * Sets whether unmodified file documents can be parsed directly from
+     * memory mapped file.
+     *
+     * @param mappedFileAllowed true if allowed
+     */
+    public void setMappedFileAllowed(boolean mappedFileAllowed) {
+        this.mappedFileAllowed = mappedFileAllowed;
+    }
+
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Sets whether read statistics of the stream are collected while parsing.
+     * <p>
+     * Users of the shared parser pass the setting to each parsing instead.
+     *
+     * @param statisticsEnabled true to collect statistics
+     */
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+    public ParsingLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Sets resource limits applied to each parsing.
+     * <p>
+     * Users of the shared parser pass the limits to each parsing instead.
+     *
+     * @param limits limits
+     */
+    public void setLimits(ParsingLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Parses frozen snapshot of the data.
+     *
+     * @param snapshot data snapshot
+     * @return parsing result tagged with revision of the snapshot
+     */
+    public ParsingResult parse(BinaryDataSnapshot snapshot) {
+        return parse(snapshot.getData(), snapshot.getRevision(), null, limits, statisticsEnabled);
+    }
+
+    /**
+     * Parses frozen snapshot of the data with cancellation.
+     * <p>
+     * Parsing stops with error on the next read after the cancellation was
+     * requested.
+     *
+     * @param snapshot data snapshot
+     * @param cancellation cancellation of reading
+     * @return parsing result tagged with revision of the snapshot
+     */
+    public ParsingResult parse(BinaryDataSnapshot snapshot, @Nullable StreamCancellation cancellation) {
+        return parse(snapshot.getData(), snapshot.getRevision(), cancellation, limits, statisticsEnabled);
+    }
+
+    /**
+     * Parses frozen snapshot of the data with cancellation and settings of
+     * this parsing.
+     * <p>
+     * Settings of the parser are not used, so that the parser shared by
+     * multiple users is not reconfigured.
+     *
+     * @param snapshot data snapshot
+     * @param cancellation cancellation of reading
+     * @param limits resource limits of the parsing
+     * @param statisticsEnabled true to collect read statistics
+     * @return parsing result tagged with revision of the snapshot
+     */
+    public ParsingResult parse(BinaryDataSnapshot snapshot, @Nullable StreamCancellation cancellation, ParsingLimits limits, boolean statisticsEnabled) {
+        return parse(snapshot.getData(), snapshot.getRevision(), cancellation, limits, statisticsEnabled);
+    }
+
+    /**
+     * Parses data directly.
+     * <p>
+     * Data must not be modified while parsing.
+     *
+     * @param sourceData source data
+     * @return parsing result
+     */
     public ParsingResult parse(EditableBinaryData sourceData) {
+        return parse(sourceData, BinaryDataSnapshot.NO_REVISION, null, limits, statisticsEnabled);
+    }
+
+    private ParsingResult parse(EditableBinaryData sourceData, long revision, @Nullable StreamCancellation cancellation, ParsingLimits limits, boolean statisticsEnabled) {
+        long startTime = System.nanoTime();
+        PhaseTimings timings = new PhaseTimings();
+        StreamStatistics statistics = null;
+        StreamLimits streamLimits = null;
+        Object sourceStream = null;
+        Object struct = null;
         try {
-            final Constructor<?> streamConstructor = streamClass.getDeclaredConstructors()[0];
-            Object sourceStream = streamConstructor.newInstance(sourceData);
-            final Constructor<?> ksyConstructor = findKsyConstructor(ksyClass);
-            final Class<?>[] types = ksyConstructor.getParameterTypes();
-            final Object[] args = new Object[types.length];
-            args[0] = sourceStream;
-            for (int i = 3; i < args.length; ++i) {
-                args[i] = getDefaultValue(types[i]);
+            long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            sourceStream = createStream(sourceData);
+            if (statisticsEnabled && sourceStream instanceof KaitaiSourceStream) {
+                statistics = new StreamStatistics();
+                ((KaitaiSourceStream) sourceStream).setStatistics(statistics);
             }
+            streamLimits = limits.createStreamLimits();
+            if (sourceStream instanceof KaitaiSourceStream) {
+                ((KaitaiSourceStream) sourceStream).setCancellation(cancellation);
+                ((KaitaiSourceStream) sourceStream).setLimits(streamLimits);
+            }
+            StructAccessor accessor = StructAccessor.forClass(ksyClass);
+            struct = accessor.createRoot(sourceStream);
+            timings.record(PhaseTimings.Phase.STREAM_SETUP, startTime, startAllocatedBytes);
 
-            // TODO: get parameters from user
-            Object struct = ksyConstructor.newInstance(args);
-
-            // Find and run "_read" that does actual parsing
-            // TODO: wrap this in try-catch block
-            Method readMethod = ksyClass.getMethod("_read");
-            readMethod.invoke(struct);
+            // Run "_read" that does actual parsing
+            long readStartTime = System.nanoTime();
+            startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            streamLimits.startTimer();
+            try {
+                accessor.read(struct);
+            } finally {
+                streamLimits.stopTimer();
+                timings.record(PhaseTimings.Phase.READ, readStartTime, startAllocatedBytes);
+            }
 
-            return new ParsingResult(struct);
+            return new ParsingResult(struct, revision, System.nanoTime() - startTime, statistics, timings);
         } catch (Throwable ex) {
-            StringWriter sw = new StringWriter();
-            ex.printStackTrace(new PrintWriter(sw));
-            String message = sw.toString();
-            return new ParsingResult(message == null ? "" : message);
+            if (struct == null && sourceStream instanceof Closeable) {
+                // No structure keeps the stream, memory mapped file is released
+                try {
+                    ((Closeable) sourceStream).close();
+                } catch (IOException closeEx) {
+                    // Nothing to release
+                }
+            }
+            return createFailedResult(ex, struct, streamLimits, revision, System.nanoTime() - startTime, statistics, timings);
         }
     }
 
-    private static <T> Constructor<T> findKsyConstructor(Class<T> ksyClass) {
-        for (final Constructor c : ksyClass.getDeclaredConstructors()) {
-            final Class<?>[] types = c.getParameterTypes();
-            if (types.length >= 3
-                    && KaitaiStream.class.getCanonicalName().equals(types[0].getCanonicalName())
-                    && KaitaiStruct.ReadOnly.class.getCanonicalName().equals(types[1].getCanonicalName())
-                    && ksyClass.getCanonicalName().equals(types[2].getCanonicalName())) {
-                return c;
-            }
+    /**
+     * Creates result of failed parsing.
+     * <p>
+     * Root structure which was already created keeps attributes read before
+     * the failure and is returned as partial result.
+     *
+     * @param ex failure
+     * @param struct root structure or null if not created
+     * @param streamLimits limits of the parsing or null if not created
+     * @param revision revision of the data
+     * @param parseTime wall time of parsing in nanoseconds
+     * @param statistics read statistics or null
+     * @param timings phase timings
+     * @return parsing result
+     */
+    static ParsingResult createFailedResult(Throwable ex, @Nullable Object struct, @Nullable StreamLimits streamLimits, long revision, long parseTime, @Nullable StreamStatistics statistics, PhaseTimings timings) {
+        StringWriter sw = new StringWriter();
+        ex.printStackTrace(new PrintWriter(sw));
+        String message = sw.toString();
+        if (struct == null) {
+            return new ParsingResult(message == null ? "" : message, revision, parseTime, statistics, timings);
         }
-        throw new IllegalArgumentException(ksyClass + " has no KaitaiStruct-generated constructor");
-    }
 
-    @Nullable
-    private static Object getDefaultValue(Class<?> clazz) {
-        if (clazz == boolean.class) {
-            return false;
+        long errorPosition;
+        if (ex instanceof StreamLimits.LimitExceededException) {
+            errorPosition = ((StreamLimits.LimitExceededException) ex).getPosition();
+        } else {
+            errorPosition = streamLimits == null ? -1 : streamLimits.getFieldPosition();
         }
-        if (clazz == char.class) {
-            return (char) 0;
+        return new ParsingResult(struct, message == null ? "" : message, String.valueOf(ex), errorPosition, revision, parseTime, statistics, timings);
+    }
+
+    private Object createStream(EditableBinaryData sourceData) throws ReflectiveOperationException {
+        if (sourceData instanceof ByteArrayEditableData) {
+            return new ByteArrayKaitaiStream((ByteArrayEditableData) sourceData);
         }
-        if (clazz == byte.class) {
-            return (byte) 0;
+
+        if (mappedFileAllowed) {
+            File sourceFile = findUnmodifiedSourceFile(sourceData);
+            if (sourceFile != null) {
+                try {
+                    return new MappedFileKaitaiStream(sourceFile);
+                } catch (IOException ex) {
+                    // Fallback to binary data stream
+                }
+            }
         }
-        if (clazz == short.class) {
-            return (short) 0;
+
+        Constructor<?> constructor = streamConstructor;
+        if (constructor == null) {
+            constructor = streamClass.getConstructor(EditableBinaryData.class, int.class);
+            streamConstructor = constructor;
         }
-        if (clazz == int.class) {
-            return 0;
+        return constructor.newInstance(sourceData, windowSize);
+    }
+
+    /**
+     * Returns source file if binary data are unmodified content of the file.
+     *
+     * @param sourceData source data
+     * @return file or null
+     */
+    @Nullable
+    private static File findUnmodifiedSourceFile(EditableBinaryData sourceData) {
+        if (!(sourceData instanceof DeltaDocument)) {
+            return null;
         }
-        if (clazz == long.class) {
-            return 0L;
+
+        DeltaDocument document = (DeltaDocument) sourceData;
+        FileDataSource fileSource = document.getFileSource();
+        if (fileSource == null) {
+            return null;
         }
-        if (clazz == float.class) {
-            return 0.0f;
+
+        File file = fileSource.getFile();
+        if (!file.isFile() || file.length() != document.getDataSize()) {
+            return null;
         }
-        if (clazz == double.class) {
-            return 0.0;
+
+        long position = 0;
+        for (DataSegment segment : document.getSegments()) {
+            if (!(segment instanceof FileSegment) || segment.getStartPosition() != position) {
+                return null;
+            }
+            position += segment.getLength();
         }
-        return null;
+        return file;
     }
 
+
     @Immutable
     @NullMarked
     public static class ParsingResult {
         
         private final Object struct;
         private final String errorMessage;
+        private final String errorSummary;
+        private final long errorPosition;
+        private final long revision;
+        private final long parseTime;
+        private final StreamStatistics statistics;
+        private final PhaseTimings timings;
 
-        public ParsingResult(Object struct) {
+        public ParsingResult(Object struct, long revision, long parseTime, @Nullable StreamStatistics statistics, PhaseTimings timings) {
             this.struct = struct;
             this.errorMessage = null;
+            this.errorSummary = null;
+            this.errorPosition = -1;
+            this.revision = revision;
+            this.parseTime = parseTime;
+            this.statistics = statistics;
+            this.timings = timings;
         }
 
-        public ParsingResult(@Nullable String errorMessage) {
+        public ParsingResult(@Nullable String errorMessage, long revision, long parseTime, @Nullable StreamStatistics statistics, PhaseTimings timings) {
             this.struct = null;
             this.errorMessage = errorMessage;
+            this.errorSummary = errorMessage;
+            this.errorPosition = -1;
+            this.revision = revision;
+            this.parseTime = parseTime;
+            this.statistics = statistics;
+            this.timings = timings;
+        }
+
+        /**
+         * Creates partial result of parsing which failed after the root
+         * structure was created.
+         *
+         * @param struct partially read root structure
+         * @param errorMessage error message with stack trace
+         * @param errorSummary short description of the error
+         * @param errorPosition absolute position of the failing field or -1
+         * if unknown
+         * @param revision revision of the data
+         * @param parseTime wall time of parsing in nanoseconds
+         * @param statistics read statistics or null
+         * @param timings phase timings
+         */
+        public ParsingResult(Object struct, String errorMessage, String errorSummary, long errorPosition, long revision, long parseTime, @Nullable StreamStatistics statistics, PhaseTimings timings) {
+            this.struct = struct;
+            this.errorMessage = errorMessage;
+            this.errorSummary = errorSummary;
+            this.errorPosition = errorPosition;
+            this.revision = revision;
+            this.parseTime = parseTime;
+            this.statistics = statistics;
+            this.timings = timings;
         }
 
+        /**
+         * Returns parsed root structure.
+         *
+         * @return structure, partially read if parsing failed, or null if
+         * parsing failed before structure was created
+         */
         @Nullable
         public Object getStruct() {
             return struct;
@@ -159,5 +402,72 @@ public class KaitaiParser {
         public String getErrorMessage() {
             return errorMessage;
         }
+
+        /**
+         * Returns short description of the error.
+         *
+         * @return description or null if parsing succeeded
+         */
+        @Nullable
+        public String getErrorSummary() {
+            return errorSummary;
+        }
+
+        /**
+         * Returns absolute position in source data of the field which failed
+         * to parse.
+         *
+         * @return position or -1 if unknown
+         */
+        public long getErrorPosition() {
+            return errorPosition;
+        }
+
+        /**
+         * Returns whether parsing failed but partially read structure is
+         * available.
+         *
+         * @return true if partial
+         */
+        public boolean isPartial() {
+            return struct != null && errorMessage != null;
+        }
+
+        /**
+         * Returns revision of the data the result was built from.
+         *
+         * @return revision or {@link BinaryDataSnapshot#NO_REVISION}
+         */
+        public long getRevision() {
+            return revision;
+        }
+
+        /**
+         * Returns wall time of parsing.
+         *
+         * @return time in nanoseconds
+         */
+        public long getParseTime() {
+            return parseTime;
+        }
+
+        /**
+         * Returns read statistics of the stream collected while parsing.
+         *
+         * @return statistics or null if not collected
+         */
+        @Nullable
+        public StreamStatistics getStatistics() {
+            return statistics;
+        }
+
+        /**
+         * Returns timings of the parsing phases.
+         *
+         * @return phase timings
+         */
+        public PhaseTimings getTimings() {
+            return timings;
+        }
     }
 }
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Process-wide registry of compiled Kaitai parsers.
+ * <p>
+ * Parsers are keyed by definition URI and key of the compiled form of the
+ * definition, which covers content of the definition and of its imports.
+ * Concurrent requests for the same key wait for single compilation.
+ * Failed compilations are not retained, so the next request compiles again.
+ * <p>
+ * Each parser has its own class loader. Users acquire parsers by
+ * {@link #getParser(DefinitionRecord)} and return them by
+ * {@link #release(KaitaiParser)}. When the count of parsers exceeds the
+ * limit, least recently used parsers without users are evicted, so that
+ * their classes can be unloaded.
+ */
+@ThreadSafe
+@NullMarked
+public class KaitaiParserRegistry {
+
+    public static final int DEFAULT_MAX_PARSERS = 32;
+
+    private final KaitaiCompiler compiler;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService compileExecutor = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "kaitai-compile");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int maxParsers = DEFAULT_MAX_PARSERS;
+    private volatile ParsingLimits parsingLimits = ParsingLimits.DEFAULT;
+
+    public KaitaiParserRegistry() {
+        this(new KaitaiCompiler());
+    }
+
+    public KaitaiParserRegistry(KaitaiCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    public KaitaiCompiler getCompiler() {
+        return compiler;
+    }
+
+    public int getMaxParsers() {
+        synchronized (entries) {
+            return maxParsers;
+        }
+    }
+
+    /**
+     * Sets limit of the count of parsers kept loaded.
+     * <p>
+     * Parsers in use are never evicted, so the limit can be exceeded
+     * temporarily.
+     *
+     * @param maxParsers maximum count of parsers
+     */
+    public void setMaxParsers(int maxParsers) {
+        synchronized (entries) {
+            this.maxParsers = maxParsers;
+            evict();
+        }
+    }
+
+    public ParsingLimits getParsingLimits() {
+        return parsingLimits;
+    }
+
+    /**
+     * Sets resource limits which users of the registry apply to parsing with
+     * returned parsers.
+     *
+     * @param parsingLimits parsing limits
+     */
+    public void setParsingLimits(ParsingLimits parsingLimits) {
+        this.parsingLimits = parsingLimits;
+    }
+
+    /**
+     * Returns compiled parser for the definition, compiling it if not
+     * available yet.
+     * <p>
+     * Returned parser is shared, so users don't change its settings and pass
+     * settings to each parsing instead. Successfully
+     * compiled parser is acquired by the caller and should be released by
+     * {@link #release(KaitaiParser)} when no longer used.
+     *
+     * @param definitionRecord definition record
+     * @return compile result
+     */
+    public KaitaiCompiler.CompileResult getParser(DefinitionRecord definitionRecord) {
+        String key;
+        try {
+            key = computeKey(definitionRecord);
+        } catch (IOException ex) {
+            return createFailedResult(ex);
+        } catch (RuntimeException ex) {
+            // Malformed definition, compiler reports the failure
+            return compiler.compileDefinition(definitionRecord);
+        }
+
+        Entry entry;
+        boolean compiling = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                compiling = true;
+            }
+            // Reserved, so that the entry is not evicted while waiting
+            entry.references++;
+        }
+
+        KaitaiCompiler.CompileResult result;
+        if (compiling) {
+            try {
+                result = compiler.compileDefinition(definitionRecord);
+            } catch (RuntimeException | Error ex) {
+                synchronized (entries) {
+                    entries.remove(key, entry);
+                }
+                entry.future.completeExceptionally(ex);
+                throw ex;
+            }
+            entry.future.complete(result);
+        } else {
+            KaitaiCompiler.CompileResult loadedResult;
+            try {
+                loadedResult = entry.future.join();
+            } catch (CompletionException ex) {
+                // Compilation failed in the thread which performed it
+                synchronized (entries) {
+                    entry.references--;
+                }
+                return createFailedResult(ex.getCause() == null ? ex : ex.getCause());
+            }
+            if (loadedResult.getParser() != null) {
+                PhaseTimings timings = new PhaseTimings();
+                timings.setSource(PhaseTimings.DefinitionSource.LOADED);
+                result = new KaitaiCompiler.CompileResult(loadedResult.getParser(), timings);
+            } else {
+                result = loadedResult;
+            }
+        }
+
+        synchronized (entries) {
+            if (result.getParser() == null) {
+                entry.references--;
+                entries.remove(key, entry);
+            }
+            evict();
+        }
+        return result;
+    }
+
+    /**
+     * Returns compiled parser for the definition, compiling it in background
+     * if not available yet.
+     * <p>
+     * Successfully compiled parser is acquired by the caller the same way as
+     * by {@link #getParser(DefinitionRecord)}.
+     *
+     * @param definitionRecord definition record
+     * @return future compile result
+     */
+    public CompletableFuture<KaitaiCompiler.CompileResult> getParserAsync(DefinitionRecord definitionRecord) {
+        return CompletableFuture.supplyAsync(() -> getParser(definitionRecord), compileExecutor);
+    }
+
+    /**
+     * Returns whether compiled parser for the current content of the
+     * definition is loaded, so that {@link #getParser(DefinitionRecord)}
+     * returns without compilation.
+     *
+     * @param definitionRecord definition record
+     * @return true if parser is loaded
+     */
+    public boolean isLoaded(DefinitionRecord definitionRecord) {
+        String key;
+        try {
+            key = computeKey(definitionRecord);
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.getParser() != null;
+        }
+    }
+
+    /**
+     * Returns parser acquired by {@link #getParser(DefinitionRecord)}.
+     * <p>
+     * Parsers not provided by this registry are ignored.
+     *
+     * @param parser parser
+     */
+    public void release(KaitaiParser parser) {
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                if (entry.getParser() == parser) {
+                    if (entry.references > 0) {
+                        entry.references--;
+                    }
+                    break;
+                }
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Returns count of users of the parser.
+     *
+     * @param parser parser
+     * @return count of users or -1 if parser is not in registry
+     */
+    public int getReferenceCount(KaitaiParser parser) {
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                if (entry.getParser() == parser) {
+                    return entry.references;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Removes all parsers of the definition.
+     *
+     * @param definitionRecord definition record
+     */
+    public void remove(DefinitionRecord definitionRecord) {
+        String prefix = definitionRecord.getUri().toString() + "#";
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Removes all parsers.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns count of parsers available or being compiled.
+     *
+     * @return count of parsers
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Evicts least recently used parsers without users over the limit.
+     */
+    private void evict() {
+        int excess = entries.size() - maxParsers;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.references == 0 && entry.future.isDone()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    private static KaitaiCompiler.CompileResult createFailedResult(Throwable failure) {
+        StringWriter sw = new StringWriter();
+        failure.printStackTrace(new PrintWriter(sw));
+        return new KaitaiCompiler.CompileResult(sw.toString());
+    }
+
+    private String computeKey(DefinitionRecord definitionRecord) throws IOException {
+        return definitionRecord.getUri().toString() + "#" + compiler.getDefinitionKey(definitionRecord);
+    }
+
+    /**
+     * Registry entry guarded by the registry lock.
+     */
+    @NotThreadSafe
+    private static class Entry {
+
+        private final CompletableFuture<KaitaiCompiler.CompileResult> future = new CompletableFuture<>();
+        private int references = 0;
+
+        @Nullable
+        private KaitaiParser getParser() {
+            KaitaiCompiler.CompileResult result = future.getNow(null);
+            return result == null ? null : result.getParser();
+        }
+    }
+}
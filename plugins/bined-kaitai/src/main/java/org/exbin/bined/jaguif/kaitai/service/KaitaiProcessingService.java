@@ -1,10 +1,13 @@
 package org.exbin.bined.jaguif.kaitai.service;
 
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
 import io.kaitai.struct.Version;
+import java.io.IOException;
 import io.kaitai.struct.format.KSVersion;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import javax.swing.tree.DefaultTreeModel;
-import org.exbin.auxiliary.binary_data.EditableBinaryData;
 import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
 
 /**
@@ -14,7 +17,9 @@ import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
 public class KaitaiProcessingService {
 
     protected Object struct;
+    protected BinaryDataSnapshot snapshot;
     protected final DefaultTreeModel model = new DefaultTreeModel(null);
+    protected final InstanceEvaluator instanceEvaluator = new InstanceEvaluator();
 
     public KaitaiProcessingService() {
         KSVersion.current_$eq(Version.version());
@@ -28,18 +33,98 @@ public class KaitaiProcessingService {
         return compiler.compileDefinition(definitionRecord);
     }
     
-    public KaitaiParser.ParsingResult parseData(KaitaiParser parser, EditableBinaryData sourceData) {
-        KaitaiParser.ParsingResult result = parser.parse(sourceData);
-        if (result.getErrorMessage() == null) {
-            this.struct = result.getStruct();
-            loadStruct();
+    /**
+     * Parses data snapshot.
+     * <p>
+     * If structure is available, snapshot is retained as long as parsed
+     * structure is displayed, otherwise it is disposed.
+     *
+     * @param parser parser
+     * @param snapshot data snapshot
+     * @return parsing result
+     */
+    public KaitaiParser.ParsingResult parseData(KaitaiParser parser, BinaryDataSnapshot snapshot) {
+        KaitaiParser.ParsingResult result = parser.parse(snapshot);
+        showParsingResult(result, snapshot);
+        return result;
+    }
+
+    /**
+     * Shows result of parsing performed elsewhere.
+     * <p>
+     * If structure is available, snapshot is retained as long as parsed
+     * structure is displayed, otherwise it is disposed. Partially read
+     * structure of failed parsing is shown with the failing node marked.
+     *
+     * @param result parsing result
+     * @param snapshot parsed data snapshot
+     */
+    public void showParsingResult(KaitaiParser.ParsingResult result, BinaryDataSnapshot snapshot) {
+        Object resultStruct = result.getStruct();
+        if (resultStruct != null) {
+            releaseSnapshot();
+            this.struct = resultStruct;
+            this.snapshot = snapshot;
+            loadStruct(result.isPartial() ? describeFailure(result) : null);
+        } else {
+            snapshot.dispose();
         }
+    }
 
-        return result;
+    /**
+     * Returns revision of the data currently parsed structure was built from.
+     *
+     * @return revision or {@link BinaryDataSnapshot#NO_REVISION}
+     */
+    public long getParsedRevision() {
+        return snapshot == null ? BinaryDataSnapshot.NO_REVISION : snapshot.getRevision();
+    }
+
+    /**
+     * Releases snapshot of previously parsed data.
+     * <p>
+     * Source stream of the structure is closed, which releases segments of
+     * memory mapped file, and the snapshot is disposed. Both happen on the
+     * lane of the instance evaluator after cancelled evaluations stop
+     * reading.
+     */
+    public void releaseSnapshot() {
+        // Instances of released structure are not evaluated anymore
+        instanceEvaluator.cancelAll();
+        // Released after cancelled evaluation stops reading the stream
+        KaitaiStream stream = struct instanceof KaitaiStruct ? ((KaitaiStruct) struct)._io() : null;
+        BinaryDataSnapshot releasedSnapshot = snapshot;
+        if (stream != null || releasedSnapshot != null) {
+            instanceEvaluator.execute(() -> {
+                if (stream != null) {
+                    closeStream(stream);
+                }
+                if (releasedSnapshot != null) {
+                    releasedSnapshot.dispose();
+                }
+            });
+        }
+        snapshot = null;
+        struct = null;
+    }
+
+    private static void closeStream(KaitaiStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ex) {
+            // Nothing to release
+        }
+    }
+
+    private static String describeFailure(KaitaiParser.ParsingResult result) {
+        long errorPosition = result.getErrorPosition();
+        String summary = String.valueOf(result.getErrorSummary());
+        return errorPosition >= 0 ? "failed at 0x" + Long.toHexString(errorPosition) + ": " + summary : "failed: " + summary;
     }
 
-    private void loadStruct() {
-        final DataNode root = new DataNode(0, struct, "[root]");
+    private void loadStruct(@Nullable String failure) {
+        final DataNode root = new DataNode(0, struct, "[root]", failure);
+        root.setInstanceEvaluator(instanceEvaluator);
         model.setRoot(root);
         root.explore(() -> {
             model.nodeStructureChanged(root);
@@ -35,7 +35,9 @@ public class KaitaiTreeListener implements TreeWillExpandListener, TreeSelection
             DataNode node = (DataNode) path.getLastPathComponent();
             node.explore(() -> {
                 ((DefaultTreeModel) tree.getModel()).nodeStructureChanged(node);
-            }, null);
+            }, (progressEvent) -> {
+                ((DefaultTreeModel) tree.getModel()).nodeChanged(node);
+            });
 
             for (SelectionListener nodeSelectionListener : nodeSelectionListeners) {
                 nodeSelectionListener.selectionChanged();
@@ -45,6 +47,11 @@ public class KaitaiTreeListener implements TreeWillExpandListener, TreeSelection
 
     @Override
     public void treeWillCollapse(TreeExpansionEvent event) throws ExpandVetoException {
+        TreePath path = event.getPath();
+        if (path.getLastPathComponent() instanceof DataNode) {
+            // Evaluation of the collapsed node is not needed anymore
+            ((DataNode) path.getLastPathComponent()).cancelEvaluation();
+        }
     }
 
     @Override
@@ -62,17 +69,17 @@ public class KaitaiTreeListener implements TreeWillExpandListener, TreeSelection
                 }
 
                 final DataNode node = (DataNode) selected;
-                final Integer start = node.posStart();
-                final Integer end = node.posEnd();
+                final Long start = node.posStart();
+                final Long end = node.posEnd();
                 if (start == null || end == null) {
                     continue;
                 }
                 colorModifier.setRange(start, end - start);
 
-                Integer outerStart = null;
+                Long outerStart = null;
                 DataNode parentNode = (DataNode) node.getParent();
                 outerStart = parentNode.posStart();
-                Integer outerEnd = parentNode.posEnd();
+                Long outerEnd = parentNode.posEnd();
                 if (outerEnd == null) {
                     outerStart = null;
                 }
@@ -0,0 +1,743 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.BinaryDataKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.concurrent.Immutable;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Expression of the Kaitai expression language evaluated by
+ * {@link KsyInterpreter}.
+ * <p>
+ * Supports literals, names, attribute access, indexing, enum references and
+ * arithmetic, bitwise, comparison, logical and ternary operators. Method
+ * calls, casts, type size operators and list literals are rejected when
+ * parsing.
+ */
+@Immutable
+@NullMarked
+final class KsyExpression {
+
+    private final String source;
+    private final Node root;
+
+    private KsyExpression(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * Parses expression.
+     *
+     * @param source expression source
+     * @return parsed expression
+     * @throws KsyInterpreter.UnsupportedDefinitionException if expression
+     * uses unsupported syntax
+     */
+    static KsyExpression parse(String source) {
+        Parser parser = new Parser(source);
+        Node root = parser.parseTernary();
+        if (parser.peek() != null) {
+            throw new KsyInterpreter.UnsupportedDefinitionException("Unsupported expression: " + source);
+        }
+        return new KsyExpression(source, root);
+    }
+
+    /**
+     * Parses expression provided as YAML scalar value.
+     *
+     * @param value YAML value
+     * @return parsed expression
+     */
+    static KsyExpression parse(Object value) {
+        return parse(String.valueOf(value));
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    @Nullable
+    Object evaluate(Context context) {
+        return root.evaluate(context);
+    }
+
+    boolean evaluateBoolean(Context context) {
+        Object value = evaluate(context);
+        if (!(value instanceof Boolean)) {
+            throw new IllegalStateException("Expression " + source + " is not boolean: " + value);
+        }
+        return (Boolean) value;
+    }
+
+    long evaluateLong(Context context) {
+        return toLong(evaluate(context), source);
+    }
+
+    static long toLong(@Nullable Object value, String source) {
+        if (value instanceof Number && !(value instanceof Float || value instanceof Double)) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof InterpretedEnum) {
+            return ((InterpretedEnum) value).getId();
+        }
+        throw new IllegalStateException("Expression " + source + " is not integer: " + value);
+    }
+
+    /**
+     * Compares values for equality using Kaitai semantics.
+     *
+     * @param first first value
+     * @param second second value
+     * @return true if equal
+     */
+    static boolean valuesEqual(@Nullable Object first, @Nullable Object second) {
+        if (first instanceof Number && second instanceof Number) {
+            if (isFloating(first) || isFloating(second)) {
+                return ((Number) first).doubleValue() == ((Number) second).doubleValue();
+            }
+            return ((Number) first).longValue() == ((Number) second).longValue();
+        }
+        if (first instanceof byte[] && second instanceof byte[]) {
+            return Arrays.equals((byte[]) first, (byte[]) second);
+        }
+        return Objects.equals(first, second);
+    }
+
+    private static boolean isFloating(Object value) {
+        return value instanceof Float || value instanceof Double;
+    }
+
+    /**
+     * Context providing values of names.
+     */
+    interface Context {
+
+        /**
+         * Returns value of the name, including special names like
+         * {@code _root}, {@code _parent}, {@code _io}, {@code _index} and
+         * {@code _}.
+         *
+         * @param name name
+         * @return value
+         */
+        @Nullable
+        Object resolveName(String name);
+
+        /**
+         * Returns enum value for reference {@code [type::]enum::label}.
+         *
+         * @param path reference path
+         * @return enum value
+         */
+        Object resolveEnum(List<String> path);
+    }
+
+    private interface Node {
+
+        @Nullable
+        Object evaluate(Context context);
+    }
+
+    /**
+     * Recursive descent parser using Python-like precedence of the Kaitai
+     * expression language.
+     */
+    private static final class Parser {
+
+        private final String source;
+        private final List<Token> tokens;
+        private int position = 0;
+
+        Parser(String source) {
+            this.source = source;
+            this.tokens = tokenize(source);
+        }
+
+        @Nullable
+        Token peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        boolean peekSymbol(String symbol) {
+            Token token = peek();
+            return token != null && token.type == TokenType.SYMBOL && token.text.equals(symbol);
+        }
+
+        boolean peekKeyword(String keyword) {
+            Token token = peek();
+            return token != null && token.type == TokenType.NAME && token.text.equals(keyword);
+        }
+
+        Token next() {
+            Token token = peek();
+            if (token == null) {
+                throw unsupported();
+            }
+            position++;
+            return token;
+        }
+
+        void expectSymbol(String symbol) {
+            if (!peekSymbol(symbol)) {
+                throw unsupported();
+            }
+            position++;
+        }
+
+        KsyInterpreter.UnsupportedDefinitionException unsupported() {
+            return new KsyInterpreter.UnsupportedDefinitionException("Unsupported expression: " + source);
+        }
+
+        Node parseTernary() {
+            Node condition = parseOr();
+            if (peekSymbol("?")) {
+                position++;
+                Node ifTrue = parseTernary();
+                expectSymbol(":");
+                Node ifFalse = parseTernary();
+                return (context) -> toBoolean(condition.evaluate(context)) ? ifTrue.evaluate(context) : ifFalse.evaluate(context);
+            }
+            return condition;
+        }
+
+        Node parseOr() {
+            Node left = parseAnd();
+            while (peekKeyword("or")) {
+                position++;
+                Node first = left;
+                Node second = parseAnd();
+                left = (context) -> toBoolean(first.evaluate(context)) || toBoolean(second.evaluate(context));
+            }
+            return left;
+        }
+
+        Node parseAnd() {
+            Node left = parseNot();
+            while (peekKeyword("and")) {
+                position++;
+                Node first = left;
+                Node second = parseNot();
+                left = (context) -> toBoolean(first.evaluate(context)) && toBoolean(second.evaluate(context));
+            }
+            return left;
+        }
+
+        Node parseNot() {
+            if (peekKeyword("not")) {
+                position++;
+                Node operand = parseNot();
+                return (context) -> !toBoolean(operand.evaluate(context));
+            }
+            return parseComparison();
+        }
+
+        Node parseComparison() {
+            Node left = parseBinary(0);
+            Token token = peek();
+            if (token != null && token.type == TokenType.SYMBOL) {
+                String operator = token.text;
+                switch (operator) {
+                    case "==":
+                    case "!=":
+                    case "<":
+                    case "<=":
+                    case ">":
+                    case ">=": {
+                        position++;
+                        Node right = parseBinary(0);
+                        return (context) -> compare(operator, left.evaluate(context), right.evaluate(context));
+                    }
+                    default:
+                        break;
+                }
+            }
+            return left;
+        }
+
+        /**
+         * Binary operators from the lowest precedence.
+         */
+        private static final String[][] BINARY_LEVELS = {
+            {"|"}, {"^"}, {"&"}, {"<<", ">>"}, {"+", "-"}, {"*", "/", "%"}
+        };
+
+        Node parseBinary(int level) {
+            if (level == BINARY_LEVELS.length) {
+                return parseUnary();
+            }
+            Node left = parseBinary(level + 1);
+            while (true) {
+                Token token = peek();
+                if (token == null || token.type != TokenType.SYMBOL || !Arrays.asList(BINARY_LEVELS[level]).contains(token.text)) {
+                    return left;
+                }
+                position++;
+                String operator = token.text;
+                Node first = left;
+                Node second = parseBinary(level + 1);
+                left = (context) -> arithmetic(operator, first.evaluate(context), second.evaluate(context));
+            }
+        }
+
+        Node parseUnary() {
+            if (peekSymbol("-")) {
+                position++;
+                Node operand = parseUnary();
+                return (context) -> {
+                    Object value = operand.evaluate(context);
+                    if (value instanceof Float || value instanceof Double) {
+                        return -((Number) value).doubleValue();
+                    }
+                    return -toLong(value, source);
+                };
+            }
+            if (peekSymbol("~")) {
+                position++;
+                Node operand = parseUnary();
+                return (context) -> ~toLong(operand.evaluate(context), source);
+            }
+            return parsePostfix();
+        }
+
+        Node parsePostfix() {
+            Node node = parsePrimary();
+            while (true) {
+                if (peekSymbol(".")) {
+                    position++;
+                    Token name = next();
+                    if (name.type != TokenType.NAME || peekSymbol("(") || peekSymbol("<")) {
+                        throw unsupported();
+                    }
+                    Node value = node;
+                    String attribute = name.text;
+                    node = (context) -> accessAttribute(value.evaluate(context), attribute);
+                } else if (peekSymbol("[")) {
+                    position++;
+                    Node index = parseTernary();
+                    expectSymbol("]");
+                    Node value = node;
+                    node = (context) -> accessIndex(value.evaluate(context), toLong(index.evaluate(context), source));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        Node parsePrimary() {
+            Token token = next();
+            switch (token.type) {
+                case INTEGER: {
+                    Long value = (Long) token.value;
+                    return (context) -> value;
+                }
+                case FLOAT: {
+                    Double value = (Double) token.value;
+                    return (context) -> value;
+                }
+                case STRING: {
+                    String value = token.text;
+                    return (context) -> value;
+                }
+                case SYMBOL: {
+                    if ("(".equals(token.text)) {
+                        Node node = parseTernary();
+                        expectSymbol(")");
+                        return node;
+                    }
+                    throw unsupported();
+                }
+                case NAME: {
+                    switch (token.text) {
+                        case "true":
+                            return (context) -> Boolean.TRUE;
+                        case "false":
+                            return (context) -> Boolean.FALSE;
+                        case "not":
+                        case "and":
+                        case "or":
+                            throw unsupported();
+                        default:
+                            break;
+                    }
+                    if (peekSymbol("(") || peekSymbol("<")) {
+                        // Function calls and type operators like sizeof<...>
+                        throw unsupported();
+                    }
+                    if (peekSymbol("::")) {
+                        List<String> path = new ArrayList<>();
+                        path.add(token.text);
+                        while (peekSymbol("::")) {
+                            position++;
+                            Token part = next();
+                            if (part.type != TokenType.NAME) {
+                                throw unsupported();
+                            }
+                            path.add(part.text);
+                        }
+                        List<String> enumPath = Collections.unmodifiableList(path);
+                        return (context) -> context.resolveEnum(enumPath);
+                    }
+                    String name = token.text;
+                    return (context) -> context.resolveName(name);
+                }
+                default:
+                    throw unsupported();
+            }
+        }
+
+        private List<Token> tokenize(String text) {
+            List<Token> result = new ArrayList<>();
+            int index = 0;
+            while (index < text.length()) {
+                char character = text.charAt(index);
+                if (Character.isWhitespace(character)) {
+                    index++;
+                } else if (Character.isDigit(character)) {
+                    index = readNumber(text, index, result);
+                } else if (Character.isLetter(character) || character == '_') {
+                    int end = index + 1;
+                    while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) {
+                        end++;
+                    }
+                    result.add(new Token(TokenType.NAME, text.substring(index, end), null));
+                    index = end;
+                } else if (character == '"' || character == '\'') {
+                    index = readString(text, index, result);
+                } else {
+                    String symbol = null;
+                    for (String candidate : new String[]{"::", "<<", ">>", "<=", ">=", "==", "!=", "+", "-", "*", "/", "%", "&", "|", "^", "~", "<", ">", "(", ")", "[", "]", ".", "?", ":"}) {
+                        if (text.startsWith(candidate, index)) {
+                            symbol = candidate;
+                            break;
+                        }
+                    }
+                    if (symbol == null) {
+                        throw unsupported();
+                    }
+                    result.add(new Token(TokenType.SYMBOL, symbol, null));
+                    index += symbol.length();
+                }
+            }
+            return result;
+        }
+
+        private int readNumber(String text, int start, List<Token> result) {
+            int end = start;
+            int radix = 10;
+            if (text.startsWith("0x", start) || text.startsWith("0X", start)) {
+                radix = 16;
+                end += 2;
+            } else if (text.startsWith("0b", start) || text.startsWith("0B", start)) {
+                radix = 2;
+                end += 2;
+            } else if (text.startsWith("0o", start) || text.startsWith("0O", start)) {
+                radix = 8;
+                end += 2;
+            }
+            int digitsStart = end;
+            while (end < text.length() && (Character.digit(text.charAt(end), radix) >= 0 || text.charAt(end) == '_')) {
+                end++;
+            }
+            boolean floating = false;
+            if (radix == 10 && end + 1 < text.length() && text.charAt(end) == '.' && Character.isDigit(text.charAt(end + 1))) {
+                floating = true;
+                end++;
+                while (end < text.length() && (Character.isDigit(text.charAt(end)) || text.charAt(end) == 'e' || text.charAt(end) == 'E'
+                        || ((text.charAt(end) == '-' || text.charAt(end) == '+') && (text.charAt(end - 1) == 'e' || text.charAt(end - 1) == 'E')))) {
+                    end++;
+                }
+            }
+            String digits = text.substring(digitsStart, end).replace("_", "");
+            if (digits.isEmpty()) {
+                throw unsupported();
+            }
+            try {
+                if (floating) {
+                    result.add(new Token(TokenType.FLOAT, digits, Double.valueOf(digits)));
+                } else {
+                    result.add(new Token(TokenType.INTEGER, digits, Long.parseUnsignedLong(digits, radix)));
+                }
+            } catch (NumberFormatException ex) {
+                throw unsupported();
+            }
+            return end;
+        }
+
+        private int readString(String text, int start, List<Token> result) {
+            char quote = text.charAt(start);
+            StringBuilder builder = new StringBuilder();
+            int index = start + 1;
+            while (index < text.length() && text.charAt(index) != quote) {
+                char character = text.charAt(index);
+                if (character == '\\' && quote == '"') {
+                    index++;
+                    if (index == text.length()) {
+                        throw unsupported();
+                    }
+                    switch (text.charAt(index)) {
+                        case 'n':
+                            builder.append('\n');
+                            break;
+                        case 't':
+                            builder.append('\t');
+                            break;
+                        case 'r':
+                            builder.append('\r');
+                            break;
+                        case '\\':
+                        case '"':
+                        case '\'':
+                            builder.append(text.charAt(index));
+                            break;
+                        default:
+                            throw unsupported();
+                    }
+                } else {
+                    builder.append(character);
+                }
+                index++;
+            }
+            if (index == text.length()) {
+                throw unsupported();
+            }
+            result.add(new Token(TokenType.STRING, builder.toString(), null));
+            return index + 1;
+        }
+
+        private boolean toBoolean(@Nullable Object value) {
+            if (!(value instanceof Boolean)) {
+                throw new IllegalStateException("Expression " + source + " uses non-boolean value: " + value);
+            }
+            return (Boolean) value;
+        }
+
+        private boolean compare(String operator, @Nullable Object left, @Nullable Object right) {
+            if ("==".equals(operator)) {
+                return valuesEqual(left, right);
+            }
+            if ("!=".equals(operator)) {
+                return !valuesEqual(left, right);
+            }
+
+            int comparison;
+            if (left instanceof Number && right instanceof Number) {
+                if (isFloating(left) || isFloating(right)) {
+                    comparison = Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+                } else {
+                    comparison = Long.compare(((Number) left).longValue(), ((Number) right).longValue());
+                }
+            } else if (left instanceof String && right instanceof String) {
+                comparison = ((String) left).compareTo((String) right);
+            } else {
+                comparison = Long.compare(toLong(left, source), toLong(right, source));
+            }
+            switch (operator) {
+                case "<":
+                    return comparison < 0;
+                case "<=":
+                    return comparison <= 0;
+                case ">":
+                    return comparison > 0;
+                case ">=":
+                    return comparison >= 0;
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+
+        private Object arithmetic(String operator, @Nullable Object left, @Nullable Object right) {
+            if ("+".equals(operator) && left instanceof String && right instanceof String) {
+                return (String) left + right;
+            }
+            if ((isFloating(left) || isFloating(right)) && left instanceof Number && right instanceof Number) {
+                double first = ((Number) left).doubleValue();
+                double second = ((Number) right).doubleValue();
+                switch (operator) {
+                    case "+":
+                        return first + second;
+                    case "-":
+                        return first - second;
+                    case "*":
+                        return first * second;
+                    case "/":
+                        return first / second;
+                    default:
+                        throw new IllegalStateException("Operator " + operator + " is not supported for floating values in " + source);
+                }
+            }
+
+            long first = toLong(left, source);
+            long second = toLong(right, source);
+            switch (operator) {
+                case "+":
+                    return first + second;
+                case "-":
+                    return first - second;
+                case "*":
+                    return first * second;
+                case "/":
+                    return Math.floorDiv(first, second);
+                case "%":
+                    return Math.floorMod(first, second);
+                case "<<":
+                    return first << second;
+                case ">>":
+                    return first >> second;
+                case "&":
+                    return first & second;
+                case "|":
+                    return first | second;
+                case "^":
+                    return first ^ second;
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+
+        @Nullable
+        private Object accessAttribute(@Nullable Object value, String attribute) {
+            if (value instanceof InterpretedStruct) {
+                return ((InterpretedStruct) value).getAttributeById(attribute);
+            }
+            if (value instanceof KaitaiStream) {
+                KaitaiStream stream = (KaitaiStream) value;
+                switch (attribute) {
+                    case "size":
+                        return stream.size();
+                    case "pos":
+                        return BinaryDataKaitaiStream.position(stream);
+                    case "eof":
+                        return stream.isEof();
+                    default:
+                        break;
+                }
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                switch (attribute) {
+                    case "size":
+                        return (long) list.size();
+                    case "first":
+                        return list.get(0);
+                    case "last":
+                        return list.get(list.size() - 1);
+                    default:
+                        break;
+                }
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                switch (attribute) {
+                    case "size":
+                    case "length":
+                        return (long) bytes.length;
+                    case "first":
+                        return (long) (bytes[0] & 0xff);
+                    case "last":
+                        return (long) (bytes[bytes.length - 1] & 0xff);
+                    default:
+                        break;
+                }
+            } else if (value instanceof String) {
+                String text = (String) value;
+                switch (attribute) {
+                    case "length":
+                        return (long) text.codePointCount(0, text.length());
+                    case "to_i":
+                        return Long.parseLong(text);
+                    case "reverse":
+                        return new StringBuilder(text).reverse().toString();
+                    default:
+                        break;
+                }
+            } else if (value instanceof InterpretedEnum) {
+                if ("to_i".equals(attribute)) {
+                    return ((InterpretedEnum) value).getId();
+                }
+            } else if (value instanceof Boolean) {
+                if ("to_i".equals(attribute)) {
+                    return (Boolean) value ? 1L : 0L;
+                }
+            } else if (value instanceof Number) {
+                switch (attribute) {
+                    case "to_i":
+                        return ((Number) value).longValue();
+                    case "to_s":
+                        return isFloating(value) ? value.toString() : String.valueOf(((Number) value).longValue());
+                    default:
+                        break;
+                }
+            }
+            throw new IllegalStateException("Attribute " + attribute + " is not available for " + value + " in " + source);
+        }
+
+        @Nullable
+        private Object accessIndex(@Nullable Object value, long index) {
+            if (value instanceof List) {
+                return ((List<?>) value).get((int) index);
+            }
+            if (value instanceof byte[]) {
+                return (long) (((byte[]) value)[(int) index] & 0xff);
+            }
+            throw new IllegalStateException("Value " + value + " cannot be indexed in " + source);
+        }
+    }
+
+    private enum TokenType {
+        INTEGER, FLOAT, STRING, NAME, SYMBOL
+    }
+
+    @Immutable
+    private static final class Token {
+
+        private final TokenType type;
+        private final String text;
+        @Nullable
+        private final Object value;
+
+        Token(TokenType type, String text, @Nullable Object value) {
+            this.type = type;
+            this.text = text;
+            this.value = value;
+        }
+    }
+
+    static String toCamelCase(String id) {
+        StringBuilder builder = new StringBuilder();
+        boolean upperCase = false;
+        for (char character : id.toCharArray()) {
+            if (character == '_') {
+                upperCase = builder.length() > 0;
+            } else {
+                builder.append(upperCase ? Character.toUpperCase(character) : character);
+                upperCase = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    static byte[] toBytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
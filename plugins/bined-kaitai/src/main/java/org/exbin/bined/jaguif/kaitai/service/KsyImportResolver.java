@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.formats.JavaKSYParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.exbin.bined.jaguif.kaitai.BinedKaitaiModule;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import scala.jdk.javaapi.CollectionConverters;
+
+/**
+ * Resolver of imports of Kaitai definitions.
+ * <p>
+ * Relative imports are resolved against the importing definition. Absolute
+ * imports are searched in the directory of the top-level definition, in
+ * additional import paths and in the bundled formats.
+ * <p>
+ * Parsed definitions are cached by URI and content hash for the session.
+ */
+@ThreadSafe
+@NullMarked
+public class KsyImportResolver {
+
+    public static final String KSY_SUFFIX = ".ksy";
+    private static final String FORMATS_LIST = "formats.txt";
+
+    private static KsyImportResolver defaultResolver = null;
+
+    private final List<URI> importPaths = new CopyOnWriteArrayList<>();
+    private final Map<URI, ParsedDefinition> parsedDefinitions = new ConcurrentHashMap<>();
+
+    public KsyImportResolver() {
+    }
+
+    /**
+     * Returns resolver shared by compilers, which includes bundled formats in
+     * import paths.
+     *
+     * @return import resolver
+     */
+    public static synchronized KsyImportResolver getDefault() {
+        if (defaultResolver == null) {
+            defaultResolver = new KsyImportResolver();
+            URL formatsList = KsyImportResolver.class.getResource(BinedKaitaiModule.RESOURCE_FORMATS_PATH + FORMATS_LIST);
+            if (formatsList != null) {
+                try {
+                    defaultResolver.addImportPath(resolve(formatsList.toURI(), "./"));
+                } catch (URISyntaxException ex) {
+                    // Bundled formats are not available for imports
+                }
+            }
+        }
+        return defaultResolver;
+    }
+
+    /**
+     * Adds path used to search for absolute imports.
+     *
+     * @param importPath URI of the directory with trailing slash
+     */
+    public void addImportPath(URI importPath) {
+        importPaths.add(importPath);
+    }
+
+    public List<URI> getImportPaths() {
+        return Collections.unmodifiableList(importPaths);
+    }
+
+    /**
+     * Resolves import of the definition.
+     *
+     * @param definitionUri URI of the top-level definition
+     * @param importName import name without suffix, absolute names start
+     * with slash
+     * @return URI of the imported definition or null if not found
+     */
+    @Nullable
+    public URI resolveImport(URI definitionUri, String importName) {
+        if (!importName.startsWith("/")) {
+            URI importUri = resolve(definitionUri, importName + KSY_SUFFIX);
+            return exists(importUri) ? importUri : null;
+        }
+
+        String relativeName = "." + importName + KSY_SUFFIX;
+        List<URI> searchPaths = new ArrayList<>();
+        searchPaths.add(resolve(definitionUri, "./"));
+        searchPaths.addAll(importPaths);
+        for (URI searchPath : searchPaths) {
+            URI importUri = resolve(searchPath, relativeName);
+            if (exists(importUri)) {
+                return importUri;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns parsed definition, parsing it only if not cached or if its
+     * content changed.
+     *
+     * @param uri definition URI
+     * @return parsed definition
+     * @throws IOException if definition cannot be read
+     */
+    public ParsedDefinition getParsedDefinition(URI uri) throws IOException {
+        byte[] content = KaitaiCompiler.readContent(uri);
+        String contentHash = computeHash(content);
+        ParsedDefinition parsedDefinition = parsedDefinitions.get(uri);
+        if (parsedDefinition == null || !parsedDefinition.getContentHash().equals(contentHash)) {
+            Object yamlSpec = JavaKSYParser.readerToYaml(new StringReader(new String(content, StandardCharsets.UTF_8)));
+            parsedDefinition = new ParsedDefinition(uri, contentHash, yamlSpec);
+            parsedDefinitions.put(uri, parsedDefinition);
+        }
+        return parsedDefinition;
+    }
+
+    /**
+     * Removes all cached definitions.
+     */
+    public void clear() {
+        parsedDefinitions.clear();
+    }
+
+    public int getCachedCount() {
+        return parsedDefinitions.size();
+    }
+
+    /**
+     * Returns names of the imports declared by the definition.
+     * <p>
+     * Kaitai YAML loader provides Scala collections, plain java collections
+     * are accepted as well.
+     *
+     * @param yamlSpec parsed definition
+     * @return import names
+     */
+    public static List<String> getImports(Object yamlSpec) {
+        List<String> imports = new ArrayList<>();
+        Object spec = toJavaCollection(yamlSpec);
+        if (spec instanceof Map) {
+            Object meta = toJavaCollection(((Map<?, ?>) spec).get("meta"));
+            if (meta instanceof Map) {
+                Object importsList = toJavaCollection(((Map<?, ?>) meta).get("imports"));
+                if (importsList instanceof List) {
+                    for (Object importName : (List<?>) importsList) {
+                        imports.add(String.valueOf(importName));
+                    }
+                }
+            }
+        }
+        return imports;
+    }
+
+    @Nullable
+    private static Object toJavaCollection(@Nullable Object value) {
+        if (value instanceof scala.collection.Map) {
+            return CollectionConverters.asJava((scala.collection.Map<?, ?>) value);
+        }
+        if (value instanceof scala.collection.Seq) {
+            return CollectionConverters.asJava((scala.collection.Seq<?>) value);
+        }
+        return value;
+    }
+
+    /**
+     * Resolves path against base URI including URIs pointing inside of the
+     * jar file.
+     *
+     * @param base base URI
+     * @param path relative path
+     * @return resolved URI
+     */
+    static URI resolve(URI base, String path) {
+        if (base.isOpaque()) {
+            String baseText = base.toString();
+            int separator = baseText.indexOf("!/");
+            if (separator >= 0) {
+                URI entryUri = URI.create(baseText.substring(separator + 1)).resolve(path);
+                return URI.create(baseText.substring(0, separator + 1) + entryUri.toString());
+            }
+        }
+        return base.resolve(path);
+    }
+
+    private static boolean exists(URI uri) {
+        try {
+            if ("file".equals(uri.getScheme())) {
+                return new File(uri).isFile();
+            }
+            uri.toURL().openStream().close();
+            return true;
+        } catch (IOException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static String computeHash(byte[] content) {
+        try {
+            return KaitaiCompiler.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Parsed definition with hash of its content.
+     */
+    @Immutable
+    @NullMarked
+    public static class ParsedDefinition {
+
+        private final URI uri;
+        private final String contentHash;
+        private final Object yamlSpec;
+
+        public ParsedDefinition(URI uri, String contentHash, Object yamlSpec) {
+            this.uri = uri;
+            this.contentHash = contentHash;
+            this.yamlSpec = yamlSpec;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public Object getYamlSpec() {
+            return yamlSpec;
+        }
+    }
+}
@@ -0,0 +1,1023 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.BinaryDataKaitaiStream;
+import io.kaitai.struct.ByteArrayKaitaiStream;
+import io.kaitai.struct.KaitaiSourceStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.StreamCancellation;
+import io.kaitai.struct.StreamLimits;
+import io.kaitai.struct.StreamStatistics;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.exbin.auxiliary.binary_data.EditableBinaryData;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ * Interpreter of Kaitai definitions.
+ * <p>
+ * Reads data directly according to the YAML tree of the definition, so that
+ * parse tree can be shown before compilation of the definition finishes.
+ * Produced tree has the same shape as tree of the compiled parser.
+ * <p>
+ * Only subset of the language is supported. Definitions using imports,
+ * parameters, processing, validations, custom streams or bit-sized integers
+ * are rejected by {@link #create(DefinitionRecord, byte[])} and have to be
+ * compiled.
+ */
+@ThreadSafe
+@NullMarked
+public class KsyInterpreter {
+
+    private static final Pattern INTEGER_TYPE = Pattern.compile("([us])([1248])(le|be)?");
+    private static final Pattern FLOAT_TYPE = Pattern.compile("f([48])(le|be)?");
+    private static final Pattern TYPE_NAME = Pattern.compile("[a-z][a-z0-9_]*(::[a-z][a-z0-9_]*)*");
+    private static final Set<String> TYPE_KEYS = new HashSet<>(Arrays.asList("meta", "seq", "types", "enums", "instances", "doc", "doc-ref"));
+    private static final Set<String> META_KEYS = new HashSet<>(Arrays.asList("id", "title", "application", "file-extension", "xref", "license", "ks-version", "ks-debug", "endian", "bit-endian", "encoding", "imports", "tags"));
+    private static final Set<String> ATTRIBUTE_KEYS = new HashSet<>(Arrays.asList("id", "type", "size", "size-eos", "contents", "repeat", "repeat-expr", "repeat-until", "if", "encoding", "terminator", "consume", "include", "eos-error", "pad-right", "enum", "doc", "doc-ref"));
+    private static final Set<String> INSTANCE_KEYS = new HashSet<>(Arrays.asList("type", "size", "size-eos", "contents", "repeat", "repeat-expr", "repeat-until", "if", "encoding", "terminator", "consume", "include", "eos-error", "pad-right", "enum", "doc", "doc-ref", "pos", "value"));
+
+    private final DefinitionRecord definitionRecord;
+    private final TypeSpec rootType;
+    private final PhaseTimings timings;
+    private volatile int windowSize = BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE;
+    private volatile boolean statisticsEnabled = false;
+    private volatile ParsingLimits limits = ParsingLimits.DEFAULT;
+
+    private KsyInterpreter(DefinitionRecord definitionRecord, TypeSpec rootType, PhaseTimings timings) {
+        this.definitionRecord = definitionRecord;
+        this.rootType = rootType;
+        this.timings = timings;
+    }
+
+    /**
+     * Creates interpreter of the definition.
+     *
+     * @param definitionRecord definition record
+     * @return interpreter
+     * @throws IOException if definition cannot be read
+     * @throws UnsupportedDefinitionException if definition cannot be
+     * interpreted
+     */
+    public static KsyInterpreter create(DefinitionRecord definitionRecord) throws IOException {
+        return create(definitionRecord, KaitaiCompiler.readContent(definitionRecord.getUri()));
+    }
+
+    /**
+     * Creates interpreter of the definition content.
+     *
+     * @param definitionRecord definition record
+     * @param content definition content
+     * @return interpreter
+     * @throws UnsupportedDefinitionException if definition cannot be
+     * interpreted
+     */
+    public static KsyInterpreter create(DefinitionRecord definitionRecord, byte[] content) {
+        PhaseTimings timings = new PhaseTimings();
+        timings.setSource(PhaseTimings.DefinitionSource.INTERPRETED);
+        long startTime = System.nanoTime();
+        long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+        Object yamlSpec;
+        try {
+            yamlSpec = new Yaml(new SafeConstructor(new LoaderOptions())).load(new String(content, StandardCharsets.UTF_8));
+        } catch (YAMLException ex) {
+            throw new UnsupportedDefinitionException("Invalid definition: " + ex.getMessage(), ex);
+        }
+        timings.record(PhaseTimings.Phase.YAML_LOADING, startTime, startAllocatedBytes);
+
+        startTime = System.nanoTime();
+        startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+        Map<String, Object> spec = asMap(yamlSpec, "definition");
+        Map<String, Object> meta = asMap(spec.getOrDefault("meta", Collections.emptyMap()), "meta");
+        Object id = meta.get("id");
+        if (!(id instanceof String)) {
+            throw new UnsupportedDefinitionException("Missing id of the definition");
+        }
+        TypeSpec rootType = new TypeSpec((String) id, null, spec);
+        rootType.resolve();
+        timings.record(PhaseTimings.Phase.CLASS_SPEC, startTime, startAllocatedBytes);
+        return new KsyInterpreter(definitionRecord, rootType, timings);
+    }
+
+    public DefinitionRecord getDefinitionRecord() {
+        return definitionRecord;
+    }
+
+    /**
+     * Returns timings of the preparation of the interpreter.
+     *
+     * @return phase timings
+     */
+    public PhaseTimings getTimings() {
+        return timings;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets size of the read window of the stream.
+     *
+     * @param windowSize window size in bytes, zero for per-byte access
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * Sets whether read statistics of the stream are collected while parsing.
+     *
+     * @param statisticsEnabled true to collect statistics
+     */
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+    public ParsingLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Sets resource limits applied to each parsing.
+     *
+     * @param limits limits
+     */
+    public void setLimits(ParsingLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Parses frozen snapshot of the data.
+     *
+     * @param snapshot data snapshot
+     * @return parsing result tagged with revision of the snapshot
+     */
+    public KaitaiParser.ParsingResult parse(BinaryDataSnapshot snapshot) {
+        return parse(snapshot.getData(), snapshot.getRevision(), null);
+    }
+
+    /**
+     * Parses frozen snapshot of the data with cancellation.
+     * <p>
+     * Parsing stops with error on the next read after the cancellation was
+     * requested.
+     *
+     * @param snapshot data snapshot
+     * @param cancellation cancellation of reading
+     * @return parsing result tagged with revision of the snapshot
+     */
+    public KaitaiParser.ParsingResult parse(BinaryDataSnapshot snapshot, @Nullable StreamCancellation cancellation) {
+        return parse(snapshot.getData(), snapshot.getRevision(), cancellation);
+    }
+
+    /**
+     * Parses data directly.
+     * <p>
+     * Data must not be modified while parsing.
+     *
+     * @param sourceData source data
+     * @return parsing result
+     */
+    public KaitaiParser.ParsingResult parse(EditableBinaryData sourceData) {
+        return parse(sourceData, BinaryDataSnapshot.NO_REVISION, null);
+    }
+
+    private KaitaiParser.ParsingResult parse(EditableBinaryData sourceData, long revision, @Nullable StreamCancellation cancellation) {
+        long startTime = System.nanoTime();
+        PhaseTimings parseTimings = new PhaseTimings();
+        StreamStatistics statistics = null;
+        StreamLimits streamLimits = null;
+        InterpretedStruct struct = null;
+        try {
+            long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            BinaryDataKaitaiStream stream = sourceData.getClass() == ByteArrayEditableData.class
+                    ? new ByteArrayKaitaiStream((ByteArrayEditableData) sourceData)
+                    : new BinaryDataKaitaiStream(sourceData, windowSize);
+            if (statisticsEnabled) {
+                statistics = new StreamStatistics();
+                ((KaitaiSourceStream) stream).setStatistics(statistics);
+            }
+            stream.setCancellation(cancellation);
+            streamLimits = limits.createStreamLimits();
+            stream.setLimits(streamLimits);
+            struct = createStruct(rootType, stream, null);
+            parseTimings.record(PhaseTimings.Phase.STREAM_SETUP, startTime, startAllocatedBytes);
+
+            long readStartTime = System.nanoTime();
+            startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+            streamLimits.startTimer();
+            try {
+                struct._read();
+            } finally {
+                streamLimits.stopTimer();
+                parseTimings.record(PhaseTimings.Phase.READ, readStartTime, startAllocatedBytes);
+            }
+
+            return new KaitaiParser.ParsingResult(struct, revision, System.nanoTime() - startTime, statistics, parseTimings);
+        } catch (Throwable ex) {
+            return KaitaiParser.createFailedResult(ex, struct, streamLimits, revision, System.nanoTime() - startTime, statistics, parseTimings);
+        }
+    }
+
+    private static InterpretedStruct createStruct(TypeSpec type, KaitaiStream io, @Nullable InterpretedStruct parent) {
+        return new InterpretedStruct(type.name, io, parent, (struct) -> readStruct(type, struct));
+    }
+
+    private static void readStruct(TypeSpec type, InterpretedStruct struct) {
+        for (AttributeSpec instance : type.instances) {
+            struct.addInstance(instance.name, () -> evaluateInstance(type, instance, struct));
+        }
+
+        KaitaiStream io = struct._io();
+        for (AttributeSpec attribute : type.seq) {
+            StructContext context = new StructContext(type, struct);
+            if (attribute.ifExpression != null && !attribute.ifExpression.evaluateBoolean(context)) {
+                struct.setAttribute(attribute.name, null);
+                continue;
+            }
+
+            struct.setAttrStart(attribute.name, BinaryDataKaitaiStream.fieldStart(io, attribute.name));
+            // Partially read value is kept if reading fails
+            struct.setAttribute(attribute.name, null);
+            struct.setAttribute(attribute.name, readAttribute(type, attribute, struct, io, context, value -> struct.setAttribute(attribute.name, value)));
+            struct.setAttrEnd(attribute.name, BinaryDataKaitaiStream.absolutePosition(io));
+        }
+    }
+
+    @Nullable
+    private static Object evaluateInstance(TypeSpec type, AttributeSpec instance, InterpretedStruct struct) {
+        StructContext context = new StructContext(type, struct);
+        if (instance.ifExpression != null && !instance.ifExpression.evaluateBoolean(context)) {
+            return null;
+        }
+
+        if (instance.valueExpression != null) {
+            Object value = instance.valueExpression.evaluate(context);
+            return instance.enumSpec == null ? value : instance.enumSpec.toEnum(KsyExpression.toLong(value, instance.valueExpression.getSource()));
+        }
+
+        KaitaiStream io = struct._io();
+        long savedPosition = BinaryDataKaitaiStream.position(io);
+        try {
+            long position = ((KsyExpression) instance.posExpression).evaluateLong(context);
+            io.seek(position);
+            struct.setAttrStart(instance.name, BinaryDataKaitaiStream.fieldStart(io, instance.name));
+            Object value = readAttribute(type, instance, struct, io, context, null);
+            struct.setAttrEnd(instance.name, BinaryDataKaitaiStream.absolutePosition(io));
+            return value;
+        } finally {
+            io.seek(savedPosition);
+        }
+    }
+
+    /**
+     * Reads value of the attribute.
+     *
+     * @param type type of the structure
+     * @param attribute attribute
+     * @param struct structure
+     * @param io stream
+     * @param context context of the expressions
+     * @param partialValue receiver of the structure or list before it is read
+     * or null
+     * @return value
+     */
+    @Nullable
+    private static Object readAttribute(TypeSpec type, AttributeSpec attribute, InterpretedStruct struct, KaitaiStream io, StructContext context, @Nullable Consumer<Object> partialValue) {
+        switch (attribute.repeat) {
+            case NONE:
+                return readValue(attribute, attribute.dataType, struct, io, context, partialValue);
+            case EOS: {
+                ArrayList<Object> items = createItems(partialValue);
+                while (!io.isEof()) {
+                    readItem(type, attribute, struct, io, items, partialValue != null);
+                }
+                return items;
+            }
+            case EXPR: {
+                long count = ((KsyExpression) attribute.repeatExpression).evaluateLong(context);
+                ArrayList<Object> items = createItems(partialValue);
+                for (long index = 0; index < count; index++) {
+                    readItem(type, attribute, struct, io, items, partialValue != null);
+                }
+                return items;
+            }
+            case UNTIL: {
+                ArrayList<Object> items = createItems(partialValue);
+                while (true) {
+                    Object item = readItem(type, attribute, struct, io, items, partialValue != null);
+                    StructContext itemContext = new StructContext(type, struct);
+                    itemContext.index = items.size() - 1;
+                    itemContext.item = item;
+                    if (((KsyExpression) attribute.repeatExpression).evaluateBoolean(itemContext)) {
+                        break;
+                    }
+                }
+                return items;
+            }
+            default:
+                throw new IllegalStateException("Unexpected repeat " + attribute.repeat);
+        }
+    }
+
+    private static ArrayList<Object> createItems(@Nullable Consumer<Object> partialValue) {
+        ArrayList<Object> items = new ArrayList<>();
+        if (partialValue != null) {
+            partialValue.accept(items);
+        }
+        return items;
+    }
+
+    @Nullable
+    private static Object readItem(TypeSpec type, AttributeSpec attribute, InterpretedStruct struct, KaitaiStream io, ArrayList<Object> items, boolean keepPartial) {
+        StructContext context = new StructContext(type, struct);
+        int index = items.size();
+        context.index = index;
+        struct.addArrStart(attribute.name, BinaryDataKaitaiStream.elementStart(io, attribute.name, index));
+        Object item = readValue(attribute, attribute.dataType, struct, io, context, keepPartial ? items::add : null);
+        struct.addArrEnd(attribute.name, BinaryDataKaitaiStream.absolutePosition(io));
+        if (items.size() == index) {
+            items.add(item);
+        }
+        return item;
+    }
+
+    @Nullable
+    private static Object readValue(AttributeSpec attribute, DataType dataType, InterpretedStruct struct, KaitaiStream io, StructContext context, @Nullable Consumer<Object> partialValue) {
+        switch (dataType.kind) {
+            case INTEGER: {
+                Object value = readInteger(io, dataType);
+                return attribute.enumSpec == null ? value : attribute.enumSpec.toEnum(((Number) value).longValue());
+            }
+            case FLOAT:
+                if (dataType.size == 4) {
+                    return dataType.bigEndian ? io.readF4be() : io.readF4le();
+                }
+                return dataType.bigEndian ? io.readF8be() : io.readF8le();
+            case BYTES:
+                return readBytes(attribute, io, context);
+            case STRING:
+                return new String(readBytes(attribute, io, context), (Charset) dataType.charset);
+            case USER: {
+                KaitaiStream structIo = io;
+                if (attribute.sizeExpression != null) {
+                    structIo = io.substream(attribute.sizeExpression.evaluateLong(context));
+                } else if (attribute.sizeEos) {
+                    structIo = io.substream(io.size() - BinaryDataKaitaiStream.position(io));
+                }
+                InterpretedStruct child = createStruct((TypeSpec) dataType.userType, structIo, struct);
+                if (partialValue != null) {
+                    partialValue.accept(child);
+                }
+                BinaryDataKaitaiStream.readNested(io, child);
+                return child;
+            }
+            case SWITCH: {
+                Object switchValue = ((KsyExpression) dataType.switchOn).evaluate(context);
+                DataType selectedType = dataType.defaultCase;
+                for (Map.Entry<KsyExpression, DataType> entry : dataType.cases.entrySet()) {
+                    if (KsyExpression.valuesEqual(switchValue, entry.getKey().evaluate(context))) {
+                        selectedType = entry.getValue();
+                        break;
+                    }
+                }
+                if (selectedType == null) {
+                    return attribute.sizeExpression != null || attribute.sizeEos ? readBytes(attribute, io, context) : null;
+                }
+                return readValue(attribute, selectedType, struct, io, context, partialValue);
+            }
+            default:
+                throw new IllegalStateException("Unexpected type " + dataType.kind);
+        }
+    }
+
+    private static Object readInteger(KaitaiStream io, DataType dataType) {
+        switch (dataType.size) {
+            case 1:
+                return dataType.signed ? (Object) io.readS1() : (Object) io.readU1();
+            case 2:
+                if (dataType.signed) {
+                    return dataType.bigEndian ? io.readS2be() : io.readS2le();
+                }
+                return dataType.bigEndian ? io.readU2be() : io.readU2le();
+            case 4:
+                if (dataType.signed) {
+                    return dataType.bigEndian ? io.readS4be() : io.readS4le();
+                }
+                return dataType.bigEndian ? io.readU4be() : io.readU4le();
+            case 8:
+                if (dataType.signed) {
+                    return dataType.bigEndian ? io.readS8be() : io.readS8le();
+                }
+                return dataType.bigEndian ? io.readU8be() : io.readU8le();
+            default:
+                throw new IllegalStateException("Unexpected integer size " + dataType.size);
+        }
+    }
+
+    private static byte[] readBytes(AttributeSpec attribute, KaitaiStream io, StructContext context) {
+        if (attribute.contents != null) {
+            long position = BinaryDataKaitaiStream.position(io);
+            byte[] bytes = io.readBytes(attribute.contents.length);
+            if (!Arrays.equals(bytes, attribute.contents)) {
+                throw new IllegalStateException("Unexpected contents of " + attribute.id + " at position " + position);
+            }
+            return bytes;
+        }
+
+        byte[] bytes;
+        if (attribute.sizeExpression != null) {
+            bytes = io.readBytes(attribute.sizeExpression.evaluateLong(context));
+        } else if (attribute.sizeEos) {
+            bytes = io.readBytesFull();
+        } else {
+            return io.readBytesTerm((byte) (int) attribute.terminator, attribute.include, attribute.consume, attribute.eosError);
+        }
+        if (attribute.padRight != null) {
+            bytes = KaitaiStream.bytesStripRight(bytes, (byte) (int) attribute.padRight);
+        }
+        if (attribute.terminator != null) {
+            bytes = KaitaiStream.bytesTerminate(bytes, (byte) (int) attribute.terminator, attribute.include);
+        }
+        return bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(@Nullable Object value, String context) {
+        if (!(value instanceof Map)) {
+            throw new UnsupportedDefinitionException("Unexpected value of " + context + ": " + value);
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static void checkKeys(Map<String, Object> spec, Set<String> supportedKeys, String context) {
+        for (Object key : spec.keySet()) {
+            String name = String.valueOf(key);
+            // Keys starting with dash are extensions for other tools
+            if (!name.startsWith("-") && !supportedKeys.contains(name)) {
+                throw new UnsupportedDefinitionException("Unsupported key " + name + " in " + context);
+            }
+        }
+    }
+
+    @Nullable
+    private static Integer toByteValue(@Nullable Object value, String context) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof Integer) || (Integer) value < 0 || (Integer) value > 255) {
+            throw new UnsupportedDefinitionException("Unsupported byte value of " + context + ": " + value);
+        }
+        return (Integer) value;
+    }
+
+    private static boolean toFlag(@Nullable Object value, boolean defaultValue, String context) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Boolean)) {
+            throw new UnsupportedDefinitionException("Unsupported value of " + context + ": " + value);
+        }
+        return (Boolean) value;
+    }
+
+    @Nullable
+    private static KsyExpression toExpression(@Nullable Object value) {
+        return value == null ? null : KsyExpression.parse(value);
+    }
+
+    private static byte[] toContents(Object value, String context) {
+        List<?> parts = value instanceof List ? (List<?>) value : Collections.singletonList(value);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof String) {
+                byte[] bytes = KsyExpression.toBytes((String) part);
+                output.write(bytes, 0, bytes.length);
+            } else {
+                Integer byteValue = toByteValue(part, context);
+                output.write((int) byteValue);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Specification of the type.
+     */
+    @Immutable
+    private static final class TypeSpec {
+
+        private final String name;
+        @Nullable
+        private final TypeSpec scope;
+        private final Map<String, Object> spec;
+        @Nullable
+        private final Boolean bigEndian;
+        @Nullable
+        private final Charset charset;
+        private final Map<String, TypeSpec> types = new HashMap<>();
+        private final Map<String, EnumSpec> enums = new HashMap<>();
+        private final List<AttributeSpec> seq = new ArrayList<>();
+        private final List<AttributeSpec> instances = new ArrayList<>();
+
+        TypeSpec(String name, @Nullable TypeSpec scope, Map<String, Object> spec) {
+            this.name = name;
+            this.scope = scope;
+            this.spec = spec;
+            checkKeys(spec, TYPE_KEYS, "type " + name);
+
+            Map<String, Object> meta = asMap(spec.getOrDefault("meta", Collections.emptyMap()), "meta of " + name);
+            checkKeys(meta, META_KEYS, "meta of " + name);
+            Object imports = meta.get("imports");
+            if (imports instanceof List && !((List<?>) imports).isEmpty()) {
+                throw new UnsupportedDefinitionException("Imports are not supported");
+            }
+            Object endian = meta.get("endian");
+            if (endian == null) {
+                bigEndian = scope == null ? null : scope.bigEndian;
+            } else if ("le".equals(endian) || "be".equals(endian)) {
+                bigEndian = "be".equals(endian);
+            } else {
+                throw new UnsupportedDefinitionException("Unsupported endian of " + name + ": " + endian);
+            }
+            Object encoding = meta.get("encoding");
+            charset = encoding == null ? (scope == null ? null : scope.charset) : toCharset(encoding);
+
+            Map<String, Object> typesSpec = asMap(spec.getOrDefault("types", Collections.emptyMap()), "types of " + name);
+            for (Map.Entry<String, Object> entry : typesSpec.entrySet()) {
+                String typeName = String.valueOf(entry.getKey());
+                types.put(typeName, new TypeSpec(typeName, this, asMap(entry.getValue(), "type " + typeName)));
+            }
+            Map<String, Object> enumsSpec = asMap(spec.getOrDefault("enums", Collections.emptyMap()), "enums of " + name);
+            for (Map.Entry<String, Object> entry : enumsSpec.entrySet()) {
+                String enumName = String.valueOf(entry.getKey());
+                enums.put(enumName, new EnumSpec(enumName, asMap(entry.getValue(), "enum " + enumName)));
+            }
+        }
+
+        /**
+         * Resolves attributes and instances of this type and all nested types.
+         */
+        void resolve() {
+            Object seqSpec = spec.get("seq");
+            if (seqSpec != null) {
+                if (!(seqSpec instanceof List)) {
+                    throw new UnsupportedDefinitionException("Unexpected seq of " + name);
+                }
+                for (Object attributeSpec : (List<?>) seqSpec) {
+                    Map<String, Object> attributeMap = asMap(attributeSpec, "attribute of " + name);
+                    checkKeys(attributeMap, ATTRIBUTE_KEYS, "attribute of " + name);
+                    Object id = attributeMap.get("id");
+                    if (!(id instanceof String)) {
+                        throw new UnsupportedDefinitionException("Attribute without id in " + name);
+                    }
+                    seq.add(new AttributeSpec((String) id, attributeMap, this));
+                }
+            }
+            Map<String, Object> instancesSpec = asMap(spec.getOrDefault("instances", Collections.emptyMap()), "instances of " + name);
+            for (Map.Entry<String, Object> entry : instancesSpec.entrySet()) {
+                Map<String, Object> instanceMap = asMap(entry.getValue(), "instance " + entry.getKey());
+                checkKeys(instanceMap, INSTANCE_KEYS, "instance " + entry.getKey());
+                if (instanceMap.get("pos") == null && instanceMap.get("value") == null) {
+                    throw new UnsupportedDefinitionException("Instance " + entry.getKey() + " of " + name + " has no position");
+                }
+                instances.add(new AttributeSpec(String.valueOf(entry.getKey()), instanceMap, this));
+            }
+            for (TypeSpec type : types.values()) {
+                type.resolve();
+            }
+        }
+
+        TypeSpec findType(String path) {
+            String[] parts = path.split("::");
+            TypeSpec type = null;
+            for (TypeSpec candidate = this; candidate != null && type == null; candidate = candidate.scope) {
+                if (candidate.scope == null && candidate.name.equals(parts[0]) && parts.length == 1) {
+                    type = candidate;
+                } else {
+                    type = candidate.types.get(parts[0]);
+                }
+            }
+            for (int i = 1; i < parts.length && type != null; i++) {
+                type = type.types.get(parts[i]);
+            }
+            if (type == null) {
+                throw new UnsupportedDefinitionException("Unknown type " + path + " in " + name);
+            }
+            return type;
+        }
+
+        EnumSpec findEnum(List<String> path) {
+            TypeSpec type = this;
+            if (path.size() > 1) {
+                type = findType(String.join("::", path.subList(0, path.size() - 1)));
+            } else {
+                for (TypeSpec candidate = this; candidate != null; candidate = candidate.scope) {
+                    EnumSpec enumSpec = candidate.enums.get(path.get(0));
+                    if (enumSpec != null) {
+                        return enumSpec;
+                    }
+                }
+            }
+            EnumSpec enumSpec = type.enums.get(path.get(path.size() - 1));
+            if (enumSpec == null) {
+                throw new UnsupportedDefinitionException("Unknown enum " + String.join("::", path) + " in " + name);
+            }
+            return enumSpec;
+        }
+
+        private static Charset toCharset(Object encoding) {
+            try {
+                return Charset.forName(String.valueOf(encoding));
+            } catch (IllegalArgumentException ex) {
+                throw new UnsupportedDefinitionException("Unsupported encoding " + encoding, ex);
+            }
+        }
+    }
+
+    /**
+     * Specification of the sequence attribute or instance.
+     */
+    @Immutable
+    private static final class AttributeSpec {
+
+        private final String id;
+        private final String name;
+        private final DataType dataType;
+        @Nullable
+        private final KsyExpression sizeExpression;
+        private final boolean sizeEos;
+        private final byte @Nullable [] contents;
+        @Nullable
+        private final Integer terminator;
+        private final boolean consume;
+        private final boolean include;
+        private final boolean eosError;
+        @Nullable
+        private final Integer padRight;
+        private final RepeatType repeat;
+        @Nullable
+        private final KsyExpression repeatExpression;
+        @Nullable
+        private final KsyExpression ifExpression;
+        @Nullable
+        private final EnumSpec enumSpec;
+        @Nullable
+        private final KsyExpression posExpression;
+        @Nullable
+        private final KsyExpression valueExpression;
+
+        AttributeSpec(String id, Map<String, Object> spec, TypeSpec scope) {
+            this.id = id;
+            this.name = KsyExpression.toCamelCase(id);
+            String context = id + " of " + scope.name;
+            sizeExpression = toExpression(spec.get("size"));
+            sizeEos = toFlag(spec.get("size-eos"), false, "size-eos of " + context);
+            contents = spec.containsKey("contents") ? toContents(spec.get("contents"), "contents of " + context) : null;
+            padRight = toByteValue(spec.get("pad-right"), "pad-right of " + context);
+            consume = toFlag(spec.get("consume"), true, "consume of " + context);
+            include = toFlag(spec.get("include"), false, "include of " + context);
+            eosError = toFlag(spec.get("eos-error"), true, "eos-error of " + context);
+            ifExpression = toExpression(spec.get("if"));
+            posExpression = toExpression(spec.get("pos"));
+            valueExpression = toExpression(spec.get("value"));
+            Object enumName = spec.get("enum");
+            enumSpec = enumName == null ? null : scope.findEnum(Arrays.asList(String.valueOf(enumName).split("::")));
+
+            Object repeatSpec = spec.get("repeat");
+            if (repeatSpec == null) {
+                repeat = RepeatType.NONE;
+                repeatExpression = null;
+            } else if ("eos".equals(repeatSpec)) {
+                repeat = RepeatType.EOS;
+                repeatExpression = null;
+            } else if ("expr".equals(repeatSpec)) {
+                repeat = RepeatType.EXPR;
+                repeatExpression = KsyExpression.parse(requireValue(spec, "repeat-expr", context));
+            } else if ("until".equals(repeatSpec)) {
+                repeat = RepeatType.UNTIL;
+                repeatExpression = KsyExpression.parse(requireValue(spec, "repeat-until", context));
+            } else {
+                throw new UnsupportedDefinitionException("Unsupported repeat of " + context + ": " + repeatSpec);
+            }
+
+            Object typeSpec = spec.get("type");
+            Object terminatorSpec = spec.get("terminator");
+            if ("strz".equals(typeSpec) && terminatorSpec == null) {
+                terminatorSpec = 0;
+            }
+            terminator = toByteValue(terminatorSpec, "terminator of " + context);
+
+            if (valueExpression != null) {
+                if (posExpression != null || typeSpec != null || sizeExpression != null || sizeEos || contents != null || repeat != RepeatType.NONE) {
+                    throw new UnsupportedDefinitionException("Unsupported value instance " + context);
+                }
+                dataType = DataType.BYTES;
+                return;
+            }
+
+            Object encoding = spec.get("encoding");
+            Charset charset = encoding == null ? scope.charset : TypeSpec.toCharset(encoding);
+            if (contents != null) {
+                if (typeSpec != null || sizeExpression != null || sizeEos || terminator != null) {
+                    throw new UnsupportedDefinitionException("Unsupported contents of " + context);
+                }
+                dataType = DataType.BYTES;
+            } else if (typeSpec instanceof Map) {
+                dataType = DataType.createSwitch(asMap(typeSpec, "type of " + context), scope, charset, context);
+            } else {
+                dataType = DataType.create(typeSpec == null ? null : String.valueOf(typeSpec), scope, charset, context);
+            }
+            checkSize(dataType, context);
+            if (enumSpec != null && dataType.kind != DataKind.INTEGER) {
+                throw new UnsupportedDefinitionException("Enum of non-integer attribute " + context);
+            }
+        }
+
+        private void checkSize(DataType type, String context) {
+            boolean sized = sizeExpression != null || sizeEos;
+            switch (type.kind) {
+                case BYTES:
+                case STRING:
+                    if (!sized && terminator == null && contents == null) {
+                        throw new UnsupportedDefinitionException("Size of " + context + " is not specified");
+                    }
+                    break;
+                case USER:
+                    if (terminator != null || padRight != null) {
+                        throw new UnsupportedDefinitionException("Terminated user type " + context);
+                    }
+                    break;
+                case SWITCH:
+                    for (DataType caseType : type.cases.values()) {
+                        checkSize(caseType, context);
+                    }
+                    if (type.defaultCase != null) {
+                        checkSize(type.defaultCase, context);
+                    }
+                    break;
+                default:
+                    if (sized || terminator != null || padRight != null) {
+                        throw new UnsupportedDefinitionException("Sized primitive type " + context);
+                    }
+                    break;
+            }
+        }
+
+        private static Object requireValue(Map<String, Object> spec, String key, String context) {
+            Object value = spec.get(key);
+            if (value == null) {
+                throw new UnsupportedDefinitionException("Missing " + key + " of " + context);
+            }
+            return value;
+        }
+    }
+
+    private enum DataKind {
+        INTEGER, FLOAT, BYTES, STRING, USER, SWITCH
+    }
+
+    private enum RepeatType {
+        NONE, EOS, EXPR, UNTIL
+    }
+
+    /**
+     * Resolved data type of the attribute.
+     */
+    @Immutable
+    private static final class DataType {
+
+        private static final DataType BYTES = new DataType(DataKind.BYTES);
+
+        private final DataKind kind;
+        private int size;
+        private boolean signed;
+        private boolean bigEndian;
+        @Nullable
+        private Charset charset;
+        @Nullable
+        private TypeSpec userType;
+        @Nullable
+        private KsyExpression switchOn;
+        private final Map<KsyExpression, DataType> cases = new LinkedHashMap<>();
+        @Nullable
+        private DataType defaultCase;
+
+        private DataType(DataKind kind) {
+            this.kind = kind;
+        }
+
+        static DataType create(@Nullable String typeName, TypeSpec scope, @Nullable Charset charset, String context) {
+            if (typeName == null) {
+                return BYTES;
+            }
+            if ("str".equals(typeName) || "strz".equals(typeName)) {
+                if (charset == null) {
+                    throw new UnsupportedDefinitionException("Encoding of " + context + " is not specified");
+                }
+                DataType type = new DataType(DataKind.STRING);
+                type.charset = charset;
+                return type;
+            }
+            Matcher matcher = INTEGER_TYPE.matcher(typeName);
+            if (matcher.matches()) {
+                DataType type = new DataType(DataKind.INTEGER);
+                type.signed = "s".equals(matcher.group(1));
+                type.size = Integer.parseInt(matcher.group(2));
+                type.bigEndian = isBigEndian(matcher.group(3), type.size, scope, context);
+                return type;
+            }
+            matcher = FLOAT_TYPE.matcher(typeName);
+            if (matcher.matches()) {
+                DataType type = new DataType(DataKind.FLOAT);
+                type.size = Integer.parseInt(matcher.group(1));
+                type.bigEndian = isBigEndian(matcher.group(2), type.size, scope, context);
+                return type;
+            }
+            if (!TYPE_NAME.matcher(typeName).matches()) {
+                throw new UnsupportedDefinitionException("Unsupported type " + typeName + " of " + context);
+            }
+            DataType type = new DataType(DataKind.USER);
+            type.userType = scope.findType(typeName);
+            return type;
+        }
+
+        static DataType createSwitch(Map<String, Object> spec, TypeSpec scope, @Nullable Charset charset, String context) {
+            DataType type = new DataType(DataKind.SWITCH);
+            type.switchOn = KsyExpression.parse(AttributeSpec.requireValue(spec, "switch-on", context));
+            Map<String, Object> casesSpec = asMap(AttributeSpec.requireValue(spec, "cases", context), "cases of " + context);
+            for (Map.Entry<String, Object> entry : casesSpec.entrySet()) {
+                String caseKey = String.valueOf(entry.getKey());
+                DataType caseType = create(String.valueOf(entry.getValue()), scope, charset, context);
+                if (caseType.kind == DataKind.BYTES) {
+                    throw new UnsupportedDefinitionException("Unsupported case of " + context);
+                }
+                if ("_".equals(caseKey)) {
+                    type.defaultCase = caseType;
+                } else {
+                    type.cases.put(KsyExpression.parse(caseKey), caseType);
+                }
+            }
+            return type;
+        }
+
+        private static boolean isBigEndian(@Nullable String suffix, int size, TypeSpec scope, String context) {
+            if (suffix != null) {
+                return "be".equals(suffix);
+            }
+            if (size == 1) {
+                return false;
+            }
+            if (scope.bigEndian == null) {
+                throw new UnsupportedDefinitionException("Endianness of " + context + " is not specified");
+            }
+            return scope.bigEndian;
+        }
+    }
+
+    /**
+     * Specification of the enum.
+     */
+    @Immutable
+    private static final class EnumSpec {
+
+        private final String name;
+        private final Map<Long, String> labels = new HashMap<>();
+        private final Map<String, Long> ids = new HashMap<>();
+
+        EnumSpec(String name, Map<?, Object> spec) {
+            this.name = name;
+            for (Map.Entry<?, Object> entry : spec.entrySet()) {
+                if (!(entry.getKey() instanceof Number)) {
+                    throw new UnsupportedDefinitionException("Unsupported id of enum " + name + ": " + entry.getKey());
+                }
+                long id = ((Number) entry.getKey()).longValue();
+                Object value = entry.getValue();
+                if (value instanceof Map) {
+                    value = ((Map<?, ?>) value).get("id");
+                }
+                if (!(value instanceof String)) {
+                    throw new UnsupportedDefinitionException("Unsupported label of enum " + name + ": " + value);
+                }
+                labels.put(id, (String) value);
+                ids.put((String) value, id);
+            }
+        }
+
+        @Nullable
+        InterpretedEnum toEnum(long id) {
+            String label = labels.get(id);
+            return label == null ? null : new InterpretedEnum(name, id, label);
+        }
+
+        InterpretedEnum getEnum(String label) {
+            Long id = ids.get(label);
+            if (id == null) {
+                throw new IllegalStateException("Unknown label " + label + " of enum " + name);
+            }
+            return new InterpretedEnum(name, id, label);
+        }
+    }
+
+    /**
+     * Context of the expressions evaluated in the structure.
+     */
+    private static final class StructContext implements KsyExpression.Context {
+
+        private final TypeSpec type;
+        private final InterpretedStruct struct;
+        private long index = -1;
+        @Nullable
+        private Object item;
+
+        StructContext(TypeSpec type, InterpretedStruct struct) {
+            this.type = type;
+            this.struct = struct;
+        }
+
+        @Nullable
+        @Override
+        public Object resolveName(String name) {
+            switch (name) {
+                case "_root":
+                    return struct._root();
+                case "_parent":
+                    return struct._parent();
+                case "_io":
+                    return struct._io();
+                case "_index":
+                    if (index < 0) {
+                        throw new IllegalStateException("Index is not available outside of repeat");
+                    }
+                    return index;
+                case "_":
+                    return item;
+                default:
+                    return struct.getAttributeById(name);
+            }
+        }
+
+        @Override
+        public Object resolveEnum(List<String> path) {
+            EnumSpec enumSpec = type.findEnum(path.subList(0, path.size() - 1));
+            return enumSpec.getEnum(path.get(path.size() - 1));
+        }
+    }
+
+    /**
+     * Exception thrown when definition uses features not supported by the
+     * interpreter.
+     */
+    public static class UnsupportedDefinitionException extends RuntimeException {
+
+        public UnsupportedDefinitionException(String message) {
+            super(message);
+        }
+
+        public UnsupportedDefinitionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.KaitaiSourceStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import io.kaitai.struct.StreamCancellation;
+import io.kaitai.struct.StreamLimits;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Lazily evaluated instance of the parsed structure.
+ * <p>
+ * Instance is evaluated on the lane of the instance evaluator when requested
+ * first and the value or the failure is memoized. Reading of the data reports
+ * progress and stops when evaluation is cancelled, cancelled instance is
+ * evaluated again on the next request. Limits of the parsing apply to each
+ * evaluation separately, resources consumed by the parsing or by other
+ * evaluations are not counted and timeout is measured from the start of the
+ * evaluation.
+ * <p>
+ * Cancellation and progress are tracked on the stream of the structure, reads
+ * of the instance using stream of another structure are not tracked.
+ */
+@ThreadSafe
+@NullMarked
+public final class LazyInstance {
+
+    /**
+     * Minimal interval between progress notifications in nanoseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 100000000;
+
+    private final Object struct;
+    private final String name;
+    @Nullable
+    private final StructAccessor.Attribute attribute;
+
+    private State state = State.NOT_EVALUATED;
+    private Object value = null;
+    private String errorMessage = null;
+    private EvaluationCancellation cancellation = null;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Creates instance.
+     *
+     * @param struct structure
+     * @param name instance name
+     * @param attribute attribute of the generated structure or null for
+     * {@link InterpretedStruct}
+     */
+    public LazyInstance(Object struct, String name, @Nullable StructAccessor.Attribute attribute) {
+        if (attribute == null && !(struct instanceof InterpretedStruct)) {
+            throw new IllegalArgumentException("Attribute is required for " + struct.getClass().getName());
+        }
+        this.struct = struct;
+        this.name = name;
+        this.attribute = attribute;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns evaluated value.
+     *
+     * @return value or null if not evaluated or evaluated to null
+     */
+    @Nullable
+    public synchronized Object getValue() {
+        return value;
+    }
+
+    /**
+     * Returns description of the failure of the evaluation.
+     *
+     * @return description or null if not failed
+     */
+    @Nullable
+    public synchronized String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Requests value of the instance.
+     * <p>
+     * Evaluation is queued if not evaluated yet. Listener is notified on the
+     * evaluation thread, or immediately if instance was already evaluated.
+     *
+     * @param evaluator instance evaluator
+     * @param listener listener
+     */
+    public void request(InstanceEvaluator evaluator, Listener listener) {
+        synchronized (this) {
+            if (state != State.EVALUATED && state != State.FAILED) {
+                listeners.add(listener);
+                if (state == State.NOT_EVALUATED) {
+                    EvaluationCancellation evaluationCancellation = new EvaluationCancellation();
+                    cancellation = evaluationCancellation;
+                    state = State.QUEUED;
+                    evaluator.submit(this, () -> evaluate(evaluationCancellation));
+                }
+                return;
+            }
+        }
+
+        listener.finished(this, false);
+    }
+
+    /**
+     * Cancels queued or running evaluation.
+     * <p>
+     * Listeners of the evaluation are notified as cancelled.
+     */
+    public void cancel() {
+        List<Listener> cancelledListeners;
+        synchronized (this) {
+            if (state != State.QUEUED && state != State.EVALUATING) {
+                return;
+            }
+
+            cancellation.cancel();
+            cancellation = null;
+            state = State.NOT_EVALUATED;
+            cancelledListeners = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+
+        for (Listener listener : cancelledListeners) {
+            listener.finished(this, true);
+        }
+    }
+
+    private void evaluate(EvaluationCancellation evaluationCancellation) {
+        synchronized (this) {
+            if (cancellation != evaluationCancellation) {
+                return;
+            }
+            state = State.EVALUATING;
+        }
+
+        KaitaiSourceStream stream = null;
+        if (struct instanceof KaitaiStruct) {
+            KaitaiStream structStream = ((KaitaiStruct) struct)._io();
+            if (structStream instanceof KaitaiSourceStream) {
+                stream = (KaitaiSourceStream) structStream;
+            }
+        }
+
+        Object result = null;
+        String error = null;
+        StreamCancellation previousCancellation = null;
+        StreamLimits previousLimits = null;
+        StreamLimits limits = null;
+        if (stream != null) {
+            previousCancellation = stream.getCancellation();
+            previousLimits = stream.getLimits();
+            limits = previousLimits == null ? null : previousLimits.createScope();
+            stream.setCancellation(evaluationCancellation);
+            stream.setLimits(limits);
+            evaluationCancellation.start(limits);
+            if (limits != null) {
+                limits.startTimer();
+            }
+        }
+        try {
+            result = attribute != null ? attribute.getValue(struct) : ((InterpretedStruct) struct).getAttribute(name);
+        } catch (RuntimeException ex) {
+            error = String.valueOf(ex);
+        } finally {
+            if (stream != null) {
+                if (limits != null) {
+                    limits.stopTimer();
+                }
+                stream.setLimits(previousLimits);
+                stream.setCancellation(previousCancellation);
+            }
+        }
+
+        List<Listener> finishedListeners;
+        synchronized (this) {
+            if (cancellation != evaluationCancellation) {
+                // Listeners were notified by cancel
+                return;
+            }
+
+            cancellation = null;
+            value = result;
+            errorMessage = error;
+            state = error == null ? State.EVALUATED : State.FAILED;
+            finishedListeners = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+
+        for (Listener listener : finishedListeners) {
+            listener.finished(this, false);
+        }
+    }
+
+    private void notifyProgress(long bytesRead) {
+        List<Listener> progressListeners;
+        synchronized (this) {
+            progressListeners = new ArrayList<>(listeners);
+        }
+
+        for (Listener listener : progressListeners) {
+            listener.progressChanged(this, bytesRead);
+        }
+    }
+
+    /**
+     * State of the evaluation.
+     */
+    public enum State {
+        NOT_EVALUATED,
+        QUEUED,
+        EVALUATING,
+        EVALUATED,
+        FAILED
+    }
+
+    /**
+     * Listener for evaluation of the instance.
+     */
+    public interface Listener {
+
+        /**
+         * Reports count of bytes read by evaluation so far.
+         *
+         * @param instance instance
+         * @param bytesRead count of read bytes
+         */
+        void progressChanged(LazyInstance instance, long bytesRead);
+
+        /**
+         * Reports finished evaluation.
+         *
+         * @param instance instance
+         * @param cancelled true if evaluation was cancelled
+         */
+        void finished(LazyInstance instance, boolean cancelled);
+    }
+
+    /**
+     * Cancellation of the evaluation reporting progress.
+     * <p>
+     * Stream checks cancellation on each read, which is used to report bytes
+     * read by the evaluation.
+     */
+    private final class EvaluationCancellation extends StreamCancellation {
+
+        private StreamLimits limits = null;
+        private long nextProgressTime;
+
+        private void start(@Nullable StreamLimits limits) {
+            this.limits = limits;
+            nextProgressTime = System.nanoTime() + PROGRESS_INTERVAL;
+        }
+
+        @Override
+        public void check() {
+            super.check();
+            if (limits == null) {
+                return;
+            }
+
+            long time = System.nanoTime();
+            if (time - nextProgressTime >= 0) {
+                nextProgressTime = time + PROGRESS_INTERVAL;
+                notifyProgress(limits.getBytesRead());
+            }
+        }
+    }
+}
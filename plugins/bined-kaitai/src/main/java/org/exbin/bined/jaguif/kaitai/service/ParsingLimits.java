@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.StreamLimits;
+import javax.annotation.concurrent.Immutable;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Resource budgets of single parsing.
+ * <p>
+ * Protects the application from crafted or damaged data which would make
+ * parser allocate excessive memory or never finish. Zero value of a limit
+ * means no limit. Default limits don't restrict total amount of read data or
+ * time of parsing, so that legitimate parsing of large data is not aborted,
+ * parsing can be cancelled instead.
+ */
+@Immutable
+@NullMarked
+public class ParsingLimits {
+
+    public static final long DEFAULT_MAX_ALLOCATED_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES_READ = StreamLimits.NO_LIMIT;
+    public static final long DEFAULT_MAX_REPEAT_ELEMENTS = 1000000;
+    public static final long DEFAULT_MAX_DEPTH = 256;
+    public static final long DEFAULT_TIMEOUT = StreamLimits.NO_LIMIT;
+
+    public static final ParsingLimits DEFAULT = new ParsingLimits(DEFAULT_MAX_ALLOCATED_BYTES, DEFAULT_MAX_BYTES_READ, DEFAULT_MAX_REPEAT_ELEMENTS, DEFAULT_MAX_DEPTH, DEFAULT_TIMEOUT);
+    public static final ParsingLimits UNLIMITED = new ParsingLimits(StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT);
+
+    private final long maxAllocatedBytes;
+    private final long maxBytesRead;
+    private final long maxRepeatElements;
+    private final long maxDepth;
+    private final long timeout;
+
+    /**
+     * Creates limits.
+     *
+     * @param maxAllocatedBytes maximum size of single byte array read by
+     * readBytes methods
+     * @param maxBytesRead maximum total count of read bytes
+     * @param maxRepeatElements maximum count of elements of single repeated
+     * field
+     * @param maxDepth maximum nesting depth of structures
+     * @param timeout maximum wall-clock time of parsing in milliseconds
+     */
+    public ParsingLimits(long maxAllocatedBytes, long maxBytesRead, long maxRepeatElements, long maxDepth, long timeout) {
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.maxBytesRead = maxBytesRead;
+        this.maxRepeatElements = maxRepeatElements;
+        this.maxDepth = maxDepth;
+        this.timeout = timeout;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+
+    public long getMaxBytesRead() {
+        return maxBytesRead;
+    }
+
+    public long getMaxRepeatElements() {
+        return maxRepeatElements;
+    }
+
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns maximum wall-clock time of parsing.
+     *
+     * @return time in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Creates limits tracking single parsing.
+     *
+     * @return stream limits
+     */
+    public StreamLimits createStreamLimits() {
+        return new StreamLimits(maxAllocatedBytes, maxBytesRead, maxRepeatElements, maxDepth, timeout);
+    }
+}
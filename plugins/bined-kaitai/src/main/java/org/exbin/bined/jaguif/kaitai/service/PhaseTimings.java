@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Wall time and allocated bytes of the phases of compilation or parsing.
+ * <p>
+ * Phases are measured on the thread performing them. Repeated measurements
+ * of the same phase are summed.
+ */
+@ThreadSafe
+@NullMarked
+public class PhaseTimings {
+
+    @Nullable
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = findThreadBean();
+
+    private final Map<Phase, long[]> phases = new EnumMap<>(Phase.class);
+    private volatile DefinitionSource source = null;
+
+    /**
+     * Returns count of bytes allocated by the current thread so far.
+     *
+     * @return allocated bytes or -1 if not supported by the JVM
+     */
+    public static long getCurrentThreadAllocatedBytes() {
+        if (THREAD_BEAN == null) {
+            return -1;
+        }
+        try {
+            return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Records phase which started at given time and allocation count on the
+     * current thread and ends now.
+     *
+     * @param phase phase
+     * @param startTime start time from {@link System#nanoTime()}
+     * @param startAllocatedBytes value of
+     * {@link #getCurrentThreadAllocatedBytes()} at start
+     */
+    public void record(Phase phase, long startTime, long startAllocatedBytes) {
+        long wallTime = System.nanoTime() - startTime;
+        long allocatedBytes = -1;
+        if (startAllocatedBytes >= 0) {
+            long endAllocatedBytes = getCurrentThreadAllocatedBytes();
+            if (endAllocatedBytes >= 0) {
+                allocatedBytes = endAllocatedBytes - startAllocatedBytes;
+            }
+        }
+        add(phase, wallTime, allocatedBytes);
+    }
+
+    /**
+     * Adds measurement of the phase.
+     *
+     * @param phase phase
+     * @param wallTime wall time in nanoseconds
+     * @param allocatedBytes allocated bytes or -1 if unknown
+     */
+    public void add(Phase phase, long wallTime, long allocatedBytes) {
+        synchronized (phases) {
+            long[] values = phases.get(phase);
+            if (values == null) {
+                phases.put(phase, new long[]{wallTime, allocatedBytes});
+            } else {
+                values[0] += wallTime;
+                values[1] = values[1] < 0 || allocatedBytes < 0 ? -1 : values[1] + allocatedBytes;
+            }
+        }
+    }
+
+    /**
+     * Returns measured phases in order of processing.
+     *
+     * @return list of phases
+     */
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases.keySet());
+        }
+    }
+
+    /**
+     * Returns wall time of the phase.
+     *
+     * @param phase phase
+     * @return time in nanoseconds or -1 if phase was not measured
+     */
+    public long getWallTime(Phase phase) {
+        synchronized (phases) {
+            long[] values = phases.get(phase);
+            return values == null ? -1 : values[0];
+        }
+    }
+
+    /**
+     * Returns count of bytes allocated during the phase.
+     *
+     * @param phase phase
+     * @return allocated bytes or -1 if not measured or not supported
+     */
+    public long getAllocatedBytes(Phase phase) {
+        synchronized (phases) {
+            long[] values = phases.get(phase);
+            return values == null ? -1 : values[1];
+        }
+    }
+
+    /**
+     * Returns sum of wall times of all measured phases.
+     *
+     * @return time in nanoseconds
+     */
+    public long getTotalWallTime() {
+        synchronized (phases) {
+            long totalTime = 0;
+            for (long[] values : phases.values()) {
+                totalTime += values[0];
+            }
+            return totalTime;
+        }
+    }
+
+    /**
+     * Returns where compiled definition came from.
+     *
+     * @return source or null for parsing timings
+     */
+    @Nullable
+    public DefinitionSource getSource() {
+        return source;
+    }
+
+    public void setSource(@Nullable DefinitionSource source) {
+        this.source = source;
+    }
+
+    @Nullable
+    private static com.sun.management.ThreadMXBean findThreadBean() {
+        try {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+                if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                    return allocationBean;
+                }
+            }
+        } catch (LinkageError | RuntimeException ex) {
+            // Allocation measurement is not available
+        }
+        return null;
+    }
+
+    /**
+     * Phase of compilation or parsing.
+     */
+    public enum Phase {
+        /**
+         * Loading of YAML tree of the definition.
+         */
+        YAML_LOADING,
+        /**
+         * Conversion of YAML tree to class specification.
+         */
+        CLASS_SPEC,
+        /**
+         * Loading of imports and precompilation of specifications.
+         */
+        PRECOMPILE,
+        /**
+         * Generation of java source.
+         */
+        CODE_GENERATION,
+        /**
+         * Compilation of java source.
+         */
+        JAVAC,
+        /**
+         * Loading of compiled definition from precompiled definitions or
+         * persistent cache.
+         */
+        CACHE_LOADING,
+        /**
+         * Definition of the compiled classes.
+         */
+        CLASS_LOADING,
+        /**
+         * Creation of stream and top-level structure.
+         */
+        STREAM_SETUP,
+        /**
+         * Execution of the structure reading.
+         */
+        READ
+    }
+
+    /**
+     * Source of the compiled definition.
+     */
+    public enum DefinitionSource {
+        /**
+         * Compiled from the definition.
+         */
+        COMPILED,
+        /**
+         * Loaded from definitions compiled at build time.
+         */
+        PRECOMPILED,
+        /**
+         * Loaded from persistent cache.
+         */
+        CACHED,
+        /**
+         * Already loaded parser was reused.
+         */
+        LOADED,
+        /**
+         * Definition is interpreted without compilation.
+         */
+        INTERPRETED
+    }
+}
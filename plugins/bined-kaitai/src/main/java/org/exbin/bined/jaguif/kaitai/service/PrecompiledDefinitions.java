@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.ThreadSafe;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Definitions compiled to bytecode at build time and bundled as resources.
+ * <p>
+ * Index resource lists one entry per line as definition key and relative
+ * path of the source definition separated by tab. Compiled definition of
+ * each entry is stored in resource named by its key.
+ * <p>
+ * Resources are bundled by default, builds with skipPrecompileFormats
+ * property set leave them out. Definitions missing in the index are compiled
+ * at runtime.
+ */
+@ThreadSafe
+@NullMarked
+public class PrecompiledDefinitions {
+
+    public static final String RESOURCE_PATH = "org/exbin/bined/jaguif/kaitai/resources/precompiled/";
+    public static final String INDEX_RESOURCE = "index.txt";
+    public static final String ENTRY_SUFFIX = ".ksyc";
+
+    private static PrecompiledDefinitions defaultDefinitions = null;
+
+    private final ClassLoader classLoader;
+    private final String resourcePath;
+    private Map<String, String> index = null;
+
+    /**
+     * Creates precompiled definitions.
+     *
+     * @param classLoader class loader providing resources
+     * @param resourcePath resource path with trailing slash
+     */
+    public PrecompiledDefinitions(ClassLoader classLoader, String resourcePath) {
+        this.classLoader = classLoader;
+        this.resourcePath = resourcePath;
+    }
+
+    /**
+     * Returns definitions bundled with the plugin.
+     *
+     * @return precompiled definitions
+     */
+    public static synchronized PrecompiledDefinitions getDefault() {
+        if (defaultDefinitions == null) {
+            defaultDefinitions = new PrecompiledDefinitions(PrecompiledDefinitions.class.getClassLoader(), RESOURCE_PATH);
+        }
+        return defaultDefinitions;
+    }
+
+    /**
+     * Returns true if definition with given key is available.
+     *
+     * @param definitionKey definition key
+     * @return true if available
+     */
+    public boolean contains(String definitionKey) {
+        return getIndex().containsKey(definitionKey);
+    }
+
+    /**
+     * Returns relative path of the source definition.
+     *
+     * @param definitionKey definition key
+     * @return path or null if not available
+     */
+    @Nullable
+    public String getPath(String definitionKey) {
+        return getIndex().get(definitionKey);
+    }
+
+    /**
+     * Returns number of available definitions.
+     *
+     * @return number of definitions
+     */
+    public int size() {
+        return getIndex().size();
+    }
+
+    /**
+     * Loads compiled definition.
+     *
+     * @param definitionKey definition key
+     * @return compiled definition or null if not available
+     */
+    @Nullable
+    public CompiledDefinition load(String definitionKey) {
+        if (!contains(definitionKey)) {
+            return null;
+        }
+
+        InputStream stream = classLoader.getResourceAsStream(resourcePath + definitionKey + ENTRY_SUFFIX);
+        if (stream == null) {
+            return null;
+        }
+
+        try (InputStream input = new BufferedInputStream(stream)) {
+            return CompiledDefinition.read(input);
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(PrecompiledDefinitions.class.getName()).log(Level.WARNING, "Unable to read precompiled definition " + getPath(definitionKey), ex);
+            return null;
+        }
+    }
+
+    private synchronized Map<String, String> getIndex() {
+        if (index == null) {
+            index = readIndex();
+        }
+        return index;
+    }
+
+    private Map<String, String> readIndex() {
+        InputStream stream = classLoader.getResourceAsStream(resourcePath + INDEX_RESOURCE);
+        if (stream == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                int separator = line.indexOf('\t');
+                if (separator > 0) {
+                    entries.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(PrecompiledDefinitions.class.getName()).log(Level.WARNING, "Unable to read index of precompiled definitions", ex);
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.concurrent.Immutable;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Accessor table of the structure class generated by Kaitai compiler.
+ * <p>
+ * Reflective lookup of the attributes, position maps, constructor and read
+ * method is performed once per class and the resulting method handles are
+ * reused for all structures of the class. Tables are attached to classes by
+ * class value, so they don't prevent unloading of compiled parsers.
+ * <p>
+ * Attributes are public getters with backing field of the same name, ordered
+ * by declaration of the fields, so that sequence attributes keep order of the
+ * definition. Attributes not listed in sequence fields of the class are
+ * instances.
+ * Interpreted structures expose attributes by name and only use position
+ * maps of the table.
+ */
+@Immutable
+@NullMarked
+public final class StructAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final ClassValue<StructAccessor> ACCESSORS = new ClassValue<StructAccessor>() {
+        @Override
+        protected StructAccessor computeValue(Class<?> structClass) {
+            return new StructAccessor(structClass);
+        }
+    };
+
+    private final Class<?> structClass;
+    private final List<Attribute> attributes;
+    @Nullable
+    private final MethodHandle attrStartGetter;
+    @Nullable
+    private final MethodHandle attrEndGetter;
+    @Nullable
+    private final MethodHandle arrStartGetter;
+    @Nullable
+    private final MethodHandle arrEndGetter;
+    @Nullable
+    private final MethodHandle rootConstructor;
+    @Nullable
+    private final MethodHandle readMethod;
+
+    private StructAccessor(Class<?> structClass) {
+        this.structClass = structClass;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        attributes = Collections.unmodifiableList(findAttributes(lookup, structClass));
+        attrStartGetter = findFieldGetter(lookup, structClass, "_attrStart");
+        attrEndGetter = findFieldGetter(lookup, structClass, "_attrEnd");
+        arrStartGetter = findFieldGetter(lookup, structClass, "_arrStart");
+        arrEndGetter = findFieldGetter(lookup, structClass, "_arrEnd");
+        rootConstructor = findRootConstructor(lookup, structClass);
+        readMethod = findReadMethod(lookup, structClass);
+    }
+
+    /**
+     * Returns accessor table of the structure class.
+     *
+     * @param structClass structure class
+     * @return accessor table
+     */
+    public static StructAccessor forClass(Class<?> structClass) {
+        return ACCESSORS.get(structClass);
+    }
+
+    public Class<?> getStructClass() {
+        return structClass;
+    }
+
+    /**
+     * Returns attributes in order of declaration.
+     *
+     * @return attributes
+     */
+    public List<Attribute> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns whether structure records positions of the attributes.
+     *
+     * @return true if position maps are available
+     */
+    public boolean hasPositions() {
+        return attrStartGetter != null && attrEndGetter != null && arrStartGetter != null && arrEndGetter != null;
+    }
+
+    @Nullable
+    public Map<?, ?> getAttrStart(Object struct) {
+        return (Map<?, ?>) invokeGetter(attrStartGetter, struct);
+    }
+
+    @Nullable
+    public Map<?, ?> getAttrEnd(Object struct) {
+        return (Map<?, ?>) invokeGetter(attrEndGetter, struct);
+    }
+
+    @Nullable
+    public Map<?, ?> getArrStart(Object struct) {
+        return (Map<?, ?>) invokeGetter(arrStartGetter, struct);
+    }
+
+    @Nullable
+    public Map<?, ?> getArrEnd(Object struct) {
+        return (Map<?, ?>) invokeGetter(arrEndGetter, struct);
+    }
+
+    /**
+     * Creates root structure reading from given stream, parameters of the
+     * structure are set to default values.
+     *
+     * @param stream source stream of the stream class used by the structure
+     * @return structure
+     */
+    public Object createRoot(Object stream) {
+        if (rootConstructor == null) {
+            throw new IllegalArgumentException(structClass + " has no KaitaiStruct-generated constructor");
+        }
+
+        try {
+            return (Object) rootConstructor.invokeExact(stream);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Reads structure from its stream.
+     *
+     * @param struct structure
+     */
+    public void read(Object struct) {
+        if (readMethod == null) {
+            throw new IllegalArgumentException(structClass + " has no _read method");
+        }
+
+        try {
+            readMethod.invokeExact(struct);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Nullable
+    private static Object invokeGetter(@Nullable MethodHandle getter, Object struct) {
+        if (getter == null) {
+            return null;
+        }
+
+        try {
+            return (Object) getter.invokeExact(struct);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static List<Attribute> findAttributes(MethodHandles.Lookup lookup, Class<?> structClass) {
+        Set<String> seqFields = findSeqFields(structClass);
+        Map<String, Method> getters = new HashMap<>();
+        for (Method method : structClass.getDeclaredMethods()) {
+            // Ignore static methods, i.e. "fromFile"
+            if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() > 0) {
+                continue;
+            }
+
+            String methodName = method.getName();
+            // Ignore all internal methods, i.e. "_io", "_parent", "_root"
+            if (methodName.charAt(0) == '_') {
+                continue;
+            }
+
+            getters.put(methodName, method);
+        }
+
+        List<Attribute> attributes = new ArrayList<>();
+        for (Field field : structClass.getDeclaredFields()) {
+            Method method = getters.get(field.getName());
+            if (method == null || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            try {
+                field.setAccessible(true);
+                method.setAccessible(true);
+                MethodHandle fieldGetter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle valueGetter = lookup.unreflect(method).asType(GETTER_TYPE);
+                boolean instance = seqFields == null || !seqFields.contains(field.getName());
+                attributes.add(new Attribute(field.getName(), attributes.size(), instance, fieldGetter, valueGetter));
+            } catch (IllegalAccessException | RuntimeException ex) {
+                // Inaccessible attribute is not shown
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns names of the sequence attributes listed by the class generated
+     * with position info.
+     *
+     * @param structClass structure class
+     * @return set of names or null if class doesn't list sequence attributes
+     */
+    @Nullable
+    private static Set<String> findSeqFields(Class<?> structClass) {
+        try {
+            Field field = structClass.getDeclaredField("_seqFields");
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String[].class) {
+                return null;
+            }
+            field.setAccessible(true);
+            String[] seqFields = (String[]) field.get(null);
+            return seqFields == null ? null : new HashSet<>(Arrays.asList(seqFields));
+        } catch (NoSuchFieldException | IllegalAccessException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static MethodHandle findFieldGetter(MethodHandles.Lookup lookup, Class<?> structClass, String fieldName) {
+        try {
+            Field field = structClass.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (NoSuchFieldException | IllegalAccessException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static MethodHandle findRootConstructor(MethodHandles.Lookup lookup, Class<?> structClass) {
+        for (Constructor<?> constructor : structClass.getDeclaredConstructors()) {
+            Class<?>[] types = constructor.getParameterTypes();
+            if (types.length >= 3
+                    && KaitaiStream.class.getCanonicalName().equals(types[0].getCanonicalName())
+                    && KaitaiStruct.ReadOnly.class.getCanonicalName().equals(types[1].getCanonicalName())
+                    && structClass.getCanonicalName().equals(types[2].getCanonicalName())) {
+                try {
+                    constructor.setAccessible(true);
+                    MethodHandle handle = lookup.unreflectConstructor(constructor);
+                    // TODO: get parameters from user
+                    Object[] defaultArgs = new Object[types.length - 1];
+                    for (int i = 2; i < types.length; i++) {
+                        defaultArgs[i - 1] = getDefaultValue(types[i]);
+                    }
+                    return MethodHandles.insertArguments(handle, 1, defaultArgs).asType(GETTER_TYPE);
+                } catch (IllegalAccessException | RuntimeException ex) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static MethodHandle findReadMethod(MethodHandles.Lookup lookup, Class<?> structClass) {
+        try {
+            return lookup.unreflect(structClass.getMethod("_read")).asType(MethodType.methodType(void.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Object getDefaultValue(Class<?> clazz) {
+        if (clazz == boolean.class) {
+            return false;
+        }
+        if (clazz == char.class) {
+            return (char) 0;
+        }
+        if (clazz == byte.class) {
+            return (byte) 0;
+        }
+        if (clazz == short.class) {
+            return (short) 0;
+        }
+        if (clazz == int.class) {
+            return 0;
+        }
+        if (clazz == long.class) {
+            return 0L;
+        }
+        if (clazz == float.class) {
+            return 0.0f;
+        }
+        if (clazz == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+
+    /**
+     * Attribute of the structure.
+     */
+    @Immutable
+    public static final class Attribute {
+
+        private final String name;
+        private final int order;
+        private final boolean instance;
+        private final MethodHandle fieldGetter;
+        private final MethodHandle valueGetter;
+
+        private Attribute(String name, int order, boolean instance, MethodHandle fieldGetter, MethodHandle valueGetter) {
+            this.name = name;
+            this.order = order;
+            this.instance = instance;
+            this.fieldGetter = fieldGetter;
+            this.valueGetter = valueGetter;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns index of the attribute in order of declaration.
+         *
+         * @return order index
+         */
+        public int getOrder() {
+            return order;
+        }
+
+        /**
+         * Returns whether attribute is an instance evaluated by its getter.
+         * <p>
+         * Classes without list of the sequence attributes are not
+         * distinguished and all their attributes are reported as instances.
+         *
+         * @return true if attribute is an instance
+         */
+        public boolean isInstance() {
+            return instance;
+        }
+
+        /**
+         * Returns value stored in the structure without evaluation.
+         *
+         * @param struct structure
+         * @return value or null if not read or not evaluated yet
+         */
+        @Nullable
+        public Object getStoredValue(Object struct) {
+            return invokeGetter(fieldGetter, struct);
+        }
+
+        /**
+         * Returns value of the attribute, instances are evaluated.
+         *
+         * @param struct structure
+         * @return value
+         */
+        @Nullable
+        public Object getValue(Object struct) {
+            return invokeGetter(valueGetter, struct);
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.exbin.bined.jaguif.kaitai.settings;
 
+import org.exbin.bined.jaguif.kaitai.service.KaitaiParserRegistry;
+import org.exbin.bined.jaguif.kaitai.service.ParsingLimits;
 import org.jspecify.annotations.NullMarked;
 import org.exbin.jaguif.options.settings.api.SettingsOptions;
 import org.exbin.jaguif.options.api.OptionsStorage;
@@ -30,6 +32,16 @@ public class KaitaiOptions implements SettingsOptions {
     public static final String KEY_NAME_PREFIX = KEY_LIST_PREFIX + "buildin.";
     public static final String KEY_PATH_PREFIX = KEY_LIST_PREFIX + "path.";
     public static final String KEY_DEFINITION = "kaitai.definition";
+    public static final String KEY_COMPILER_WARM_UP = "kaitai.compilerWarmUp";
+    public static final String KEY_MAX_LOADED_PARSERS = "kaitai.maxLoadedParsers";
+    public static final String KEY_LIMIT_PREFIX = "kaitai.limit.";
+    public static final String KEY_LIMIT_ALLOCATED_MEGABYTES = KEY_LIMIT_PREFIX + "allocatedMegabytes";
+    public static final String KEY_LIMIT_READ_MEGABYTES = KEY_LIMIT_PREFIX + "readMegabytes";
+    public static final String KEY_LIMIT_REPEAT_ELEMENTS = KEY_LIMIT_PREFIX + "repeatElements";
+    public static final String KEY_LIMIT_DEPTH = KEY_LIMIT_PREFIX + "depth";
+    public static final String KEY_LIMIT_TIMEOUT_SECONDS = KEY_LIMIT_PREFIX + "timeoutSeconds";
+
+    private static final long MEGABYTE = 1024 * 1024;
 
     private final OptionsStorage storage;
 
@@ -53,6 +65,92 @@ public class KaitaiOptions implements SettingsOptions {
         storage.putInt(KEY_DEFINITION, definitionIndex);
     }
 
+    public boolean isCompilerWarmUp() {
+        return storage.getBoolean(KEY_COMPILER_WARM_UP, true);
+    }
+
+    public void setCompilerWarmUp(boolean compilerWarmUp) {
+        storage.putBoolean(KEY_COMPILER_WARM_UP, compilerWarmUp);
+    }
+
+    public int getMaxLoadedParsers() {
+        return storage.getInt(KEY_MAX_LOADED_PARSERS, KaitaiParserRegistry.DEFAULT_MAX_PARSERS);
+    }
+
+    public void setMaxLoadedParsers(int maxLoadedParsers) {
+        storage.putInt(KEY_MAX_LOADED_PARSERS, maxLoadedParsers);
+    }
+
+    /**
+     * Returns maximum size of single byte array read by parsing.
+     *
+     * @return size in megabytes, zero for no limit
+     */
+    public int getLimitAllocatedMegabytes() {
+        return storage.getInt(KEY_LIMIT_ALLOCATED_MEGABYTES, (int) (ParsingLimits.DEFAULT_MAX_ALLOCATED_BYTES / MEGABYTE));
+    }
+
+    public void setLimitAllocatedMegabytes(int megabytes) {
+        storage.putInt(KEY_LIMIT_ALLOCATED_MEGABYTES, megabytes);
+    }
+
+    /**
+     * Returns maximum count of bytes read by single parsing.
+     *
+     * @return size in megabytes, zero for no limit
+     */
+    public int getLimitReadMegabytes() {
+        return storage.getInt(KEY_LIMIT_READ_MEGABYTES, (int) (ParsingLimits.DEFAULT_MAX_BYTES_READ / MEGABYTE));
+    }
+
+    public void setLimitReadMegabytes(int megabytes) {
+        storage.putInt(KEY_LIMIT_READ_MEGABYTES, megabytes);
+    }
+
+    public int getLimitRepeatElements() {
+        return storage.getInt(KEY_LIMIT_REPEAT_ELEMENTS, (int) ParsingLimits.DEFAULT_MAX_REPEAT_ELEMENTS);
+    }
+
+    public void setLimitRepeatElements(int repeatElements) {
+        storage.putInt(KEY_LIMIT_REPEAT_ELEMENTS, repeatElements);
+    }
+
+    public int getLimitDepth() {
+        return storage.getInt(KEY_LIMIT_DEPTH, (int) ParsingLimits.DEFAULT_MAX_DEPTH);
+    }
+
+    public void setLimitDepth(int depth) {
+        storage.putInt(KEY_LIMIT_DEPTH, depth);
+    }
+
+    /**
+     * Returns maximum wall-clock time of single parsing.
+     *
+     * @return time in seconds, zero for no limit
+     */
+    public int getLimitTimeoutSeconds() {
+        return storage.getInt(KEY_LIMIT_TIMEOUT_SECONDS, (int) (ParsingLimits.DEFAULT_TIMEOUT / 1000));
+    }
+
+    public void setLimitTimeoutSeconds(int timeoutSeconds) {
+        storage.putInt(KEY_LIMIT_TIMEOUT_SECONDS, timeoutSeconds);
+    }
+
+    /**
+     * Returns parsing limits configured by the options.
+     *
+     * @return parsing limits
+     */
+    public ParsingLimits getParsingLimits() {
+        return new ParsingLimits(
+                getLimitAllocatedMegabytes() * MEGABYTE,
+                getLimitReadMegabytes() * MEGABYTE,
+                getLimitRepeatElements(),
+                getLimitDepth(),
+                getLimitTimeoutSeconds() * 1000L
+        );
+    }
+
     public String getListItemBuildIn(int index) {
         return storage.get(KEY_NAME_PREFIX + index, "");
     }
@@ -83,5 +181,12 @@ public class KaitaiOptions implements SettingsOptions {
             target.setListItemBuildIn(getListItemBuildIn(index), index);
             target.setListItemPath(getListItemPath(index), index);
         }
+        target.setCompilerWarmUp(isCompilerWarmUp());
+        target.setMaxLoadedParsers(getMaxLoadedParsers());
+        target.setLimitAllocatedMegabytes(getLimitAllocatedMegabytes());
+        target.setLimitReadMegabytes(getLimitReadMegabytes());
+        target.setLimitRepeatElements(getLimitRepeatElements());
+        target.setLimitDepth(getLimitDepth());
+        target.setLimitTimeoutSeconds(getLimitTimeoutSeconds());
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.auxiliary.binary_data.delta.DeltaDocument;
+import org.exbin.auxiliary.binary_data.delta.FileDataSource;
+import org.exbin.auxiliary.binary_data.delta.SegmentsRepository;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Benchmark for BinaryDataKaitaiStream.
+ */
+public class BinaryDataKaitaiStreamBenchmark {
+
+    private static final int DATA_SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    @Test
+    @Ignore
+    public void benchmarkPrimitiveReads() {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(0).nextBytes(data);
+        ByteArrayEditableData binaryData = new ByteArrayEditableData(data);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long perByteTime = readPrimitives(new BinaryDataKaitaiStream(binaryData, 0));
+            long windowedTime = readPrimitives(new BinaryDataKaitaiStream(binaryData));
+            long arrayTime = readPrimitives(new ByteArrayKaitaiStream(binaryData));
+            System.out.println(String.format("Round %d: per-byte %d ms, windowed %d ms, array %d ms", round, perByteTime / 1000000, windowedTime / 1000000, arrayTime / 1000000));
+        }
+    }
+
+    @Test
+    @Ignore
+    public void benchmarkDeltaDocumentReads() throws IOException {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(0).nextBytes(data);
+        File file = File.createTempFile("benchmark", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        SegmentsRepository segmentsRepository = new SegmentsRepository();
+        FileDataSource fileSource = segmentsRepository.openFileSource(file);
+        try {
+            DeltaDocument document = segmentsRepository.createDocument(fileSource);
+            for (int round = 0; round < ROUNDS; round++) {
+                long perByteTime = readPrimitives(new BinaryDataKaitaiStream(document, 0));
+                long windowedTime = readPrimitives(new BinaryDataKaitaiStream(document));
+                long mappedTime;
+                try (MappedFileKaitaiStream stream = new MappedFileKaitaiStream(file)) {
+                    mappedTime = readPrimitives(stream);
+                }
+                System.out.println(String.format("Unmodified document, round %d: per-byte %d ms, windowed %d ms, mapped %d ms", round, perByteTime / 1000000, windowedTime / 1000000, mappedTime / 1000000));
+            }
+
+            // Edited document mixes memory and file segments
+            for (int i = 0; i < 16; i++) {
+                document.insert(i * (DATA_SIZE / 16), new byte[]{1, 2, 3});
+            }
+            for (int round = 0; round < ROUNDS; round++) {
+                long perByteTime = readPrimitives(new BinaryDataKaitaiStream(document, 0));
+                long windowedTime = readPrimitives(new BinaryDataKaitaiStream(document));
+                System.out.println(String.format("Edited document, round %d: per-byte %d ms, windowed %d ms", round, perByteTime / 1000000, windowedTime / 1000000));
+            }
+            document.dispose();
+        } finally {
+            segmentsRepository.closeFileSource(fileSource);
+        }
+    }
+
+    @Test
+    @Ignore
+    public void benchmarkTerminatedStrings() {
+        for (int stringLength : new int[]{1024, 64 * 1024, 16 * 1024 * 1024}) {
+            int stringsCount = Math.max(1, DATA_SIZE / 4 / (stringLength + 1));
+            byte[] data = new byte[stringsCount * (stringLength + 1)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (i % (stringLength + 1) == stringLength) ? 0 : (byte) ('a' + (i % 26));
+            }
+            ByteArrayEditableData binaryData = new ByteArrayEditableData(data);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long perByteTime = readStrings(new BinaryDataKaitaiStream(binaryData, 0));
+                long windowedTime = readStrings(new BinaryDataKaitaiStream(binaryData));
+                System.out.println(String.format("String length %d, round %d: per-byte %d ms, windowed %d ms", stringLength, round, perByteTime / 1000000, windowedTime / 1000000));
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void benchmarkBitFields() {
+        byte[] data = new byte[DATA_SIZE / 4];
+        new Random(0).nextBytes(data);
+        ByteArrayEditableData binaryData = new ByteArrayEditableData(data);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long inheritedTime = readBitFields(new ByteBufferKaitaiStream(data));
+            long perByteTime = readBitFields(new BinaryDataKaitaiStream(binaryData, 0));
+            long windowedTime = readBitFields(new BinaryDataKaitaiStream(binaryData));
+            long arrayTime = readBitFields(new ByteArrayKaitaiStream(binaryData));
+            System.out.println(String.format("Round %d: inherited bit reads %d ms, per-byte %d ms, windowed %d ms, array %d ms", round, inheritedTime / 1000000, perByteTime / 1000000, windowedTime / 1000000, arrayTime / 1000000));
+        }
+    }
+
+    /**
+     * Reads synthetic bit-packed record of 64 bits: flag, 3-bit type, 12-bit
+     * length, 7-bit and 9-bit big-endian fields, 20-bit and 12-bit
+     * little-endian fields. Both halves fill whole bytes.
+     */
+    private static long readBitFields(KaitaiStream stream) {
+        long startTime = System.nanoTime();
+        long checksum = 0;
+        while (stream.size() - stream.pos() >= 8) {
+            checksum += stream.readBitsIntBe(1);
+            checksum += stream.readBitsIntBe(3);
+            checksum += stream.readBitsIntBe(12);
+            checksum += stream.readBitsIntBe(7);
+            checksum += stream.readBitsIntBe(9);
+            stream.alignToByte();
+            checksum += stream.readBitsIntLe(20);
+            checksum += stream.readBitsIntLe(12);
+            stream.alignToByte();
+        }
+        long time = System.nanoTime() - startTime;
+        if (checksum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+    private static long readStrings(BinaryDataKaitaiStream stream) {
+        long startTime = System.nanoTime();
+        long checksum = 0;
+        while (!stream.isEof()) {
+            checksum += stream.readBytesTerm((byte) 0, false, true, true).length;
+        }
+        long time = System.nanoTime() - startTime;
+        if (checksum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+    private static long readPrimitives(KaitaiStream stream) {
+        long startTime = System.nanoTime();
+        long checksum = 0;
+        while (stream.size() - stream.pos() >= 16) {
+            checksum += stream.readU1();
+            checksum += stream.readS2le();
+            checksum += stream.readU4be();
+            checksum += stream.readS8le();
+            checksum += stream.readU1();
+        }
+        long time = System.nanoTime() - startTime;
+        if (checksum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for BinaryDataKaitaiStream.
+ */
+public class BinaryDataKaitaiStreamTest {
+
+    private static final byte[] SAMPLE_DATA = new byte[]{
+        (byte) 0x81, (byte) 0x82, (byte) 0x83, (byte) 0x84, (byte) 0x85, (byte) 0x86, (byte) 0x87, (byte) 0x88,
+        0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08
+    };
+
+    @Test
+    public void testPrimitivesPerByte() {
+        checkPrimitives(0);
+    }
+
+    @Test
+    public void testPrimitivesWindowed() {
+        checkPrimitives(BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    public void testPrimitivesAcrossWindowBoundary() {
+        checkPrimitives(3);
+    }
+
+    @Test
+    public void testReadLastByte() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA));
+        stream.seek(SAMPLE_DATA.length - 1);
+        Assert.assertEquals(0x08, stream.readU1());
+        Assert.assertTrue(stream.isEof());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testReadBeyondEnd() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA));
+        stream.seek(SAMPLE_DATA.length - 2);
+        stream.readU4le();
+    }
+
+    @Test
+    public void testSeekOutsideWindow() {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(data), 16);
+        Assert.assertEquals(0x00010203L, stream.readU4be());
+        stream.seek(90);
+        Assert.assertEquals(0x5a5b, stream.readU2be());
+        stream.seek(14);
+        Assert.assertEquals(0x11100f0eL, stream.readU4le());
+        Assert.assertArrayEquals(new byte[]{18, 19, 20}, stream.readBytes(3));
+        Assert.assertEquals(21, stream.pos());
+    }
+
+    @Test
+    public void testSubstream() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA));
+        stream.seek(2);
+        KaitaiStream substream = stream.substream(8);
+        Assert.assertEquals(10, stream.pos());
+        Assert.assertEquals(8, substream.size());
+        Assert.assertEquals(0, substream.pos());
+        Assert.assertEquals(0x8384, substream.readU2be());
+        substream.seek(6);
+        Assert.assertEquals(0x0201, substream.readU2le());
+        Assert.assertTrue(substream.isEof());
+        Assert.assertEquals(0x0304, stream.readU2be());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSubstreamReadBeyondEnd() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA));
+        KaitaiStream substream = stream.substream(3);
+        substream.readU2be();
+        substream.readU2be();
+    }
+
+    @Test
+    public void testNestedSubstream() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), 4);
+        stream.seek(4);
+        BinaryDataKaitaiStream substream = (BinaryDataKaitaiStream) stream.substream(10);
+        substream.seek(3);
+        BinaryDataKaitaiStream nestedSubstream = (BinaryDataKaitaiStream) substream.substream(5);
+        Assert.assertEquals(7, nestedSubstream.getOffset());
+        Assert.assertEquals(0x88010203L, nestedSubstream.readU4be());
+        Assert.assertArrayEquals(new byte[]{0x04}, nestedSubstream.readBytesFull());
+        Assert.assertEquals(8, substream.pos());
+    }
+
+    @Test
+    public void testCancellation() {
+        for (BinaryDataKaitaiStream stream : new BinaryDataKaitaiStream[]{
+            new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), 4),
+            new ByteArrayKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA))
+        }) {
+            StreamCancellation cancellation = new StreamCancellation();
+            stream.setCancellation(cancellation);
+            Assert.assertEquals(0x8182, stream.readU2be());
+            KaitaiStream substream = stream.substream(8);
+            cancellation.cancel();
+            try {
+                stream.readU1();
+                Assert.fail("Read after cancellation");
+            } catch (StreamCancellation.CancelledException ex) {
+                // expected
+            }
+            try {
+                substream.readBytes(2);
+                Assert.fail("Substream read after cancellation");
+            } catch (StreamCancellation.CancelledException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), 4);
+        StreamLimits limits = new StreamLimits(4, 10, 2, 1, StreamLimits.NO_LIMIT);
+        stream.setLimits(limits);
+        Assert.assertEquals(0, BinaryDataKaitaiStream.fieldStart(stream, "magic"));
+        stream.readU2be();
+        Assert.assertArrayEquals(new byte[]{(byte) 0x83, (byte) 0x84, (byte) 0x85}, stream.readBytes(3));
+        Assert.assertEquals(5, limits.getBytesRead());
+        Assert.assertEquals(3, limits.getAllocatedBytes());
+        try {
+            stream.readBytes(5);
+            Assert.fail("Allocation limit not applied");
+        } catch (StreamLimits.LimitExceededException ex) {
+            Assert.assertEquals("magic", ex.getField());
+            Assert.assertEquals(5, ex.getPosition());
+            Assert.assertEquals("Limit of allocated bytes 4 exceeded in field magic at offset 0x5", ex.getMessage());
+        }
+
+        KaitaiStream substream = stream.substream(8);
+        Assert.assertEquals(5, BinaryDataKaitaiStream.elementStart(substream, "items", 1));
+        try {
+            BinaryDataKaitaiStream.elementStart(substream, "items", 2);
+            Assert.fail("Repeat limit not applied");
+        } catch (StreamLimits.LimitExceededException ex) {
+            Assert.assertEquals("items", ex.getField());
+            Assert.assertEquals(5, ex.getPosition());
+        }
+        substream.readU4be();
+        try {
+            substream.readU2be();
+            Assert.fail("Read limit not applied");
+        } catch (StreamLimits.LimitExceededException ex) {
+            Assert.assertEquals("Limit of bytes read 10 exceeded in field items at offset 0x9", ex.getMessage());
+        }
+
+        // Allocation limit applies to each array, not to their total size
+        BinaryDataKaitaiStream arraysStream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), 4);
+        StreamLimits arraysLimits = new StreamLimits(4, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT);
+        arraysStream.setLimits(arraysLimits);
+        for (int i = 0; i < 4; i++) {
+            arraysStream.readBytes(4);
+        }
+        Assert.assertEquals(16, arraysLimits.getAllocatedBytes());
+        Assert.assertEquals(16, arraysLimits.getBytesRead());
+    }
+
+    @Test
+    public void testReadBytesTerm() {
+        for (int windowSize : new int[]{0, 3, BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE}) {
+            BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(new byte[]{1, 2, 3, 4, 5, 0, 6, 7, 0, 8}), windowSize);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, stream.readBytesTerm((byte) 0, false, false, true));
+            Assert.assertEquals(5, stream.pos());
+            Assert.assertArrayEquals(new byte[]{0}, stream.readBytesTerm((byte) 0, true, true, true));
+            Assert.assertArrayEquals(new byte[]{6, 7, 0}, stream.readBytesTerm((byte) 0, true, true, true));
+            Assert.assertEquals(9, stream.pos());
+            Assert.assertArrayEquals(new byte[]{8}, stream.readBytesTerm((byte) 0, false, true, false));
+            Assert.assertTrue(stream.isEof());
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testReadBytesTermMissing() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA));
+        stream.readBytesTerm((byte) 0, false, true, true);
+    }
+
+    @Test
+    public void testReadBytesTermMulti() {
+        byte[] data = new byte[]{9, 1, 0, 2, 0, 0, 5, 0, 0, 3, 0, 0, 0, 4};
+        for (int windowSize : new int[]{0, 3, 4, BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE}) {
+            BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(data), windowSize);
+            stream.seek(1);
+            Assert.assertArrayEquals(new byte[]{1, 0, 2, 0, 0, 5}, stream.readBytesTermMulti(new byte[]{0, 0}, false, false, true));
+            Assert.assertEquals(7, stream.pos());
+            Assert.assertArrayEquals(new byte[]{0, 0}, stream.readBytesTermMulti(new byte[]{0, 0}, true, true, true));
+            Assert.assertArrayEquals(new byte[]{3, 0, 0, 0}, stream.readBytesTermMulti(new byte[]{0, 0}, true, true, true));
+            Assert.assertEquals(13, stream.pos());
+            Assert.assertArrayEquals(new byte[]{4}, stream.readBytesTermMulti(new byte[]{0, 0}, false, true, false));
+            Assert.assertTrue(stream.isEof());
+
+            stream.seek(2);
+            Assert.assertArrayEquals(new byte[]{0, 2, 0, 0, 5, 0, 0, 3}, stream.readBytesTermMulti(new byte[]{0, 0, 0, 4}, false, true, true));
+            Assert.assertTrue(stream.isEof());
+
+            stream.seek(0);
+            Assert.assertArrayEquals(data, stream.readBytesTermMulti(new byte[]{0, 0, 0, 4}, false, true, false));
+        }
+    }
+
+    @Test
+    public void testReadBytesTermChecks() {
+        for (int windowSize : new int[]{0, 3, BinaryDataKaitaiStream.DEFAULT_WINDOW_SIZE}) {
+            BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), windowSize);
+            StreamStatistics statistics = new StreamStatistics();
+            stream.setStatistics(statistics);
+            Assert.assertEquals(10, stream.readBytesTerm((byte) 0x03, false, false, true).length);
+            Assert.assertEquals(11, statistics.getBytesScanned());
+            Assert.assertEquals(6, stream.readBytesTermMulti(new byte[]{0x07, 0x08}, true, true, true).length);
+            Assert.assertEquals(17, statistics.getBytesScanned());
+
+            stream.seek(0);
+            stream.setLimits(new StreamLimits(StreamLimits.NO_LIMIT, 8, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT));
+            try {
+                stream.readBytesTerm((byte) 0, false, true, false);
+                Assert.fail("Read limit not applied to scanning");
+            } catch (StreamLimits.LimitExceededException ex) {
+                // expected
+            }
+
+            stream.seek(0);
+            stream.setLimits(null);
+            StreamCancellation cancellation = new StreamCancellation();
+            stream.setCancellation(cancellation);
+            cancellation.cancel();
+            try {
+                stream.readBytesTermMulti(new byte[]{0, 0}, false, true, false);
+                Assert.fail("Scanning after cancellation");
+            } catch (StreamCancellation.CancelledException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testPositionsBeyondIntRange() {
+        long farPosition = 5L * 1024 * 1024 * 1024 + 3;
+        SparseBinaryData binaryData = new SparseBinaryData(6L * 1024 * 1024 * 1024);
+        binaryData.setByte(farPosition, (byte) 0x12);
+        binaryData.setByte(farPosition + 1, (byte) 0x34);
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(binaryData);
+        stream.seek(farPosition);
+        Assert.assertEquals(0x1234, stream.readU2be());
+        Assert.assertEquals(farPosition + 2, stream.getPosition());
+        Assert.assertEquals(farPosition + 2, BinaryDataKaitaiStream.position(stream));
+        try {
+            stream.pos();
+            Assert.fail("Position beyond integer range expected to fail");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        stream.seek(farPosition - 2);
+        BinaryDataKaitaiStream substream = (BinaryDataKaitaiStream) stream.substream(16);
+        Assert.assertEquals(farPosition - 2, substream.getOffset());
+        Assert.assertEquals(0x00001234L, substream.readU4be());
+        Assert.assertEquals(4, substream.pos());
+    }
+
+    @Test
+    public void testReadBitsIntBe() {
+        checkBits(true);
+    }
+
+    @Test
+    public void testReadBitsIntLe() {
+        checkBits(false);
+    }
+
+    @Test
+    public void testReadBitsAlignAndSeek() {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), 3);
+        Assert.assertEquals(0x4, stream.readBitsIntBe(3));
+        Assert.assertFalse(stream.isEof());
+        stream.alignToByte();
+        Assert.assertEquals(0x82, stream.readU1());
+
+        Assert.assertEquals(0x83, stream.readBitsIntBe(8));
+        Assert.assertEquals(0x04, stream.readBitsIntLe(6));
+        stream.seek(7);
+        Assert.assertEquals(0x88, stream.readBitsIntBe(8));
+        Assert.assertEquals(0x0102L, stream.readBitsIntBe(16));
+
+        stream.seek(8);
+        Assert.assertEquals(0x0, stream.readBitsIntBe(4));
+        BinaryDataKaitaiStream substream = (BinaryDataKaitaiStream) stream.substream(2);
+        Assert.assertEquals(11, stream.pos());
+        Assert.assertEquals(0x0203L, substream.readBitsIntBe(16));
+        Assert.assertTrue(substream.isEof());
+        Assert.assertEquals(0x04, stream.readU1());
+    }
+
+    private void checkBits(boolean bigEndian) {
+        byte[] data = new byte[4000];
+        Random random = new Random(0);
+        random.nextBytes(data);
+        int[] widths = new int[700];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = random.nextInt(64) + 1;
+        }
+
+        ByteArrayEditableData binaryData = new ByteArrayEditableData(data);
+        KaitaiStream[] streams = new KaitaiStream[]{
+            new BinaryDataKaitaiStream(binaryData, 0),
+            new BinaryDataKaitaiStream(binaryData, 3),
+            new BinaryDataKaitaiStream(binaryData),
+            new ByteArrayKaitaiStream(binaryData)
+        };
+        for (KaitaiStream stream : streams) {
+            long bitPosition = 0;
+            for (int width : widths) {
+                long expected = bigEndian ? referenceBitsBe(data, bitPosition, width) : referenceBitsLe(data, bitPosition, width);
+                long actual = bigEndian ? stream.readBitsIntBe(width) : stream.readBitsIntLe(width);
+                Assert.assertEquals("Bits at " + bitPosition + " width " + width, expected, actual);
+                bitPosition += width;
+                Assert.assertEquals((bitPosition + 7) / 8, stream.pos());
+            }
+        }
+    }
+
+    private static long referenceBitsBe(byte[] data, long bitPosition, int width) {
+        long result = 0;
+        for (int i = 0; i < width; i++) {
+            long bit = bitPosition + i;
+            result = result << 1 | ((data[(int) (bit / 8)] >> (7 - (int) (bit % 8))) & 1);
+        }
+        return result;
+    }
+
+    private static long referenceBitsLe(byte[] data, long bitPosition, int width) {
+        long result = 0;
+        for (int i = 0; i < width; i++) {
+            long bit = bitPosition + i;
+            result |= ((long) ((data[(int) (bit / 8)] >> (int) (bit % 8)) & 1)) << i;
+        }
+        return result;
+    }
+
+    private void checkPrimitives(int windowSize) {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(SAMPLE_DATA), windowSize);
+        Assert.assertEquals((byte) 0x81, stream.readS1());
+        Assert.assertEquals(0x82, stream.readU1());
+        Assert.assertEquals(0x8384, stream.readU2be());
+        Assert.assertEquals(0x8685, stream.readU2le());
+        Assert.assertEquals((short) 0x8788, stream.readS2be());
+        Assert.assertEquals(0x04030201L, stream.readU4le());
+        Assert.assertEquals(0x05060708, stream.readS4be());
+        Assert.assertTrue(stream.isEof());
+
+        stream.seek(0);
+        Assert.assertEquals(0x81828384L, stream.readU4be());
+        Assert.assertEquals(0x88878685L, stream.readU4le());
+        Assert.assertEquals(0x0102030405060708L, stream.readS8be());
+
+        stream.seek(0);
+        Assert.assertEquals(0x8887868584838281L, stream.readS8le());
+        Assert.assertEquals((short) 0x0201, stream.readS2le());
+        Assert.assertEquals(0x06050403, stream.readS4le());
+        Assert.assertEquals(14, stream.pos());
+    }
+
+    /**
+     * Sparse binary data of large size with zero content except for few
+     * explicitly set bytes.
+     */
+    public static class SparseBinaryData extends ByteArrayEditableData {
+
+        private final long dataSize;
+        private final Map<Long, Byte> content = new HashMap<>();
+
+        public SparseBinaryData(long dataSize) {
+            this.dataSize = dataSize;
+        }
+
+        @Override
+        public long getDataSize() {
+            return dataSize;
+        }
+
+        @Override
+        public byte getByte(long position) {
+            Byte value = content.get(position);
+            return value == null ? 0 : value;
+        }
+
+        @Override
+        public void setByte(long position, byte value) {
+            content.put(position, value);
+        }
+
+        @Override
+        public void copyToArray(long startFrom, byte[] target, int offset, int length) {
+            if (startFrom < 0 || startFrom + length > dataSize) {
+                throw new IndexOutOfBoundsException();
+            }
+            for (int i = 0; i < length; i++) {
+                target[offset + i] = getByte(startFrom + i);
+            }
+        }
+    }
+}
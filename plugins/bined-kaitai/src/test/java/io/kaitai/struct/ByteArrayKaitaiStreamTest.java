@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for ByteArrayKaitaiStream.
+ */
+public class ByteArrayKaitaiStreamTest {
+
+    @Test
+    public void testReads() {
+        byte[] data = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 0, 9, 10, 11};
+        ByteArrayKaitaiStream stream = new ByteArrayKaitaiStream(new ByteArrayEditableData(data));
+        Assert.assertEquals(0x0201, stream.readU2le());
+        Assert.assertEquals(0x03040506L, stream.readU4be());
+        Assert.assertArrayEquals(new byte[]{7, 8}, stream.readBytesTerm((byte) 0, false, true, true));
+
+        stream.seek(2);
+        KaitaiStream substream = stream.substream(8);
+        Assert.assertEquals(10, stream.pos());
+        Assert.assertEquals(0x06050403, substream.readS4le());
+        Assert.assertArrayEquals(new byte[]{7, 8, 0, 9}, substream.readBytesFull());
+        Assert.assertEquals(0x0a0b, stream.readU2be());
+    }
+
+    @Test
+    public void testSeekBeyondEndKeepsData() {
+        byte[] data = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        ByteArrayKaitaiStream stream = new ByteArrayKaitaiStream(new ByteArrayEditableData(data));
+        stream.seek(100);
+        try {
+            stream.readU1();
+            Assert.fail("Read beyond end expected to fail");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        stream.seek(5);
+        KaitaiStream substream = stream.substream(3);
+        substream.seek(1);
+        Assert.assertEquals(0x0708, substream.readU2be());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, data);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for MappedFileKaitaiStream.
+ */
+public class MappedFileKaitaiStreamTest {
+
+    @Test
+    public void testPrimitives() throws IOException {
+        File file = createFile(16, 0, new byte[]{
+            (byte) 0x81, (byte) 0x82, (byte) 0x83, (byte) 0x84, (byte) 0x85, (byte) 0x86, (byte) 0x87, (byte) 0x88,
+            0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08
+        });
+        try {
+            MappedFileKaitaiStream stream = new MappedFileKaitaiStream(file);
+            Assert.assertEquals(16, stream.size());
+            Assert.assertEquals(0x81, stream.readU1());
+            Assert.assertEquals(0x8382, stream.readU2le());
+            Assert.assertEquals(0x84858687L, stream.readU4be());
+            Assert.assertEquals((byte) 0x88, stream.readS1());
+            Assert.assertEquals(0x0807060504030201L, stream.readS8le());
+            Assert.assertTrue(stream.isEof());
+
+            stream.seek(4);
+            KaitaiStream substream = stream.substream(8);
+            Assert.assertEquals(12, stream.pos());
+            Assert.assertArrayEquals(new byte[]{(byte) 0x85, (byte) 0x86}, substream.readBytes(2));
+            Assert.assertArrayEquals(new byte[]{(byte) 0x87, (byte) 0x88, 0x01, 0x02}, substream.readBytesTerm((byte) 0x03, false, true, true));
+            Assert.assertArrayEquals(new byte[]{0x04}, substream.readBytesFull());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadAcrossSegments() throws IOException {
+        long position = MappedFileKaitaiStream.SEGMENT_SIZE - 4;
+        File file = createFile(MappedFileKaitaiStream.SEGMENT_SIZE + 16L, position, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 0});
+        try {
+            MappedFileKaitaiStream stream = new MappedFileKaitaiStream(file);
+            stream.seek(position);
+            Assert.assertEquals(0x0102030405060708L, stream.readS8be());
+            stream.seek(position + 2);
+            Assert.assertEquals(0x06050403, stream.readS4le());
+            stream.seek(position);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, stream.readBytesTerm((byte) 0, false, true, true));
+            Assert.assertEquals(position + 9, stream.getPosition());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadBytesTermChecks() throws IOException {
+        File file = createFile(16, 0, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        try {
+            MappedFileKaitaiStream stream = new MappedFileKaitaiStream(file);
+            StreamStatistics statistics = new StreamStatistics();
+            stream.setStatistics(statistics);
+            Assert.assertArrayEquals(new byte[]{1, 2}, stream.readBytesTerm((byte) 3, false, true, true));
+            Assert.assertEquals(3, statistics.getBytesScanned());
+            Assert.assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 0}, stream.readBytesTermMulti(new byte[]{8, 0}, true, false, true));
+            Assert.assertEquals(9, statistics.getBytesScanned());
+
+            stream.seek(0);
+            stream.setLimits(new StreamLimits(StreamLimits.NO_LIMIT, 8, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT));
+            try {
+                stream.readBytesTerm((byte) 9, false, true, false);
+                Assert.fail("Read limit not applied to scanning");
+            } catch (StreamLimits.LimitExceededException ex) {
+                // expected
+            }
+
+            stream.seek(0);
+            stream.setLimits(null);
+            StreamCancellation cancellation = new StreamCancellation();
+            stream.setCancellation(cancellation);
+            cancellation.cancel();
+            try {
+                stream.readBytesTermMulti(new byte[]{9, 9}, false, true, false);
+                Assert.fail("Scanning after cancellation");
+            } catch (StreamCancellation.CancelledException ex) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        File file = createFile(16, 0, new byte[]{1, 2, 3, 4});
+        try {
+            MappedFileKaitaiStream stream = new MappedFileKaitaiStream(file);
+            KaitaiStream substream = stream.substream(8);
+            // Closing of the substream keeps file mapped
+            substream.close();
+            Assert.assertEquals(0x01020304, substream.readS4be());
+
+            stream.close();
+            try {
+                stream.readU1();
+                Assert.fail("Read after close");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+            try {
+                substream.readBytes(2);
+                Assert.fail("Substream read after close");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File createFile(long length, long position, byte[] data) throws IOException {
+        File file = File.createTempFile("kaitai", ".bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(length);
+            randomAccessFile.seek(position);
+            randomAccessFile.write(data);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.kaitai.struct;
+
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for StreamStatistics.
+ */
+public class StreamStatisticsTest {
+
+    @Test
+    public void testSequentialReads() {
+        BinaryDataKaitaiStream stream = createStream(64);
+        StreamStatistics statistics = stream.getStatistics();
+        stream.readU4be();
+        stream.readU2le();
+        stream.readBytes(10);
+        stream.readBitsIntBe(12);
+        stream.readU1();
+
+        Assert.assertEquals(19, statistics.getBytesRead());
+        Assert.assertEquals(19, statistics.getDistinctBytesRead());
+        Assert.assertEquals(4, statistics.getPrimitiveReads());
+        Assert.assertEquals(10, statistics.getBytesCopied());
+        Assert.assertEquals(0, statistics.getLargestRereadSpan());
+        Assert.assertEquals(1.0, statistics.getReadAmplification(), 0.0);
+    }
+
+    @Test
+    public void testRereadAfterBackwardSeek() {
+        BinaryDataKaitaiStream stream = createStream(64);
+        StreamStatistics statistics = stream.getStatistics();
+        stream.readBytes(32);
+        stream.seek(40);
+        stream.readU4le();
+        stream.seek(8);
+        for (int i = 0; i < 6; i++) {
+            stream.readU2be();
+        }
+        stream.seek(30);
+        stream.readU4be();
+
+        Assert.assertEquals(3, statistics.getSeeks());
+        Assert.assertEquals(1, statistics.getBackwardSeeks());
+        Assert.assertEquals(52, statistics.getBytesRead());
+        Assert.assertEquals(38, statistics.getDistinctBytesRead());
+        Assert.assertEquals(12, statistics.getLargestRereadSpan());
+        Assert.assertEquals(52.0 / 38, statistics.getReadAmplification(), 0.0001);
+    }
+
+    @Test
+    public void testSubstreamsShareStatistics() {
+        BinaryDataKaitaiStream stream = createStream(64);
+        StreamStatistics statistics = stream.getStatistics();
+        stream.readU4be();
+        KaitaiStream substream = stream.substream(16);
+        substream.readU4be();
+        substream.seek(0);
+        substream.readU8le();
+        stream.readU4be();
+
+        Assert.assertEquals(20, statistics.getBytesRead());
+        Assert.assertEquals(16, statistics.getDistinctBytesRead());
+        Assert.assertEquals(1, statistics.getBackwardSeeks());
+        Assert.assertEquals(4, statistics.getLargestRereadSpan());
+    }
+
+    private static BinaryDataKaitaiStream createStream(int size) {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new ByteArrayEditableData(new byte[size]), 16);
+        stream.setStatistics(new StreamStatistics());
+        return stream;
+    }
+}
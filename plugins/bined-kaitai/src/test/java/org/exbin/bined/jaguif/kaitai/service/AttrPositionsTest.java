@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.BinaryDataKaitaiStream;
+import io.kaitai.struct.BinaryDataKaitaiStreamTest;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for AttrPositions.
+ */
+public class AttrPositionsTest {
+
+    @Test
+    public void testPositionsInSubstreamBeyondIntRange() throws Exception {
+        long structPosition = 3L * 1024 * 1024 * 1024 + 17;
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new BinaryDataKaitaiStreamTest.SparseBinaryData(4L * 1024 * 1024 * 1024));
+        stream.seek(structPosition);
+        KaitaiStream substream = stream.substream(100);
+        SampleStruct struct = new SampleStruct(substream);
+        substream.seek(4);
+        struct._attrStart.put("field", BinaryDataKaitaiStream.fieldStart(substream, "field"));
+        substream.seek(8);
+        struct._attrEnd.put("field", BinaryDataKaitaiStream.absolutePosition(substream));
+        ArrayList<Long> arrStart = new ArrayList<>();
+        arrStart.add(BinaryDataKaitaiStream.elementStart(substream, "items", 0));
+        substream.seek(12);
+        arrStart.add(BinaryDataKaitaiStream.elementStart(substream, "items", 1));
+        struct._arrStart.put("items", arrStart);
+
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertEquals(Long.valueOf(structPosition + 4), positions.getStart("field"));
+        Assert.assertEquals(Long.valueOf(structPosition + 8), positions.getEnd("field"));
+        Assert.assertEquals(Long.valueOf(structPosition + 12), positions.getStart("items", 1));
+        Assert.assertNull(positions.getEnd("items", 1));
+        Assert.assertNull(positions.getStart("missing"));
+    }
+
+    @Test
+    public void testPositionsOfInstanceInParentStream() throws Exception {
+        BinaryDataKaitaiStream stream = new BinaryDataKaitaiStream(new BinaryDataKaitaiStreamTest.SparseBinaryData(200));
+        stream.seek(100);
+        KaitaiStream substream = stream.substream(50);
+        SampleStruct struct = new SampleStruct(substream);
+        substream.seek(2);
+        struct._attrStart.put("field", BinaryDataKaitaiStream.fieldStart(substream, "field"));
+
+        // Instance reads using stream of the root structure
+        long savedPosition = BinaryDataKaitaiStream.position(stream);
+        stream.seek(10);
+        struct._attrStart.put("instance", BinaryDataKaitaiStream.fieldStart(stream, "instance"));
+        stream.readU4le();
+        struct._attrEnd.put("instance", BinaryDataKaitaiStream.absolutePosition(stream));
+        stream.seek(savedPosition);
+
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertEquals(Long.valueOf(102), positions.getStart("field"));
+        Assert.assertEquals(Long.valueOf(10), positions.getStart("instance"));
+        Assert.assertEquals(Long.valueOf(14), positions.getEnd("instance"));
+    }
+
+    @Test
+    public void testIncompleteAttributes() throws Exception {
+        SampleStruct struct = new SampleStruct(new BinaryDataKaitaiStream(new BinaryDataKaitaiStreamTest.SparseBinaryData(100)));
+        struct._attrStart.put("field", 4L);
+        struct._attrEnd.put("field", 8L);
+        struct._attrStart.put("items", 8L);
+        ArrayList<Long> arrStart = new ArrayList<>();
+        arrStart.add(8L);
+        arrStart.add(12L);
+        struct._arrStart.put("items", arrStart);
+        ArrayList<Long> arrEnd = new ArrayList<>();
+        arrEnd.add(12L);
+        struct._arrEnd.put("items", arrEnd);
+
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertFalse(positions.isIncomplete("field"));
+        Assert.assertTrue(positions.isIncomplete("items"));
+        Assert.assertFalse(positions.isIncomplete("missing"));
+        Assert.assertEquals(1, positions.getIncompleteIndex("items"));
+        Assert.assertEquals(-1, positions.getIncompleteIndex("field"));
+    }
+
+    @Test
+    public void testPartialStructOfCompiledParser() throws Exception {
+        KaitaiParser parser = new KaitaiParser(new DefinitionRecord("Sample", "sample.ksy", new File("sample.ksy").toURI()), StructAccessorTest.SampleStruct.class, BinaryDataKaitaiStream.class, Collections.emptyList());
+        KaitaiParser.ParsingResult result = parser.parse(new ByteArrayEditableData(new byte[0]));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.isPartial());
+        Assert.assertTrue(result.getStruct() instanceof StructAccessorTest.SampleStruct);
+        Assert.assertTrue(AttrPositions.fromStruct(result.getStruct()).isIncomplete("magic"));
+    }
+
+    public static class SampleStruct extends KaitaiStruct {
+
+        public Map<String, Long> _attrStart = new HashMap<>();
+        public Map<String, Long> _attrEnd = new HashMap<>();
+        public Map<String, ArrayList<Long>> _arrStart = new HashMap<>();
+        public Map<String, ArrayList<Long>> _arrEnd = new HashMap<>();
+
+        public SampleStruct(KaitaiStream _io) {
+            super(_io);
+        }
+    }
+}
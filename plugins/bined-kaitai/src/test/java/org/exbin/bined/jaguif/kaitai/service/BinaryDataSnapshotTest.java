@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for BinaryDataSnapshot.
+ */
+public class BinaryDataSnapshotTest {
+
+    @Test
+    public void testPendingSnapshot() throws Exception {
+        ByteArrayEditableData liveData = new ByteArrayEditableData(new byte[]{1, 2, 3});
+        AtomicLong revision = new AtomicLong(5);
+        BinaryDataSnapshot.Pending pendingSnapshot = BinaryDataSnapshot.pending(liveData, revision.get(), revision::get);
+
+        BinaryDataSnapshot snapshot = pendingSnapshot.resolve();
+        Assert.assertEquals(5, snapshot.getRevision());
+        liveData.setByte(0, (byte) 9);
+        Assert.assertEquals(1, snapshot.getData().getByte(0));
+        snapshot.dispose();
+    }
+
+    @Test
+    public void testDataModifiedBeforeCopying() throws Exception {
+        ByteArrayEditableData liveData = new ByteArrayEditableData(new byte[]{1, 2, 3});
+        AtomicLong revision = new AtomicLong(5);
+        BinaryDataSnapshot.Pending pendingSnapshot = BinaryDataSnapshot.pending(liveData, revision.get(), revision::get);
+        liveData.setByte(0, (byte) 9);
+        revision.incrementAndGet();
+
+        // Data are copied again and tagged with current revision
+        BinaryDataSnapshot snapshot = pendingSnapshot.resolve();
+        Assert.assertEquals(6, snapshot.getRevision());
+        Assert.assertEquals(9, snapshot.getData().getByte(0));
+        snapshot.dispose();
+    }
+
+    @Test
+    public void testSharedSnapshot() throws Exception {
+        ByteArrayEditableData liveData = new ByteArrayEditableData(new byte[]{1, 2, 3});
+        BinaryDataSnapshot snapshot = BinaryDataSnapshot.create(liveData, 5);
+        BinaryDataSnapshot sharedSnapshot = snapshot.share();
+        Assert.assertSame(snapshot.getData(), sharedSnapshot.getData());
+        Assert.assertEquals(5, sharedSnapshot.getRevision());
+
+        // Data are kept while shared snapshot is in use
+        snapshot.dispose();
+        snapshot.dispose();
+        Assert.assertEquals(3, sharedSnapshot.getData().getDataSize());
+        Assert.assertEquals(1, sharedSnapshot.getData().getByte(0));
+        sharedSnapshot.dispose();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.tools.ToolProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for CompiledParserCache.
+ */
+public class CompiledParserCacheTest {
+
+    @Test
+    public void testStoreAndLoadCompiledClasses() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("test.Sample", "package test;\n"
+                + "public class Sample {\n"
+                + "    public static String getValue() { return new Nested().toString(); }\n"
+                + "    static class Nested { public String toString() { return \"nested\"; } }\n"
+                + "}\n");
+        JavaSourceCompiler compiler = new JavaSourceCompiler(ToolProvider.getSystemJavaCompiler());
+        Map<String, byte[]> classes = compiler.compile(sources);
+        Assert.assertEquals(2, classes.size());
+
+        File directory = createCacheDirectory();
+        CompiledParserCache cache = new CompiledParserCache(directory);
+        cache.store("sample", new CompiledDefinition(classes, Arrays.asList("first", "second")));
+
+        CompiledDefinition definition = new CompiledParserCache(directory).load("sample");
+        Assert.assertNotNull(definition);
+        Assert.assertEquals(Arrays.asList("first", "second"), definition.getParamNames());
+        ClassLoader classLoader = new BytecodeClassLoader(getClass().getClassLoader(), definition.getClasses());
+        Class<?> sampleClass = classLoader.loadClass("test.Sample");
+        Assert.assertEquals("nested", sampleClass.getMethod("getValue").invoke(null));
+        Assert.assertNull(cache.load("missing"));
+        cache.clear();
+    }
+
+    @Test
+    public void testEvictBySize() throws IOException {
+        CompiledParserCache cache = new CompiledParserCache(createCacheDirectory());
+        cache.setMaxSize(3000);
+        CompiledDefinition definition = new CompiledDefinition(Collections.singletonMap("test.Data", new byte[1000]), Collections.emptyList());
+        cache.store("first", definition);
+        cache.store("second", definition);
+        new File(cache.getDirectory(), "first.ksyc").setLastModified(System.currentTimeMillis() - 60000);
+        cache.store("third", definition);
+
+        Assert.assertNull(cache.load("first"));
+        Assert.assertNotNull(cache.load("second"));
+        Assert.assertNotNull(cache.load("third"));
+        cache.clear();
+    }
+
+    @Test
+    public void testEvictByAge() throws IOException {
+        CompiledParserCache cache = new CompiledParserCache(createCacheDirectory());
+        cache.setMaxAge(30000);
+        CompiledDefinition definition = new CompiledDefinition(Collections.singletonMap("test.Data", new byte[10]), Collections.emptyList());
+        cache.store("old", definition);
+        new File(cache.getDirectory(), "old.ksyc").setLastModified(System.currentTimeMillis() - 60000);
+        cache.store("recent", definition);
+
+        Assert.assertNull(cache.load("old"));
+        Assert.assertNotNull(cache.load("recent"));
+        cache.clear();
+    }
+
+    private static File createCacheDirectory() throws IOException {
+        File directory = Files.createTempDirectory("kaitai-cache").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for DefinitionBatchCompiler.
+ */
+public class DefinitionBatchCompilerTest {
+
+    @Test
+    public void testCompileAll() throws Exception {
+        List<DefinitionRecord> definitions = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            definitions.add(createDefinition("meta:\n  id: sample_" + i + "\n"));
+        }
+        DefinitionRecord brokenDefinition = createDefinition("broken");
+        definitions.add(brokenDefinition);
+        // Duplicates are compiled once
+        definitions.add(definitions.get(0));
+
+        SlowCompiler compiler = new SlowCompiler(new CountDownLatch(0));
+        DefinitionBatchCompiler batchCompiler = new DefinitionBatchCompiler(compiler);
+        batchCompiler.setParallelism(3);
+        RecordingListener listener = new RecordingListener();
+        DefinitionBatchCompiler.Batch batch = batchCompiler.compileAll(definitions, listener);
+        batch.getCompletion().get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(13, batch.getTotalCount());
+        Assert.assertEquals(13, batch.getCompletedCount());
+        Assert.assertEquals(1, batch.getFailedCount());
+        Assert.assertEquals(13, listener.results.size());
+        Assert.assertEquals(13, listener.lastCompletedCount.get());
+        Assert.assertEquals(1, listener.finishedFailedCount.get());
+        Assert.assertEquals(SlowCompiler.ERROR_MESSAGE, listener.results.get(brokenDefinition));
+        Assert.assertEquals("", listener.results.get(definitions.get(0)));
+        Assert.assertEquals(13, compiler.compilations.get());
+        Assert.assertTrue("Concurrent compilations: " + compiler.maxConcurrent.get(), compiler.maxConcurrent.get() <= 3);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        List<DefinitionRecord> definitions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            definitions.add(createDefinition("meta:\n  id: sample_" + i + "\n"));
+        }
+        CountDownLatch release = new CountDownLatch(1);
+        SlowCompiler compiler = new SlowCompiler(release);
+        DefinitionBatchCompiler batchCompiler = new DefinitionBatchCompiler(compiler);
+        batchCompiler.setParallelism(1);
+        RecordingListener listener = new RecordingListener();
+        DefinitionBatchCompiler.Batch batch = batchCompiler.compileAll(definitions, listener);
+        batch.cancel();
+        release.countDown();
+        batch.getCompletion().get(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(batch.isCancelled());
+        Assert.assertTrue(listener.finishedCancelled);
+        Assert.assertTrue("Compilations: " + compiler.compilations.get(), compiler.compilations.get() <= 1);
+        Assert.assertEquals(compiler.compilations.get(), batch.getCompletedCount());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        DefinitionBatchCompiler batchCompiler = new DefinitionBatchCompiler(new SlowCompiler(new CountDownLatch(0)));
+        RecordingListener listener = new RecordingListener();
+        DefinitionBatchCompiler.Batch batch = batchCompiler.compileAll(Collections.emptyList(), listener);
+        Assert.assertTrue(batch.isDone());
+        Assert.assertEquals(0, listener.finishedFailedCount.get());
+    }
+
+    private static DefinitionRecord createDefinition(String content) throws IOException {
+        File file = File.createTempFile("sample", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new DefinitionRecord("Sample", file.getName(), file.toURI());
+    }
+
+    private static class RecordingListener implements DefinitionBatchCompiler.ProgressListener {
+
+        private final Map<DefinitionRecord, String> results = new ConcurrentHashMap<>();
+        private final AtomicInteger lastCompletedCount = new AtomicInteger();
+        private final AtomicInteger finishedFailedCount = new AtomicInteger(-1);
+        private volatile boolean finishedCancelled = false;
+
+        @Override
+        public void definitionCompiled(DefinitionRecord definition, String errorMessage, int completedCount, int totalCount) {
+            results.put(definition, errorMessage == null ? "" : errorMessage);
+            lastCompletedCount.accumulateAndGet(completedCount, Math::max);
+        }
+
+        @Override
+        public void batchFinished(int failedCount, boolean cancelled) {
+            finishedFailedCount.set(failedCount);
+            finishedCancelled = cancelled;
+        }
+    }
+
+    private static class SlowCompiler extends KaitaiCompiler {
+
+        private static final String ERROR_MESSAGE = "Invalid definition";
+
+        private final CountDownLatch release;
+        private final AtomicInteger compilations = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        public SlowCompiler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public String compileToCache(DefinitionRecord definitionRecord) {
+            compilations.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                release.await();
+                Thread.sleep(20);
+                if ("broken".equals(new String(readContent(definitionRecord.getUri()), StandardCharsets.UTF_8))) {
+                    return ERROR_MESSAGE;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.BinaryDataKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.jspecify.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for DefinitionLiveCompiler.
+ */
+public class DefinitionLiveCompilerTest {
+
+    @Test
+    public void testOnlyLatestSourceIsReported() throws Exception {
+        TestCompiler compiler = new TestCompiler(null);
+        RecordingListener listener = new RecordingListener(1);
+        DefinitionLiveCompiler liveCompiler = createLiveCompiler(compiler, listener);
+
+        SwingUtilities.invokeAndWait(() -> {
+            liveCompiler.sourceChanged("first");
+            liveCompiler.sourceChanged("second");
+            liveCompiler.sourceChanged("third");
+        });
+
+        Assert.assertTrue(listener.await());
+        Thread.sleep(200);
+        Assert.assertEquals(1, compiler.compilations.get());
+        Assert.assertEquals(1, listener.messages.size());
+        Assert.assertEquals("third", listener.messages.get(0));
+        liveCompiler.dispose();
+    }
+
+    @Test
+    public void testSupersededCompilationIsCancelled() throws Exception {
+        CountDownLatch compileStarted = new CountDownLatch(1);
+        TestCompiler compiler = new TestCompiler(compileStarted);
+        RecordingListener listener = new RecordingListener(1);
+        DefinitionLiveCompiler liveCompiler = createLiveCompiler(compiler, listener);
+
+        SwingUtilities.invokeAndWait(() -> liveCompiler.sourceChanged("slow"));
+        Assert.assertTrue(compileStarted.await(10, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(() -> liveCompiler.sourceChanged("fast"));
+
+        Assert.assertTrue(listener.await());
+        Thread.sleep(200);
+        Assert.assertEquals(1, compiler.interruptions.get());
+        Assert.assertEquals(1, listener.messages.size());
+        Assert.assertEquals("fast", listener.messages.get(0));
+        liveCompiler.dispose();
+    }
+
+    @Test
+    public void testSupersededParsingIsCancelled() throws Exception {
+        LoopingStruct.readStarted = new CountDownLatch(1);
+        TestCompiler compiler = new TestCompiler(null);
+        RecordingListener listener = new RecordingListener(1);
+        DefinitionLiveCompiler liveCompiler = createLiveCompiler(compiler, listener);
+        liveCompiler.setParsingLimits(ParsingLimits.UNLIMITED);
+        liveCompiler.setSnapshotSupplier(() -> BinaryDataSnapshot.pending(new ByteArrayEditableData(new byte[]{1}), 0, () -> 0));
+
+        SwingUtilities.invokeAndWait(() -> liveCompiler.sourceChanged("looping"));
+        Assert.assertTrue(LoopingStruct.readStarted.await(10, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(() -> liveCompiler.sourceChanged("fast"));
+
+        // Parsing never finishes unless cancelled
+        Assert.assertTrue(listener.await());
+        Assert.assertEquals(1, listener.messages.size());
+        Assert.assertEquals("fast", listener.messages.get(0));
+        liveCompiler.dispose();
+    }
+
+    private static DefinitionLiveCompiler createLiveCompiler(KaitaiCompiler compiler, DefinitionLiveCompiler.Listener listener) {
+        File file = new File("live.ksy");
+        DefinitionLiveCompiler liveCompiler = new DefinitionLiveCompiler(new DefinitionRecord("Live", file.getName(), file.toURI()), compiler);
+        liveCompiler.setDelay(50);
+        liveCompiler.setListener(listener);
+        return liveCompiler;
+    }
+
+    /**
+     * Compiler reporting compiled source as error message.
+     */
+    private static class TestCompiler extends KaitaiCompiler {
+
+        private final CountDownLatch blockingStarted;
+        private final AtomicInteger compilations = new AtomicInteger();
+        private final AtomicInteger interruptions = new AtomicInteger();
+
+        public TestCompiler(@Nullable CountDownLatch blockingStarted) {
+            this.blockingStarted = blockingStarted;
+        }
+
+        @Override
+        public CompileResult compileDefinition(DefinitionRecord definitionRecord, byte[] content) {
+            compilations.incrementAndGet();
+            String source = new String(content, StandardCharsets.UTF_8);
+            if ("looping".equals(source)) {
+                return new CompileResult(new KaitaiParser(definitionRecord, LoopingStruct.class, BinaryDataKaitaiStream.class, Collections.<String>emptyList()));
+            }
+            if (blockingStarted != null && "slow".equals(source)) {
+                blockingStarted.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException ex) {
+                    interruptions.incrementAndGet();
+                }
+            }
+            return new CompileResult(source);
+        }
+    }
+
+    /**
+     * Structure reading its data repeatedly until reading fails.
+     */
+    public static class LoopingStruct extends KaitaiStruct.ReadOnly {
+
+        private static volatile CountDownLatch readStarted;
+
+        public LoopingStruct(KaitaiStream _io, KaitaiStruct.ReadOnly _parent, LoopingStruct _root) {
+            super(_io);
+        }
+
+        @Override
+        public void _read() {
+            readStarted.countDown();
+            while (true) {
+                _io.seek(0);
+                _io.readU1();
+            }
+        }
+    }
+
+    private static class RecordingListener implements DefinitionLiveCompiler.Listener {
+
+        private final CountDownLatch reported;
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        public RecordingListener(int expectedReports) {
+            reported = new CountDownLatch(expectedReports);
+        }
+
+        @Override
+        public void processingStarted() {
+        }
+
+        @Override
+        public void compiled(KaitaiParser parser, KaitaiParser.@Nullable ParsingResult parsingResult, @Nullable BinaryDataSnapshot snapshot) {
+            messages.add("compiled");
+            reported.countDown();
+        }
+
+        @Override
+        public void compilationFailed(String errorMessage) {
+            messages.add(errorMessage);
+            reported.countDown();
+        }
+
+        public boolean await() throws InterruptedException {
+            return reported.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for KaitaiCompiler.
+ */
+public class KaitaiCompilerTest {
+
+    @Test
+    public void testWidenPositions() {
+        String javaSrc = "    public Map<String, Integer> _attrStart = new HashMap<String, Integer>();\n"
+                + "    private ArrayList<Integer> values;\n"
+                + "        _attrStart.put(\"magic\", this._io.pos());\n"
+                + "            ArrayList<Integer> _posList = _arrStart.get(\"values\");\n"
+                + "            _posList.add(this._io.pos());\n"
+                + "        long _pos = this._io.pos();\n";
+        String expectedSrc = "    public Map<String, Long> _attrStart = new HashMap<String, Long>();\n"
+                + "    private ArrayList<Integer> values;\n"
+                + "        _attrStart.put(\"magic\", io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "            ArrayList<Long> _posList = _arrStart.get(\"values\");\n"
+                + "            _posList.add(io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "        long _pos = io.kaitai.struct.BinaryDataKaitaiStream.position(this._io);\n";
+        Assert.assertEquals(expectedSrc, KaitaiCompiler.widenPositions(javaSrc));
+    }
+
+    @Test
+    public void testGuardLimits() {
+        String javaSrc = "        _attrStart.put(\"magic\", io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "            {\n"
+                + "                ArrayList<Long> _posList = _arrStart.get(\"values\");\n"
+                + "                if (_posList == null) {\n"
+                + "                    _posList = new ArrayList<Long>();\n"
+                + "                    _arrStart.put(\"values\", _posList);\n"
+                + "                }\n"
+                + "                _posList.add(io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "            }\n"
+                + "            {\n"
+                + "                ArrayList<Long> _posList = _arrEnd.get(\"values\");\n"
+                + "                if (_posList == null) {\n"
+                + "                    _posList = new ArrayList<Long>();\n"
+                + "                    _arrEnd.put(\"values\", _posList);\n"
+                + "                }\n"
+                + "                _posList.add(io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "            }\n"
+                + "        this.header._read();\n"
+                + "                ((Sample.Body) (this.body))._read();\n"
+                + "    public void _read() {\n";
+        String expectedSrc = "        _attrStart.put(\"magic\", io.kaitai.struct.BinaryDataKaitaiStream.fieldStart(this._io, \"magic\"));\n"
+                + "            {\n"
+                + "                ArrayList<Long> _posList = _arrStart.get(\"values\");\n"
+                + "                if (_posList == null) {\n"
+                + "                    _posList = new ArrayList<Long>();\n"
+                + "                    _arrStart.put(\"values\", _posList);\n"
+                + "                }\n"
+                + "                _posList.add(io.kaitai.struct.BinaryDataKaitaiStream.elementStart(this._io, \"values\", _posList.size()));\n"
+                + "            }\n"
+                + "            {\n"
+                + "                ArrayList<Long> _posList = _arrEnd.get(\"values\");\n"
+                + "                if (_posList == null) {\n"
+                + "                    _posList = new ArrayList<Long>();\n"
+                + "                    _arrEnd.put(\"values\", _posList);\n"
+                + "                }\n"
+                + "                _posList.add(io.kaitai.struct.BinaryDataKaitaiStream.absolutePosition(this._io));\n"
+                + "            }\n"
+                + "        io.kaitai.struct.BinaryDataKaitaiStream.readNested(this._io, this.header);\n"
+                + "                io.kaitai.struct.BinaryDataKaitaiStream.readNested(this._io, ((Sample.Body) (this.body)));\n"
+                + "    public void _read() {\n";
+        Assert.assertEquals(expectedSrc, KaitaiCompiler.guardLimits(javaSrc));
+    }
+
+    @Test
+    public void testCompiledParserEnforcesLimits() throws Exception {
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setPrecompiledDefinitions(null);
+
+        File repeatFile = File.createTempFile("repeated_", ".ksy");
+        writeDefinition(repeatFile, "meta:\n"
+                + "  id: repeated\n"
+                + "seq:\n"
+                + "  - id: header\n"
+                + "    type: u1\n"
+                + "    repeat: until\n"
+                + "    repeat-until: _ == 0\n"
+                + "  - id: items\n"
+                + "    type: u1\n"
+                + "    repeat: eos\n");
+        KaitaiCompiler.CompileResult repeatResult = compiler.compileDefinition(new DefinitionRecord("Repeated", repeatFile.getName(), repeatFile.toURI()));
+        Assert.assertNull(repeatResult.getErrorMessage(), repeatResult.getErrorMessage());
+        KaitaiParser repeatParser = repeatResult.getParser();
+        repeatParser.setLimits(new ParsingLimits(0, 0, 10, 0, 0));
+        byte[] data = new byte[64];
+        Arrays.fill(data, (byte) 1);
+        // Elements of repeat-until field exceed the limit
+        assertLimitExceeded("repeat elements", "header", repeatParser.parse(new ByteArrayEditableData(data)));
+        data[5] = 0;
+        // Elements of repeat-eos field exceed the limit
+        assertLimitExceeded("repeat elements", "items", repeatParser.parse(new ByteArrayEditableData(data)));
+        repeatParser.setLimits(new ParsingLimits(0, 0, 100, 0, 0));
+        KaitaiParser.ParsingResult repeatParsingResult = repeatParser.parse(new ByteArrayEditableData(data));
+        Assert.assertNull(repeatParsingResult.getErrorMessage(), repeatParsingResult.getErrorMessage());
+
+        File nestedFile = File.createTempFile("nested_", ".ksy");
+        writeDefinition(nestedFile, "meta:\n"
+                + "  id: nested\n"
+                + "seq:\n"
+                + "  - id: kind\n"
+                + "    type: u1\n"
+                + "  - id: child\n"
+                + "    type:\n"
+                + "      switch-on: kind\n"
+                + "      cases:\n"
+                + "        1: nested\n"
+                + "        2: leaf\n"
+                + "types:\n"
+                + "  leaf:\n"
+                + "    seq:\n"
+                + "      - id: value\n"
+                + "        type: u1\n");
+        KaitaiCompiler.CompileResult nestedResult = compiler.compileDefinition(new DefinitionRecord("Nested", nestedFile.getName(), nestedFile.toURI()));
+        Assert.assertNull(nestedResult.getErrorMessage(), nestedResult.getErrorMessage());
+        KaitaiParser nestedParser = nestedResult.getParser();
+        nestedParser.setLimits(new ParsingLimits(0, 0, 0, 16, 0));
+        Arrays.fill(data, (byte) 1);
+        // Recursion through switch type exceeds the depth
+        assertLimitExceeded("nesting depth", "child", nestedParser.parse(new ByteArrayEditableData(data)));
+        data[8] = 2;
+        KaitaiParser.ParsingResult nestedParsingResult = nestedParser.parse(new ByteArrayEditableData(data));
+        Assert.assertNull(nestedParsingResult.getErrorMessage(), nestedParsingResult.getErrorMessage());
+    }
+
+    @Test
+    public void testWarmUp() {
+        Assert.assertTrue(KaitaiCompiler.warmUp());
+    }
+
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+        int definitionsCount = 50;
+        List<DefinitionRecord> definitions = new ArrayList<>();
+        for (int i = 0; i < definitionsCount; i++) {
+            definitions.add(createDefinition(i));
+        }
+
+        final KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<KaitaiCompiler.CompileResult>> results = new ArrayList<>();
+            for (DefinitionRecord definition : definitions) {
+                results.add(executor.submit(() -> compiler.compileDefinition(definition)));
+            }
+
+            for (int i = 0; i < definitionsCount; i++) {
+                KaitaiCompiler.CompileResult result = results.get(i).get(5, TimeUnit.MINUTES);
+                Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+                KaitaiParser parser = result.getParser();
+                Assert.assertEquals(definitions.get(i), parser.getDefinitionRecord());
+
+                byte[] data = new byte[]{(byte) i, (byte) (i >> 8), 1, 2, 3, 4, 5};
+                KaitaiParser.ParsingResult parsingResult = parser.parse(new ByteArrayEditableData(data));
+                Assert.assertNull(parsingResult.getErrorMessage(), parsingResult.getErrorMessage());
+                Object struct = parsingResult.getStruct();
+                Assert.assertEquals(i, ((Number) struct.getClass().getMethod("value").invoke(struct)).intValue());
+                Assert.assertEquals(i % 5 + 1, ((List<?>) struct.getClass().getMethod("items").invoke(struct)).size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompileWithImports() throws Exception {
+        File directory = Files.createTempDirectory("kaitai-imports").toFile();
+        directory.deleteOnExit();
+        writeDefinition(new File(directory, "lib/counter.ksy"), "meta:\n"
+                + "  id: counter\n"
+                + "  imports:\n"
+                + "    - item\n"
+                + "seq:\n"
+                + "  - id: count\n"
+                + "    type: u1\n"
+                + "  - id: items\n"
+                + "    type: item\n"
+                + "    repeat: expr\n"
+                + "    repeat-expr: count\n");
+        writeDefinition(new File(directory, "lib/item.ksy"), "meta:\n"
+                + "  id: item\n"
+                + "seq:\n"
+                + "  - id: value\n"
+                + "    type: u1\n");
+        File mainFile = new File(directory, "main.ksy");
+        writeDefinition(mainFile, "meta:\n"
+                + "  id: main\n"
+                + "  imports:\n"
+                + "    - /lib/counter\n"
+                + "    - lib/item\n"
+                + "seq:\n"
+                + "  - id: first\n"
+                + "    type: item\n"
+                + "  - id: rest\n"
+                + "    type: counter\n");
+
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setImportResolver(new KsyImportResolver());
+        KaitaiCompiler.CompileResult result = compiler.compileDefinition(new DefinitionRecord("Main", mainFile.getName(), mainFile.toURI()));
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        Assert.assertEquals(2, compiler.getImportResolver().getCachedCount());
+
+        KaitaiParser.ParsingResult parsingResult = result.getParser().parse(new ByteArrayEditableData(new byte[]{7, 2, 8, 9}));
+        Assert.assertNull(parsingResult.getErrorMessage(), parsingResult.getErrorMessage());
+        Object struct = parsingResult.getStruct();
+        Object rest = struct.getClass().getMethod("rest").invoke(struct);
+        Assert.assertEquals(2, ((List<?>) rest.getClass().getMethod("items").invoke(rest)).size());
+    }
+
+    @Test
+    public void testPhaseTimings() throws Exception {
+        File cacheDirectory = Files.createTempDirectory("kaitai-cache").toFile();
+        cacheDirectory.deleteOnExit();
+        DefinitionRecord definitionRecord = createDefinition(0);
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setPrecompiledDefinitions(null);
+        compiler.setCache(new CompiledParserCache(cacheDirectory));
+
+        KaitaiCompiler.CompileResult result = compiler.compileDefinition(definitionRecord);
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        PhaseTimings timings = result.getTimings();
+        Assert.assertEquals(PhaseTimings.DefinitionSource.COMPILED, timings.getSource());
+        for (PhaseTimings.Phase phase : new PhaseTimings.Phase[]{PhaseTimings.Phase.YAML_LOADING, PhaseTimings.Phase.CLASS_SPEC, PhaseTimings.Phase.PRECOMPILE, PhaseTimings.Phase.CODE_GENERATION, PhaseTimings.Phase.JAVAC, PhaseTimings.Phase.CLASS_LOADING}) {
+            Assert.assertTrue(phase.name(), timings.getWallTime(phase) > 0);
+        }
+        Assert.assertTrue(timings.getTotalWallTime() >= timings.getWallTime(PhaseTimings.Phase.JAVAC));
+
+        KaitaiCompiler.CompileResult cachedResult = compiler.compileDefinition(definitionRecord);
+        PhaseTimings cachedTimings = cachedResult.getTimings();
+        Assert.assertEquals(PhaseTimings.DefinitionSource.CACHED, cachedTimings.getSource());
+        Assert.assertEquals(-1, cachedTimings.getWallTime(PhaseTimings.Phase.JAVAC));
+        Assert.assertTrue(cachedTimings.getWallTime(PhaseTimings.Phase.CACHE_LOADING) > 0);
+
+        KaitaiParser.ParsingResult parsingResult = cachedResult.getParser().parse(new ByteArrayEditableData(new byte[]{1, 2, 3}));
+        Assert.assertNull(parsingResult.getErrorMessage(), parsingResult.getErrorMessage());
+        PhaseTimings parseTimings = parsingResult.getTimings();
+        Assert.assertNull(parseTimings.getSource());
+        Assert.assertTrue(parseTimings.getWallTime(PhaseTimings.Phase.STREAM_SETUP) > 0);
+        Assert.assertTrue(parseTimings.getWallTime(PhaseTimings.Phase.READ) > 0);
+        Assert.assertTrue(parsingResult.getParseTime() >= parseTimings.getTotalWallTime());
+    }
+
+    @Test
+    public void testCompileToCache() throws Exception {
+        File cacheDirectory = Files.createTempDirectory("kaitai-cache").toFile();
+        cacheDirectory.deleteOnExit();
+        DefinitionRecord definitionRecord = createDefinition(1);
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setPrecompiledDefinitions(null);
+        compiler.setCache(new CompiledParserCache(cacheDirectory));
+
+        String errorMessage = compiler.compileToCache(definitionRecord);
+        Assert.assertNull(errorMessage, errorMessage);
+        Assert.assertNull(compiler.compileToCache(definitionRecord));
+
+        KaitaiCompiler.CompileResult result = compiler.compileDefinition(definitionRecord);
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        Assert.assertEquals(PhaseTimings.DefinitionSource.CACHED, result.getTimings().getSource());
+
+        File brokenFile = File.createTempFile("broken_", ".ksy");
+        writeDefinition(brokenFile, "meta:\n  id: broken\nseq:\n  - id: value\n    type: unknown_type\n");
+        Assert.assertNotNull(compiler.compileToCache(new DefinitionRecord("Broken", brokenFile.getName(), brokenFile.toURI())));
+    }
+
+    private static void assertLimitExceeded(String limitName, String field, KaitaiParser.ParsingResult result) {
+        Assert.assertNotNull(result.getErrorMessage());
+        String summary = result.getErrorSummary();
+        Assert.assertTrue(summary, summary.contains("Limit of " + limitName));
+        Assert.assertTrue(summary, summary.contains("in field " + field));
+    }
+
+    private static void writeDefinition(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DefinitionRecord createDefinition(int index) throws IOException {
+        String content = "meta:\n"
+                + "  id: sample_" + index + "\n"
+                + "  endian: le\n"
+                + "seq:\n"
+                + "  - id: value\n"
+                + "    type: u2\n"
+                + "  - id: items\n"
+                + "    type: u1\n"
+                + "    repeat: expr\n"
+                + "    repeat-expr: " + (index % 5 + 1) + "\n";
+        File file = File.createTempFile("sample_" + index + "_", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new DefinitionRecord("Sample " + index, file.getName(), file.toURI());
+    }
+}
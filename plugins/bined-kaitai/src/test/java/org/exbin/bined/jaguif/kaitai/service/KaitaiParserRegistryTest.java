@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for KaitaiParserRegistry.
+ */
+public class KaitaiParserRegistryTest {
+
+    @Test
+    public void testConcurrentRequestsCompileOnce() throws Exception {
+        DefinitionRecord definitionRecord = createDefinition("meta:\n  id: sample\n");
+        CountDownLatch requestsStarted = new CountDownLatch(1);
+        CountingCompiler compiler = new CountingCompiler(requestsStarted);
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+
+        int requestsCount = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(requestsCount);
+        try {
+            List<Future<KaitaiCompiler.CompileResult>> results = new ArrayList<>();
+            for (int i = 0; i < requestsCount; i++) {
+                results.add(executor.submit(() -> registry.getParser(definitionRecord)));
+            }
+            requestsStarted.countDown();
+
+            KaitaiParser parser = results.get(0).get(10, TimeUnit.SECONDS).getParser();
+            Assert.assertNotNull(parser);
+            for (Future<KaitaiCompiler.CompileResult> result : results) {
+                Assert.assertSame(parser, result.get(10, TimeUnit.SECONDS).getParser());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, compiler.compilations.get());
+    }
+
+    @Test
+    public void testFailedCompilationReportedToWaitingRequests() throws Exception {
+        DefinitionRecord definitionRecord = createDefinition("meta:\n  id: sample\n");
+        CountDownLatch requestsStarted = new CountDownLatch(1);
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(new FailingCompiler(requestsStarted));
+
+        int requestsCount = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(requestsCount);
+        try {
+            List<Future<KaitaiCompiler.CompileResult>> results = new ArrayList<>();
+            for (int i = 0; i < requestsCount; i++) {
+                results.add(executor.submit(() -> registry.getParser(definitionRecord)));
+            }
+            requestsStarted.countDown();
+
+            for (Future<KaitaiCompiler.CompileResult> result : results) {
+                try {
+                    KaitaiCompiler.CompileResult compileResult = result.get(10, TimeUnit.SECONDS);
+                    Assert.assertNull(compileResult.getParser());
+                    Assert.assertTrue(String.valueOf(compileResult.getErrorMessage()).contains("Compiler failure"));
+                } catch (ExecutionException ex) {
+                    // Request which performed the compilation
+                    Assert.assertEquals("Compiler failure", ex.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testChangedContentCompilesAgain() throws Exception {
+        DefinitionRecord definitionRecord = createDefinition("meta:\n  id: sample\n");
+        CountingCompiler compiler = new CountingCompiler(new CountDownLatch(0));
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+        KaitaiParser parser = registry.getParser(definitionRecord).getParser();
+        Assert.assertSame(parser, registry.getParser(definitionRecord).getParser());
+
+        Files.write(new File(definitionRecord.getUri()).toPath(), "meta:\n  id: changed\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNotSame(parser, registry.getParser(definitionRecord).getParser());
+        Assert.assertEquals(2, compiler.compilations.get());
+
+        registry.remove(definitionRecord);
+        Assert.assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testChangedImportCompilesAgain() throws Exception {
+        File importFile = File.createTempFile("imported", ".ksy");
+        importFile.deleteOnExit();
+        Files.write(importFile.toPath(), "meta:\n  id: imported\n".getBytes(StandardCharsets.UTF_8));
+        String importName = importFile.getName().substring(0, importFile.getName().length() - ".ksy".length());
+        DefinitionRecord definitionRecord = createDefinition("meta:\n  id: sample\n  imports:\n    - " + importName + "\n");
+        CountingCompiler compiler = new CountingCompiler(new CountDownLatch(0));
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+        KaitaiParser parser = registry.getParser(definitionRecord).getParser();
+        Assert.assertSame(parser, registry.getParser(definitionRecord).getParser());
+
+        Files.write(importFile.toPath(), "meta:\n  id: imported\nseq:\n  - id: value\n    type: u1\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(registry.isLoaded(definitionRecord));
+        Assert.assertNotSame(parser, registry.getParser(definitionRecord).getParser());
+        Assert.assertEquals(2, compiler.compilations.get());
+    }
+
+    @Test
+    public void testGetParserAsync() throws Exception {
+        DefinitionRecord definitionRecord = createDefinition("meta:\n  id: sample\n");
+        CountingCompiler compiler = new CountingCompiler(new CountDownLatch(0));
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+        Assert.assertFalse(registry.isLoaded(definitionRecord));
+
+        KaitaiParser parser = registry.getParserAsync(definitionRecord).get(10, TimeUnit.SECONDS).getParser();
+        Assert.assertNotNull(parser);
+        Assert.assertTrue(registry.isLoaded(definitionRecord));
+        Assert.assertEquals(1, registry.getReferenceCount(parser));
+        Assert.assertSame(parser, registry.getParser(definitionRecord).getParser());
+        Assert.assertEquals(1, compiler.compilations.get());
+
+        Files.write(new File(definitionRecord.getUri()).toPath(), "meta:\n  id: changed\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(registry.isLoaded(definitionRecord));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedUnreferencedParsers() throws Exception {
+        CountingCompiler compiler = new CountingCompiler(new CountDownLatch(0));
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+        registry.setMaxParsers(2);
+        DefinitionRecord first = createDefinition("meta:\n  id: first\n");
+        DefinitionRecord second = createDefinition("meta:\n  id: second\n");
+        DefinitionRecord third = createDefinition("meta:\n  id: third\n");
+
+        KaitaiParser firstParser = registry.getParser(first).getParser();
+        KaitaiParser secondParser = registry.getParser(second).getParser();
+        KaitaiParser thirdParser = registry.getParser(third).getParser();
+        // All parsers are in use
+        Assert.assertEquals(3, registry.size());
+        Assert.assertEquals(1, registry.getReferenceCount(firstParser));
+
+        registry.release(secondParser);
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals(-1, registry.getReferenceCount(secondParser));
+
+        registry.release(firstParser);
+        registry.release(thirdParser);
+        Assert.assertEquals(2, registry.size());
+        Assert.assertSame(firstParser, registry.getParser(first).getParser());
+        Assert.assertEquals(3, compiler.compilations.get());
+
+        registry.setMaxParsers(0);
+        Assert.assertEquals(1, registry.size());
+        Assert.assertEquals(1, registry.getReferenceCount(firstParser));
+    }
+
+    @Test
+    public void testLoadedClassesStayBounded() throws Exception {
+        int variantsCount = 200;
+        int maxParsers = 8;
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setPrecompiledDefinitions(null);
+        KaitaiParserRegistry registry = new KaitaiParserRegistry(compiler);
+        registry.setMaxParsers(maxParsers);
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        long unloadedBefore = classLoading.getUnloadedClassCount();
+
+        List<WeakReference<Class<?>>> parserClasses = new ArrayList<>();
+        for (int i = 0; i < variantsCount; i++) {
+            DefinitionRecord definitionRecord = createDefinition("meta:\n"
+                    + "  id: variant_" + i + "\n"
+                    + "seq:\n"
+                    + "  - id: value\n"
+                    + "    type: u1\n"
+                    + "    repeat: expr\n"
+                    + "    repeat-expr: " + (i % 7 + 1) + "\n");
+            KaitaiCompiler.CompileResult result = registry.getParser(definitionRecord);
+            Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+            KaitaiParser parser = result.getParser();
+            parserClasses.add(new WeakReference<>(parser.getKsyClass()));
+            registry.release(parser);
+        }
+        Assert.assertEquals(maxParsers, registry.size());
+
+        int loadedParsers = variantsCount;
+        for (int attempt = 0; attempt < 10 && loadedParsers > maxParsers; attempt++) {
+            System.gc();
+            Thread.sleep(100);
+            loadedParsers = 0;
+            for (WeakReference<Class<?>> parserClass : parserClasses) {
+                if (parserClass.get() != null) {
+                    loadedParsers++;
+                }
+            }
+        }
+        Assert.assertTrue("Loaded parsers: " + loadedParsers, loadedParsers <= maxParsers);
+        // Each evicted parser consists of definition and wrapper classes at least
+        long unloadedClasses = classLoading.getUnloadedClassCount() - unloadedBefore;
+        Assert.assertTrue("Unloaded classes: " + unloadedClasses, unloadedClasses >= 2L * (variantsCount - maxParsers));
+    }
+
+    private static DefinitionRecord createDefinition(String content) throws IOException {
+        File file = File.createTempFile("sample", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new DefinitionRecord("Sample", file.getName(), file.toURI());
+    }
+
+    private static class CountingCompiler extends KaitaiCompiler {
+
+        private final CountDownLatch requestsStarted;
+        private final AtomicInteger compilations = new AtomicInteger();
+
+        public CountingCompiler(CountDownLatch requestsStarted) {
+            this.requestsStarted = requestsStarted;
+        }
+
+        @Override
+        public CompileResult compileDefinition(DefinitionRecord definitionRecord) {
+            compilations.incrementAndGet();
+            try {
+                requestsStarted.await();
+                // Give other requests time to join the compilation
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return new CompileResult(new KaitaiParser(definitionRecord, Object.class, Object.class, Collections.emptyList()));
+        }
+    }
+
+    private static class FailingCompiler extends CountingCompiler {
+
+        public FailingCompiler(CountDownLatch requestsStarted) {
+            super(requestsStarted);
+        }
+
+        @Override
+        public CompileResult compileDefinition(DefinitionRecord definitionRecord) {
+            super.compileDefinition(definitionRecord);
+            throw new IllegalStateException("Compiler failure");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for KsyImportResolver.
+ */
+public class KsyImportResolverTest {
+
+    @Test
+    public void testResolveImports() throws IOException {
+        File directory = Files.createTempDirectory("kaitai-resolver").toFile();
+        File libraryDirectory = Files.createTempDirectory("kaitai-library").toFile();
+        File mainFile = writeDefinition(new File(directory, "formats/main.ksy"), "meta:\n  id: main\n");
+        File relativeFile = writeDefinition(new File(directory, "common/shared.ksy"), "meta:\n  id: shared\n");
+        File localAbsoluteFile = writeDefinition(new File(directory, "formats/local/local.ksy"), "meta:\n  id: local\n");
+        File libraryFile = writeDefinition(new File(libraryDirectory, "common/library.ksy"), "meta:\n  id: library\n");
+
+        KsyImportResolver resolver = new KsyImportResolver();
+        resolver.addImportPath(libraryDirectory.toURI());
+        URI mainUri = mainFile.toURI();
+        Assert.assertEquals(relativeFile.toURI(), resolver.resolveImport(mainUri, "../common/shared"));
+        Assert.assertEquals(localAbsoluteFile.toURI(), resolver.resolveImport(mainUri, "/local/local"));
+        Assert.assertEquals(libraryFile.toURI(), resolver.resolveImport(mainUri, "/common/library"));
+        Assert.assertNull(resolver.resolveImport(mainUri, "missing"));
+        Assert.assertNull(resolver.resolveImport(mainUri, "/common/missing"));
+    }
+
+    @Test
+    public void testResolveInsideJar() {
+        URI base = URI.create("jar:file:/plugins/bined-kaitai.jar!/formats/network/tcp.ksy");
+        Assert.assertEquals(URI.create("jar:file:/plugins/bined-kaitai.jar!/formats/common/vlq.ksy"), KsyImportResolver.resolve(base, "../common/vlq.ksy"));
+        Assert.assertEquals(URI.create("jar:file:/plugins/bined-kaitai.jar!/formats/network/"), KsyImportResolver.resolve(base, "./"));
+    }
+
+    @Test
+    public void testParsedDefinitionCache() throws IOException {
+        File file = writeDefinition(Files.createTempFile("kaitai-cached", ".ksy").toFile(), "meta:\n  id: first\n  imports:\n    - a\n    - /b\n");
+        KsyImportResolver resolver = new KsyImportResolver();
+        KsyImportResolver.ParsedDefinition first = resolver.getParsedDefinition(file.toURI());
+        Assert.assertSame(first, resolver.getParsedDefinition(file.toURI()));
+        Assert.assertEquals(Arrays.asList("a", "/b"), KsyImportResolver.getImports(first.getYamlSpec()));
+
+        writeDefinition(file, "meta:\n  id: second\n");
+        KsyImportResolver.ParsedDefinition second = resolver.getParsedDefinition(file.toURI());
+        Assert.assertNotSame(first, second);
+        Assert.assertNotEquals(first.getContentHash(), second.getContentHash());
+        Assert.assertEquals(1, resolver.getCachedCount());
+    }
+
+    private static File writeDefinition(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for KsyInterpreter.
+ */
+public class KsyInterpreterTest {
+
+    private static final String SAMPLE_DEFINITION = "meta:\n"
+            + "  id: sample\n"
+            + "  endian: le\n"
+            + "  encoding: ASCII\n"
+            + "seq:\n"
+            + "  - id: magic\n"
+            + "    contents: [0x4b, \"S\"]\n"
+            + "  - id: header_size\n"
+            + "    type: u2be\n"
+            + "  - id: header\n"
+            + "    type: header\n"
+            + "    size: header_size\n"
+            + "  - id: count\n"
+            + "    type: u1\n"
+            + "  - id: records\n"
+            + "    type: record\n"
+            + "    repeat: expr\n"
+            + "    repeat-expr: count\n"
+            + "  - id: names\n"
+            + "    type: strz\n"
+            + "    repeat: until\n"
+            + "    repeat-until: _ == \"end\"\n"
+            + "  - id: optional\n"
+            + "    type: u1\n"
+            + "    if: count > 5\n"
+            + "  - id: trailer\n"
+            + "    type: u1\n"
+            + "    repeat: eos\n"
+            + "types:\n"
+            + "  header:\n"
+            + "    seq:\n"
+            + "      - id: version\n"
+            + "        type: u4\n"
+            + "      - id: label\n"
+            + "        type: str\n"
+            + "        size-eos: true\n"
+            + "        pad-right: 0x20\n"
+            + "  record:\n"
+            + "    seq:\n"
+            + "      - id: kind\n"
+            + "        type: u1\n"
+            + "        enum: record_kind\n"
+            + "      - id: body\n"
+            + "        type:\n"
+            + "          switch-on: kind\n"
+            + "          cases:\n"
+            + "            record_kind::short: u2\n"
+            + "            record_kind::long: u4be\n"
+            + "            _: s1\n"
+            + "    instances:\n"
+            + "      index:\n"
+            + "        value: _parent.records.size\n"
+            + "enums:\n"
+            + "  record_kind:\n"
+            + "    1: short\n"
+            + "    2: long\n"
+            + "instances:\n"
+            + "  total:\n"
+            + "    value: header.version + count * 2\n"
+            + "  first_byte:\n"
+            + "    pos: header_size - 8\n"
+            + "    type: u1\n";
+
+    private static final byte[] SAMPLE_DATA = new byte[]{
+        0x4b, 0x53, 0, 8,
+        5, 0, 0, 0, 'a', 'b', ' ', ' ',
+        3,
+        1, 0x34, 0x12,
+        2, 0, 0, 1, 0,
+        7, (byte) 0xff,
+        'x', 0, 'e', 'n', 'd', 0,
+        9, 10
+    };
+
+    @Test
+    public void testParse() throws Exception {
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("sample", SAMPLE_DEFINITION));
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(SAMPLE_DATA));
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        InterpretedStruct struct = (InterpretedStruct) result.getStruct();
+
+        Assert.assertEquals(Arrays.asList("magic", "headerSize", "header", "count", "records", "names", "optional", "trailer", "total", "firstByte"), struct.getAttributeNames());
+        Assert.assertArrayEquals(new byte[]{0x4b, 0x53}, (byte[]) struct.getAttribute("magic"));
+        Assert.assertEquals(8, struct.getAttribute("headerSize"));
+        InterpretedStruct header = (InterpretedStruct) struct.getAttribute("header");
+        Assert.assertEquals(5L, header.getAttribute("version"));
+        Assert.assertEquals("ab", header.getAttribute("label"));
+        Assert.assertSame(struct, header._parent());
+
+        List<?> records = (List<?>) struct.getAttribute("records");
+        Assert.assertEquals(3, records.size());
+        InterpretedStruct shortRecord = (InterpretedStruct) records.get(0);
+        Assert.assertEquals("SHORT", shortRecord.getAttribute("kind").toString());
+        Assert.assertEquals(0x1234, shortRecord.getAttribute("body"));
+        Assert.assertEquals(0x100L, ((InterpretedStruct) records.get(1)).getAttribute("body"));
+        InterpretedStruct unknownRecord = (InterpretedStruct) records.get(2);
+        Assert.assertNull(unknownRecord.getAttribute("kind"));
+        Assert.assertEquals((byte) -1, unknownRecord.getAttribute("body"));
+        Assert.assertEquals(3L, unknownRecord.getAttribute("index"));
+
+        Assert.assertEquals(Arrays.asList("x", "end"), struct.getAttribute("names"));
+        Assert.assertNull(struct.getAttribute("optional"));
+        Assert.assertEquals(Arrays.asList(9, 10), struct.getAttribute("trailer"));
+
+        Assert.assertNull(struct.peekAttribute("total"));
+        Assert.assertEquals(11L, struct.getAttribute("total"));
+        Assert.assertEquals(0x4b, struct.getAttribute("firstByte"));
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("sample", SAMPLE_DEFINITION));
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(SAMPLE_DATA));
+        InterpretedStruct struct = (InterpretedStruct) result.getStruct();
+
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertEquals(Long.valueOf(2), positions.getStart("headerSize"));
+        Assert.assertEquals(Long.valueOf(4), positions.getEnd("headerSize"));
+        Assert.assertEquals(Long.valueOf(13), positions.getStart("records"));
+        Assert.assertEquals(Long.valueOf(16), positions.getStart("records", 1));
+        Assert.assertEquals(Long.valueOf(21), positions.getEnd("records", 1));
+
+        // Positions in substream are absolute
+        AttrPositions headerPositions = AttrPositions.fromStruct(struct.getAttribute("header"));
+        Assert.assertEquals(Long.valueOf(8), headerPositions.getStart("label"));
+        Assert.assertEquals(Long.valueOf(12), headerPositions.getEnd("label"));
+
+        struct.getAttribute("firstByte");
+        positions = AttrPositions.fromStruct(struct);
+        Assert.assertEquals(Long.valueOf(0), positions.getStart("firstByte"));
+    }
+
+    @Test
+    public void testExpressions() throws Exception {
+        String definition = "meta:\n"
+                + "  id: expressions\n"
+                + "seq:\n"
+                + "  - id: a\n"
+                + "    type: u1\n"
+                + "  - id: b\n"
+                + "    type: s1\n"
+                + "  - id: kind\n"
+                + "    type: u1\n"
+                + "    enum: animal\n"
+                + "enums:\n"
+                + "  animal:\n"
+                + "    4: dog\n"
+                + "instances:\n"
+                + "  arithmetic:\n"
+                + "    value: (a + 1) * 2 - b / 2 % 3\n"
+                + "  floor_div:\n"
+                + "    value: b / 2\n"
+                + "  floor_mod:\n"
+                + "    value: b % 3\n"
+                + "  bits:\n"
+                + "    value: (a << 4 | 0x3) & ~1 ^ 0b1000\n"
+                + "  ternary:\n"
+                + "    value: 'a > 3 and not (b > 0) ? \"big\" + \"!\" : \"small\"'\n"
+                + "  is_dog:\n"
+                + "    value: kind == animal::dog\n"
+                + "  kind_id:\n"
+                + "    value: kind.to_i\n";
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("expressions", definition));
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(new byte[]{5, -7, 4}));
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        InterpretedStruct struct = (InterpretedStruct) result.getStruct();
+
+        Assert.assertEquals(12L - Math.floorMod(Math.floorDiv(-7L, 2L), 3L), struct.getAttribute("arithmetic"));
+        Assert.assertEquals(-4L, struct.getAttribute("floorDiv"));
+        Assert.assertEquals(2L, struct.getAttribute("floorMod"));
+        Assert.assertEquals(((5L << 4 | 0x3) & ~1L) ^ 8L, struct.getAttribute("bits"));
+        Assert.assertEquals("big!", struct.getAttribute("ternary"));
+        Assert.assertEquals(Boolean.TRUE, struct.getAttribute("isDog"));
+        Assert.assertEquals(4L, struct.getAttribute("kindId"));
+    }
+
+    @Test
+    public void testParseFailure() throws Exception {
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("sample", SAMPLE_DEFINITION));
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(new byte[]{0x4b, 0x54, 0, 0}));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.isPartial());
+        Assert.assertEquals(0, result.getErrorPosition());
+        InterpretedStruct struct = (InterpretedStruct) result.getStruct();
+        Assert.assertNull(struct.peekAttribute("magic"));
+        Assert.assertTrue(AttrPositions.fromStruct(struct).isIncomplete("magic"));
+    }
+
+    @Test
+    public void testPartialResult() throws Exception {
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("sample", SAMPLE_DEFINITION));
+        // Data end in the body of the second record
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(Arrays.copyOf(SAMPLE_DATA, 18)));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.isPartial());
+        Assert.assertEquals(17, result.getErrorPosition());
+        InterpretedStruct struct = (InterpretedStruct) result.getStruct();
+
+        Assert.assertEquals(Arrays.asList("magic", "headerSize", "header", "count", "records", "total", "firstByte"), struct.getAttributeNames());
+        Assert.assertEquals(3, struct.getAttribute("count"));
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertFalse(positions.isIncomplete("count"));
+        Assert.assertTrue(positions.isIncomplete("records"));
+        Assert.assertEquals(1, positions.getIncompleteIndex("records"));
+
+        List<?> records = (List<?>) struct.getAttribute("records");
+        Assert.assertEquals(2, records.size());
+        InterpretedStruct record = (InterpretedStruct) records.get(1);
+        Assert.assertEquals("LONG", record.getAttribute("kind").toString());
+        Assert.assertNull(record.peekAttribute("body"));
+        Assert.assertTrue(AttrPositions.fromStruct(record).isIncomplete("body"));
+        Assert.assertEquals(-1, AttrPositions.fromStruct(records.get(0)).getIncompleteIndex("body"));
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        String repeatDefinition = "meta:\n"
+                + "  id: repeat\n"
+                + "seq:\n"
+                + "  - id: count\n"
+                + "    type: u1\n"
+                + "  - id: items\n"
+                + "    size: 0\n"
+                + "    repeat: expr\n"
+                + "    repeat-expr: count * 1000000\n";
+        KsyInterpreter interpreter = KsyInterpreter.create(createDefinition("repeat", repeatDefinition));
+        interpreter.setLimits(new ParsingLimits(0, 0, 100, 0, 0));
+        KaitaiParser.ParsingResult result = interpreter.parse(new ByteArrayEditableData(new byte[]{(byte) 0xff}));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.getErrorMessage(), result.getErrorMessage().contains("Limit of repeat elements 100 exceeded in field items at offset 0x1"));
+
+        String recursiveDefinition = "meta:\n"
+                + "  id: recursive\n"
+                + "seq:\n"
+                + "  - id: child\n"
+                + "    type: recursive\n";
+        interpreter = KsyInterpreter.create(createDefinition("recursive", recursiveDefinition));
+        interpreter.setLimits(new ParsingLimits(0, 0, 0, 16, 0));
+        result = interpreter.parse(new ByteArrayEditableData(new byte[]{0}));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.getErrorMessage(), result.getErrorMessage().contains("Limit of nesting depth 16 exceeded in field child at offset 0x0"));
+
+        interpreter = KsyInterpreter.create(createDefinition("sample", SAMPLE_DEFINITION));
+        // Total of the arrays exceeds the limit, but each array fits
+        interpreter.setLimits(new ParsingLimits(4, 0, 0, 0, 0));
+        result = interpreter.parse(new ByteArrayEditableData(SAMPLE_DATA));
+        Assert.assertNull(result.getErrorMessage(), result.getErrorMessage());
+        interpreter.setLimits(new ParsingLimits(3, 0, 0, 0, 0));
+        result = interpreter.parse(new ByteArrayEditableData(SAMPLE_DATA));
+        Assert.assertNotNull(result.getErrorMessage());
+        Assert.assertTrue(result.getErrorMessage(), result.getErrorMessage().contains("Limit of allocated bytes 3 exceeded in field label"));
+    }
+
+    @Test
+    public void testUnsupportedDefinitions() throws Exception {
+        String[] definitions = new String[]{
+            "meta:\n  id: imports\n  imports:\n    - other\nseq:\n  - id: a\n    type: other\n",
+            "meta:\n  id: params\nparams:\n  - id: size\n    type: u4\n",
+            "meta:\n  id: process\nseq:\n  - id: a\n    size: 4\n    process: xor(1)\n",
+            "meta:\n  id: bits\nseq:\n  - id: a\n    type: b3\n",
+            "meta:\n  id: no_endian\nseq:\n  - id: a\n    type: u4\n",
+            "meta:\n  id: call\nseq:\n  - id: a\n    type: u1\ninstances:\n  b:\n    value: a.as<u2>\n",
+            "meta:\n  id: unknown_type\nseq:\n  - id: a\n    type: missing\n"
+        };
+        for (String definition : definitions) {
+            try {
+                KsyInterpreter.create(createDefinition("unsupported", definition));
+                Assert.fail("Definition should not be supported: " + definition);
+            } catch (KsyInterpreter.UnsupportedDefinitionException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesCompiledParser() throws Exception {
+        DefinitionRecord definitionRecord = createDefinition("sample", SAMPLE_DEFINITION);
+        KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setPrecompiledDefinitions(null);
+        KaitaiCompiler.CompileResult compileResult = compiler.compileDefinition(definitionRecord);
+        Assert.assertNull(compileResult.getErrorMessage(), compileResult.getErrorMessage());
+        Object compiledStruct = compileResult.getParser().parse(new ByteArrayEditableData(SAMPLE_DATA)).getStruct();
+        InterpretedStruct interpretedStruct = (InterpretedStruct) KsyInterpreter.create(definitionRecord).parse(new ByteArrayEditableData(SAMPLE_DATA)).getStruct();
+
+        for (String name : interpretedStruct.getAttributeNames()) {
+            Object compiledValue = invoke(compiledStruct, name);
+            Object interpretedValue = interpretedStruct.getAttribute(name);
+            if (compiledValue instanceof byte[]) {
+                Assert.assertArrayEquals(name, (byte[]) compiledValue, (byte[]) interpretedValue);
+            } else if (compiledValue instanceof Number) {
+                Assert.assertEquals(name, ((Number) compiledValue).longValue(), ((Number) interpretedValue).longValue());
+            } else if (compiledValue instanceof String || compiledValue == null) {
+                Assert.assertEquals(name, compiledValue, interpretedValue);
+            } else if (compiledValue instanceof List) {
+                Assert.assertEquals(name, ((List<?>) compiledValue).size(), ((List<?>) interpretedValue).size());
+            }
+        }
+
+        AttrPositions compiledPositions = AttrPositions.fromStruct(compiledStruct);
+        AttrPositions interpretedPositions = AttrPositions.fromStruct(interpretedStruct);
+        for (String name : Arrays.asList("magic", "headerSize", "header", "count", "records", "names", "trailer")) {
+            Assert.assertEquals(name, compiledPositions.getStart(name), interpretedPositions.getStart(name));
+            Assert.assertEquals(name, compiledPositions.getEnd(name), interpretedPositions.getEnd(name));
+        }
+    }
+
+    private static Object invoke(Object struct, String name) throws ReflectiveOperationException {
+        Method method = struct.getClass().getMethod(name);
+        return method.invoke(struct);
+    }
+
+    private static DefinitionRecord createDefinition(String id, String content) throws IOException {
+        File file = File.createTempFile(id + "_", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new DefinitionRecord(id, file.getName(), file.toURI());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.ByteArrayKaitaiStream;
+import io.kaitai.struct.KaitaiSourceStream;
+import io.kaitai.struct.StreamLimits;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for LazyInstance.
+ */
+public class LazyInstanceTest {
+
+    private static final long TIMEOUT = 10;
+
+    @Test
+    public void testEvaluationIsMemoized() throws Exception {
+        StructAccessorTest.SampleStruct struct = new StructAccessorTest.SampleStruct(new ByteArrayKaitaiStream(new ByteArrayEditableData(new byte[]{1})), null, null);
+        struct._read();
+        StructAccessor.Attribute doubled = StructAccessor.forClass(StructAccessorTest.SampleStruct.class).getAttributes().get(0);
+        InstanceEvaluator evaluator = new InstanceEvaluator();
+        LazyInstance instance = new LazyInstance(struct, doubled.getName(), doubled);
+        Assert.assertEquals(LazyInstance.State.NOT_EVALUATED, instance.getState());
+
+        RecordingListener listener = new RecordingListener();
+        instance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(LazyInstance.State.EVALUATED, instance.getState());
+        Assert.assertEquals(2, instance.getValue());
+
+        // Evaluated value is reported immediately
+        instance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll());
+    }
+
+    @Test
+    public void testInterpretedInstance() throws Exception {
+        String definition = "meta:\n"
+                + "  id: instance\n"
+                + "  endian: le\n"
+                + "seq:\n"
+                + "  - id: a\n"
+                + "    type: u1\n"
+                + "instances:\n"
+                + "  b:\n"
+                + "    pos: 0\n"
+                + "    type: u2\n"
+                + "  c:\n"
+                + "    pos: 8\n"
+                + "    type: u2\n";
+        File file = File.createTempFile("instance_", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), definition.getBytes(StandardCharsets.UTF_8));
+        KsyInterpreter interpreter = KsyInterpreter.create(new DefinitionRecord("instance", file.getName(), file.toURI()));
+        InterpretedStruct struct = (InterpretedStruct) interpreter.parse(new ByteArrayEditableData(new byte[]{1, 2})).getStruct();
+        InstanceEvaluator evaluator = new InstanceEvaluator();
+
+        LazyInstance instance = new LazyInstance(struct, "b", null);
+        RecordingListener listener = new RecordingListener();
+        instance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(513, instance.getValue());
+        // Cancellation of the stream is restored after evaluation
+        Assert.assertNull(((KaitaiSourceStream) struct._io()).getCancellation());
+
+        LazyInstance failingInstance = new LazyInstance(struct, "c", null);
+        failingInstance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(LazyInstance.State.FAILED, failingInstance.getState());
+        Assert.assertNotNull(failingInstance.getErrorMessage());
+    }
+
+    @Test
+    public void testLimitsApplyPerEvaluation() throws Exception {
+        String definition = "meta:\n"
+                + "  id: instance\n"
+                + "  endian: le\n"
+                + "seq:\n"
+                + "  - id: a\n"
+                + "    type: u1\n"
+                + "instances:\n"
+                + "  b:\n"
+                + "    pos: 0\n"
+                + "    type: u2\n"
+                + "  c:\n"
+                + "    pos: 1\n"
+                + "    type: u2\n"
+                + "  d:\n"
+                + "    pos: 0\n"
+                + "    size: 3\n";
+        File file = File.createTempFile("instance_", ".ksy");
+        file.deleteOnExit();
+        Files.write(file.toPath(), definition.getBytes(StandardCharsets.UTF_8));
+        KsyInterpreter interpreter = KsyInterpreter.create(new DefinitionRecord("instance", file.getName(), file.toURI()));
+        InterpretedStruct struct = (InterpretedStruct) interpreter.parse(new ByteArrayEditableData(new byte[]{1, 2, 3})).getStruct();
+        KaitaiSourceStream stream = (KaitaiSourceStream) struct._io();
+        // Parsing already consumed whole limit
+        StreamLimits limits = new StreamLimits(StreamLimits.NO_LIMIT, 2, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT, StreamLimits.NO_LIMIT);
+        limits.recordRead(0, 2);
+        stream.setLimits(limits);
+        InstanceEvaluator evaluator = new InstanceEvaluator();
+
+        RecordingListener listener = new RecordingListener();
+        LazyInstance instance = new LazyInstance(struct, "b", null);
+        instance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(513, instance.getValue());
+
+        // Reads of the previous evaluation are not counted
+        LazyInstance nextInstance = new LazyInstance(struct, "c", null);
+        nextInstance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(770, nextInstance.getValue());
+
+        LazyInstance exceedingInstance = new LazyInstance(struct, "d", null);
+        exceedingInstance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(LazyInstance.State.FAILED, exceedingInstance.getState());
+
+        // Limits of the parsing are restored and unchanged
+        Assert.assertSame(limits, stream.getLimits());
+        Assert.assertEquals(2, limits.getBytesRead());
+    }
+
+    @Test
+    public void testCancelQueuedEvaluation() throws Exception {
+        StructAccessorTest.SampleStruct struct = new StructAccessorTest.SampleStruct(new ByteArrayKaitaiStream(new ByteArrayEditableData(new byte[]{1})), null, null);
+        struct._read();
+        StructAccessor.Attribute doubled = StructAccessor.forClass(StructAccessorTest.SampleStruct.class).getAttributes().get(0);
+        InstanceEvaluator evaluator = new InstanceEvaluator();
+
+        // Listener of the first evaluation blocks the lane
+        CountDownLatch blockingLatch = new CountDownLatch(1);
+        CountDownLatch blockedLatch = new CountDownLatch(1);
+        LazyInstance blockingInstance = new LazyInstance(struct, doubled.getName(), doubled);
+        blockingInstance.request(evaluator, new RecordingListener() {
+            @Override
+            public void finished(LazyInstance instance, boolean cancelled) {
+                blockedLatch.countDown();
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Assert.assertTrue(blockedLatch.await(TIMEOUT, TimeUnit.SECONDS));
+
+        LazyInstance instance = new LazyInstance(struct, doubled.getName(), doubled);
+        RecordingListener listener = new RecordingListener();
+        instance.request(evaluator, listener);
+        Assert.assertEquals(LazyInstance.State.QUEUED, instance.getState());
+        evaluator.cancelAll();
+        Assert.assertEquals(Boolean.TRUE, listener.finished.poll());
+        Assert.assertEquals(LazyInstance.State.NOT_EVALUATED, instance.getState());
+        blockingLatch.countDown();
+
+        // Cancelled instance is evaluated on next request
+        instance.request(evaluator, listener);
+        Assert.assertEquals(Boolean.FALSE, listener.finished.poll(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(2, instance.getValue());
+        Assert.assertTrue(listener.finished.isEmpty());
+    }
+
+    private static class RecordingListener implements LazyInstance.Listener {
+
+        final BlockingQueue<Boolean> finished = new LinkedBlockingQueue<>();
+
+        @Override
+        public void progressChanged(LazyInstance instance, long bytesRead) {
+        }
+
+        @Override
+        public void finished(LazyInstance instance, boolean cancelled) {
+            finished.add(cancelled);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for PhaseTimings.
+ */
+public class PhaseTimingsTest {
+
+    @Test
+    public void testAddSumsRepeatedPhases() {
+        PhaseTimings timings = new PhaseTimings();
+        timings.add(PhaseTimings.Phase.READ, 300, 10);
+        timings.add(PhaseTimings.Phase.YAML_LOADING, 100, 20);
+        timings.add(PhaseTimings.Phase.READ, 200, 5);
+
+        Assert.assertEquals(Arrays.asList(PhaseTimings.Phase.YAML_LOADING, PhaseTimings.Phase.READ), timings.getPhases());
+        Assert.assertEquals(500, timings.getWallTime(PhaseTimings.Phase.READ));
+        Assert.assertEquals(15, timings.getAllocatedBytes(PhaseTimings.Phase.READ));
+        Assert.assertEquals(600, timings.getTotalWallTime());
+        Assert.assertEquals(-1, timings.getWallTime(PhaseTimings.Phase.JAVAC));
+        Assert.assertEquals(-1, timings.getAllocatedBytes(PhaseTimings.Phase.JAVAC));
+
+        timings.add(PhaseTimings.Phase.READ, 100, -1);
+        Assert.assertEquals(-1, timings.getAllocatedBytes(PhaseTimings.Phase.READ));
+    }
+
+    @Test
+    public void testRecordMeasuresCurrentThread() {
+        PhaseTimings timings = new PhaseTimings();
+        long startTime = System.nanoTime();
+        long startAllocatedBytes = PhaseTimings.getCurrentThreadAllocatedBytes();
+        byte[][] data = new byte[64][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[1024];
+        }
+        timings.record(PhaseTimings.Phase.STREAM_SETUP, startTime, startAllocatedBytes);
+
+        Assert.assertTrue(timings.getWallTime(PhaseTimings.Phase.STREAM_SETUP) >= 0);
+        if (startAllocatedBytes >= 0) {
+            Assert.assertTrue(timings.getAllocatedBytes(PhaseTimings.Phase.STREAM_SETUP) >= 64 * 1024);
+        }
+        Assert.assertEquals(64, data.length);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for PrecompiledDefinitions.
+ */
+public class PrecompiledDefinitionsTest {
+
+    private static final String RESOURCE_PATH = "test/precompiled/";
+
+    @Test
+    public void testLoadIndexedDefinition() throws IOException {
+        File directory = createResourceDirectory();
+        writeIndex(directory, "# comment\nabc123\timage/sample.ksy\n\nbroken\tother.ksy\n");
+        CompiledDefinition definition = new CompiledDefinition(Collections.singletonMap("test.Data", new byte[] {1, 2, 3}), Arrays.asList("param"));
+        try (OutputStream output = new FileOutputStream(new File(directory, RESOURCE_PATH + "abc123" + PrecompiledDefinitions.ENTRY_SUFFIX))) {
+            definition.write(output);
+        }
+        Files.write(new File(directory, RESOURCE_PATH + "broken" + PrecompiledDefinitions.ENTRY_SUFFIX).toPath(), new byte[] {0, 1});
+
+        PrecompiledDefinitions precompiledDefinitions = new PrecompiledDefinitions(createClassLoader(directory), RESOURCE_PATH);
+        Assert.assertEquals(2, precompiledDefinitions.size());
+        Assert.assertEquals("image/sample.ksy", precompiledDefinitions.getPath("abc123"));
+
+        CompiledDefinition loaded = precompiledDefinitions.load("abc123");
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(Arrays.asList("param"), loaded.getParamNames());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, loaded.getClasses().get("test.Data"));
+        Assert.assertNull(precompiledDefinitions.load("broken"));
+        Assert.assertNull(precompiledDefinitions.load("missing"));
+    }
+
+    @Test
+    public void testMissingIndex() throws IOException {
+        PrecompiledDefinitions precompiledDefinitions = new PrecompiledDefinitions(createClassLoader(createResourceDirectory()), RESOURCE_PATH);
+        Assert.assertEquals(0, precompiledDefinitions.size());
+        Assert.assertFalse(precompiledDefinitions.contains("abc123"));
+        Assert.assertNull(precompiledDefinitions.load("abc123"));
+    }
+
+    private static File createResourceDirectory() throws IOException {
+        File directory = Files.createTempDirectory("kaitai-precompiled").toFile();
+        new File(directory, RESOURCE_PATH).mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static void writeIndex(File directory, String content) throws IOException {
+        Files.write(new File(directory, RESOURCE_PATH + PrecompiledDefinitions.INDEX_RESOURCE).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ClassLoader createClassLoader(File directory) throws IOException {
+        return new URLClassLoader(new URL[] {directory.toURI().toURL()}, null);
+    }
+}
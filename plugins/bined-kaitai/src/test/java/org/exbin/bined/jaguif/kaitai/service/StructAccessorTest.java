@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.service;
+
+import io.kaitai.struct.ByteArrayKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.exbin.auxiliary.binary_data.array.ByteArrayEditableData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for StructAccessor.
+ */
+public class StructAccessorTest {
+
+    @Test
+    public void testAccessorIsCached() {
+        Assert.assertSame(StructAccessor.forClass(SampleStruct.class), StructAccessor.forClass(SampleStruct.class));
+    }
+
+    @Test
+    public void testCreateAndRead() {
+        StructAccessor accessor = StructAccessor.forClass(SampleStruct.class);
+        Object struct = accessor.createRoot(new ByteArrayKaitaiStream(new ByteArrayEditableData(new byte[]{1, 2, 3})));
+        Assert.assertTrue(struct instanceof SampleStruct);
+        accessor.read(struct);
+
+        List<StructAccessor.Attribute> attributes = accessor.getAttributes();
+        Assert.assertEquals(2, attributes.size());
+        // Generated classes declare instances before sequence
+        StructAccessor.Attribute doubled = attributes.get(0);
+        StructAccessor.Attribute magic = attributes.get(1);
+        Assert.assertEquals("doubled", doubled.getName());
+        Assert.assertEquals(0, doubled.getOrder());
+        Assert.assertEquals("magic", magic.getName());
+        Assert.assertEquals(1, magic.getOrder());
+        Assert.assertTrue(doubled.isInstance());
+        Assert.assertFalse(magic.isInstance());
+
+        Assert.assertEquals(1, magic.getStoredValue(struct));
+        // Instance is not evaluated until accessed by its getter
+        Assert.assertNull(doubled.getStoredValue(struct));
+        Assert.assertEquals(2, doubled.getValue(struct));
+        Assert.assertEquals(2, doubled.getStoredValue(struct));
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        StructAccessor accessor = StructAccessor.forClass(SampleStruct.class);
+        Assert.assertTrue(accessor.hasPositions());
+        SampleStruct struct = new SampleStruct(new ByteArrayKaitaiStream(new ByteArrayEditableData(new byte[]{1})), null, null);
+        struct._read();
+        Assert.assertSame(struct._attrStart, accessor.getAttrStart(struct));
+
+        AttrPositions positions = AttrPositions.fromStruct(struct);
+        Assert.assertEquals(Long.valueOf(0), positions.getStart("magic"));
+        Assert.assertEquals(Long.valueOf(1), positions.getEnd("magic"));
+    }
+
+    @Test(expected = NoSuchFieldException.class)
+    public void testMissingPositions() throws Exception {
+        Assert.assertFalse(StructAccessor.forClass(String.class).hasPositions());
+        AttrPositions.fromStruct("text");
+    }
+
+    /**
+     * Structure in form of the class generated by Kaitai compiler.
+     */
+    public static class SampleStruct extends KaitaiStruct.ReadOnly {
+
+        public static String[] _seqFields = new String[]{"magic"};
+        public Map<String, Integer> _attrStart = new HashMap<>();
+        public Map<String, Integer> _attrEnd = new HashMap<>();
+        public Map<String, ArrayList<Integer>> _arrStart = new HashMap<>();
+        public Map<String, ArrayList<Integer>> _arrEnd = new HashMap<>();
+
+        public SampleStruct(KaitaiStream _io, KaitaiStruct.ReadOnly _parent, SampleStruct _root) {
+            super(_io);
+        }
+
+        @Override
+        public void _read() {
+            _attrStart.put("magic", (int) _io.pos());
+            this.magic = _io.readU1();
+            _attrEnd.put("magic", (int) _io.pos());
+        }
+
+        private Integer doubled;
+
+        public Integer doubled() {
+            if (this.doubled != null) {
+                return this.doubled;
+            }
+            this.doubled = magic() * 2;
+            return this.doubled;
+        }
+
+        private int magic;
+
+        public int magic() {
+            return magic;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) ExBin Project, https://exbin.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.exbin.bined.jaguif.kaitai.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.exbin.bined.jaguif.kaitai.DefinitionRecord;
+import org.exbin.bined.jaguif.kaitai.service.CompiledDefinition;
+import org.exbin.bined.jaguif.kaitai.service.KaitaiCompiler;
+import org.exbin.bined.jaguif.kaitai.service.PrecompiledDefinitions;
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Build tool compiling bundled definitions to bytecode.
+ * <p>
+ * Arguments: directory with formats.txt and definitions, output directory
+ * for precompiled resources.
+ */
+@NullMarked
+public class PrecompileFormats {
+
+    private static final String FORMATS_LIST = "formats.txt";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: PrecompileFormats <formats directory> <output directory>");
+            System.exit(1);
+        }
+
+        File formatsDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Unable to create output directory " + outputDirectory);
+        }
+
+        final KaitaiCompiler compiler = new KaitaiCompiler();
+        compiler.setCache(null);
+        compiler.setPrecompiledDefinitions(null);
+        final List<String> javacOptions = getJavacOptions();
+
+        List<String> paths = readFormatsList(new File(formatsDirectory, FORMATS_LIST));
+        Map<String, Future<String>> tasks = new TreeMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (final String path : paths) {
+                final File file = new File(formatsDirectory, path);
+                tasks.put(path, executor.submit(() -> {
+                    DefinitionRecord definitionRecord = new DefinitionRecord(file.getName(), file.getName(), file.toURI());
+                    String definitionKey = compiler.getDefinitionKey(definitionRecord);
+                    CompiledDefinition compiledDefinition = compiler.compileBytecode(definitionRecord, javacOptions);
+                    try (OutputStream output = new BufferedOutputStream(new FileOutputStream(new File(outputDirectory, definitionKey + PrecompiledDefinitions.ENTRY_SUFFIX)))) {
+                        compiledDefinition.write(output);
+                    }
+                    return definitionKey;
+                }));
+            }
+
+            Map<String, String> index = new TreeMap<>();
+            Map<String, String> failures = new TreeMap<>();
+            for (Map.Entry<String, Future<String>> task : tasks.entrySet()) {
+                try {
+                    index.put(task.getValue().get(), task.getKey());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    String message = cause.getMessage();
+                    failures.put(task.getKey(), cause.getClass().getSimpleName() + (message == null ? "" : ": " + message.split("\n", 2)[0]));
+                }
+            }
+
+            writeIndex(new File(outputDirectory, PrecompiledDefinitions.INDEX_RESOURCE), index);
+
+            System.out.println("Precompiled " + index.size() + " of " + paths.size() + " bundled definitions");
+            if (!failures.isEmpty()) {
+                System.out.println("Failed to compile " + failures.size() + " definitions:");
+                for (Map.Entry<String, String> failure : failures.entrySet()) {
+                    System.out.println("  " + failure.getKey() + " - " + failure.getValue());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads paths of definitions from formats list.
+     * <p>
+     * List alternates lines with path and title, directories end with slash.
+     *
+     * @param listFile formats list file
+     * @return relative paths of definitions
+     * @throws IOException if reading fails
+     */
+    private static List<String> readFormatsList(File listFile) throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(".ksy")) {
+                    paths.add(line);
+                }
+                // Skip title line
+                reader.readLine();
+            }
+        }
+        return paths;
+    }
+
+    private static void writeIndex(File indexFile, Map<String, String> index) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8)) {
+            writer.write("# Precompiled Kaitai definitions: key, path\n");
+            for (Map.Entry<String, String> entry : index.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Returns options producing bytecode loadable by the oldest supported
+     * java version regardless of the java used for build.
+     *
+     * @return java compiler options
+     */
+    private static List<String> getJavacOptions() {
+        String specificationVersion = System.getProperty("java.specification.version", "");
+        if (specificationVersion.startsWith("1.")) {
+            return Arrays.asList("-source", "1.8", "-target", "1.8");
+        }
+        return Arrays.asList("--release", "8");
+    }
+}